@@ -0,0 +1,97 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.benchmark;
+
+import org.opentripplanner.ConstantsForTests;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.util.TestUtils;
+
+import java.util.Random;
+
+/**
+ * The graphs shared by the benchmarks. Each one is built once per benchmark JVM, the first time it is requested.
+ *
+ * The Portland graph from ConstantsForTests has the TriMet GTFS feed but no streets, so it is used for the transit
+ * benchmarks. There is no Portland OpenStreetMap extract among the test resources, so the street benchmarks use the
+ * Columbus extract from FakeGraph with a grid of perpendicular transit routes linked into it.
+ */
+public class BenchmarkGraphs {
+
+    /** A pair of TriMet stops on the MAX trunk, and a time at which trains run between them. */
+    public static final String PORTLAND_FROM_STOP = "8371";
+    public static final String PORTLAND_TO_STOP = "8374";
+    public static final long PORTLAND_TIME =
+            TestUtils.dateInSeconds("America/Los_Angeles", 2009, 11, 1, 12, 34, 25);
+
+    /** A box around downtown Columbus, well inside the street extract, in which the street benchmarks pick locations. */
+    public static final double COLUMBUS_MIN_LAT = 39.93;
+    public static final double COLUMBUS_MAX_LAT = 39.98;
+    public static final double COLUMBUS_MIN_LON = -83.02;
+    public static final double COLUMBUS_MAX_LON = -82.96;
+
+    private static Graph portland;
+
+    private static Graph columbus;
+
+    /** @return the indexed Portland transit graph. */
+    public static synchronized Graph portland() {
+        if (portland == null) {
+            portland = ConstantsForTests.getInstance().getPortlandGraph();
+            if (portland.index == null) {
+                portland.index(new DefaultStreetVertexIndexFactory());
+            }
+        }
+        return portland;
+    }
+
+    /** @return the indexed Columbus street graph with transit. */
+    public static synchronized Graph columbus() {
+        if (columbus == null) {
+            try {
+                Graph graph = FakeGraph.buildGraphNoTransit();
+                FakeGraph.addPerpendicularRoutes(graph);
+                FakeGraph.link(graph);
+                graph.index(new DefaultStreetVertexIndexFactory());
+                columbus = graph;
+            } catch (Exception e) {
+                throw new RuntimeException("Could not build the Columbus benchmark graph.", e);
+            }
+        }
+        return columbus;
+    }
+
+    /** @return n reproducible pseudo-random locations in the Columbus benchmark box. */
+    public static GenericLocation[] columbusLocations(int n, long seed) {
+        Random random = new Random(seed);
+        GenericLocation[] locations = new GenericLocation[n];
+        for (int i = 0; i < n; i++) {
+            double lat = COLUMBUS_MIN_LAT + random.nextDouble() * (COLUMBUS_MAX_LAT - COLUMBUS_MIN_LAT);
+            double lon = COLUMBUS_MIN_LON + random.nextDouble() * (COLUMBUS_MAX_LON - COLUMBUS_MIN_LON);
+            locations[i] = new GenericLocation(lat, lon);
+        }
+        return locations;
+    }
+
+    /** @return the Portland stop vertex with the given GTFS stop ID. */
+    public static Vertex portlandStop(String stopId) {
+        Graph graph = portland();
+        String feedId = graph.getFeedIds().iterator().next();
+        return graph.getVertex(feedId + ":" + stopId);
+    }
+
+}
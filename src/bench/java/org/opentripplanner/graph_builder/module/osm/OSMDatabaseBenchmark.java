@@ -0,0 +1,105 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module.osm;
+
+import org.opentripplanner.graph_builder.module.FakeGraph;
+import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMWay;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.net.URLDecoder;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the OSM node stores on the Columbus extract: the time to load it into an OSMDatabase, and the time to fetch
+ * every node of every way as the street graph build does. At the end of the trial the heap retained by the last
+ * database loaded is printed, which is the figure that matters for country-sized extracts. Run with -prof gc to see
+ * allocation as well.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class OSMDatabaseBenchmark {
+
+    @Param({"MAP", "COMPACT"})
+    public String store;
+
+    private File file;
+
+    private long baseHeap;
+
+    private OSMDatabase osmdb;
+
+    @Setup
+    public void setup() throws Exception {
+        file = new File(URLDecoder.decode(FakeGraph.class.getResource("columbus.osm.pbf").getFile(), "UTF-8"));
+        baseHeap = usedHeap();
+        osmdb = load();
+    }
+
+    @TearDown
+    public void tearDown() {
+        long retained = usedHeap() - baseHeap;
+        System.out.printf("%n%s node store: %d ways, %.1f MB retained%n", store, osmdb.getWays().size(),
+                retained / 1024.0 / 1024.0);
+    }
+
+    @Benchmark
+    public OSMDatabase load() {
+        // drop the previous database first so that it does not count towards the retained heap
+        osmdb = null;
+        OSMDatabase db = new OSMDatabase("COMPACT".equals(store) ? new CompactOSMNodeStore() : new MapOSMNodeStore());
+        new AnyFileBasedOpenStreetMapProviderImpl(file).readOSM(db);
+        osmdb = db;
+        return db;
+    }
+
+    @Benchmark
+    public double fetchWayNodes() {
+        double sum = 0;
+        for (OSMWay way : osmdb.getWays()) {
+            for (int i = 0; i < way.getNodeRefCount(); i++) {
+                OSMNode node = osmdb.getNode(way.getNodeRef(i));
+                if (node != null)
+                    sum += node.lat;
+            }
+        }
+        return sum;
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,100 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.joda.time.LocalDate;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.benchmark.BenchmarkGraphs;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures RaptorWorker.runRaptor over the Portland timetables: one RAPTOR search per minute of the departure window
+ * followed by propagation to the vertices. The Portland graph has no streets, so the search starts directly at the
+ * benchmark origin stop rather than at stops found by a street search. The RaptorWorkerData is built once per trial.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RaptorWorkerBenchmark {
+
+    /** The width of the departure time window, in minutes. */
+    @Param({"60", "120"})
+    public int windowMinutes;
+
+    private Graph graph;
+
+    private ProfileRequest request;
+
+    private RaptorWorkerData data;
+
+    private TIntIntMap accessTimes;
+
+    private int[] nonTransitTimes;
+
+    @Setup
+    public void setup() {
+        graph = BenchmarkGraphs.portland();
+
+        request = new ProfileRequest();
+        Vertex origin = BenchmarkGraphs.portlandStop(BenchmarkGraphs.PORTLAND_FROM_STOP);
+        request.fromLat = request.toLat = origin.getLat();
+        request.fromLon = request.toLon = origin.getLon();
+        request.date = new LocalDate(2009, 12, 1);
+        request.fromTime = 7 * 3600;
+        request.toTime = request.fromTime + windowMinutes * 60;
+        request.walkSpeed = 1.3f;
+        request.bikeSpeed = 4.1f;
+        request.maxWalkTime = 20;
+        request.transitModes = new TraverseModeSet("TRANSIT");
+        request.accessModes = request.egressModes = request.directModes = new QualifiedModeSet("WALK");
+        request.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+
+        data = RepeatedRaptorProfileRouter.getRaptorWorkerData(request, graph, null, new TaskStatistics());
+
+        accessTimes = new TIntIntHashMap();
+        accessTimes.put(data.indexForStop.get(origin.getIndex()), 0);
+        nonTransitTimes = new int[Vertex.getMaxIndex()];
+        Arrays.fill(nonTransitTimes, Integer.MAX_VALUE);
+        nonTransitTimes[origin.getIndex()] = 0;
+    }
+
+    @Benchmark
+    public PropagatedTimesStore runRaptor() {
+        RaptorWorker worker = new RaptorWorker(data, request);
+        return worker.runRaptor(graph, accessTimes, nonTransitTimes, new TaskStatistics());
+    }
+
+}
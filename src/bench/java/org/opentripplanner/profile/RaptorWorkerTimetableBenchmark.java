@@ -0,0 +1,109 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.profile;
+
+import org.joda.time.LocalDate;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.benchmark.BenchmarkGraphs;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Vertex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures RaptorWorkerTimetable.findDepartureAfter and a ride along the rest of the pattern, which is what
+ * RaptorWorker.doOneRound does for each touched pattern, on the Portland timetables for a morning peak window.
+ * Together with RaptorWorkerBenchmark this shows the effect of the timetable memory layout.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RaptorWorkerTimetableBenchmark {
+
+    private static final int N_SAMPLES = 1000;
+
+    private RaptorWorkerTimetable[] timetables = new RaptorWorkerTimetable[N_SAMPLES];
+
+    private int[] stops = new int[N_SAMPLES];
+
+    private int[] times = new int[N_SAMPLES];
+
+    @Setup
+    public void setup() {
+        ProfileRequest request = new ProfileRequest();
+        Vertex origin = BenchmarkGraphs.portlandStop(BenchmarkGraphs.PORTLAND_FROM_STOP);
+        request.fromLat = request.toLat = origin.getLat();
+        request.fromLon = request.toLon = origin.getLon();
+        request.date = new LocalDate(2009, 12, 1);
+        request.fromTime = 7 * 3600;
+        request.toTime = 9 * 3600;
+        request.transitModes = new TraverseModeSet("TRANSIT");
+        request.accessModes = request.egressModes = request.directModes = new QualifiedModeSet("WALK");
+        RaptorWorkerData data = RepeatedRaptorProfileRouter
+                .getRaptorWorkerData(request, BenchmarkGraphs.portland(), null, new TaskStatistics());
+
+        Random random = new Random(45);
+        for (int i = 0; i < N_SAMPLES; i++) {
+            RaptorWorkerTimetable timetable;
+            do {
+                timetable = data.timetablesForPattern.get(random.nextInt(data.nPatterns));
+            } while (!timetable.hasScheduledTrips());
+            timetables[i] = timetable;
+            stops[i] = random.nextInt(timetable.nStops - 1);
+            times[i] = request.fromTime + random.nextInt(request.toTime - request.fromTime);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_SAMPLES)
+    public void findDepartureAfter(Blackhole blackhole) {
+        for (int i = 0; i < N_SAMPLES; i++) {
+            blackhole.consume(timetables[i].findDepartureAfter(stops[i], times[i]));
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_SAMPLES)
+    public void boardAndRide(Blackhole blackhole) {
+        for (int i = 0; i < N_SAMPLES; i++) {
+            RaptorWorkerTimetable timetable = timetables[i];
+            int trip = timetable.findDepartureAfter(stops[i], times[i]);
+            if (trip == -1)
+                continue;
+            int arrivals = 0;
+            for (int stop = stops[i] + 1; stop < timetable.nStops; stop++) {
+                arrivals += timetable.getArrival(trip, stop);
+            }
+            blackhole.consume(arrivals);
+        }
+    }
+
+}
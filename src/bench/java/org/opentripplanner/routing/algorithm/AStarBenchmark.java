@@ -0,0 +1,98 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm;
+
+import org.opentripplanner.benchmark.BenchmarkGraphs;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures AStar.getShortestPathTree for point to point searches. Street modes search between pseudo-random pairs
+ * of locations in the Columbus graph, cycling through the same pairs in every run. TRANSIT searches between two
+ * stops in the Portland graph.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AStarBenchmark {
+
+    private static final int N_LOCATIONS = 64;
+
+    @Param({"WALK", "BICYCLE", "CAR", "TRANSIT"})
+    public TraverseMode mode;
+
+    private Graph graph;
+
+    private GenericLocation[] locations;
+
+    private int next = 0;
+
+    private Vertex fromStop;
+
+    private Vertex toStop;
+
+    @Setup
+    public void setup() {
+        if (mode == TraverseMode.TRANSIT) {
+            graph = BenchmarkGraphs.portland();
+            fromStop = BenchmarkGraphs.portlandStop(BenchmarkGraphs.PORTLAND_FROM_STOP);
+            toStop = BenchmarkGraphs.portlandStop(BenchmarkGraphs.PORTLAND_TO_STOP);
+        } else {
+            graph = BenchmarkGraphs.columbus();
+            locations = BenchmarkGraphs.columbusLocations(N_LOCATIONS, 42);
+        }
+    }
+
+    @Benchmark
+    public ShortestPathTree getShortestPathTree() {
+        RoutingRequest options;
+        if (mode == TraverseMode.TRANSIT) {
+            options = new RoutingRequest();
+            options.dateTime = BenchmarkGraphs.PORTLAND_TIME;
+            options.setRoutingContext(graph, fromStop, toStop);
+        } else {
+            options = new RoutingRequest(mode);
+            options.from = locations[next];
+            options.to = locations[(next + 1) % N_LOCATIONS];
+            next = (next + 1) % N_LOCATIONS;
+            options.setRoutingContext(graph);
+        }
+        try {
+            return new AStar().getShortestPathTree(options);
+        } finally {
+            options.rctx.destroy();
+        }
+    }
+
+}
@@ -0,0 +1,149 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.StreetTraversal;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares traversing a street edge through a StateEditor with computing the traversal into a reusable
+ * StreetTraversal record, both for a single edge and for whole street searches on a grid.
+ *
+ * Run it with the GC profiler to see the allocations per traversal (gc.alloc.rate.norm, in bytes per operation):
+ * mvn -Pbenchmark test-compile exec:exec -Djmh.args="StreetEdgeTraversal -prof gc"
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreetEdgeTraversalBenchmark {
+
+    /** The number of intersections along each side of the square grid. */
+    private static final int GRID_SIZE = 60;
+
+    /** Grid spacing in degrees, about 100 meters. */
+    private static final double SPACING = 0.001;
+
+    @Param({"WALK", "BICYCLE", "CAR"})
+    public TraverseMode mode;
+
+    private Graph graph;
+
+    private IntersectionVertex[][] grid;
+
+    /** A state that has arrived at the middle of the grid over a street edge, so turn costs are computed. */
+    private State s0;
+
+    /** The edge traversed from s0 in the single edge benchmarks. */
+    private StreetEdge edge;
+
+    private final StreetTraversal scratch = new StreetTraversal();
+
+    private RoutingRequest fullRequest;
+
+    private RoutingRequest lightweightRequest;
+
+    @Setup
+    public void setup() {
+        graph = new Graph();
+        grid = new IntersectionVertex[GRID_SIZE][GRID_SIZE];
+        for (int x = 0; x < GRID_SIZE; x++) {
+            for (int y = 0; y < GRID_SIZE; y++) {
+                grid[x][y] = new IntersectionVertex(graph, "v" + x + "_" + y, x * SPACING, 45 + y * SPACING);
+            }
+        }
+        for (int x = 0; x < GRID_SIZE; x++) {
+            for (int y = 0; y < GRID_SIZE; y++) {
+                if (x + 1 < GRID_SIZE) street(grid[x][y], grid[x + 1][y]);
+                if (y + 1 < GRID_SIZE) street(grid[x][y], grid[x][y + 1]);
+            }
+        }
+
+        int mid = GRID_SIZE / 2;
+        RoutingRequest request = new RoutingRequest(mode);
+        request.setRoutingContext(graph, grid[mid - 1][mid], grid[GRID_SIZE - 1][GRID_SIZE - 1]);
+        State initial = new State(request);
+        StreetEdge approach = outgoing(grid[mid - 1][mid], grid[mid][mid]);
+        s0 = approach.traverse(initial);
+        // Turn onto the cross street at the middle intersection.
+        edge = outgoing(grid[mid][mid], grid[mid][mid + 1]);
+
+        fullRequest = new RoutingRequest(mode);
+        fullRequest.setRoutingContext(graph, grid[0][0], grid[GRID_SIZE - 1][GRID_SIZE - 1]);
+        lightweightRequest = fullRequest.clone();
+        lightweightRequest.lightweightStreetTraversal = true;
+    }
+
+    @Benchmark
+    public State traverseWithStateEditor() {
+        return edge.traverse(s0);
+    }
+
+    @Benchmark
+    public double traverseIntoScratch() {
+        edge.traverse(s0, scratch);
+        return scratch.weight;
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ShortestPathTree searchWithStateEditor() {
+        return new AStar().getShortestPathTree(fullRequest);
+    }
+
+    @Benchmark
+    @OutputTimeUnit(TimeUnit.MILLISECONDS)
+    public ShortestPathTree searchWithLightweightTraversal() {
+        return new AStar().getShortestPathTree(lightweightRequest);
+    }
+
+    private void street(IntersectionVertex a, IntersectionVertex b) {
+        String name = a.getLabel() + "-" + b.getLabel();
+        double length = SPACING * 111000;
+        new StreetEdge(a, b, GeometryUtils.makeLineString(a.getX(), a.getY(), b.getX(), b.getY()), name, length,
+                StreetTraversalPermission.ALL, false);
+        new StreetEdge(b, a, GeometryUtils.makeLineString(b.getX(), b.getY(), a.getX(), a.getY()), name, length,
+                StreetTraversalPermission.ALL, true);
+    }
+
+    private static StreetEdge outgoing(IntersectionVertex from, IntersectionVertex to) {
+        for (Edge e : from.getOutgoingStreetEdges()) {
+            if (e.getToVertex() == to) return (StreetEdge) e;
+        }
+        throw new IllegalStateException("No street from " + from + " to " + to);
+    }
+
+}
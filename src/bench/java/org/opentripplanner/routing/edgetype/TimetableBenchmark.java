@@ -0,0 +1,100 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.edgetype;
+
+import org.opentripplanner.benchmark.BenchmarkGraphs;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.trippattern.TripTimes;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Timetable.getNextTrip on the Portland scheduled timetables, for a fixed pseudo-random sample of patterns
+ * and stops, all searched at the same time of day. Each operation is a single call.
+ */
+@org.openjdk.jmh.annotations.State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TimetableBenchmark {
+
+    private static final int N_SAMPLES = 1000;
+
+    @Param({"true", "false"})
+    public boolean boarding;
+
+    private State s0;
+
+    private ServiceDay serviceDay;
+
+    private Timetable[] timetables = new Timetable[N_SAMPLES];
+
+    private int[] stopIndexes = new int[N_SAMPLES];
+
+    @Setup
+    public void setup() {
+        Graph graph = BenchmarkGraphs.portland();
+        RoutingRequest options = new RoutingRequest();
+        options.dateTime = BenchmarkGraphs.PORTLAND_TIME;
+        options.setRoutingContext(graph, BenchmarkGraphs.portlandStop(BenchmarkGraphs.PORTLAND_FROM_STOP),
+                BenchmarkGraphs.portlandStop(BenchmarkGraphs.PORTLAND_TO_STOP));
+        s0 = new State(options);
+        for (ServiceDay sd : options.rctx.serviceDays) {
+            int secondsSinceMidnight = sd.secondsSinceMidnight(BenchmarkGraphs.PORTLAND_TIME);
+            if (secondsSinceMidnight >= 0 && secondsSinceMidnight < 24 * 3600) {
+                serviceDay = sd;
+            }
+        }
+
+        List<TripPattern> patterns = new ArrayList<>(graph.index.patternForId.values());
+        Random random = new Random(42);
+        for (int i = 0; i < N_SAMPLES; i++) {
+            TripPattern pattern = patterns.get(random.nextInt(patterns.size()));
+            timetables[i] = pattern.scheduledTimetable;
+            // Boarding is not possible at the last stop, nor alighting at the first.
+            int nHops = pattern.getStops().size() - 1;
+            stopIndexes[i] = random.nextInt(nHops) + (boarding ? 0 : 1);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(N_SAMPLES)
+    public void getNextTrip(Blackhole blackhole) {
+        for (int i = 0; i < N_SAMPLES; i++) {
+            TripTimes tripTimes = timetables[i].getNextTrip(s0, serviceDay, stopIndexes[i], boarding);
+            blackhole.consume(tripTimes);
+        }
+    }
+
+}
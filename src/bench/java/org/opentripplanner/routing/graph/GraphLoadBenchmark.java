@@ -0,0 +1,71 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.benchmark.BenchmarkGraphs;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures Graph.load, including rebuilding the graph index, for the benchmark graphs saved in each graph file format.
+ * Loading is slow and has large one-off costs, so each measurement is a single load.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 10)
+@Fork(1)
+public class GraphLoadBenchmark {
+
+    @Param({"portland", "columbus"})
+    public String graph;
+
+    @Param({"JAVA", "COMPACT"})
+    public GraphFormat format;
+
+    private File file;
+
+    @Setup
+    public void setup() throws IOException {
+        Graph source = "portland".equals(graph) ? BenchmarkGraphs.portland() : BenchmarkGraphs.columbus();
+        file = File.createTempFile("otp-benchmark-" + graph, ".obj");
+        source.save(file, format);
+    }
+
+    @TearDown
+    public void tearDown() {
+        file.delete();
+    }
+
+    @Benchmark
+    public Graph load() throws IOException, ClassNotFoundException {
+        return Graph.load(file, Graph.LoadLevel.FULL);
+    }
+
+}
@@ -0,0 +1,101 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import org.opentripplanner.benchmark.BenchmarkGraphs;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.standalone.Router;
+import org.opentripplanner.util.TestUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures GraphPathFinder.getPaths, which runs the repeated searches and heuristics behind a trip plan. The Portland
+ * benchmark plans between two stops on the transit-only graph. The Columbus benchmark plans walk and transit trips
+ * between pseudo-random pairs of locations, so it also includes linking the origin and destination into the streets.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GraphPathFinderBenchmark {
+
+    private static final int N_LOCATIONS = 64;
+
+    /** A weekday morning on which the Columbus routes run. */
+    private static final long COLUMBUS_TIME = TestUtils.dateInSeconds("America/New_York", 2015, 5, 10, 8, 0, 0);
+
+    private GraphPathFinder portlandFinder;
+
+    private GraphPathFinder columbusFinder;
+
+    private String feedId;
+
+    private GenericLocation[] locations;
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        portlandFinder = new GraphPathFinder(new Router("portland", BenchmarkGraphs.portland()));
+        feedId = BenchmarkGraphs.portland().getFeedIds().iterator().next();
+        columbusFinder = new GraphPathFinder(new Router("columbus", BenchmarkGraphs.columbus()));
+        locations = BenchmarkGraphs.columbusLocations(N_LOCATIONS, 43);
+    }
+
+    @Benchmark
+    public List<GraphPath> portlandTransit() {
+        RoutingRequest options = new RoutingRequest("WALK,TRANSIT");
+        options.dateTime = BenchmarkGraphs.PORTLAND_TIME;
+        options.from = new GenericLocation(null, feedId + ":" + BenchmarkGraphs.PORTLAND_FROM_STOP);
+        options.to = new GenericLocation(null, feedId + ":" + BenchmarkGraphs.PORTLAND_TO_STOP);
+        return getPaths(portlandFinder, options);
+    }
+
+    @Benchmark
+    public List<GraphPath> columbusWalkTransit() {
+        RoutingRequest options = new RoutingRequest("WALK,TRANSIT");
+        options.dateTime = COLUMBUS_TIME;
+        options.from = locations[next];
+        options.to = locations[(next + 1) % N_LOCATIONS];
+        next = (next + 1) % N_LOCATIONS;
+        return getPaths(columbusFinder, options);
+    }
+
+    private static List<GraphPath> getPaths(GraphPathFinder finder, RoutingRequest options) {
+        try {
+            return finder.getPaths(options);
+        } finally {
+            if (options.rctx != null) {
+                options.rctx.destroy();
+            }
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import org.opentripplanner.benchmark.BenchmarkGraphs;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.services.StreetVertexIndexService;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures StreetVertexIndexServiceImpl.getVertexForLocation, which links a coordinate into the Columbus streets with
+ * temporary edges. The temporary vertex is disposed of after each call so that the graph does not grow.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class StreetVertexIndexServiceBenchmark {
+
+    private static final int N_LOCATIONS = 1024;
+
+    @Param({"WALK", "CAR"})
+    public String modes;
+
+    private StreetVertexIndexService index;
+
+    private RoutingRequest options;
+
+    private GenericLocation[] locations;
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        Graph graph = BenchmarkGraphs.columbus();
+        index = graph.streetIndex;
+        options = new RoutingRequest(modes);
+        locations = BenchmarkGraphs.columbusLocations(N_LOCATIONS, 44);
+    }
+
+    @Benchmark
+    public Vertex getVertexForLocation() {
+        GenericLocation location = locations[next];
+        next = (next + 1) % N_LOCATIONS;
+        Vertex vertex = index.getVertexForLocation(location, options, false);
+        if (vertex instanceof TemporaryVertex) {
+            ((TemporaryVertex) vertex).dispose();
+        }
+        return vertex;
+    }
+
+}
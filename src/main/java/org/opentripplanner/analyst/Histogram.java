@@ -3,10 +3,13 @@ package org.opentripplanner.analyst;
 import com.fasterxml.jackson.core.JsonGenerationException;
 import com.fasterxml.jackson.core.JsonGenerator;
 import org.opentripplanner.analyst.core.WeightingFunction;
+import org.opentripplanner.common.geometry.DlugoszVarLenIntPacker;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.IdentityHashMap;
@@ -156,4 +159,21 @@ public class Histogram implements Serializable {
         }
         jgen.writeEndArray();
     }
+
+    /**
+     * Write this pair of histograms in compact binary form, as the differences between successive bins, which are
+     * small since the weighting function smooths the histograms.
+     */
+    public void writeBinary(OutputStream out) throws IOException {
+        DlugoszVarLenIntPacker.writeDeltas(out, counts);
+        DlugoszVarLenIntPacker.writeDeltas(out, sums);
+    }
+
+    /** Read a pair of histograms written by writeBinary. */
+    public static Histogram readBinary(InputStream in) throws IOException {
+        Histogram histogram = new Histogram();
+        histogram.counts = DlugoszVarLenIntPacker.readDeltas(in);
+        histogram.sums = DlugoszVarLenIntPacker.readDeltas(in);
+        return histogram;
+    }
 }
@@ -9,11 +9,14 @@ import org.geotools.geojson.feature.FeatureJSON;
 import org.opentripplanner.analyst.core.IsochroneData;
 import org.opentripplanner.api.resource.LIsochrone;
 import org.opentripplanner.api.resource.SurfaceResource;
+import org.opentripplanner.common.geometry.DlugoszVarLenIntPacker;
 import org.opentripplanner.common.geometry.ZSampleGrid;
 import org.opentripplanner.profile.IsochroneGenerator;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.Serializable;
@@ -216,6 +219,55 @@ public class ResultSet implements Serializable{
         }
     }
 
+    /**
+     * Write this ResultSet in compact binary form: the histograms, and the times to reach every point as the
+     * differences between the times to successive points. Isochrones are not included.
+     */
+    public void writeBinary(DataOutputStream out) throws IOException {
+        out.writeBoolean(id != null);
+        if (id != null)
+            out.writeUTF(id);
+
+        DlugoszVarLenIntPacker.write(out, histograms.size());
+        for (Map.Entry<String, Histogram> entry : histograms.entrySet()) {
+            out.writeUTF(entry.getKey());
+            entry.getValue().writeBinary(out);
+        }
+
+        out.writeBoolean(times != null);
+        if (times != null) {
+            // Unreached points would make for two large differences each, write them as -1 instead.
+            int[] encoded = new int[times.length];
+            for (int i = 0; i < times.length; i++) {
+                encoded[i] = times[i] == Integer.MAX_VALUE ? -1 : times[i];
+            }
+            DlugoszVarLenIntPacker.writeDeltas(out, encoded);
+        }
+    }
+
+    /** Read a ResultSet written by writeBinary. */
+    public static ResultSet readBinary(DataInputStream in) throws IOException {
+        ResultSet resultSet = new ResultSet();
+        if (in.readBoolean())
+            resultSet.id = in.readUTF();
+
+        int nHistograms = DlugoszVarLenIntPacker.read(in);
+        for (int i = 0; i < nHistograms; i++) {
+            String key = in.readUTF();
+            resultSet.histograms.put(key, Histogram.readBinary(in));
+        }
+
+        if (in.readBoolean()) {
+            int[] times = DlugoszVarLenIntPacker.readDeltas(in);
+            for (int i = 0; i < times.length; i++) {
+                if (times[i] == -1)
+                    times[i] = Integer.MAX_VALUE;
+            }
+            resultSet.times = times;
+        }
+        return resultSet;
+    }
+
     /** Write the isochrones as GeoJSON */
     public void writeIsochrones(JsonGenerator jgen) throws IOException {
         if (this.isochrones == null)
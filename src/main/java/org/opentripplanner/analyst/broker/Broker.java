@@ -6,14 +6,9 @@ import com.amazonaws.services.ec2.AmazonEC2Client;
 import com.amazonaws.services.ec2.model.*;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.collect.ArrayListMultimap;
-import com.google.common.collect.HashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.collect.TreeMultimap;
-import gnu.trove.map.TIntIntMap;
-import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.TObjectLongMap;
-import gnu.trove.map.hash.TIntIntHashMap;
-import gnu.trove.map.hash.TIntObjectHashMap;
 import gnu.trove.map.hash.TObjectLongHashMap;
 import org.glassfish.grizzly.http.server.Request;
 import org.glassfish.grizzly.http.server.Response;
@@ -31,6 +26,11 @@ import java.io.*;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
  * This class tracks incoming requests from workers to consume Analyst tasks, and attempts to match those
@@ -53,6 +53,12 @@ import java.util.*;
  *
  * It may also be helpful to mark jobs every time they are skipped in the LRU queue. Each time a job is serviced,
  * it is taken out of the queue and put at its end. Jobs that have not been serviced float to the top.
+ *
+ * Hundreds of workers poll the broker and complete tasks at the same time, so the broker is not one big monitor.
+ * Waiting consumers, priority task responses and the index from tasks to jobs are held in concurrent collections,
+ * each job guards its own task queues, and the counters are atomic. Only the rotation of jobs and the high-priority
+ * queues are guarded by the monitor of the Broker, which is never held while writing to a connection: the delivery
+ * thread only matches tasks to consumers, and the tasks are written out to them by a pool of delivery threads.
  */
 public class Broker implements Runnable {
 
@@ -74,11 +80,31 @@ public class Broker implements Runnable {
      */
     public static final long WORKER_STARTUP_TIME = 60 * 60 * 1000;
 
-    private int nUndeliveredTasks = 0; // Including normal priority jobs and high-priority tasks.
+    /** The number of threads writing tasks out to consumer connections. */
+    private static final int N_DELIVERY_THREADS = 4;
+
+    private final AtomicInteger nUndeliveredTasks = new AtomicInteger(); // Including normal priority jobs and high-priority tasks.
+
+    private final AtomicInteger nWaitingConsumers = new AtomicInteger(); // including some that might be closed
+
+    private final AtomicInteger nextTaskId = new AtomicInteger();
 
-    private int nWaitingConsumers = 0; // including some that might be closed
+    /** Jobs by ID, so that they can be found without holding the monitor that guards the rotation of jobs. */
+    private final Map<String, Job> jobsById = new ConcurrentHashMap<>();
 
-    private int nextTaskId = 0;
+    /** The job containing each task, so that completed tasks are found without a search through all the jobs. */
+    private final Map<Integer, Job> jobsByTaskId = new ConcurrentHashMap<>();
+
+    /** Writes tasks out to consumers, so that slow connections do not hold up the matching of tasks to consumers. */
+    private final ExecutorService deliveryExecutor = Executors.newFixedThreadPool(N_DELIVERY_THREADS);
+
+    /**
+     * Signals the delivery thread that something has changed (new tasks or consumers) since it last matched tasks to
+     * consumers. Guarded by its own monitor rather than that of the Broker, so signalling never waits on delivery.
+     */
+    private final Object deliverySignal = new Object();
+
+    private boolean deliveryPending = false;
 
     /** Maximum number of workers allowed */
     private int maxWorkers;
@@ -102,9 +128,6 @@ public class Broker implements Runnable {
 
     private WorkerCatalog workerCatalog = new WorkerCatalog();
 
-    /** The time at which each task was delivered to a worker, to allow re-delivery. */
-    TIntIntMap deliveryTimes = new TIntIntHashMap();
-
     /**
      * Requests that are not part of a job and can "cut in line" in front of jobs for immediate execution.
      * When a high priority task is first received, we attempt to send it to a worker right away via
@@ -123,16 +146,16 @@ public class Broker implements Runnable {
     private Multimap<String, AnalystClusterRequest> newHighPriorityTasks = ArrayListMultimap.create();
 
     /** Priority requests that have already been farmed out to workers, and are awaiting a response. */
-    private TIntObjectMap<Response> highPriorityResponses = new TIntObjectHashMap<>();
+    private Map<Integer, Response> highPriorityResponses = new ConcurrentHashMap<>();
 
     /** Outstanding requests from workers for tasks, grouped by worker graph affinity. */
-    Map<String, Deque<Response>> consumersByGraph = new HashMap<>();
+    Map<String, Deque<Response>> consumersByGraph = new ConcurrentHashMap<>();
 
     /**
      * Side channels used to send single point requests to workers, cutting in front of any other work on said workers.
      * We use a TreeMultimap because it is ordered, and the wrapped response defines an order based on
      * machine ID. This way, the same machine will tend to get all single point work for a graph,
-     * so multiple machines won't stay alive to do single point work.
+     * so multiple machines won't stay alive to do single point work. Guarded by its own monitor.
      */
     private Multimap<String, WrappedResponse> singlePointChannels = TreeMultimap.create();
 
@@ -226,7 +249,7 @@ public class Broker implements Runnable {
         // note that this will mean that requests get delivered multiple times in offline mode,
         // so some unnecessary computation takes place
         if (workersAvailable || workOffline) {
-            task.taskId = nextTaskId++;
+            task.taskId = nextTaskId.getAndIncrement();
             newHighPriorityTasks.put(task.graphId, task);
             highPriorityResponses.put(task.taskId, response);
 
@@ -243,80 +266,93 @@ public class Broker implements Runnable {
     }
 
     /** attempt to deliver high priority tasks via side channels, or move them into normal channels if need be */
-    public synchronized void deliverHighPriorityTasks (String graphId) {
-        Collection<AnalystClusterRequest> tasks = newHighPriorityTasks.get(graphId);
+    public void deliverHighPriorityTasks (String graphId) {
+        List<AnalystClusterRequest> tasks;
+        synchronized (this) {
+            // copy, as removeAll would otherwise leave us with a view of an empty collection
+            tasks = new ArrayList<>(newHighPriorityTasks.removeAll(graphId));
+        }
 
         if (tasks.isEmpty())
             // someone got here first
             return;
 
         // try to deliver via side channels
-        Collection<WrappedResponse> wrs = singlePointChannels.get(graphId);
-
-        if (!wrs.isEmpty()) {
-            // there is (probably) a single point machine waiting to receive this
-            WrappedResponse wr = wrs.iterator().next();
+        WrappedResponse wr = null;
+        synchronized (singlePointChannels) {
+            Collection<WrappedResponse> wrs = singlePointChannels.get(graphId);
+            if (!wrs.isEmpty()) {
+                // there is (probably) a single point machine waiting to receive this
+                wr = wrs.iterator().next();
+                // remove responses whether they are dead or alive
+                singlePointChannels.remove(graphId, wr);
+            }
+        }
 
+        if (wr != null) {
             try {
                 wr.response.setContentType("application/json");
                 OutputStream os = wr.response.getOutputStream();
                 mapper.writeValue(os, tasks);
                 os.close();
                 wr.response.resume();
-
-                newHighPriorityTasks.removeAll(graphId);
-
                 return;
             } catch (Exception e) {
                 LOG.info("Failed to deliver single point job via side channel, reverting to normal channel", e);
-            } finally {
-                // remove responses whether they are dead or alive
-                removeSinglePointChannel(graphId, wr);
             }
         }
 
         // if we got here we didn't manage to send it via side channel, put it in the rotation for normal channels
-        // not using putAll as it retains a link to the original collection and then we get a concurrent modification exception later.
-        tasks.forEach(t -> stalledHighPriorityTasks.put(graphId, t));
         LOG.info("No side channel available for graph {}, delivering {} tasks via normal channel",
                 graphId, tasks.size());
-        nUndeliveredTasks += tasks.size();
-        newHighPriorityTasks.removeAll(graphId);
+        stallHighPriorityTasks(tasks);
+    }
 
+    /** Put high priority tasks in the rotation for normal channels, ahead of any job. */
+    private void stallHighPriorityTasks (List<AnalystClusterRequest> tasks) {
+        synchronized (this) {
+            tasks.forEach(t -> stalledHighPriorityTasks.put(t.graphId, t));
+        }
+        nUndeliveredTasks.addAndGet(tasks.size());
         // wake up delivery thread
-        notify();
+        signalDelivery();
     }
 
     /** Enqueue some tasks for queued execution possibly much later. Results will be saved to S3. */
-    public synchronized void enqueueTasks (List<AnalystClusterRequest> tasks) {
-        Job job = findJob(tasks.get(0)); // creates one if it doesn't exist
+    public void enqueueTasks (List<AnalystClusterRequest> tasks) {
+        Job job;
+        // The tasks are added and counted under the same monitor as deleteJob, so a job deleted concurrently either
+        // never sees these tasks or has them subtracted from the undelivered count along with the rest.
+        synchronized (this) {
+            job = findJob(tasks.get(0)); // creates one if it doesn't exist
+            for (AnalystClusterRequest task : tasks) {
+                task.taskId = nextTaskId.getAndIncrement();
+                jobsByTaskId.put(task.taskId, job);
+                job.addTask(task);
+                LOG.debug("Enqueued task id {} in job {}", task.taskId, job.jobId);
+                if ( ! task.graphId.equals(job.graphId)) {
+                    LOG.warn("Task graph ID {} does not match job graph ID {}.", task.graphId, job.graphId);
+                }
+            }
+            nUndeliveredTasks.addAndGet(tasks.size());
+        }
 
         if (!workersAvailableForGraph(job.graphId))
             createWorkersForGraph(job.graphId);
 
-        for (AnalystClusterRequest task : tasks) {
-            task.taskId = nextTaskId++;
-            job.addTask(task);
-            nUndeliveredTasks += 1;
-            LOG.debug("Enqueued task id {} in job {}", task.taskId, job.jobId);
-            if ( ! task.graphId.equals(job.graphId)) {
-                LOG.warn("Task graph ID {} does not match job graph ID {}.", task.graphId, job.graphId);
-            }
-        }
         // Wake up the delivery thread if it's waiting on input.
-        // This wakes whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
+        signalDelivery();
     }
 
     public boolean workersAvailableForGraph (String graphId) {
         // make sure that we don't assign work to dead workers
         workerCatalog.purgeDeadWorkers();
 
-        return !workerCatalog.workersByGraph.get(graphId).isEmpty();
+        return workerCatalog.hasWorkersForGraph(graphId);
     }
 
     /** Create workers for a given job, if need be */
-    public void createWorkersForGraph (String graphId) {
+    public synchronized void createWorkersForGraph (String graphId) {
         String clientToken = UUID.randomUUID().toString().replaceAll("-", "");
 
         if (workOffline) {
@@ -324,7 +360,7 @@ public class Broker implements Runnable {
             return;
         }
 
-        if (workerCatalog.observationsByWorkerId.size() >= maxWorkers) {
+        if (workerCatalog.getWorkerCount() >= maxWorkers) {
             LOG.warn("{} workers already started, not starting more; jobs on graph {} will not complete", maxWorkers, graphId);
             return;
         }
@@ -390,7 +426,7 @@ public class Broker implements Runnable {
     }
 
     /** Consumer long-poll operations are enqueued here. */
-    public synchronized void registerSuspendedResponse(String graphId, Response response) {
+    public void registerSuspendedResponse(String graphId, Response response) {
         // Add this worker to our catalog, tracking its graph affinity and the last time it was seen.
         String workerId = response.getRequest().getHeader(AnalystWorker.WORKER_ID_HEADER);
         if (workerId != null && !workerId.isEmpty()) {
@@ -400,59 +436,105 @@ public class Broker implements Runnable {
             return;
         }
         // Shelf this suspended response in a queue grouped by graph affinity.
-        Deque<Response> deque = consumersByGraph.get(graphId);
-        if (deque == null) {
-            deque = new ArrayDeque<>();
-            consumersByGraph.put(graphId, deque);
-        }
-        deque.addLast(response);
-        nWaitingConsumers += 1;
+        consumersByGraph.computeIfAbsent(graphId, g -> new ConcurrentLinkedDeque<>()).addLast(response);
+        nWaitingConsumers.incrementAndGet();
         // Wake up the delivery thread if it's waiting on consumers.
-        // This is whatever thread called wait() while holding the monitor for this Broker object.
-        notify();
+        signalDelivery();
     }
 
     /** When we notice that a long poll connection has closed, we remove it here. */
-    public synchronized boolean removeSuspendedResponse(String graphId, Response response) {
+    public boolean removeSuspendedResponse(String graphId, Response response) {
         Deque<Response> deque = consumersByGraph.get(graphId);
         if (deque == null) {
             return false;
         }
+        // Only one of this and the delivery thread can succeed in removing a given response from the deque.
         if (deque.remove(response)) {
-            nWaitingConsumers -= 1;
+            nWaitingConsumers.decrementAndGet();
             LOG.debug("Removed closed connection from queue.");
-            logQueueStatus();
             return true;
         }
         return false;
     }
 
+    /**
+     * Take a waiting consumer off the queue for the given graph, or for any graph if graphId is null.
+     * @return the consumer, or null if there is none.
+     */
+    private Response pollConsumer (String graphId) {
+        Response consumer = null;
+        if (graphId != null) {
+            Deque<Response> consumers = consumersByGraph.get(graphId);
+            if (consumers != null)
+                consumer = consumers.pollFirst();
+        } else {
+            for (Deque<Response> consumers : consumersByGraph.values()) {
+                consumer = consumers.pollFirst();
+                if (consumer != null)
+                    break;
+            }
+        }
+        if (consumer != null)
+            nWaitingConsumers.decrementAndGet();
+        return consumer;
+    }
+
+    private boolean hasConsumers (String graphId) {
+        Deque<Response> consumers = consumersByGraph.get(graphId);
+        return consumers != null && !consumers.isEmpty();
+    }
+
     /**
      * Register an HTTP connection that can be used to send single point requests directly to
      * workers, bypassing normal task distribution channels.
      */
-    public synchronized void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
-        singlePointChannels.put(graphAffinity, response);
+    public void registerSinglePointChannel (String graphAffinity,WrappedResponse response) {
+        synchronized (singlePointChannels) {
+            singlePointChannels.put(graphAffinity, response);
+        }
         // no need to notify as the side channels are not used by the normal task delivery loop
     }
 
     /**
      * Remove a single point channel because the connection was closed.
      */
-    public synchronized boolean removeSinglePointChannel (String graphAffinity, WrappedResponse response) {
-        return singlePointChannels.remove(graphAffinity, response);
+    public boolean removeSinglePointChannel (String graphAffinity, WrappedResponse response) {
+        synchronized (singlePointChannels) {
+            return singlePointChannels.remove(graphAffinity, response);
+        }
     }
 
+    /** Must be called while holding the monitor of this Broker, which guards the high-priority queues. */
     private void logQueueStatus() {
-        LOG.info("{} undelivered, of which {} high-priority", nUndeliveredTasks,
+        LOG.info("{} undelivered, of which {} high-priority", nUndeliveredTasks.get(),
                 stalledHighPriorityTasks.size());
-        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nWaitingConsumers);
+        LOG.info("{} producers waiting, {} consumers waiting", highPriorityResponses.size(), nWaitingConsumers.get());
         LOG.info("{} total workers", workerCatalog.size());
     }
 
+    /** Tell the delivery thread that there may be new tasks or consumers to match. */
+    private void signalDelivery () {
+        synchronized (deliverySignal) {
+            deliveryPending = true;
+            deliverySignal.notify();
+        }
+    }
+
+    /**
+     * Wait until something has changed since the delivery thread last matched tasks to consumers, or until it is time
+     * to check for tasks to re-deliver.
+     */
+    private void awaitDeliverySignal () throws InterruptedException {
+        synchronized (deliverySignal) {
+            if (!deliveryPending)
+                deliverySignal.wait(REDELIVERY_INTERVAL_SEC * 1000);
+            deliveryPending = false;
+        }
+    }
+
     /**
      *  Check whether there are any delivered tasks that have reached their invisibility timeout but have not yet been
-     *  marked complete. Enqueue those tasks for redelivery.
+     *  marked complete. Enqueue those tasks for redelivery. Must be called while holding the monitor of this Broker.
      */
     private void redeliver() {
         if (System.currentTimeMillis() > nextRedeliveryCheckTime) {
@@ -461,182 +543,168 @@ public class Broker implements Runnable {
             int nRedelivered = 0;
             int nInvisible = 0;
             for (Job job : jobs) {
-                nInvisible += job.invisibleUntil.size();
+                nInvisible += job.getInFlightTaskCount();
                 nRedelivered += job.redeliver();
             }
             LOG.info("{} tasks enqueued for redelivery out of {} invisible tasks.", nRedelivered, nInvisible);
-            nUndeliveredTasks += nRedelivered;
+            nUndeliveredTasks.addAndGet(nRedelivered);
         }
     }
 
     /**
      * This method checks whether there are any high-priority tasks or normal job tasks and attempts to match them with
-     * waiting workers. It blocks until there are tasks or workers available.
+     * waiting workers. It blocks until something changes or it is time to check for re-delivery. Only the matching is
+     * done here; the tasks are written to the consumers by the delivery executor.
      */
-    public synchronized void deliverTasks() throws InterruptedException {
+    public void deliverTasks() throws InterruptedException {
 
-        // Wait until there are some undelivered tasks.
-        while (nUndeliveredTasks == 0) {
-            LOG.debug("Task delivery thread is going to sleep, there are no tasks waiting for delivery.");
-            logQueueStatus();
-            wait();
-            redeliver();
-        }
-        LOG.debug("Task delivery thread is awake and there are some undelivered tasks.");
-        logQueueStatus();
+        // Wait until there are new tasks or consumers.
+        awaitDeliverySignal();
 
-        while (nWaitingConsumers == 0) {
-            LOG.debug("Task delivery thread is going to sleep, there are no consumers waiting.");
-            // Thread will be notified when there are new incoming consumer connections.
-            wait();
-        }
+        synchronized (this) {
+            redeliver();
 
-        LOG.debug("Task delivery thread awake; consumers are waiting and tasks are available");
-
-        // Loop over all jobs and send them to consumers
-        // This makes for an as-fair-as-possible allocation: jobs are fairly allocated between
-        // workers on their graph.
-
-        // start with high-priority tasks
-        HIGHPRIORITY: for (Map.Entry<String, Collection<AnalystClusterRequest>> e : stalledHighPriorityTasks
-                .asMap().entrySet()) {
-            // the collection is an arraylist with the most recently added at the end
-            String graphId = e.getKey();
-            Collection<AnalystClusterRequest> tasks = e.getValue();
-
-            // see if there are any consumers for this
-            // don't respect graph affinity when working offline; we can't arbitrarily start more workers
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
+            if (nUndeliveredTasks.get() == 0) {
+                LOG.debug("Task delivery thread is going to sleep, there are no tasks waiting for delivery.");
+                logQueueStatus();
+                return;
             }
-
-            if (consumers == null || consumers.isEmpty()) {
-                LOG.warn("No consumer found for graph {}, needed for {} high-priority tasks", graphId, tasks.size());
-                continue HIGHPRIORITY;
+            if (nWaitingConsumers.get() == 0) {
+                LOG.debug("Task delivery thread is going to sleep, there are no consumers waiting.");
+                return;
             }
 
-            Iterator<AnalystClusterRequest> taskIt = tasks.iterator();
-            while (taskIt.hasNext() && !consumers.isEmpty()) {
-                Response consumer = consumers.pop();
+            LOG.debug("Task delivery thread awake; consumers are waiting and tasks are available");
+            logQueueStatus();
 
-                // package tasks into a job
-                Job job = new Job("HIGH PRIORITY");
-                job.graphId = graphId;
-                for (int i = 0; i < MAX_TASKS_PER_WORKER && taskIt.hasNext(); i++) {
-                    job.addTask(taskIt.next());
-                    taskIt.remove();
+            // Loop over all jobs and send them to consumers
+            // This makes for an as-fair-as-possible allocation: jobs are fairly allocated between
+            // workers on their graph.
+
+            // start with high-priority tasks
+            HIGHPRIORITY: for (Map.Entry<String, Collection<AnalystClusterRequest>> e : stalledHighPriorityTasks
+                    .asMap().entrySet()) {
+                // the collection is an arraylist with the most recently added at the end
+                String graphId = e.getKey();
+                Collection<AnalystClusterRequest> tasks = e.getValue();
+
+                // see if there are any consumers for this
+                // don't respect graph affinity when working offline; we can't arbitrarily start more workers
+                String consumerGraphId = workOffline ? null : graphId;
+
+                Iterator<AnalystClusterRequest> taskIt = tasks.iterator();
+                while (taskIt.hasNext()) {
+                    Response consumer = pollConsumer(consumerGraphId);
+                    if (consumer == null) {
+                        LOG.warn("No consumer found for graph {}, needed for {} high-priority tasks", graphId,
+                                tasks.size());
+                        continue HIGHPRIORITY;
+                    }
+
+                    // package tasks into a batch
+                    List<AnalystClusterRequest> batch = new ArrayList<>();
+                    for (int i = 0; i < MAX_TASKS_PER_WORKER && taskIt.hasNext(); i++) {
+                        batch.add(taskIt.next());
+                        taskIt.remove();
+                    }
+
+                    // TODO inefficiency here: we should mix single point and multipoint in the same response
+                    nUndeliveredTasks.addAndGet(-batch.size());
+                    deliveryExecutor.execute(() -> deliver(null, batch, consumer));
                 }
-
-                // TODO inefficiency here: we should mix single point and multipoint in the same response
-                deliver(job, consumer);
-                nWaitingConsumers--;
-            }
-        }
-
-        // deliver low priority tasks
-        while (nWaitingConsumers > 0) {
-            // ensure we advance at least one; advanceToElement will not advance if the predicate passes
-            // for the first element.
-            jobs.advance();
-
-            // find a job that both has visible tasks and has available workers
-            // We don't respect graph affinity when working offline, because we can't start more workers
-            Job current;
-            if (!workOffline) {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty() &&
-                        consumersByGraph.containsKey(e.graphId) &&
-                        !consumersByGraph.get(e.graphId).isEmpty());
-            }
-            else {
-                current = jobs.advanceToElement(e -> !e.tasksAwaitingDelivery.isEmpty());
             }
 
-            // nothing to see here
-            if (current == null) break;
+            // deliver low priority tasks
+            while (nWaitingConsumers.get() > 0) {
+                // ensure we advance at least one; advanceToElement will not advance if the predicate passes
+                // for the first element.
+                jobs.advance();
+
+                // find a job that both has visible tasks and has available workers
+                // We don't respect graph affinity when working offline, because we can't start more workers
+                Job current = jobs.advanceToElement(e -> e.hasTasksAwaitingDelivery() &&
+                        (workOffline || hasConsumers(e.graphId)));
+
+                // nothing to see here
+                if (current == null) break;
+
+                Response consumer = pollConsumer(workOffline ? null : current.graphId);
+                if (consumer == null) {
+                    // The consumer disconnected since we checked. Look for another job with consumers, unless any
+                    // consumer would have done.
+                    if (workOffline) break;
+                    continue;
+                }
 
-            Deque<Response> consumers;
-            if (!workOffline)
-                consumers = consumersByGraph.get(current.graphId);
-            else {
-                Optional<Deque<Response>> opt = consumersByGraph.values().stream().filter(c -> !c.isEmpty()).findFirst();
-                if (opt.isPresent()) consumers = opt.get();
-                else consumers = null;
+                // deliver this job to only one consumer
+                // This way if there are multiple workers and multiple jobs the jobs will be fairly distributed, more or less
+                List<AnalystClusterRequest> tasks = current.pollTasksForDelivery(MAX_TASKS_PER_WORKER);
+                nUndeliveredTasks.addAndGet(-tasks.size());
+                deliveryExecutor.execute(() -> deliver(current, tasks, consumer));
             }
-            // deliver this job to only one consumer
-            // This way if there are multiple workers and multiple jobs the jobs will be fairly distributed, more or less
-            deliver(current, consumers.pop());
-            nWaitingConsumers--;
-        }
-
-        // TODO: graph switching
 
-        // we've delivered everything we can, prevent anything else from happening until something changes
-        wait();
+            // TODO: graph switching
+        }
     }
 
     /**
-     * This uses a linear search through jobs, which should not be problematic unless there are thousands of
-     * simultaneous jobs.
+     * This uses the index from tasks to jobs rather than a search through all the jobs.
      * @return a Job object that contains the given task ID.
      */
     public Job getJobForTask (int taskId) {
-        for (Job job : jobs) {
-            if (job.containsTask(taskId)) {
-                return job;
-            }
-        }
-        return null;
+        return jobsByTaskId.get(taskId);
     }
 
     /**
-     * Attempt to hand some tasks from the given job to a waiting consumer connection.
+     * Attempt to hand some tasks to a waiting consumer connection. This is called on the delivery executor, without
+     * holding the monitor of the Broker.
      * The write will fail if the consumer has closed the connection but it hasn't been removed from the connection
-     * queue yet. This can happen because the Broker methods are synchronized, and the removal action may be waiting
-     * to get the monitor while we are trying to distribute tasks here.
+     * queue yet. In that case the tasks are put back on the queue they came from: the given job, or the high-priority
+     * queue if job is null.
      * @return whether the handoff succeeded.
      */
-    public synchronized boolean deliver (Job job, Response response) {
+    boolean deliver (Job job, List<AnalystClusterRequest> tasks, Response response) {
+
+        boolean delivered = false;
 
         // Check up-front whether the connection is still open.
         if (!response.getRequest().getRequest().getConnection().isOpen()) {
             LOG.debug("Consumer connection was closed. It will be removed.");
-            return false;
+        } else {
+            // Attempt to deliver the tasks to the given consumer.
+            try {
+                response.setStatus(HttpStatus.OK_200);
+                OutputStream out = response.getOutputStream();
+                mapper.writeValue(out, tasks);
+                response.resume();
+                delivered = true;
+            } catch (IOException e) {
+                // The connection was probably closed by the consumer, but treat it as a server error.
+                LOG.debug("Consumer connection caused IO error, it will be removed.");
+                response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
+                response.resume();
+            }
         }
 
-        // Get up to N tasks from the tasksAwaitingDelivery deque
-        List<AnalystClusterRequest> tasks = new ArrayList<>();
-        while (tasks.size() < MAX_TASKS_PER_WORKER && !job.tasksAwaitingDelivery.isEmpty()) {
-            tasks.add(job.tasksAwaitingDelivery.poll());
+        if (delivered) {
+            // The tasks were already marked delivered when they were taken off the job queue.
+            LOG.debug("Delivery of {} tasks succeeded.", tasks.size());
+            return true;
         }
 
-        // Attempt to deliver the tasks to the given consumer.
-        try {
-            response.setStatus(HttpStatus.OK_200);
-            OutputStream out = response.getOutputStream();
-            mapper.writeValue(out, tasks);
-            response.resume();
-        } catch (IOException e) {
-            // The connection was probably closed by the consumer, but treat it as a server error.
-            LOG.debug("Consumer connection caused IO error, it will be removed.");
-            response.setStatus(HttpStatus.INTERNAL_SERVER_ERROR_500);
-            response.resume();
-            // Delivery failed, put tasks back on (the end of) the queue.
-            job.tasksAwaitingDelivery.addAll(tasks);
-            return false;
+        // Delivery failed, put tasks back on (the end of) the queue.
+        if (job == null) {
+            stallHighPriorityTasks(tasks);
+        } else {
+            synchronized (this) {
+                // If the job was deleted while the tasks were out for delivery, deleteJob has already settled its
+                // count of undelivered tasks, so the tasks must not be counted again.
+                if (jobsById.get(job.jobId) != job) return false;
+                nUndeliveredTasks.addAndGet(job.requeueUndeliveredTasks(tasks));
+            }
+            signalDelivery();
         }
-
-        // Delivery succeeded, move tasks from undelivered to delivered status
-        LOG.debug("Delivery of {} tasks succeeded.", tasks.size());
-        nUndeliveredTasks -= tasks.size();
-        job.markTasksDelivered(tasks);
-
-        return true;
-
+        return false;
     }
 
     /**
@@ -644,7 +712,7 @@ public class Broker implements Runnable {
      * TODO maybe use unique delivery receipts instead of task IDs to handle redelivered tasks independently
      * @return whether the task was found and removed.
      */
-    public synchronized boolean markTaskCompleted (int taskId) {
+    public boolean markTaskCompleted (int taskId) {
         Job job = getJobForTask(taskId);
         if (job == null) {
             LOG.error("Could not find a job containing task {}, and therefore could not mark the task as completed.");
@@ -661,7 +729,7 @@ public class Broker implements Runnable {
      * without blocking the broker thread.
      * TODO rename to "deregisterSuspendedProducer" and "deregisterSuspendedConsumer" ?
      */
-    public synchronized Response deletePriorityTask (int taskId) {
+    public Response deletePriorityTask (int taskId) {
         return highPriorityResponses.remove(taskId);
     }
 
@@ -675,12 +743,16 @@ public class Broker implements Runnable {
                 deliverTasks();
             } catch (InterruptedException e) {
                 LOG.info("Task pump thread was interrupted.");
+                deliveryExecutor.shutdown();
                 return;
             }
         }
     }
 
-    /** find the job for a task, creating it if it does not exist */
+    /**
+     * find the job for a task, creating it if it does not exist.
+     * Must be called while holding the monitor of this Broker, which guards the rotation of jobs.
+     */
     public Job findJob (AnalystClusterRequest task) {
         Job job = findJob(task.jobId);
 
@@ -690,29 +762,29 @@ public class Broker implements Runnable {
         job = new Job(task.jobId);
         job.graphId = task.graphId;
         jobs.insertAtTail(job);
+        jobsById.put(job.jobId, job);
         return job;
     }
 
     /** find the job for a jobId, or null if it does not exist */
     public Job findJob (String jobId) {
-        for (Job job : jobs) {
-            if (job.jobId.equals(jobId)) {
-                return job;
-            }
-        }
-        return null;
+        return jobsById.get(jobId);
     }
 
-    /** delete a job */
+    /**
+     * Delete a job. Its undelivered tasks are subtracted from the undelivered count in the same critical section that
+     * removes the job, which is also the one in which failed deliveries put their tasks back.
+     */
     public synchronized boolean deleteJob (String jobId) {
-        Job job = findJob(jobId);
+        Job job = jobsById.remove(jobId);
         if (job == null) return false;
-        nUndeliveredTasks -= job.tasksAwaitingDelivery.size();
+        nUndeliveredTasks.addAndGet(-job.getUndeliveredTaskCount());
+        for (int taskId : job.getTaskIds()) {
+            jobsByTaskId.remove(taskId);
+        }
         return jobs.remove(job);
     }
 
-    private Multimap<String, String> activeJobsPerGraph = HashMultimap.create();
-
     public synchronized boolean anyJobsActive() {
         for (Job job : jobs) {
             if (!job.isComplete()) return true;
@@ -720,14 +792,6 @@ public class Broker implements Runnable {
         return false;
     }
 
-    void activateJob (Job job) {
-        activeJobsPerGraph.put(job.graphId, job.jobId);
-    }
-
-    void deactivateJob (Job job) {
-        activeJobsPerGraph.remove(job.graphId, job.jobId);
-    }
-
     /**
      * We wrap responses in a class that has a machine ID, and then put them in a TreeSet so that
      * the machine with the lowest ID on a given graph always gets single-point work. The reason
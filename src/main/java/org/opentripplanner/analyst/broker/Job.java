@@ -12,12 +12,16 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayDeque;
+import java.util.ArrayList;
 import java.util.List;
 import java.util.Queue;
 
 /**
  * FIXME delivered tasks map is oblivious to multiple tasks having the same ID.
  * In fact we just generate numeric queue task IDs. Origin point IDs will be handled at the application layer.
+ *
+ * Each job guards its own task queues with its own monitor, so that workers completing tasks on one job do not
+ * contend with task delivery or with completions on other jobs.
  */
 public class Job {
 
@@ -54,12 +58,29 @@ public class Job {
     }
 
     /** Adds a task to this Job, assigning it a task ID number. */
-    public void addTask (AnalystClusterRequest task) {
+    public synchronized void addTask (AnalystClusterRequest task) {
         tasksById.put(task.taskId, task);
         tasksAwaitingDelivery.add(task);
     }
 
-    public void markTasksDelivered(List<AnalystClusterRequest> tasks) {
+    public synchronized boolean hasTasksAwaitingDelivery () {
+        return !tasksAwaitingDelivery.isEmpty();
+    }
+
+    /**
+     * Take up to the given number of tasks off the delivery queue, marking them delivered. They are marked before
+     * they are actually sent, so that a worker that completes them quickly does not find them still undelivered.
+     */
+    public synchronized List<AnalystClusterRequest> pollTasksForDelivery (int maxTasks) {
+        List<AnalystClusterRequest> tasks = new ArrayList<>();
+        while (tasks.size() < maxTasks && !tasksAwaitingDelivery.isEmpty()) {
+            tasks.add(tasksAwaitingDelivery.poll());
+        }
+        markTasksDelivered(tasks);
+        return tasks;
+    }
+
+    public synchronized void markTasksDelivered(List<AnalystClusterRequest> tasks) {
         long deliveryTime = System.currentTimeMillis();
         long visibleAt = deliveryTime + INVISIBLE_DURATION_SEC * 1000;
         for (AnalystClusterRequest task : tasks) {
@@ -67,12 +88,27 @@ public class Job {
         }
     }
 
+    /**
+     * Put tasks that could not be sent back on (the end of) the delivery queue.
+     * @return the number of tasks requeued, excluding any that have meanwhile been completed or requeued.
+     */
+    public synchronized int requeueUndeliveredTasks (List<AnalystClusterRequest> tasks) {
+        int nRequeued = 0;
+        for (AnalystClusterRequest task : tasks) {
+            if (invisibleUntil.remove(task.taskId) != 0) {
+                tasksAwaitingDelivery.add(task);
+                nRequeued += 1;
+            }
+        }
+        return nRequeued;
+    }
+
     /**
      * Find all tasks that are currently invisible but have passed their invisibility timeout without being marked
      * completed, and make all these tasks visible again for delivery.
      * TODO maybe this should only be triggered when the awaiting delivery queue is empty to reduce double-delivery.
      */
-    public int redeliver () {
+    public synchronized int redeliver () {
         long now = System.currentTimeMillis();
         TIntLongIterator invisibleIterator = invisibleUntil.iterator();
         int nRedelivered = 0;
@@ -90,7 +126,7 @@ public class Job {
         return nRedelivered;
     }
 
-    public void markTaskCompleted (int taskId) {
+    public synchronized void markTaskCompleted (int taskId) {
         if (tasksById.get(taskId) == null) {
             LOG.error("Tried to mark task {} completed, but it was not in job {}.", taskId, jobId);
             return;
@@ -108,19 +144,33 @@ public class Job {
         }
     }
 
-    public int getTotalTaskCount() {
+    public synchronized int getTotalTaskCount() {
         return tasksById.size();
     }
 
-    public int getCompletedTaskCount() {
+    public synchronized int getCompletedTaskCount() {
         return completedTasks.size();
     }
 
-    public boolean isComplete() {
+    /** @return the number of tasks that have been delivered and are awaiting completion. */
+    public synchronized int getInFlightTaskCount() {
+        return invisibleUntil.size();
+    }
+
+    /** @return the number of tasks awaiting delivery or re-delivery. */
+    public synchronized int getUndeliveredTaskCount() {
+        return tasksAwaitingDelivery.size();
+    }
+
+    public synchronized int[] getTaskIds() {
+        return tasksById.keys();
+    }
+
+    public synchronized boolean isComplete() {
         return completedTasks.size() == tasksById.size();
     }
 
-    public boolean containsTask (int taskId) {
+    public synchronized boolean containsTask (int taskId) {
         AnalystClusterRequest req = tasksById.get(taskId);
         if (req != null) {
             if (!req.jobId.equals(this.jobId)) {
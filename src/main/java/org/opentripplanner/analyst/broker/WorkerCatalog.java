@@ -11,7 +11,9 @@ import java.util.Map;
 import java.util.stream.Collectors;
 
 /**
- *
+ * Tracks the workers that have polled the broker recently and their graph affinities. Workers are catalogued from the
+ * HTTP threads handling their polls while the broker reads the catalog from other threads, so all access to the
+ * collections here goes through methods synchronized on the catalog.
  */
 public class WorkerCatalog {
 
@@ -59,13 +61,23 @@ public class WorkerCatalog {
 
     }
 
+    /** Returns true if any worker has been seen recently with the given graph affinity. */
+    public synchronized boolean hasWorkersForGraph (String graphId) {
+        return !workersByGraph.get(graphId).isEmpty();
+    }
+
+    /** Returns the number of distinct workers that have been seen recently. */
+    public synchronized int getWorkerCount () {
+        return observationsByWorkerId.size();
+    }
+
     /** Returns true if it is OK to steal a worker toward this graphId. */
-    boolean notEnoughWorkers (String graphId) {
+    synchronized boolean notEnoughWorkers (String graphId) {
         return targetWorkerCountPerGraph.get(graphId) > workersByGraph.get(graphId).size();
     }
 
     /** Returns true if it is OK to steal a worker _away_ from this graphId. */
-    boolean tooManyWorkers (String graphId) {
+    synchronized boolean tooManyWorkers (String graphId) {
         return targetWorkerCountPerGraph.get(graphId) < workersByGraph.get(graphId).size();
     }
 
@@ -77,7 +89,7 @@ public class WorkerCatalog {
         return null;
     }
 
-    public int size () {
+    public synchronized int size () {
         return workersByGraph.size();
     }
 
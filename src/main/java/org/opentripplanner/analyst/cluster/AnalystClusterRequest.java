@@ -52,6 +52,12 @@ public class AnalystClusterRequest implements Serializable {
 
 	/** Should times be included in the results (i.e. ResultSetWithTimes rather than ResultSet) */
 	public boolean includeTimes = false;
+
+	/**
+	 * Whether the producer of this high-priority task accepts its result in the binary form of ResultEnvelope.
+	 * This is set by the broker from the Accept header of the request that enqueued the task.
+	 */
+	public boolean binaryResults = false;
 	
 	private AnalystClusterRequest(String destinationPointsetId, String graphId) {
 		this.destinationPointsetId = destinationPointsetId;
@@ -23,6 +23,7 @@ import org.apache.http.client.methods.HttpPost;
 import org.apache.http.config.SocketConfig;
 import org.apache.http.conn.HttpHostConnectException;
 import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.entity.EntityTemplate;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.apache.http.message.BasicHeader;
@@ -34,7 +35,9 @@ import org.opentripplanner.api.model.JodaLocalDateSerializer;
 import org.opentripplanner.api.model.QualifiedModeSetSerializer;
 import org.opentripplanner.api.model.TraverseModeSetSerializer;
 import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.profile.ProfileRequest;
 import org.opentripplanner.profile.RaptorWorkerData;
+import org.opentripplanner.profile.RaptorWorkerDataCache;
 import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
 import org.opentripplanner.routing.graph.Graph;
 import org.slf4j.Logger;
@@ -53,14 +56,14 @@ import java.net.SocketTimeoutException;
 import java.net.URI;
 import java.time.LocalDateTime;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Properties;
 import java.util.Random;
 import java.util.UUID;
-import java.util.concurrent.ArrayBlockingQueue;
-import java.util.concurrent.RejectedExecutionException;
-import java.util.concurrent.ThreadPoolExecutor;
-import java.util.concurrent.TimeUnit;
+import java.util.concurrent.Callable;
+import java.util.stream.Collectors;
 import java.util.zip.GZIPOutputStream;
 
 /**
@@ -118,6 +121,9 @@ public class AnalystWorker implements Runnable {
             .maximumSize(200)
             .build();
 
+    /** Cache RAPTOR data on disk, so it can be reused by later jobs with the same inputs. */
+    private final RaptorWorkerDataCache raptorDataCache;
+
     static {
         PoolingHttpClientConnectionManager mgr = new PoolingHttpClientConnectionManager();
         mgr.setDefaultMaxPerRoute(20);
@@ -153,11 +159,11 @@ public class AnalystWorker implements Runnable {
 
     long lastHighPriorityRequestProcessed = 0;
 
-    /**
-     * Queue for high-priority tasks. Should be plenty long enough to hold all that have come in -
-     * we don't need to block on polling the manager.
-     */
-    private ThreadPoolExecutor highPriorityExecutor, batchExecutor;
+    /** The number of batch tasks per processor to keep buffered on this worker, so it doesn't idle while polling. */
+    private final int tasksPerCore;
+
+    /** Runs both high-priority and batch tasks, with one thread per processor. */
+    private WorkerTaskScheduler scheduler;
 
     public AnalystWorker(Properties config) {
         // print out date on startup so that CloudWatch logs has a unique fingerprint
@@ -191,6 +197,12 @@ public class AnalystWorker implements Runnable {
         this.pointSetDatastore = new PointSetDatastore(10, null, false, config.getProperty("pointsets-bucket"));
         this.clusterGraphBuilder = new ClusterGraphBuilder(config.getProperty("graphs-bucket"));
 
+        File raptorDataCacheDirectory = new File(config.getProperty("raptor-data-cache", "raptor_data_cache"));
+        long raptorDataCacheBytes = Long.parseLong(config.getProperty("raptor-data-cache-mb", "10240")) * 1024 * 1024;
+        this.raptorDataCache = new RaptorWorkerDataCache(raptorDataCacheDirectory, raptorDataCacheBytes);
+
+        this.tasksPerCore = Integer.parseInt(config.getProperty("tasks-per-core", "2"));
+
         Boolean autoShutdown = Boolean.parseBoolean(config.getProperty("auto-shutdown"));
         this.autoShutdown = autoShutdown == null ? false : autoShutdown;
 
@@ -234,12 +246,10 @@ public class AnalystWorker implements Runnable {
      */
     @Override
     public void run() {
-        // create executors with up to one thread per processor
+        // create a scheduler with one thread per processor
         int nP = Runtime.getRuntime().availableProcessors();
-        highPriorityExecutor = new ThreadPoolExecutor(1, nP, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(255));
-        highPriorityExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.CallerRunsPolicy());
-        batchExecutor = new ThreadPoolExecutor(1, nP, 60, TimeUnit.SECONDS, new ArrayBlockingQueue<>(nP * 2));
-        batchExecutor.setRejectedExecutionHandler(new ThreadPoolExecutor.AbortPolicy());
+        scheduler = new WorkerTaskScheduler(nP, tasksPerCore);
+        BatchTaskBuffer batchTasks = new BatchTaskBuffer(nP);
 
         // Build a graph on startup, iff a graph ID was provided.
         if (graphId != null) {
@@ -270,42 +280,44 @@ public class AnalystWorker implements Runnable {
                 }
                 nextShutdownCheckTime += 60 * 60 * 1000;
             }
+            // Wait until the buffered batch tasks run low. The threads are still busy with the rest while we poll.
+            // Don't wait while collecting tasks to be grouped, the scheduler would not get them in the meantime.
+            if (batchTasks.isEmpty()) {
+                try {
+                    scheduler.awaitCapacity();
+                } catch (InterruptedException e) {
+                    LOG.info("Interrupted while waiting for batch tasks to finish, stopping.");
+                    return;
+                }
+            }
+
             LOG.info("Long-polling for work ({} second timeout).", POLL_TIMEOUT / 1000.0);
             // Long-poll (wait a few seconds for messages to become available)
             List<AnalystClusterRequest> tasks = getSomeWork(WorkType.BATCH);
             if (tasks == null) {
                 LOG.info("Didn't get any work. Retrying.");
+                // There is no more work for now, so don't hold back the tasks already collected.
+                submitBatchTasks(batchTasks);
                 idle = true;
                 continue;
             }
 
-            // run through high-priority tasks first to ensure they are enqueued even if the batch
-            // queue blocks.
+            // run through high-priority tasks first so they are taken before the batch tasks.
             tasks.stream().filter(t -> t.outputLocation == null)
-                    .forEach(t -> highPriorityExecutor.execute(() -> {
+                    .forEach(t -> scheduler.submitHighPriority(queueWait -> {
                         LOG.warn(
                                 "Handling single point request via normal channel, side channel should open shortly.");
-                        this.handleOneRequest(t);
+                        this.handleRequests(Collections.singletonList(t), queueWait);
                     }));
 
             logQueueStatus();
 
-            // enqueue low-priority tasks; note that this may block anywhere in the process
-            tasks.stream().filter(t -> t.outputLocation != null)
-                .forEach(t -> {
-                    // attempt to enqueue, waiting if the queue is full
-                    while (true) {
-                        try {
-                            batchExecutor.execute(() -> this.handleOneRequest(t));
-                            break;
-                        } catch (RejectedExecutionException e) {
-                            // queue is full, wait 200ms and try again
-                            try {
-                                Thread.sleep(200);
-                            } catch (InterruptedException e1) { /* nothing */}
-                        }
-                    }
-                });
+            // Collect low-priority tasks over several polls, so that enough nearby origins can be grouped to be
+            // searched together, unless the scheduler is running out of work.
+            batchTasks.add(tasks.stream().filter(t -> t.outputLocation != null).collect(Collectors.toList()));
+            if (batchTasks.isReady(scheduler.getBufferedBatchTaskCount())) {
+                submitBatchTasks(batchTasks);
+            }
 
             logQueueStatus();
 
@@ -314,145 +326,79 @@ public class AnalystWorker implements Runnable {
     }
 
     /**
-     * This is the callback that processes a single task and returns the results upon completion.
-     * It may be called several times simultaneously on different executor threads.
+     * Hand the collected batch tasks to the scheduler in blocks of nearby origins. This does not block, the scheduler
+     * may briefly hold more than tasksPerCore blocks per processor.
+     */
+    private void submitBatchTasks(BatchTaskBuffer batchTasks) {
+        if (!batchTasks.isEmpty()) {
+            batchTasks.drain().forEach(group ->
+                    scheduler.submitBatch(queueWait -> this.handleRequests(group, queueWait)));
+        }
+    }
+
+    /**
+     * Process a block of tasks and return the results of each upon completion. The tasks in a block of more than one
+     * must be batch tasks from the same job using transit (see BatchTaskBuffer); their origins are searched together.
+     * It may be called several times simultaneously on different scheduler threads.
+     * @param queueWait milliseconds the block waited in the scheduler before it was started
      */
-    private void handleOneRequest(AnalystClusterRequest clusterRequest) {
+    private void handleRequests(List<AnalystClusterRequest> clusterRequests, int queueWait) {
 
         if (dryRunFailureRate >= 0) {
             // This worker is running in test mode.
             // It should report all work as completed without actually doing anything,
             // but will fail a certain percentage of the time.
-            if (random.nextInt(100) >= dryRunFailureRate) {
-                // Pretend to succeed.
-                deleteRequest(clusterRequest);
-            } else {
-                LOG.info("Intentionally failing on task {}", clusterRequest.taskId);
+            for (AnalystClusterRequest clusterRequest : clusterRequests) {
+                if (random.nextInt(100) >= dryRunFailureRate) {
+                    // Pretend to succeed.
+                    deleteRequest(clusterRequest);
+                } else {
+                    LOG.info("Intentionally failing on task {}", clusterRequest.taskId);
+                }
             }
             return;
         }
 
         try {
             long startTime = System.currentTimeMillis();
-            LOG.info("Handling message {}", clusterRequest.toString());
-
-            // We need to distinguish between and handle four different types of requests here:
-            // Either vector isochrones or accessibility to a pointset,
-            // as either a single-origin priority request (where the result is returned immediately)
-            // or a job task (where the result is saved to output location on S3).
-            boolean isochrone = (clusterRequest.destinationPointsetId == null);
-            boolean singlePoint = (clusterRequest.outputLocation == null);
-            boolean transit = (clusterRequest.profileRequest.transitModes != null && clusterRequest.profileRequest.transitModes.isTransit());
-
-            if (singlePoint) {
-                lastHighPriorityRequestProcessed = startTime;
-                if (!sideChannelOpen) {
-                    openSideChannel();
-                }
-            }
-
-            TaskStatistics ts = new TaskStatistics();
-            ts.pointsetId = clusterRequest.destinationPointsetId;
-            ts.graphId = clusterRequest.graphId;
-            ts.awsInstanceType = instanceType;
-            ts.jobId = clusterRequest.jobId;
-            ts.workerId = machineId;
-            ts.single = singlePoint;
-
-            // Get the graph object for the ID given in the request, fetching inputs and building as needed.
-            // All requests handled together are for the same graph, and this call is synchronized so the graph will
-            // only be built once.
-            long graphStartTime = System.currentTimeMillis();
-            Graph graph = clusterGraphBuilder.getGraph(clusterRequest.graphId);
-            graphId = clusterRequest.graphId; // Record graphId so we "stick" to this same graph on subsequent polls
-            ts.graphBuild = (int) (System.currentTimeMillis() - graphStartTime);
-            ts.graphTripCount = graph.index.patternForTrip.size();
-            ts.graphStopCount = graph.index.stopForId.size();
-            ts.lon = clusterRequest.profileRequest.fromLon;
-            ts.lat = clusterRequest.profileRequest.fromLat;
-
-            final SampleSet sampleSet;
-
-            // If this one-to-many request is for accessibility information based on travel times to a pointset,
-            // fetch the set of points we will use as destinations.
-            if (isochrone) {
-                // This is an isochrone request, tell the RepeatedRaptorProfileRouter there are no targets.
-                sampleSet = null;
-            } else {
-                // This is not an isochrone request. There is necessarily a destination point set supplied.
-                PointSet pointSet = pointSetDatastore.get(clusterRequest.destinationPointsetId);
-                sampleSet = pointSet.getOrCreateSampleSet(graph); // TODO this breaks if graph has been rebuilt
-            }
 
-            // Note that all parameters to create the Raptor worker data are passed in the constructor except ts.
-            // Why not pass in ts as well since this is a throwaway calculator?
-            RepeatedRaptorProfileRouter router =
-                    new RepeatedRaptorProfileRouter(graph, clusterRequest.profileRequest, sampleSet);
-            router.ts = ts;
-
-            // Produce RAPTOR data tables, going through a cache where relevant.
-            // This is only used for multi-point requests. Single-point requests are assumed to be continually
-            // changing, so we create throw-away RAPTOR tables for them.
-            // Ideally we'd want this cacheing to happen transparently inside the RepeatedRaptorProfileRouter,
-            // but the RepeatedRaptorProfileRouter doesn't know the job ID or other information from the cluster request.
-            // It would be possible to just supply the cache _key_ as a way of saying that the cache should be used.
-            // But then we'd need to pass in both the cache and the key, which is weird.
-            if (transit && !singlePoint) {
-                long dataStart = System.currentTimeMillis();
-                router.raptorWorkerData = workerDataCache.get(clusterRequest.jobId, () -> RepeatedRaptorProfileRouter
-                        .getRaptorWorkerData(clusterRequest.profileRequest, graph, sampleSet, ts));
-                ts.raptorData = (int) (System.currentTimeMillis() - dataStart);
-            } else {
-                // The worker will generate a one-time throw-away table.
-                router.raptorWorkerData = null;
+            List<TaskStatistics> stats = new ArrayList<>();
+            List<RepeatedRaptorProfileRouter> routers = new ArrayList<>();
+            for (AnalystClusterRequest clusterRequest : clusterRequests) {
+                TaskStatistics ts = new TaskStatistics();
+                ts.queueWait = queueWait;
+                ts.workerUtilization = scheduler.getUtilization();
+                stats.add(ts);
+                routers.add(makeRouter(clusterRequest, ts, startTime));
             }
 
             // Run the core repeated-raptor analysis.
-            // This result envelope will contain the results of the one-to-many profile or single-departure-time search.
-            ResultEnvelope envelope = new ResultEnvelope();
+            // The result envelopes will contain the results of the one-to-many profile or single-departure-time search.
+            List<ResultEnvelope> envelopes = new ArrayList<>();
             try {
                 // TODO when router runs, if there are no transit modes defined it should just skip the transit work.
-                router.includeTimes = clusterRequest.includeTimes;
-                envelope = router.route();
-                envelope.id = clusterRequest.id;
-                ts.success = true;
+                if (routers.size() > 1) {
+                    envelopes.addAll(RepeatedRaptorProfileRouter.routeBatch(routers));
+                } else {
+                    envelopes.add(routers.get(0).route());
+                }
+                stats.forEach(ts -> ts.success = true);
             } catch (Exception ex) {
-                // An error occurred. Leave the envelope empty and TODO include error information.
+                // An error occurred. Leave the envelopes empty and TODO include error information.
                 LOG.error("Error occurred in profile request", ex);
-                ts.success = false;
+                envelopes.clear();
+                clusterRequests.forEach(r -> envelopes.add(new ResultEnvelope()));
+                stats.forEach(ts -> ts.success = false);
             }
 
-            // Send the ResultEnvelope back to the user.
-            // The results are either stored on S3 (for multi-origin jobs) or sent back through the broker (for
-            // immediate interactive display of isochrones).
-            envelope.id = clusterRequest.id;
-            envelope.jobId = clusterRequest.jobId;
-            envelope.destinationPointsetId = clusterRequest.destinationPointsetId;
-            if (clusterRequest.outputLocation != null) {
-                // Convert the result envelope and its contents to JSON and gzip it in this thread.
-                // Transfer the results to Amazon S3 in another thread, piping between the two.
-                String s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + ".json.gz");
-                PipedInputStream inPipe = new PipedInputStream();
-                PipedOutputStream outPipe = new PipedOutputStream(inPipe);
-                new Thread(() -> {
-                    s3.putObject(clusterRequest.outputLocation, s3key, inPipe, null);
-                }).start();
-                OutputStream gzipOutputStream = new GZIPOutputStream(outPipe);
-                // We could do the writeValue() in a thread instead, in which case both the DELETE and S3 options
-                // could consume it in the same way.
-                objectMapper.writeValue(gzipOutputStream, envelope);
-                gzipOutputStream.close();
-                // Tell the broker the task has been handled and should not be re-delivered to another worker.
-                deleteRequest(clusterRequest);
-            } else {
-                // No output location was provided. Instead of saving the result on S3,
-                // return the result immediately via a connection held open by the broker and mark the task completed.
-                finishPriorityTask(clusterRequest, envelope);
-            }
+            for (int i = 0; i < clusterRequests.size(); i++) {
+                sendResult(clusterRequests.get(i), envelopes.get(i));
 
-            // Record information about the current task so we can analyze usage and efficiency over time.
-            ts.total = (int) (System.currentTimeMillis() - startTime);
-            statsStore.store(ts);
+                // Record information about the current task so we can analyze usage and efficiency over time.
+                TaskStatistics ts = stats.get(i);
+                ts.total = (int) (System.currentTimeMillis() - startTime);
+                statsStore.store(ts);
+            }
 
         } catch (Exception ex) {
             LOG.error("An error occurred while routing", ex);
@@ -460,6 +406,131 @@ public class AnalystWorker implements Runnable {
 
     }
 
+    /**
+     * Make a router for the given task, fetching or building the graph, destinations and RAPTOR data it needs, and
+     * record information about the task in the given task statistics.
+     */
+    private RepeatedRaptorProfileRouter makeRouter(AnalystClusterRequest clusterRequest, TaskStatistics ts,
+            long startTime) throws Exception {
+        LOG.info("Handling message {}", clusterRequest.toString());
+
+        // We need to distinguish between and handle four different types of requests here:
+        // Either vector isochrones or accessibility to a pointset,
+        // as either a single-origin priority request (where the result is returned immediately)
+        // or a job task (where the result is saved to output location on S3).
+        boolean isochrone = (clusterRequest.destinationPointsetId == null);
+        boolean singlePoint = (clusterRequest.outputLocation == null);
+        boolean transit = (clusterRequest.profileRequest.transitModes != null && clusterRequest.profileRequest.transitModes.isTransit());
+
+        if (singlePoint) {
+            lastHighPriorityRequestProcessed = startTime;
+            if (!sideChannelOpen) {
+                openSideChannel();
+            }
+        }
+
+        ts.pointsetId = clusterRequest.destinationPointsetId;
+        ts.graphId = clusterRequest.graphId;
+        ts.awsInstanceType = instanceType;
+        ts.jobId = clusterRequest.jobId;
+        ts.workerId = machineId;
+        ts.single = singlePoint;
+
+        // Get the graph object for the ID given in the request, fetching inputs and building as needed.
+        // All requests handled together are for the same graph, and this call is synchronized so the graph will
+        // only be built once.
+        long graphStartTime = System.currentTimeMillis();
+        Graph graph = clusterGraphBuilder.getGraph(clusterRequest.graphId);
+        graphId = clusterRequest.graphId; // Record graphId so we "stick" to this same graph on subsequent polls
+        ts.graphBuild = (int) (System.currentTimeMillis() - graphStartTime);
+        ts.graphTripCount = graph.index.patternForTrip.size();
+        ts.graphStopCount = graph.index.stopForId.size();
+        ts.lon = clusterRequest.profileRequest.fromLon;
+        ts.lat = clusterRequest.profileRequest.fromLat;
+
+        final SampleSet sampleSet;
+
+        // If this one-to-many request is for accessibility information based on travel times to a pointset,
+        // fetch the set of points we will use as destinations.
+        if (isochrone) {
+            // This is an isochrone request, tell the RepeatedRaptorProfileRouter there are no targets.
+            sampleSet = null;
+        } else {
+            // This is not an isochrone request. There is necessarily a destination point set supplied.
+            PointSet pointSet = pointSetDatastore.get(clusterRequest.destinationPointsetId);
+            sampleSet = pointSet.getOrCreateSampleSet(graph); // TODO this breaks if graph has been rebuilt
+        }
+
+        // Note that all parameters to create the Raptor worker data are passed in the constructor except ts.
+        // Why not pass in ts as well since this is a throwaway calculator?
+        RepeatedRaptorProfileRouter router =
+                new RepeatedRaptorProfileRouter(graph, clusterRequest.profileRequest, sampleSet);
+        router.ts = ts;
+        // Single-point requests are handled one at a time while the user waits, so spread each one over all the cores.
+        // Job tasks already run one per core.
+        router.parallelMinutes = singlePoint;
+
+        // Produce RAPTOR data tables, going through a cache where relevant.
+        // This is only used for multi-point requests. Single-point requests are assumed to be continually
+        // changing, so we create throw-away RAPTOR tables for them.
+        // Ideally we'd want this cacheing to happen transparently inside the RepeatedRaptorProfileRouter,
+        // but the RepeatedRaptorProfileRouter doesn't know the job ID or other information from the cluster request.
+        // It would be possible to just supply the cache _key_ as a way of saying that the cache should be used.
+        // But then we'd need to pass in both the cache and the key, which is weird.
+        if (transit && !singlePoint) {
+            long dataStart = System.currentTimeMillis();
+            ProfileRequest profileRequest = clusterRequest.profileRequest;
+            Callable<RaptorWorkerData> build = () -> RepeatedRaptorProfileRouter
+                    .getRaptorWorkerData(profileRequest, graph, sampleSet, ts);
+            router.raptorWorkerData = workerDataCache.get(clusterRequest.jobId, () -> {
+                // Jobs with the same inputs share RAPTOR data on disk, even across worker restarts.
+                if (!RaptorWorkerDataCache.isCacheable(profileRequest, sampleSet)) return build.call();
+                String key = RaptorWorkerDataCache.key(clusterRequest.graphId, clusterRequest.destinationPointsetId,
+                        profileRequest, objectMapper.writeValueAsBytes(profileRequest.scenario));
+                return raptorDataCache.get(key, graph, profileRequest, build);
+            });
+            ts.raptorData = (int) (System.currentTimeMillis() - dataStart);
+        } else {
+            // The worker will generate a one-time throw-away table.
+            router.raptorWorkerData = null;
+        }
+
+        router.includeTimes = clusterRequest.includeTimes;
+        return router;
+    }
+
+    /**
+     * Send the ResultEnvelope for a task back to the user.
+     * The results are either stored on S3 (for multi-origin jobs) or sent back through the broker (for
+     * immediate interactive display of isochrones).
+     */
+    private void sendResult(AnalystClusterRequest clusterRequest, ResultEnvelope envelope) throws IOException {
+        envelope.id = clusterRequest.id;
+        envelope.jobId = clusterRequest.jobId;
+        envelope.destinationPointsetId = clusterRequest.destinationPointsetId;
+        if (clusterRequest.outputLocation != null) {
+            // Convert the result envelope and its contents to JSON and gzip it in this thread.
+            // Transfer the results to Amazon S3 in another thread, piping between the two.
+            String s3key = String.join("/", clusterRequest.jobId, clusterRequest.id + ".json.gz");
+            PipedInputStream inPipe = new PipedInputStream();
+            PipedOutputStream outPipe = new PipedOutputStream(inPipe);
+            new Thread(() -> {
+                s3.putObject(clusterRequest.outputLocation, s3key, inPipe, null);
+            }).start();
+            OutputStream gzipOutputStream = new GZIPOutputStream(outPipe);
+            // We could do the writeValue() in a thread instead, in which case both the DELETE and S3 options
+            // could consume it in the same way.
+            objectMapper.writeValue(gzipOutputStream, envelope);
+            gzipOutputStream.close();
+            // Tell the broker the task has been handled and should not be re-delivered to another worker.
+            deleteRequest(clusterRequest);
+        } else {
+            // No output location was provided. Instead of saving the result on S3,
+            // return the result immediately via a connection held open by the broker and mark the task completed.
+            finishPriorityTask(clusterRequest, envelope);
+        }
+    }
+
     /** Open a single point channel to the broker to receive high-priority requests immediately */
     private synchronized void openSideChannel () {
         if (sideChannelOpen) {
@@ -475,8 +546,8 @@ public class AnalystWorker implements Runnable {
                     List<AnalystClusterRequest> tasks = getSomeWork(WorkType.HIGH_PRIORITY);
 
                     if (tasks != null)
-                        tasks.stream().forEach(t -> highPriorityExecutor.execute(
-                                () -> this.handleOneRequest(t)));
+                        tasks.stream().forEach(t -> scheduler.submitHighPriority(
+                                queueWait -> this.handleRequests(Collections.singletonList(t), queueWait)));
 
                     logQueueStatus();
                 } catch (Exception e) {
@@ -537,9 +608,19 @@ public class AnalystWorker implements Runnable {
         HttpPost httpPost = new HttpPost(url);
         try {
             // TODO reveal any errors etc. that occurred on the worker.
-            // Really this should probably be done with an InputStreamEntity and a JSON writer thread.
-            byte[] serializedResult = objectMapper.writeValueAsBytes(result);
-            httpPost.setEntity(new ByteArrayEntity(serializedResult));
+            if (clusterRequest.binaryResults && result instanceof ResultEnvelope &&
+                    ((ResultEnvelope) result).canWriteBinary()) {
+                // Stream the compact binary form straight into the connection, the broker passes it on as it is.
+                ResultEnvelope envelope = (ResultEnvelope) result;
+                EntityTemplate entity = new EntityTemplate(envelope::writeBinary);
+                entity.setContentType(ResultEnvelope.BINARY_MEDIA_TYPE);
+                entity.setChunked(true);
+                httpPost.setEntity(entity);
+            } else {
+                // Really this should probably be done with an InputStreamEntity and a JSON writer thread.
+                byte[] serializedResult = objectMapper.writeValueAsBytes(result);
+                httpPost.setEntity(new ByteArrayEntity(serializedResult));
+            }
             HttpResponse response = httpClient.execute(httpPost);
             // Signal the http client library that we're done with this response object, allowing connection reuse.
             EntityUtils.consumeQuietly(response.getEntity());
@@ -605,7 +686,8 @@ public class AnalystWorker implements Runnable {
 
     /** log queue status */
     private void logQueueStatus() {
-        LOG.info("Waiting tasks: high priority: {}, batch: {}", highPriorityExecutor.getQueue().size(), batchExecutor.getQueue().size());
+        LOG.info("Waiting tasks: high priority: {}, batch: {}; utilization {}", scheduler.getHighPriorityTaskCount(),
+                scheduler.getBufferedBatchTaskCount(), String.format("%.2f", scheduler.getUtilization()));
     }
 
     /**
@@ -619,6 +701,9 @@ public class AnalystWorker implements Runnable {
      * auto-shutdown                Should this worker shut down its machine if it is idle (e.g. on throwaway cloud instances)
      * statistics-queue             SQS queue to which to send statistics (optional)
      * initial-graph-id             The graph ID for this worker to start on
+     * raptor-data-cache            Directory in which to cache RAPTOR data between jobs, default raptor_data_cache
+     * raptor-data-cache-mb         Most megabytes of RAPTOR data to keep in that directory, default 10240
+     * tasks-per-core               Batch tasks per processor to keep buffered while fetching more work, default 2
      */
     public static void main(String[] args) {
         LOG.info("Starting analyst worker");
@@ -0,0 +1,98 @@
+package org.opentripplanner.analyst.cluster;
+
+import org.opentripplanner.profile.MultiOriginRaptorWorker;
+import org.opentripplanner.profile.ProfileRequest;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Collects the batch tasks received over several polls of the broker, and splits them into blocks whose origins will be
+ * searched together (see MultiOriginRaptorWorker).
+ *
+ * The broker hands out only a few tasks per poll, fewer than there are processors on a large worker, so splitting the
+ * tasks of a single poll among the processors would leave one origin per block. Instead the worker keeps polling until
+ * it has collected enough tasks for blocks of TARGET_ORIGINS_PER_BLOCK origins on every processor, as long as the
+ * scheduler still has work buffered. Tasks of a job are handed out in the order of the points in its origin point set,
+ * so the tasks collected over consecutive polls cover a contiguous part of it, in which nearby origins can be found.
+ */
+class BatchTaskBuffer {
+
+    /** The number of origins per block to collect before handing tasks to the scheduler, when work is plentiful. */
+    static final int TARGET_ORIGINS_PER_BLOCK = 8;
+
+    private final int nProcessors;
+
+    private final List<AnalystClusterRequest> tasks = new ArrayList<>();
+
+    BatchTaskBuffer (int nProcessors) {
+        this.nProcessors = nProcessors;
+    }
+
+    void add (List<AnalystClusterRequest> newTasks) {
+        tasks.addAll(newTasks);
+    }
+
+    boolean isEmpty () {
+        return tasks.isEmpty();
+    }
+
+    /**
+     * @param nScheduledBlocks the number of blocks waiting in the scheduler. When there are none, the threads are
+     *                         about to run out of work, so the tasks collected so far should be scheduled right away.
+     * @return whether the collected tasks should be split into blocks and scheduled now.
+     */
+    boolean isReady (int nScheduledBlocks) {
+        return !tasks.isEmpty() && (nScheduledBlocks == 0 || tasks.size() >= nProcessors * TARGET_ORIGINS_PER_BLOCK);
+    }
+
+    /** @return the collected tasks split into blocks, leaving this buffer empty. */
+    List<List<AnalystClusterRequest>> drain () {
+        List<List<AnalystClusterRequest>> blocks = groupBatchTasks(tasks, nProcessors);
+        tasks.clear();
+        return blocks;
+    }
+
+    /**
+     * Split batch tasks into blocks whose origins will be searched together. Only tasks from the same job that use
+     * transit can be searched together. They are ordered along a Z-order curve over their origins, so that each block
+     * covers a small area, and split into enough blocks to keep every processor busy.
+     */
+    static List<List<AnalystClusterRequest>> groupBatchTasks(List<AnalystClusterRequest> tasks, int nProcessors) {
+        List<List<AnalystClusterRequest>> groups = new ArrayList<>();
+        Map<String, List<AnalystClusterRequest>> tasksByJob = new HashMap<>();
+        for (AnalystClusterRequest task : tasks) {
+            ProfileRequest req = task.profileRequest;
+            if (req.transitModes != null && req.transitModes.isTransit()) {
+                tasksByJob.computeIfAbsent(task.jobId, j -> new ArrayList<>()).add(task);
+            } else {
+                groups.add(Collections.singletonList(task));
+            }
+        }
+
+        for (List<AnalystClusterRequest> jobTasks : tasksByJob.values()) {
+            jobTasks.sort(Comparator.comparingLong(t -> zOrder(t.profileRequest.fromLat, t.profileRequest.fromLon)));
+            int blockSize = Math.max(1, Math.min(MultiOriginRaptorWorker.MAX_ORIGINS, jobTasks.size() / nProcessors));
+            for (int i = 0; i < jobTasks.size(); i += blockSize) {
+                groups.add(new ArrayList<>(jobTasks.subList(i, Math.min(i + blockSize, jobTasks.size()))));
+            }
+        }
+        return groups;
+    }
+
+    /** @return the position of the given point along a Z-order curve, interleaving the bits of its coordinates. */
+    private static long zOrder(double lat, double lon) {
+        long x = (long) ((lon + 180) / 360 * (1L << 31));
+        long y = (long) ((lat + 90) / 180 * (1L << 31));
+        long z = 0;
+        for (int bit = 0; bit < 31; bit++) {
+            z |= ((x >>> bit) & 1) << (2 * bit);
+            z |= ((y >>> bit) & 1) << (2 * bit + 1);
+        }
+        return z;
+    }
+}
@@ -49,7 +49,8 @@ public class JobSimulator {
 
     }
 
-    public void sendFakeJob() {
+    /** Enqueue a fake job on the broker. @return the ID of the job. */
+    public String sendFakeJob() {
 
         String jobId = compactUUID();
 
@@ -94,7 +95,7 @@ public class JobSimulator {
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-
+        return jobId;
     }
 
     public static String compactUUID() {
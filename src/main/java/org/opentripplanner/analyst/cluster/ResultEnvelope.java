@@ -2,6 +2,11 @@ package org.opentripplanner.analyst.cluster;
 
 import org.opentripplanner.analyst.ResultSet;
 
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.io.Serializable;
 import java.util.HashMap;
 import java.util.Map;
@@ -16,6 +21,17 @@ import java.util.Map;
  */
 public class ResultEnvelope implements Serializable {
 
+	/**
+	 * The media type of the binary form of a ResultEnvelope. Clients that accept it get results that are many times
+	 * smaller than the JSON for large point sets.
+	 */
+	public static final String BINARY_MEDIA_TYPE = "application/x-otp-result-envelope";
+
+	/** The first four bytes of the binary form, "OTPR" */
+	private static final int MAGIC = 0x4f545052;
+
+	private static final int FORMAT_VERSION = 1;
+
 	/**
 	 * The best case/upper bound (e.g. number of jobs reachable considering the best travel times seen during the
 	 * time window)
@@ -132,6 +148,76 @@ public class ResultEnvelope implements Serializable {
 		return exploded;
 	}
 	
+	/** @return whether this can be written in binary form, which does not hold isochrones. */
+	public boolean canWriteBinary () {
+		for (Which which : Which.values()) {
+			ResultSet resultSet = get(which);
+			if (resultSet != null && resultSet.isochrones != null)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Write this envelope in compact binary form, streaming its result sets one after another. Times and histograms
+	 * are delta and variable-length encoded, see ResultSet.writeBinary. The caller may compress the stream further.
+	 */
+	public void writeBinary (OutputStream outputStream) throws IOException {
+		if (!canWriteBinary())
+			throw new IllegalStateException("Result envelopes with isochrones cannot be written in binary form");
+
+		DataOutputStream out = new DataOutputStream(outputStream);
+		out.writeInt(MAGIC);
+		out.writeInt(FORMAT_VERSION);
+		out.writeBoolean(profile);
+		writeString(out, jobId);
+		writeString(out, id);
+		writeString(out, destinationPointsetId);
+		for (Which which : Which.values()) {
+			ResultSet resultSet = get(which);
+			out.writeBoolean(resultSet != null);
+			if (resultSet != null)
+				resultSet.writeBinary(out);
+		}
+		out.flush();
+	}
+
+	/** Read an envelope written by writeBinary. */
+	public static ResultEnvelope readBinary (InputStream inputStream) throws IOException {
+		DataInputStream in = new DataInputStream(inputStream);
+		if (in.readInt() != MAGIC)
+			throw new IOException("Not a binary result envelope");
+		int version = in.readInt();
+		if (version != FORMAT_VERSION)
+			throw new IOException("Unsupported result envelope format version " + version);
+
+		ResultEnvelope envelope = new ResultEnvelope();
+		envelope.profile = in.readBoolean();
+		envelope.jobId = readString(in);
+		envelope.id = readString(in);
+		envelope.destinationPointsetId = readString(in);
+		for (Which which : Which.values()) {
+			if (in.readBoolean())
+				envelope.put(which, ResultSet.readBinary(in));
+		}
+		return envelope;
+	}
+
+	/** @return whether the given HTTP Accept header value includes the binary media type. */
+	public static boolean acceptsBinary (String accept) {
+		return accept != null && accept.contains(BINARY_MEDIA_TYPE);
+	}
+
+	private static void writeString (DataOutputStream out, String value) throws IOException {
+		out.writeBoolean(value != null);
+		if (value != null)
+			out.writeUTF(value);
+	}
+
+	private static String readString (DataInputStream in) throws IOException {
+		return in.readBoolean() ? in.readUTF() : null;
+	}
+
 	/**
 	 * Build an empty result envelope.
 	 */
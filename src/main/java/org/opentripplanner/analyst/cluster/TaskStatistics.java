@@ -34,6 +34,24 @@ public class TaskStatistics implements Serializable{
     /** milliseconds spent in propagating travel times from transit stops to targets */
     public int propagation = -1;
 
+    /** milliseconds of propagation spent propagating stop by stop, from only the stops reached by each search */
+    public int stopMajorPropagation = -1;
+
+    /** milliseconds of propagation spent propagating target by target, from all stops */
+    public int targetMajorPropagation = -1;
+
+    /** number of searches whose times were propagated stop by stop */
+    public int stopMajorPropagationCount = -1;
+
+    /** number of searches whose times were propagated target by target */
+    public int targetMajorPropagationCount = -1;
+
+    /**
+     * number of origins searched together in one batch; when greater than one the search times and counts are those
+     * of the whole batch
+     */
+    public int originsInBatch = 1;
+
     /** time to make raptor data (milliseconds) */
     public int raptorData;
 
@@ -52,6 +70,12 @@ public class TaskStatistics implements Serializable{
     /** total processing time, including fetching and pushing results, in milliseconds */
     public int total = -1;
 
+    /** milliseconds this task waited in the worker's local queue before it was started */
+    public int queueWait = -1;
+
+    /** fraction of the time the worker's task threads were busy over about the last minute, when this task started */
+    public double workerUtilization = -1;
+
     /** number of stops used in search (i.e. number of stops that had service on this day) */
     public int stopCount = -1;
 
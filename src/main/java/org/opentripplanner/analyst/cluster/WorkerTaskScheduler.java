@@ -0,0 +1,219 @@
+package org.opentripplanner.analyst.cluster;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Deque;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntConsumer;
+
+/**
+ * Runs the tasks received by an AnalystWorker on a fixed set of threads, one per core.
+ *
+ * Each thread has its own queue of batch tasks, which are dealt out to the threads in turn. A thread takes tasks from
+ * the head of its own queue, and when that is empty steals from the tail of the others', so no core sits idle while
+ * there are tasks buffered on the worker. The worker is expected to fetch more work from the broker whenever fewer
+ * than a given number of tasks per thread are buffered (see awaitCapacity), so that the threads are still busy while
+ * it polls.
+ *
+ * High-priority (single point) tasks are taken before any batch task. Running tasks cannot be interrupted, so a
+ * small number of extra threads are reserved for high-priority tasks, and they run these when all the batch threads
+ * are busy instead of waiting behind batch tasks that may take minutes. When the reserved threads are busy as well,
+ * high-priority tasks queue for whichever thread is free first.
+ *
+ * Tasks are given the number of milliseconds they waited in the queue, and the scheduler reports the approximate
+ * fraction of time its threads were busy, for TaskStatistics.
+ */
+public class WorkerTaskScheduler {
+
+    private static final Logger LOG = LoggerFactory.getLogger(WorkerTaskScheduler.class);
+
+    /** The length of the window over which utilization is measured. */
+    private static final long UTILIZATION_WINDOW_MILLIS = 60 * 1000;
+
+    /** The number of threads that only run high-priority tasks. */
+    private static final int N_HIGH_PRIORITY_THREADS = 2;
+
+    private final int nThreads;
+
+    /** The number of batch tasks that should be buffered before fetching more work. */
+    private final int maxBufferedBatchTasks;
+
+    private final Deque<QueuedTask>[] batchQueues;
+
+    private final Queue<QueuedTask> highPriorityQueue = new ConcurrentLinkedQueue<>();
+
+    private final AtomicInteger nBufferedBatchTasks = new AtomicInteger();
+
+    private final AtomicInteger nextBatchQueue = new AtomicInteger();
+
+    /** Threads without work wait on this, and are notified when tasks are submitted. */
+    private final Object workAvailable = new Object();
+
+    /** The worker waits on this for room to buffer more tasks. */
+    private final Object capacityAvailable = new Object();
+
+    /* Utilization of the threads, guarded by this scheduler. */
+
+    private long windowStart = System.currentTimeMillis();
+
+    private long busyMillisInWindow = 0;
+
+    private double utilization = 0;
+
+    /**
+     * @param nThreads the number of threads to run tasks on, usually the number of cores.
+     * @param tasksPerThread the number of batch tasks per thread to keep buffered.
+     */
+    @SuppressWarnings("unchecked")
+    public WorkerTaskScheduler (int nThreads, int tasksPerThread) {
+        this.nThreads = nThreads;
+        this.maxBufferedBatchTasks = nThreads * tasksPerThread;
+        batchQueues = new Deque[nThreads];
+        for (int i = 0; i < nThreads; i++) {
+            batchQueues[i] = new ConcurrentLinkedDeque<>();
+        }
+        for (int i = 0; i < nThreads; i++) {
+            final int self = i;
+            Thread thread = new Thread(() -> runTasks(self), "analyst-task-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        for (int i = 0; i < N_HIGH_PRIORITY_THREADS; i++) {
+            Thread thread = new Thread(() -> runTasks(-1), "analyst-priority-task-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+    }
+
+    /** Queue a batch task. The task is passed the number of milliseconds it waited to be started. */
+    public void submitBatch (IntConsumer task) {
+        int queue = Math.floorMod(nextBatchQueue.getAndIncrement(), nThreads);
+        nBufferedBatchTasks.incrementAndGet();
+        batchQueues[queue].addLast(new QueuedTask(task));
+        synchronized (workAvailable) {
+            workAvailable.notifyAll();
+        }
+    }
+
+    /**
+     * Queue a high-priority task ahead of all batch tasks. It is started by the first thread to become free, which is
+     * a reserved high-priority thread if all the batch threads are busy.
+     */
+    public void submitHighPriority (IntConsumer task) {
+        highPriorityQueue.add(new QueuedTask(task));
+        synchronized (workAvailable) {
+            workAvailable.notifyAll();
+        }
+    }
+
+    /** Block until fewer batch tasks are buffered than should be, so that more can be fetched. */
+    public void awaitCapacity () throws InterruptedException {
+        synchronized (capacityAvailable) {
+            while (nBufferedBatchTasks.get() >= maxBufferedBatchTasks) {
+                capacityAvailable.wait();
+            }
+        }
+    }
+
+    public int getBufferedBatchTaskCount () {
+        return nBufferedBatchTasks.get();
+    }
+
+    public int getHighPriorityTaskCount () {
+        return highPriorityQueue.size();
+    }
+
+    /**
+     * @return the fraction of the time the threads spent running tasks over the last complete window of about a
+     * minute. Tasks are counted in the window in which they finish, so this is approximate.
+     */
+    public synchronized double getUtilization () {
+        rollWindow();
+        return utilization;
+    }
+
+    /** The main loop of each thread. Threads reserved for high-priority tasks pass -1 as their index. */
+    private void runTasks (int self) {
+        while (true) {
+            QueuedTask task = nextTask(self);
+            if (task == null) {
+                // Check again while holding the monitor, so that no submission can be missed before waiting.
+                synchronized (workAvailable) {
+                    while ((task = nextTask(self)) == null) {
+                        try {
+                            workAvailable.wait();
+                        } catch (InterruptedException e) {
+                            LOG.info("Task thread was interrupted.");
+                            return;
+                        }
+                    }
+                }
+            }
+            run(task);
+        }
+    }
+
+    /**
+     * Take the next task for the given thread: a high-priority task if there is one, then the oldest task in its own
+     * queue, then the newest in another thread's queue. Reserved high-priority threads (self < 0) take no batch tasks.
+     */
+    private QueuedTask nextTask (int self) {
+        QueuedTask task = highPriorityQueue.poll();
+        if (task != null || self < 0)
+            return task;
+
+        task = batchQueues[self].pollFirst();
+        for (int i = 1; task == null && i < nThreads; i++) {
+            task = batchQueues[(self + i) % nThreads].pollLast();
+        }
+
+        if (task != null && nBufferedBatchTasks.decrementAndGet() < maxBufferedBatchTasks) {
+            synchronized (capacityAvailable) {
+                capacityAvailable.notifyAll();
+            }
+        }
+        return task;
+    }
+
+    private void run (QueuedTask task) {
+        long startTime = System.currentTimeMillis();
+        try {
+            task.task.accept((int) (startTime - task.submitTime));
+        } catch (Throwable t) {
+            LOG.error("Uncaught exception in worker task", t);
+        } finally {
+            recordBusyTime(System.currentTimeMillis() - startTime);
+        }
+    }
+
+    private synchronized void recordBusyTime (long millis) {
+        rollWindow();
+        busyMillisInWindow += millis;
+    }
+
+    /** Start a new utilization window if the current one is over. */
+    private void rollWindow () {
+        long now = System.currentTimeMillis();
+        long elapsed = now - windowStart;
+        if (elapsed >= UTILIZATION_WINDOW_MILLIS) {
+            utilization = Math.min(1, busyMillisInWindow / (double) (elapsed * nThreads));
+            busyMillisInWindow = 0;
+            windowStart = now;
+        }
+    }
+
+    private static class QueuedTask {
+
+        final IntConsumer task;
+
+        final long submitTime = System.currentTimeMillis();
+
+        QueuedTask (IntConsumer task) {
+            this.task = task;
+        }
+    }
+}
@@ -49,6 +49,9 @@ public class DebugOutput {
     public long renderingTime;
     public long totalTime;
     public boolean timedOut;
+    /** Totals over all searches made for this request, to evaluate the efficiency of the priority queue. */
+    public long statesVisited;
+    public long staleStatesSkipped;
 
     /**
      * Record the time when we first began calculating a path for this request
@@ -71,6 +74,12 @@ public class DebugOutput {
         foundPaths.add(System.currentTimeMillis());
     }
 
+    /** Record the number of states visited and skipped as dominated by a finished search. */
+    public void searchFinished(int nVisited, int nStalePops) {
+        statesVisited += nVisited;
+        staleStatesSkipped += nStalePops;
+    }
+
     /** Record the time when we finished calculating paths for this request. */
     public void finishedCalculating() {
         finishedCalculating = System.currentTimeMillis();
@@ -12,6 +12,8 @@ import org.opentripplanner.profile.Option;
 import org.opentripplanner.profile.ProfileRequest;
 import org.opentripplanner.profile.ProfileResponse;
 import org.opentripplanner.profile.ProfileRouter;
+import org.opentripplanner.profile.RaptorJourney;
+import org.opentripplanner.profile.RaptorPathFinder;
 import org.opentripplanner.profile.RepeatedRaptorProfileRouter;
 import org.opentripplanner.routing.core.TraverseModeSet;
 import org.opentripplanner.routing.graph.Graph;
@@ -30,6 +32,7 @@ import javax.ws.rs.core.Context;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import java.util.List;
 import java.util.Map;
 
 /**
@@ -156,5 +159,58 @@ public class ProfileResource {
             }
         }
     }
+
+    /**
+     * Find the fastest transit journey for each number of transfers when leaving at a single departure time, using
+     * RAPTOR on the scheduled trips of the day. Each journey arrives earlier than all journeys with fewer transfers.
+     */
+    @GET
+    @Path("/raptor")
+    @Produces({ MediaType.APPLICATION_JSON })
+    public Response raptorRoute (
+            @QueryParam("from")  LatLon from,
+            @QueryParam("to")    LatLon to,
+            @QueryParam("date")         @DefaultValue("today") YearMonthDay date,
+            @QueryParam("time")         @DefaultValue("07:30") HourMinuteSecond time,
+            @QueryParam("walkSpeed")    @DefaultValue("1.4")   float walkSpeed, // m/sec
+            @QueryParam("bikeSpeed")    @DefaultValue("4.1")   float bikeSpeed, // m/sec
+            @QueryParam("maxWalkTime")  @DefaultValue("15")    int maxWalkTime, // max minutes to reach transit on foot
+            @QueryParam("accessModes")  @DefaultValue("WALK")    QualifiedModeSet accessModes,
+            @QueryParam("egressModes")  @DefaultValue("WALK")    QualifiedModeSet egressModes,
+            @QueryParam("transitModes") @DefaultValue("TRANSIT") TraverseModeSet transitModes)
+            throws Exception {
+
+        QueryParameter.checkRangeInclusive(walkSpeed, 0.5, 7);
+        QueryParameter.checkRangeInclusive(bikeSpeed, 1, 21);
+        QueryParameter.checkRangeInclusive(maxWalkTime, 1, 480);
+
+        ProfileRequest req = new ProfileRequest();
+        req.fromLat      = from.lat;
+        req.fromLon      = from.lon;
+        req.toLat        = to.lat;
+        req.toLon        = to.lon;
+        // A single departure time. The RAPTOR data cover every trip on the date and are reused between requests.
+        req.fromTime     = time.toSeconds();
+        req.toTime       = req.fromTime + 60;
+        req.walkSpeed    = walkSpeed;
+        req.bikeSpeed    = bikeSpeed;
+        req.date         = date.toJoda();
+        req.accessModes  = accessModes;
+        req.egressModes  = egressModes;
+        req.directModes  = accessModes;
+        req.transitModes = transitModes;
+        req.maxWalkTime  = maxWalkTime;
+
+        RepeatedRaptorProfileRouter router = new RepeatedRaptorProfileRouter(graph, req);
+        try {
+            List<RaptorJourney> journeys = RaptorPathFinder.route(router);
+            return Response.status(Status.OK).entity(journeys).build();
+        } catch (Throwable throwable) {
+            LOG.error("Exception caught in RAPTOR routing", throwable);
+            return Response.status(Status.INTERNAL_SERVER_ERROR).entity(throwable.toString()).build();
+        } finally {
+            router.cleanup(); // destroy routing contexts even when an exception happens
+        }
+    }
     
 }
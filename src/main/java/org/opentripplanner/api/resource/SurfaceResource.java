@@ -8,6 +8,7 @@ import org.opentripplanner.analyst.PointSet;
 import org.opentripplanner.analyst.ResultSet;
 import org.opentripplanner.analyst.SampleSet;
 import org.opentripplanner.analyst.TimeSurface;
+import org.opentripplanner.analyst.cluster.ResultEnvelope;
 import org.opentripplanner.analyst.core.IsochroneData;
 import org.opentripplanner.analyst.core.SlippyTile;
 import org.opentripplanner.analyst.request.RenderRequest;
@@ -31,6 +32,7 @@ import org.slf4j.LoggerFactory;
 
 import javax.ws.rs.DefaultValue;
 import javax.ws.rs.GET;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
@@ -47,6 +49,7 @@ import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.zip.GZIPOutputStream;
 
 /**
  * Surfaces cannot be isolated per-router because sometimes you want to compare two surfaces from different router IDs.
@@ -118,13 +121,18 @@ public class SurfaceResource extends RoutingResource {
      * Normally we return historgrams with the number of points reached (in field 'counts') and the number of
      * opportunities reached (i.e. the sum of the magnitudes of all points reached) in each one-minute bin of travel
      * time.
+     * Clients that accept ResultEnvelope.BINARY_MEDIA_TYPE instead get the ResultSet as the point estimate of a
+     * ResultEnvelope in binary form, without isochrones, gzipped if they also accept gzip encoding.
      * @param detail if true, include the travel time to every point in the pointset (which is in fact an ordered list)
      */
     @GET @Path("/{surfaceId}/indicator")
+    @Produces({ MediaType.APPLICATION_JSON, ResultEnvelope.BINARY_MEDIA_TYPE })
     public Response getIndicator (@PathParam("surfaceId") Integer surfaceId,
                                   @QueryParam("targets")  String  targetPointSetId,
                                   @QueryParam("origins")  String  originPointSetId,
-                                  @QueryParam("detail")   boolean detail) {
+                                  @QueryParam("detail")   boolean detail,
+                                  @HeaderParam("Accept")  String  accept,
+                                  @HeaderParam("Accept-Encoding") String acceptEncoding) {
 
         final TimeSurface surf = otpServer.surfaceCache.get(surfaceId);
         if (surf == null) return badRequest("Invalid TimeSurface ID.");
@@ -134,6 +142,29 @@ public class SurfaceResource extends RoutingResource {
         Router router = otpServer.getRouter(surf.routerId);
         // TODO cache this sampleset
         SampleSet samples = pset.getSampleSet(router.graph);
+
+        if (ResultEnvelope.acceptsBinary(accept)) {
+            final ResultEnvelope envelope = new ResultEnvelope();
+            envelope.pointEstimate = new ResultSet(samples, surf, detail, false);
+            envelope.id = envelope.pointEstimate.id;
+            envelope.destinationPointsetId = targetPointSetId;
+            final boolean gzip = acceptEncoding != null && acceptEncoding.contains("gzip");
+            Response.ResponseBuilder builder = Response.ok().type(ResultEnvelope.BINARY_MEDIA_TYPE);
+            if (gzip) builder.header("Content-Encoding", "gzip");
+            return builder.entity(new StreamingOutput() {
+                @Override
+                public void write(OutputStream output) throws IOException, WebApplicationException {
+                    if (gzip) {
+                        GZIPOutputStream gzipOutput = new GZIPOutputStream(output);
+                        envelope.writeBinary(gzipOutput);
+                        gzipOutput.finish();
+                    } else {
+                        envelope.writeBinary(output);
+                    }
+                }
+            }).build();
+        }
+
         final ResultSet indicator = new ResultSet(samples, surf, detail, detail);
         if (indicator == null) return badServer("Could not compute indicator as requested.");
 
@@ -142,7 +173,7 @@ public class SurfaceResource extends RoutingResource {
             public void write(OutputStream output) throws IOException, WebApplicationException {
                 indicator.writeJson(output);
             }
-        }).build();
+        }).type(MediaType.APPLICATION_JSON).build();
 
     }
 
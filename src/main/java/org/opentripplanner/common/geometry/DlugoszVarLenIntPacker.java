@@ -14,6 +14,10 @@
 package org.opentripplanner.common.geometry;
 
 import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -33,47 +37,113 @@ public class DlugoszVarLenIntPacker {
         if (arr == null)
             return null;
         ByteArrayOutputStream baos = new ByteArrayOutputStream(arr.length);
-        for (int i : arr) {
-            if (i >= -64 && i <= 63) {
-                // 0xxx xxxx -> 7 bits value
-                // i+64 between 0 and 127, 7 bits
-                int ui = i + 64;
-                baos.write(ui);
-            } else if (i >= -8192 && i <= 8191) {
-                // 10xx xxxx + 8 -> 14 bits value
-                // i+8192 between 0 and 16383
-                int ui = i + 8192;
-                baos.write(0x80 | (ui >> 8)); // 6b MSB
-                baos.write(ui & 0xFF); // 8b LSB
-            } else if (i >= -1048576 && i <= 1048575) {
-                // 110 xxxx + 2x8 -> 21 bits value
-                // i + 1048576 between 0 and 2097151
-                int ui = i + 1048576;
-                baos.write(0xC0 | (ui >> 16)); // 5b MSB
-                baos.write((ui >> 8) & 0xFF); // 8b
-                baos.write(ui & 0xFF); // 8b
-            } else if (i >= -67108864 && i <= 67108863) {
-                // 1110 0xxx + 3x8 -> 27 bits value
-                // i + 67108864 between 0 and 134217727
-                int ui = i + 67108864;
-                baos.write(0xE0 | (ui >> 24)); // 3b MSB
-                baos.write((ui >> 16) & 0xFF); // 8b
-                baos.write((ui >> 8) & 0xFF); // 8b
-                baos.write(ui & 0xFF); // 8b
-            } else { // int can't have more than 32 bits
-                // 1110 1xxx + 4x8 -> 35 bits value
-                // i + 0x80000000 fits in 35 bits for sure
-                long ui = (long) i + 2147483648L;
-                baos.write((int) (0xE8 | (ui >> 32))); // 3b MSB
-                baos.write((int) ((ui >> 24) & 0xFF)); // 8b
-                baos.write((int) ((ui >> 16) & 0xFF)); // 8b
-                baos.write((int) ((ui >> 8) & 0xFF)); // 8b
-                baos.write((int) (ui & 0xFF)); // 8b
+        try {
+            for (int i : arr) {
+                write(baos, i);
             }
+        } catch (IOException e) {
+            throw new AssertionError(e); // ByteArrayOutputStream does not throw
         }
         return baos.toByteArray();
     }
 
+    /** Write a single value to a stream, taking between 1 and 5 bytes. */
+    public static void write(OutputStream out, int i) throws IOException {
+        if (i >= -64 && i <= 63) {
+            // 0xxx xxxx -> 7 bits value
+            // i+64 between 0 and 127, 7 bits
+            int ui = i + 64;
+            out.write(ui);
+        } else if (i >= -8192 && i <= 8191) {
+            // 10xx xxxx + 8 -> 14 bits value
+            // i+8192 between 0 and 16383
+            int ui = i + 8192;
+            out.write(0x80 | (ui >> 8)); // 6b MSB
+            out.write(ui & 0xFF); // 8b LSB
+        } else if (i >= -1048576 && i <= 1048575) {
+            // 110 xxxx + 2x8 -> 21 bits value
+            // i + 1048576 between 0 and 2097151
+            int ui = i + 1048576;
+            out.write(0xC0 | (ui >> 16)); // 5b MSB
+            out.write((ui >> 8) & 0xFF); // 8b
+            out.write(ui & 0xFF); // 8b
+        } else if (i >= -67108864 && i <= 67108863) {
+            // 1110 0xxx + 3x8 -> 27 bits value
+            // i + 67108864 between 0 and 134217727
+            int ui = i + 67108864;
+            out.write(0xE0 | (ui >> 24)); // 3b MSB
+            out.write((ui >> 16) & 0xFF); // 8b
+            out.write((ui >> 8) & 0xFF); // 8b
+            out.write(ui & 0xFF); // 8b
+        } else { // int can't have more than 32 bits
+            // 1110 1xxx + 4x8 -> 35 bits value
+            // i + 0x80000000 fits in 35 bits for sure
+            long ui = (long) i + 2147483648L;
+            out.write((int) (0xE8 | (ui >> 32))); // 3b MSB
+            out.write((int) ((ui >> 24) & 0xFF)); // 8b
+            out.write((int) ((ui >> 16) & 0xFF)); // 8b
+            out.write((int) ((ui >> 8) & 0xFF)); // 8b
+            out.write((int) (ui & 0xFF)); // 8b
+        }
+    }
+
+    /** Read a single value written by write(OutputStream, int) from a stream. */
+    public static int read(InputStream in) throws IOException {
+        int v1 = readByte(in);
+        if ((v1 & 0x80) == 0x00) {
+            // 0xxx xxxx -> 7 bits value
+            return (v1 & 0x7F) - 64;
+        } else if ((v1 & 0xC0) == 0x80) {
+            // 10xx xxxx + 8 -> 14 bits value
+            return ((v1 & 0x3F) << 8) + readByte(in) - 8192;
+        } else if ((v1 & 0xE0) == 0xC0) {
+            // 110 xxxx + 2x8 -> 21 bits value
+            return ((v1 & 0x1F) << 16) + (readByte(in) << 8) + readByte(in) - 1048576;
+        } else if ((v1 & 0xF8) == 0xE0) {
+            // 1110 0xxx + 3x8 -> 27 bits value
+            return ((v1 & 0x1F) << 24) + (readByte(in) << 16) + (readByte(in) << 8) + readByte(in) - 67108864;
+        } else {
+            // 1110 1xxx + 4x8 -> 35 bits value
+            long sv = (((long) v1 & 0x07) << 32) + ((long) readByte(in) << 24) + (readByte(in) << 16)
+                    + (readByte(in) << 8) + readByte(in) - 2147483648L;
+            return (int) sv;
+        }
+    }
+
+    /**
+     * Write the length of an array and then the differences between its successive values, which are small when the
+     * values are sorted or vary smoothly (e.g. travel times to neighboring points).
+     */
+    public static void writeDeltas(OutputStream out, int[] arr) throws IOException {
+        write(out, arr.length);
+        int previous = 0;
+        for (int i : arr) {
+            write(out, i - previous); // wraps around for the largest differences, which read undoes
+            previous = i;
+        }
+    }
+
+    /** Read an array written by writeDeltas. */
+    public static int[] readDeltas(InputStream in) throws IOException {
+        int length = read(in);
+        if (length < 0)
+            throw new IOException("Negative array length " + length);
+        int[] arr = new int[length];
+        int previous = 0;
+        for (int i = 0; i < length; i++) {
+            previous += read(in);
+            arr[i] = previous;
+        }
+        return arr;
+    }
+
+    private static int readByte(InputStream in) throws IOException {
+        int b = in.read();
+        if (b < 0)
+            throw new EOFException();
+        return b;
+    }
+
     public static int[] unpack(byte[] arr) {
         if (arr == null)
             return null;
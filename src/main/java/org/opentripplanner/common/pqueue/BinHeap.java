@@ -15,7 +15,7 @@ package org.opentripplanner.common.pqueue;
 
 import java.util.Arrays;
 
-public class BinHeap<T> {
+public class BinHeap<T> implements OTPPriorityQueue<T> {
     
     private static final double GROW_FACTOR = 2.0;
     
@@ -37,7 +37,15 @@ public class BinHeap<T> {
         size = 0;
         prio[0] = Double.NEGATIVE_INFINITY;    // set sentinel
     }
-    
+
+    /** Create an independent copy of another heap, with the same elements and priorities. */
+    public BinHeap(BinHeap<T> other) {
+        this.capacity = other.capacity;
+        this.elem = Arrays.copyOf(other.elem, other.capacity + 1);
+        this.prio = Arrays.copyOf(other.prio, other.capacity + 1);
+        this.size = other.size;
+    }
+
     public int size() {
     	return size;
     }
@@ -0,0 +1,128 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A min-heap where each node has four children instead of two. The tree is half as deep as a binary heap, so inserts
+ * do half as many comparisons and moves, and extractions touch half as many levels, each of which compares four
+ * adjacent keys that are likely to share a cache line. Keys and elements are kept in parallel arrays.
+ */
+public class FourAryHeap<T> implements OTPPriorityQueue<T> {
+
+    private static final int D = 4;
+
+    private double[] prio;
+    private T[] elem;
+    private int size = 0;
+
+    public FourAryHeap() {
+        this(1000);
+    }
+
+    @SuppressWarnings("unchecked")
+    public FourAryHeap(int capacity) {
+        if (capacity < 10) capacity = 10;
+        elem = (T[]) new Object[capacity];
+        prio = new double[capacity];
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    @Override
+    public double peek_min_key() {
+        if (size > 0)
+            return prio[0];
+        else
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+    }
+
+    @Override
+    public T peek_min() {
+        if (size > 0)
+            return elem[0];
+        else
+            return null;
+    }
+
+    @Override
+    public void insert(T e, double p) {
+        if (size == elem.length) {
+            elem = Arrays.copyOf(elem, size * 2);
+            prio = Arrays.copyOf(prio, size * 2);
+        }
+        // Sift the hole up from the end of the array until its parent has a key no greater than p.
+        int i = size++;
+        while (i > 0) {
+            int parent = (i - 1) / D;
+            if (prio[parent] <= p) break;
+            elem[i] = elem[parent];
+            prio[i] = prio[parent];
+            i = parent;
+        }
+        elem[i] = e;
+        prio[i] = p;
+    }
+
+    @Override
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        T minElem = elem[0];
+        size -= 1;
+        T lastElem = elem[size];
+        double lastPrio = prio[size];
+        elem[size] = null; // allow garbage collection
+        // Sift the hole down from the root, moving the smallest child up until the last element fits.
+        int i = 0;
+        while (true) {
+            int firstChild = i * D + 1;
+            if (firstChild >= size) break;
+            int lastChild = Math.min(firstChild + D, size);
+            int minChild = firstChild;
+            double minPrio = prio[firstChild];
+            for (int c = firstChild + 1; c < lastChild; c++) {
+                if (prio[c] < minPrio) {
+                    minPrio = prio[c];
+                    minChild = c;
+                }
+            }
+            if (lastPrio <= minPrio) break;
+            elem[i] = elem[minChild];
+            prio[i] = minPrio;
+            i = minChild;
+        }
+        if (size > 0) {
+            elem[i] = lastElem;
+            prio[i] = lastPrio;
+        }
+        return minElem;
+    }
+
+    @Override
+    public void reset() {
+        Arrays.fill(elem, 0, size, null);
+        size = 0;
+    }
+
+}
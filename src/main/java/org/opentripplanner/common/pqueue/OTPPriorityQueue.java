@@ -0,0 +1,45 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+/**
+ * A min-priority queue with double keys, as used by the shortest path searches.
+ * Elements are never removed or rekeyed once inserted: a search that finds a better way to reach some vertex enqueues
+ * a new State, and the old one becomes a stale entry that is skipped when it comes out of the queue.
+ * BinHeap is the general purpose implementation; see PriorityQueueType for the alternatives.
+ */
+public interface OTPPriorityQueue<T> {
+
+    /** @return the number of elements in the queue. */
+    int size();
+
+    /** @return true if there are no elements in the queue. */
+    boolean empty();
+
+    /** @return the smallest key in the queue. Throws IllegalStateException if the queue is empty. */
+    double peek_min_key();
+
+    /** @return the element with the smallest key without removing it, or null if the queue is empty. */
+    T peek_min();
+
+    /** Add an element with the given key. The same element may be present in the queue more than once. */
+    void insert(T e, double p);
+
+    /** Remove and return the element with the smallest key, or null if the queue is empty. */
+    T extract_min();
+
+    /** Empty the queue, keeping any internal storage for reuse. */
+    void reset();
+
+}
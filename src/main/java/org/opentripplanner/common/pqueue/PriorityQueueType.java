@@ -0,0 +1,52 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+/**
+ * The priority queue implementations that can be used by AStar, selected with RoutingRequest.priorityQueueType.
+ */
+public enum PriorityQueueType {
+
+    /** The classic binary heap. Exact ordering, works with any sequence of keys. */
+    BINARY_HEAP,
+
+    /**
+     * A 4-ary heap: half as many levels as a binary heap and children of the same node share a cache line,
+     * so it usually has lower constant factors when the queue is large. Exact ordering.
+     */
+    FOUR_ARY_HEAP,
+
+    /**
+     * A monotone radix heap on keys quantized to 1/100 of a weight unit. Inserts are O(1) and extractions amortized
+     * O(log C). Keys are only ordered to within the quantum, and keys lower than the last extracted key are treated as
+     * equal to it, so this is only appropriate with consistent heuristics (e.g. street-only or batch searches).
+     */
+    RADIX_HEAP;
+
+    /** Scale applied to keys before truncating them to longs in the radix heap. */
+    public static final double RADIX_KEYS_PER_UNIT = 100;
+
+    /** Create an empty queue of this type, with room for the given number of elements before it has to grow. */
+    public <T> OTPPriorityQueue<T> create (int initialCapacity) {
+        switch (this) {
+            case FOUR_ARY_HEAP:
+                return new FourAryHeap<>(initialCapacity);
+            case RADIX_HEAP:
+                return new RadixHeap<>(RADIX_KEYS_PER_UNIT);
+            default:
+                return new BinHeap<>(initialCapacity);
+        }
+    }
+
+}
@@ -0,0 +1,162 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.common.pqueue;
+
+import java.util.Arrays;
+
+/**
+ * A monotone radix heap. Keys are scaled and truncated to non-negative longs, and elements are placed in buckets
+ * according to the highest bit in which their key differs from the last extracted key. Bucket 0 holds elements whose
+ * key equals the last extracted key. When bucket 0 runs dry, the lowest non-empty bucket is scanned for its minimum key,
+ * which becomes the new last extracted key, and its elements are redistributed into lower buckets. Each element can
+ * only move to lower buckets, so extraction costs amortized O(log C) where C is the range of keys, and insertion O(1).
+ *
+ * This only works when keys are never lower than the last extracted key, which is the case for Dijkstra searches and
+ * A* searches with consistent heuristics. Keys that violate this are treated as equal to the last extracted key, so
+ * they will come out next rather than corrupting the heap. Elements whose keys fall in the same quantum come out in
+ * no particular order.
+ */
+public class RadixHeap<T> implements OTPPriorityQueue<T> {
+
+    /** Bucket 0 plus one bucket per bit position of a long. */
+    private static final int N_BUCKETS = 65;
+
+    private final double keysPerUnit;
+
+    private final Bucket[] buckets = new Bucket[N_BUCKETS];
+
+    /** The quantized key of the last extracted element, or of the current minimum after normalization. */
+    private long last = 0;
+
+    private int size = 0;
+
+    /** @param keysPerUnit how many distinct quantized keys there are per unit of the double keys. */
+    public RadixHeap(double keysPerUnit) {
+        this.keysPerUnit = keysPerUnit;
+        for (int b = 0; b < N_BUCKETS; b++) {
+            buckets[b] = new Bucket();
+        }
+    }
+
+    @Override
+    public int size() {
+        return size;
+    }
+
+    @Override
+    public boolean empty() {
+        return size <= 0;
+    }
+
+    @Override
+    public double peek_min_key() {
+        if (size <= 0)
+            throw new IllegalStateException("An empty queue does not have a minimum key.");
+        normalize();
+        Bucket b0 = buckets[0];
+        return b0.prio[b0.size - 1];
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T peek_min() {
+        if (size <= 0)
+            return null;
+        normalize();
+        Bucket b0 = buckets[0];
+        return (T) b0.elem[b0.size - 1];
+    }
+
+    @Override
+    public void insert(T e, double p) {
+        long q = (long) (p * keysPerUnit);
+        if (q < last) q = last;
+        buckets[bucketFor(q)].add(e, q, p);
+        size += 1;
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public T extract_min() {
+        if (size <= 0)
+            return null;
+        normalize();
+        Bucket b0 = buckets[0];
+        b0.size -= 1;
+        T e = (T) b0.elem[b0.size];
+        b0.elem[b0.size] = null; // allow garbage collection
+        size -= 1;
+        return e;
+    }
+
+    @Override
+    public void reset() {
+        for (Bucket b : buckets) {
+            b.clear();
+        }
+        size = 0;
+        last = 0;
+    }
+
+    private int bucketFor(long q) {
+        return q == last ? 0 : 64 - Long.numberOfLeadingZeros(q ^ last);
+    }
+
+    /** Make sure bucket 0 is not empty, redistributing the lowest non-empty bucket if necessary. Queue must not be empty. */
+    private void normalize() {
+        if (buckets[0].size > 0) return;
+        int i = 1;
+        while (buckets[i].size == 0) i++;
+        Bucket bucket = buckets[i];
+        long min = Long.MAX_VALUE;
+        for (int j = 0; j < bucket.size; j++) {
+            if (bucket.key[j] < min) min = bucket.key[j];
+        }
+        last = min;
+        // Every element in this bucket differs from the new minimum only in bits lower than i, so all move down.
+        int n = bucket.size;
+        bucket.size = 0;
+        for (int j = 0; j < n; j++) {
+            buckets[bucketFor(bucket.key[j])].add(bucket.elem[j], bucket.key[j], bucket.prio[j]);
+            bucket.elem[j] = null;
+        }
+    }
+
+    /** A growable stack of elements with their quantized and original keys. */
+    private static class Bucket {
+
+        Object[] elem = new Object[8];
+        long[] key = new long[8];
+        double[] prio = new double[8];
+        int size = 0;
+
+        void add (Object e, long q, double p) {
+            if (size == elem.length) {
+                elem = Arrays.copyOf(elem, size * 2);
+                key = Arrays.copyOf(key, size * 2);
+                prio = Arrays.copyOf(prio, size * 2);
+            }
+            elem[size] = e;
+            key[size] = q;
+            prio[size] = p;
+            size += 1;
+        }
+
+        void clear () {
+            Arrays.fill(elem, 0, size, null);
+            size = 0;
+        }
+    }
+
+}
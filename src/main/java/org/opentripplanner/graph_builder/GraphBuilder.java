@@ -16,6 +16,7 @@ package org.opentripplanner.graph_builder;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.google.common.collect.Lists;
 import org.opentripplanner.graph_builder.model.GtfsBundle;
+import org.opentripplanner.graph_builder.module.ContractionHierarchyModule;
 import org.opentripplanner.graph_builder.module.DirectTransferGenerator;
 import org.opentripplanner.graph_builder.module.EmbedConfig;
 import org.opentripplanner.graph_builder.module.GtfsModule;
@@ -38,6 +39,7 @@ import org.opentripplanner.reflect.ReflectionLibrary;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Graph.LoadLevel;
+import org.opentripplanner.routing.graph.GraphFormat;
 import org.opentripplanner.standalone.CommandLineParameters;
 import org.opentripplanner.standalone.GraphBuilderParameters;
 import org.opentripplanner.standalone.OTPMain;
@@ -64,6 +66,9 @@ public class GraphBuilder implements Runnable {
 
     public static final String BUILDER_CONFIG_FILENAME = "build-config.json";
 
+    /** Elevations sampled for street edges are kept in this file in the graph directory between builds. */
+    public static final String ELEVATION_CACHE_FILENAME = "elevation-profiles.cache";
+
     private List<GraphBuilderModule> _graphBuilderModules = new ArrayList<GraphBuilderModule>();
 
     private File graphFile;
@@ -79,6 +84,9 @@ public class GraphBuilder implements Runnable {
     /** Should the graph be serialized to disk after being created or not? */
     public boolean serializeGraph = true;
 
+    /** The format in which the graph is saved when serializeGraph is true. */
+    public GraphFormat graphFormat = GraphFormat.JAVA;
+
     public void addModule(GraphBuilderModule loader) {
         _graphBuilderModules.add(loader);
     }
@@ -159,7 +167,7 @@ public class GraphBuilder implements Runnable {
         graph.summarizeBuilderAnnotations();
         if (serializeGraph) {
             try {
-                graph.save(graphFile);
+                graph.save(graphFile, graphFormat);
             } catch (Exception ex) {
                 throw new IllegalStateException(ex);
             }
@@ -230,7 +238,8 @@ public class GraphBuilder implements Runnable {
         if ( hasOSM ) {
             List<OpenStreetMapProvider> osmProviders = Lists.newArrayList();
             for (File osmFile : osmFiles) {
-                OpenStreetMapProvider osmProvider = new AnyFileBasedOpenStreetMapProviderImpl(osmFile);
+                AnyFileBasedOpenStreetMapProviderImpl osmProvider = new AnyFileBasedOpenStreetMapProviderImpl(osmFile);
+                osmProvider.setCacheWays(builderParams.osmCacheWays);
                 osmProviders.add(osmProvider);
             }
             OpenStreetMapModule osmModule = new OpenStreetMapModule(osmProviders);
@@ -246,6 +255,7 @@ public class GraphBuilder implements Runnable {
             osmModule.staticParkAndRide = builderParams.staticParkAndRide;
             osmModule.banDiscouragedWalking = builderParams.banDiscouragedWalking;
             osmModule.banDiscouragedBiking = builderParams.banDiscouragedBiking;
+            osmModule.compactNodeStore = builderParams.compactOsmNodeStore;
             graphBuilder.addModule(osmModule);
             PruneFloatingIslands pruneFloatingIslands = new PruneFloatingIslands();
             pruneFloatingIslands.setPruningThresholdIslandWithoutStops(builderParams.pruningThresholdIslandWithoutStops);
@@ -280,6 +290,7 @@ public class GraphBuilder implements Runnable {
         graphBuilder.addModule(new StreetLinkerModule());
         // Load elevation data and apply it to the streets.
         // We want to do run this module after loading the OSM street network but before finding transfers.
+        ElevationGridCoverageFactory elevationCoverageFactory = null;
         if (builderParams.elevationBucket != null) {
             // Download the elevation tiles from an Amazon S3 bucket
             S3BucketConfig bucketConfig = builderParams.elevationBucket;
@@ -291,18 +302,20 @@ public class GraphBuilder implements Runnable {
             awsTileSource.awsBucketName = bucketConfig.bucketName;
             NEDGridCoverageFactoryImpl gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
             gcf.tileSource = awsTileSource;
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf);
-            graphBuilder.addModule(elevationBuilder);
+            elevationCoverageFactory = gcf;
         } else if (builderParams.fetchElevationUS) {
             // Download the elevation tiles from the official web service
             File cacheDirectory = new File(params.cacheDirectory, "ned");
-            ElevationGridCoverageFactory gcf = new NEDGridCoverageFactoryImpl(cacheDirectory);
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf);
-            graphBuilder.addModule(elevationBuilder);
+            elevationCoverageFactory = new NEDGridCoverageFactoryImpl(cacheDirectory);
         } else if (demFile != null) {
             // Load the elevation from a file in the graph inputs directory
-            ElevationGridCoverageFactory gcf = new GeotiffGridCoverageFactoryImpl(demFile);
-            GraphBuilderModule elevationBuilder = new ElevationModule(gcf);
+            elevationCoverageFactory = new GeotiffGridCoverageFactoryImpl(demFile);
+        }
+        if (elevationCoverageFactory != null) {
+            ElevationModule elevationBuilder = new ElevationModule(elevationCoverageFactory);
+            if (builderParams.elevationCache) {
+                elevationBuilder.setCacheFile(new File(dir, ELEVATION_CACHE_FILENAME));
+            }
             graphBuilder.addModule(elevationBuilder);
         }
         if ( hasGTFS ) {
@@ -312,11 +325,16 @@ public class GraphBuilder implements Runnable {
                 graphBuilder.addModule(new DirectTransferGenerator(builderParams.maxTransferDistance));
             }
         }
+        if ( ! builderParams.contractionHierarchies.isEmpty()) {
+            // Built last among the street modules, since elevation and linking change the street weights.
+            graphBuilder.addModule(new ContractionHierarchyModule(builderParams.contractionHierarchies));
+        }
         graphBuilder.addModule(new EmbedConfig(builderConfig, routerConfig));
         if (builderParams.htmlAnnotations) {
             graphBuilder.addModule(new AnnotationsToHTML(params.build, builderParams.maxHtmlAnnotationsPerFile));
         }
         graphBuilder.serializeGraph = ( ! params.inMemory ) || params.preFlight;
+        graphBuilder.graphFormat = GraphFormat.forName(params.graphFormat);
         return graphBuilder;
     }
 
@@ -16,6 +16,9 @@ package org.opentripplanner.graph_builder;
 import java.awt.geom.Point2D;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
 import java.nio.charset.Charset;
 import java.util.ArrayList;
 import java.util.Collections;
@@ -30,6 +33,7 @@ import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.routing.edgetype.PatternHop;
 import org.opentripplanner.routing.edgetype.TripPattern;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.GraphFormat;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.StreetVertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
@@ -72,6 +76,8 @@ public class GraphStats {
 
     private CommandPatternStats commandPatternStats = new CommandPatternStats();  
 
+    private CommandFormatBench commandFormatBench = new CommandFormatBench();
+
     private JCommander jc;
     
     private Graph graph;
@@ -88,6 +94,7 @@ public class GraphStats {
         jc.addCommand(commandEndpoints);
         jc.addCommand(commandSpeedStats);
         jc.addCommand(commandPatternStats);
+        jc.addCommand(commandFormatBench);
         
         try {
             jc.parse(args);
@@ -134,6 +141,11 @@ public class GraphStats {
             commandSpeedStats.run();
         } else if (command.equals("patternstats")) {
             commandPatternStats.run();
+        } else if (command.equals("formatbench")) {
+            if (!commandFormatBench.run()) {
+                writer.close();
+                System.exit(1);
+            }
         }
         writer.close();
 
@@ -299,6 +311,71 @@ public class GraphStats {
 
     }
 
-}
+    @Parameters(commandNames = "formatbench", commandDescription = "compare graph file formats")
+    class CommandFormatBench {
 
+        @Parameter(names = { "-n", "--iterations"}, description = "number of times to load each format")
+        private int iterations = 3;
 
+        /**
+         * Save the loaded graph in each format, then load each file repeatedly, recording the file size, the load
+         * time and the peak heap usage during loading. The loaded graph is released first so it does not dominate
+         * the heap figures.
+         * @return false if the benchmark failed.
+         */
+        public boolean run() {
+            List<File> files = new ArrayList<File>();
+            try {
+                for (GraphFormat format : GraphFormat.values()) {
+                    File file = File.createTempFile("graph-" + format.name().toLowerCase(), ".obj");
+                    file.deleteOnExit();
+                    graph.save(file, format);
+                    files.add(file);
+                }
+                graph = null;
+                writer.writeRecord(new String[] {"format", "bytes", "iteration", "loadMillis", "peakHeapBytes"});
+                for (GraphFormat format : GraphFormat.values()) {
+                    File file = files.get(format.ordinal());
+                    for (int i = 0; i < iterations; i++) {
+                        System.gc();
+                        resetPeakHeap();
+                        long t0 = System.currentTimeMillis();
+                        Graph loaded = Graph.load(file, Graph.LoadLevel.FULL);
+                        long loadMillis = System.currentTimeMillis() - t0;
+                        long peakHeap = getPeakHeap();
+                        LOG.info("{} format: {} bytes loaded in {} msec, |V|={}", format, file.length(),
+                                loadMillis, loaded.countVertices());
+                        writer.writeRecord(new String[] {
+                                format.name().toLowerCase(), Long.toString(file.length()),
+                                Integer.toString(i), Long.toString(loadMillis), Long.toString(peakHeap)
+                        });
+                    }
+                }
+            } catch (Exception e) {
+                LOG.error("Exception while benchmarking graph formats", e);
+                return false;
+            } finally {
+                for (File file : files) file.delete();
+            }
+            LOG.info("done.");
+            return true;
+        }
+
+        private void resetPeakHeap() {
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) pool.resetPeakUsage();
+            }
+        }
+
+        /** The sum of the per-pool peaks, which may overestimate the true peak since pools peak at different times. */
+        private long getPeakHeap() {
+            long peak = 0;
+            for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+                if (pool.getType() == MemoryType.HEAP) peak += pool.getPeakUsage().getUsed();
+            }
+            return peak;
+        }
+
+    }
+
+}
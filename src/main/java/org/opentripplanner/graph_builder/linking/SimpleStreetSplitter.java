@@ -45,7 +45,10 @@ import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
 import java.util.UUID;
 import java.util.stream.Collectors;
 
@@ -127,19 +130,55 @@ public class SimpleStreetSplitter implements StreetSplitter {
         this(graph, null, null);
     }
 
-    /** Link all relevant vertices to the street network */
+    /**
+     * Link all relevant vertices to the street network.
+     *
+     * The vertices are grouped into shards, square grid cells about the search radius across. Finding the closest edges
+     * to a vertex only reads the graph and the spatial index, so the shards are searched in parallel. The edges are then
+     * split and the link edges made on this thread, shard by shard and in order of vertex index within a shard, so that
+     * vertex labels and edge IDs do not depend on thread timing. If the closest edges to a vertex were split by the time
+     * it is linked (because another vertex was linked to them first), its closest edges are found again.
+     */
     public void linkAllStationsToGraph() {
-        for (Vertex v : graph.getVertices()) {
-            if (v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
-                if (!linkToClosestWalkableEdge(v, DESTRUCTIVE_SPLIT)) {
+        Map<Long, List<Vertex>> shards = graph.getVertices().stream()
+            .filter(v -> v instanceof TransitStop || v instanceof BikeRentalStationVertex || v instanceof BikeParkVertex)
+            .sorted(Comparator.comparingInt(Vertex::getIndex))
+            .collect(Collectors.groupingBy(SimpleStreetSplitter::shardKey, TreeMap::new, Collectors.toList()));
+
+        List<List<ClosestEdges>> closestEdgesByShard = shards.values().parallelStream()
+            .map(shard -> shard.stream()
+                .map(v -> findClosestEdges(v, TraverseMode.WALK))
+                .collect(Collectors.toList()))
+            .collect(Collectors.toList());
+
+        int nSearchedAgain = 0;
+        for (List<ClosestEdges> shard : closestEdgesByShard) {
+            for (ClosestEdges closestEdges : shard) {
+                if (!closestEdges.bestEdges.stream().allMatch(SimpleStreetSplitter::isInGraph)) {
+                    closestEdges = findClosestEdges(closestEdges.vertex, TraverseMode.WALK);
+                    nSearchedAgain++;
+                }
+                Vertex v = closestEdges.vertex;
+                if (!link(closestEdges, null, DESTRUCTIVE_SPLIT)) {
                     if (v instanceof TransitStop)
                         LOG.warn(graph.addBuilderAnnotation(new StopUnlinked((TransitStop) v)));
                     else if (v instanceof BikeRentalStationVertex)
                         LOG.warn(graph.addBuilderAnnotation(new BikeRentalStationUnlinked((BikeRentalStationVertex) v)));
                     else if (v instanceof BikeParkVertex)
                         LOG.warn(graph.addBuilderAnnotation(new BikeParkUnlinked((BikeParkVertex) v)));
-                };
+                }
+            }
         }
+        LOG.info("Linked vertices in {} shards, searching again for {} vertices whose closest edges had been split.",
+            shards.size(), nSearchedAgain);
+    }
+
+    /** The grid cell of about the search radius containing this vertex, as a key that sorts by row and then column. */
+    private static long shardKey (Vertex vertex) {
+        double cellSizeDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+        long y = (long) Math.floor(vertex.getLat() / cellSizeDeg);
+        long x = (long) Math.floor(vertex.getLon() / cellSizeDeg);
+        return (y << 32) | (x & 0xffffffffL);
     }
 
     /**
@@ -166,6 +205,14 @@ public class SimpleStreetSplitter implements StreetSplitter {
      */
     public boolean linkToGraph(Vertex vertex, TraverseMode traverseMode, RoutingRequest options,
                                final boolean destructiveSplitting) {
+        return link(findClosestEdges(vertex, traverseMode), options, destructiveSplitting);
+    }
+
+    /**
+     * Find the street edges closest to a vertex that can be traversed in the given mode. This only reads the graph and
+     * the spatial index, so it may be called from several threads at once as long as nothing is being linked.
+     */
+    private ClosestEdges findClosestEdges(Vertex vertex, TraverseMode traverseMode) {
         // find nearby street edges
         // TODO: we used to use an expanding-envelope search, which is more efficient in
         // dense areas. but first let's see how inefficient this is. I suspect it's not too
@@ -197,7 +244,7 @@ public class SimpleStreetSplitter implements StreetSplitter {
             // we do that below.
             .filter(edge -> edge.canTraverse(traverseModeSet) &&
                 // only link to edges still in the graph.
-                edge.getToVertex().getIncoming().contains(edge))
+                isInGraph(edge))
             .collect(Collectors.toList());
 
         // Make a map of distances to all edges.
@@ -219,6 +266,38 @@ public class SimpleStreetSplitter implements StreetSplitter {
 
         // find the closest candidate edges
         if (candidateEdges.isEmpty() || distances.get(candidateEdges.get(0).getId()) > radiusDeg) {
+            return new ClosestEdges(vertex, env, xscale, Collections.emptyList(), Double.POSITIVE_INFINITY);
+        }
+
+        // find the best edges
+        List<StreetEdge> bestEdges = Lists.newArrayList();
+
+        // add edges until there is a break of epsilon meters.
+        // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
+        // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
+        // fall just inside or beyond the cutoff depending on floating-point operations.
+        int i = 0;
+        do {
+            bestEdges.add(candidateEdges.get(i++));
+        } while (i < candidateEdges.size() &&
+            distances.get(candidateEdges.get(i).getId()) - distances
+                .get(candidateEdges.get(i - 1).getId()) < DUPLICATE_WAY_EPSILON_DEGREES);
+
+        return new ClosestEdges(vertex, env, xscale, bestEdges, distances.get(candidateEdges.get(0).getId()));
+    }
+
+    /**
+     * Link a vertex to the closest edges found for it, or if there are none and this is an origin or destination, to
+     * the closest transit stops.
+     */
+    private boolean link(ClosestEdges closestEdges, RoutingRequest options, final boolean destructiveSplitting) {
+        Vertex vertex = closestEdges.vertex;
+        Envelope env = closestEdges.env;
+        double xscale = closestEdges.xscale;
+        final double radiusDeg = SphericalDistanceLibrary.metersToDegrees(MAX_SEARCH_RADIUS_METERS);
+        final double DUPLICATE_WAY_EPSILON_DEGREES = SphericalDistanceLibrary.metersToDegrees(DUPLICATE_WAY_EPSILON_METERS);
+
+        if (closestEdges.bestEdges.isEmpty()) {
             // We only link to stops if we are searching for origin/destination and for that we need transitStopIndex.
             if (destructiveSplitting || transitStopIndex == null) {
                 return false;
@@ -270,28 +349,13 @@ public class SimpleStreetSplitter implements StreetSplitter {
                 return true;
             }
         } else {
-
-            // find the best edges
-            List<StreetEdge> bestEdges = Lists.newArrayList();
-
-            // add edges until there is a break of epsilon meters.
-            // we do this to enforce determinism. if there are a lot of edges that are all extremely close to each other,
-            // we want to be sure that we deterministically link to the same ones every time. Any hard cutoff means things can
-            // fall just inside or beyond the cutoff depending on floating-point operations.
-            int i = 0;
-            do {
-                bestEdges.add(candidateEdges.get(i++));
-            } while (i < candidateEdges.size() &&
-                distances.get(candidateEdges.get(i).getId()) - distances
-                    .get(candidateEdges.get(i - 1).getId()) < DUPLICATE_WAY_EPSILON_DEGREES);
-
-            for (StreetEdge edge : bestEdges) {
+            for (StreetEdge edge : closestEdges.bestEdges) {
                 linkToEdge(vertex, edge, xscale, options, destructiveSplitting);
             }
 
             // Warn if a linkage was made, but the linkage was suspiciously long.
             if (vertex instanceof TransitStop) {
-                double distanceDegreesLatitude = distances.get(candidateEdges.get(0).getId());
+                double distanceDegreesLatitude = closestEdges.bestDistance;
                 int distanceMeters = (int)SphericalDistanceLibrary.degreesLatitudeToMeters(distanceDegreesLatitude);
                 if (distanceMeters > WARNING_DISTANCE_METERS) {
                     // Registering an annotation but not logging because tests produce thousands of these warnings.
@@ -303,6 +367,11 @@ public class SimpleStreetSplitter implements StreetSplitter {
         }
     }
 
+    /** @return true if this edge has not been split, that is if it is still in the graph. */
+    private static boolean isInGraph (StreetEdge edge) {
+        return edge.getToVertex().getIncoming().contains(edge);
+    }
+
     /**
      * Split the edge and link in the transit stop.
      * @param vertex An object of Vertex to be linked to an edge.
@@ -581,4 +650,30 @@ public class SimpleStreetSplitter implements StreetSplitter {
         return closest;
 
     }
+
+    /** The street edges closest to a vertex, found before linking it. */
+    private static class ClosestEdges {
+
+        final Vertex vertex;
+
+        /** The envelope that was searched. */
+        final Envelope env;
+
+        /** The longitude scale factor of the local equirectangular projection. */
+        final double xscale;
+
+        /** The closest edges, all within DUPLICATE_WAY_EPSILON_METERS of the next closest, or empty if none are in range. */
+        final List<StreetEdge> bestEdges;
+
+        /** The distance to the closest edge in degrees latitude. */
+        final double bestDistance;
+
+        ClosestEdges (Vertex vertex, Envelope env, double xscale, List<StreetEdge> bestEdges, double bestDistance) {
+            this.vertex = vertex;
+            this.env = env;
+            this.xscale = xscale;
+            this.bestEdges = bestEdges;
+            this.bestDistance = bestDistance;
+        }
+    }
 }
@@ -0,0 +1,86 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module;
+
+import org.opentripplanner.graph_builder.services.GraphBuilderModule;
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
+import org.opentripplanner.routing.contraction.ContractionHierarchyBuilder;
+import org.opentripplanner.routing.contraction.ContractionHierarchySet;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that builds contraction hierarchies
+ * over the street network, which speed up long street-only (e.g. car or bicycle) searches.
+ *
+ * Each hierarchy is described by a string like "CAR" or "BICYCLE:SAFE": a comma-separated set of modes optionally
+ * followed by an optimization type, QUICK by default. A hierarchy is used for requests with exactly those modes,
+ * that optimization type and the default values of the other parameters that influence street weights.
+ */
+public class ContractionHierarchyModule implements GraphBuilderModule {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyModule.class);
+
+    private final List<String> hierarchies;
+
+    public List<String> provides() {
+        return Arrays.asList("contraction hierarchies");
+    }
+
+    public List<String> getPrerequisites() {
+        return Arrays.asList("streets");
+    }
+
+    public ContractionHierarchyModule (List<String> hierarchies) {
+        this.hierarchies = hierarchies;
+    }
+
+    @Override
+    public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
+        ContractionHierarchySet hierarchySet = new ContractionHierarchySet();
+        for (String description : hierarchies) {
+            String[] parts = description.split(":");
+            TraverseModeSet modes = new TraverseModeSet(parts[0]);
+            OptimizeType optimize = parts.length > 1 ? OptimizeType.valueOf(parts[1]) : OptimizeType.QUICK;
+            LOG.info("Building contraction hierarchy for {} {}...", modes, optimize);
+            ContractionHierarchy hierarchy = new ContractionHierarchyBuilder(graph, modes, optimize).build();
+            if (hierarchy != null) {
+                hierarchySet.add(hierarchy);
+            }
+        }
+        graph.putService(ContractionHierarchySet.class, hierarchySet);
+    }
+
+    @Override
+    public void checkInputs() {
+        for (String description : hierarchies) {
+            String[] parts = description.split(":");
+            TraverseModeSet modes = new TraverseModeSet(parts[0]);
+            if (modes.isTransit()) {
+                throw new IllegalArgumentException("Contraction hierarchies are for street modes only: " + description);
+            }
+            if (parts.length > 1) {
+                OptimizeType.valueOf(parts[1]);
+            }
+        }
+    }
+
+}
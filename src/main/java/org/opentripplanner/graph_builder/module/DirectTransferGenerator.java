@@ -21,15 +21,20 @@ import org.opentripplanner.routing.edgetype.SimpleTransfer;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.GraphIndex;
+import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Collectors;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} module that links up the stops of a transit network among themselves. This is necessary for
@@ -73,37 +78,41 @@ public class DirectTransferGenerator implements GraphBuilderModule {
             LOG.info("Creating direct transfer edges between stops using straight line distance (not streets)...");
         }
 
-        int nTransfersTotal = 0;
-        int nLinkableStops = 0;
-
+        /* Skip stops that are entrances to stations or whose entrances are coded separately */
+        List<TransitStop> stops = new ArrayList<>();
         for (TransitStop ts0 : Iterables.filter(graph.getVertices(), TransitStop.class)) {
-
-            /* Skip stops that are entrances to stations or whose entrances are coded separately */
-            if (!ts0.isStreetLinkable()) continue;
-            if (++nLinkableStops % 1000 == 0) {
-                LOG.info("Linked {} stops", nLinkableStops);
-            }
-            LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
-
-            /* Determine the set of stops that are already reachable via other pathways or transfers */
-            Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
-            for (Edge e : ts0.getOutgoing()) {
-                if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
-                    if (e.getToVertex() instanceof TransitStop) {
-                        TransitStop to = (TransitStop) e.getToVertex();
-                        pathwayDestinations.add(to);
+            if (ts0.isStreetLinkable()) stops.add(ts0);
+        }
+        stops.sort(Comparator.comparingInt(Vertex::getIndex));
+
+        /* These are initialized lazily by the first search, do it now rather than racing to do it on many threads. */
+        graph.getCalendarService();
+        graph.getTimeZone();
+
+        /*
+         * Search from all the stops in parallel. The searches only read the graph, and each has its own routing request
+         * and shortest path tree. The transfers are created afterwards on this thread in stop order, so that they get
+         * the same edge IDs in every build.
+         */
+        AtomicInteger nSearched = new AtomicInteger();
+        List<List<NearbyStopFinder.StopAtDistance>> transfersForStop = stops.parallelStream()
+                .map(ts0 -> {
+                    if (nSearched.incrementAndGet() % 1000 == 0) {
+                        LOG.info("Searched from {} of {} stops", nSearched.get(), stops.size());
                     }
-                }
-            }
+                    return findTransfers(ts0, nearbyStopFinder);
+                })
+                .collect(Collectors.toList());
 
-            /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
-            int n = 0;
-            for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
-                /* Skip the origin stop, loop transfers are not needed. */
-                if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
+        int nTransfersTotal = 0;
+        int nLinkableStops = stops.size();
+        for (int i = 0; i < stops.size(); i++) {
+            TransitStop ts0 = stops.get(i);
+            List<NearbyStopFinder.StopAtDistance> transfers = transfersForStop.get(i);
+            for (NearbyStopFinder.StopAtDistance sd : transfers) {
                 new SimpleTransfer(ts0, sd.tstop, sd.dist, sd.geom, sd.edges);
-                n += 1;
             }
+            int n = transfers.size();
             LOG.debug("Linked stop {} to {} nearby stops on other patterns.", ts0.getStop(), n);
             if (n == 0) {
                 LOG.debug(graph.addBuilderAnnotation(new StopNotLinkedForTransfers(ts0)));
@@ -114,6 +123,37 @@ public class DirectTransferGenerator implements GraphBuilderModule {
         graph.hasDirectTransfers = true;
     }
 
+    /**
+     * Find the stops to make transfers to from the given stop: each nearby stop that is the closest stop on some trip
+     * pattern, unless it is already reachable through a pathway or transfer. This is called on many threads at once.
+     * @return the stops, in order of vertex index so that the transfers are always created in the same order.
+     */
+    private static List<NearbyStopFinder.StopAtDistance> findTransfers (TransitStop ts0,
+            NearbyStopFinder nearbyStopFinder) {
+        LOG.debug("Linking stop '{}' {}", ts0.getStop(), ts0);
+
+        /* Determine the set of stops that are already reachable via other pathways or transfers */
+        Set<TransitStop> pathwayDestinations = new HashSet<TransitStop>();
+        for (Edge e : ts0.getOutgoing()) {
+            if (e instanceof PathwayEdge || e instanceof SimpleTransfer) {
+                if (e.getToVertex() instanceof TransitStop) {
+                    TransitStop to = (TransitStop) e.getToVertex();
+                    pathwayDestinations.add(to);
+                }
+            }
+        }
+
+        /* Make transfers to each nearby stop that is the closest stop on some trip pattern. */
+        List<NearbyStopFinder.StopAtDistance> transfers = new ArrayList<>();
+        for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(ts0)) {
+            /* Skip the origin stop, loop transfers are not needed. */
+            if (sd.tstop == ts0 || pathwayDestinations.contains(sd.tstop)) continue;
+            transfers.add(sd);
+        }
+        transfers.sort(Comparator.comparingInt(sd -> sd.tstop.getIndex()));
+        return transfers;
+    }
+
     @Override
     public void checkInputs() {
         // No inputs
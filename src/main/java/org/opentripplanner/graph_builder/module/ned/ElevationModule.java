@@ -36,12 +36,17 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.media.jai.InterpolationBilinear;
+import java.io.File;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Comparator;
 import java.util.HashMap;
-import java.util.HashSet;
-import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.IntStream;
 
 /**
  * {@link org.opentripplanner.graph_builder.services.GraphBuilderModule} plugin that applies elevation data to street data that has already
@@ -57,13 +62,17 @@ public class ElevationModule implements GraphBuilderModule {
 
     private static final Logger log = LoggerFactory.getLogger(ElevationModule.class);
 
-    private ElevationGridCoverageFactory gridCoverageFactory;
+    /** The number of edges sampled by each task, using an elevation coverage of its own. */
+    private static final int EDGES_PER_TASK = 10000;
 
-    private Coverage coverage;
+    private ElevationGridCoverageFactory gridCoverageFactory;
 
     // Keep track of the proportion of elevation fetch operations that fail so we can issue warnings.
-    private int nPointsEvaluated = 0;
-    private int nPointsOutsideDEM = 0;
+    private final LongAdder nPointsEvaluated = new LongAdder();
+    private final LongAdder nPointsOutsideDEM = new LongAdder();
+
+    /** If not null, elevations sampled in previous builds are read from and saved to this file. */
+    private File cacheFile;
 
     /**
      * The distance between samples in meters. Defaults to 10m, the approximate resolution of 1/3
@@ -93,41 +102,82 @@ public class ElevationModule implements GraphBuilderModule {
         distanceBetweenSamplesM = distance;
     }
 
+    /** Keep the elevations sampled for each edge in this file, so unchanged edges are not sampled again next build. */
+    public void setCacheFile(File cacheFile) {
+        this.cacheFile = cacheFile;
+    }
+
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
         gridCoverageFactory.setGraph(graph);
         Coverage gridCov = gridCoverageFactory.getGridCoverage();
 
-        // If gridCov is a GridCoverage2D, apply a bilinear interpolator. Otherwise, just use the
-        // coverage as is (note: UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle
-        // interpolation internally)
-        coverage = (gridCov instanceof GridCoverage2D) ? Interpolator2D.create(
-                (GridCoverage2D) gridCov, new InterpolationBilinear()) : gridCov;
+        ElevationProfileCache cache = null;
+        if (cacheFile != null) {
+            cache = new ElevationProfileCache(cacheFile, distanceBetweenSamplesM);
+            cache.load();
+        }
+
         log.info("Setting street elevation profiles from digital elevation model...");
-        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
-        int nProcessed = 0;
-        int nTotal = graph.countEdges();
+        List<StreetWithElevationEdge> edges = new ArrayList<>();
         for (Vertex gv : graph.getVertices()) {
             for (Edge ee : gv.getOutgoing()) {
                 if (ee instanceof StreetWithElevationEdge) {
-                    StreetWithElevationEdge edgeWithElevation = (StreetWithElevationEdge) ee;
-                    processEdge(graph, edgeWithElevation);
-                    if (edgeWithElevation.getElevationProfile() != null && !edgeWithElevation.isElevationFlattened()) {
-                        edgesWithElevation.add(edgeWithElevation);
-                    }
-                    nProcessed += 1;
-                    if (nProcessed % 50000 == 0) {
-                        log.info("set elevation on {}/{} edges", nProcessed, nTotal);
-                        double failurePercentage = nPointsOutsideDEM / nPointsEvaluated * 100;
-                        if (failurePercentage > 50) {
-                            log.warn("Fetching elevation failed at {}/{} points ({}%)",
-                                    nPointsOutsideDEM, nPointsEvaluated, failurePercentage);
-                            log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
-                                    "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
-                        }
+                    edges.add((StreetWithElevationEdge) ee);
+                }
+            }
+        }
+        // Edges are created in the order the OSM ways are read, so neighboring edges tend to sample the same part of
+        // the DEM and tasks of consecutive edges make good use of the raster tile cache.
+        edges.sort(Comparator.comparingInt(Edge::getId));
+
+        // Sample the profiles in parallel. Each task has a coverage of its own because GeoTools interpolators
+        // synchronize evaluation.
+        final ElevationProfileCache profileCache = cache;
+        PackedCoordinateSequence[] profiles = new PackedCoordinateSequence[edges.size()];
+        AtomicInteger nProcessed = new AtomicInteger();
+        int nTotal = edges.size();
+        IntStream.range(0, (edges.size() + EDGES_PER_TASK - 1) / EDGES_PER_TASK).parallel().forEach(task -> {
+            Coverage coverage = makeCoverageForTask(gridCov);
+            int end = Math.min(edges.size(), (task + 1) * EDGES_PER_TASK);
+            for (int i = task * EDGES_PER_TASK; i < end; i++) {
+                StreetWithElevationEdge edge = edges.get(i);
+                // skip edges that are already set up
+                if (edge.getElevationProfile() == null) {
+                    profiles[i] = sampleProfile(coverage, profileCache, edge.getGeometry().getCoordinates());
+                }
+                int n = nProcessed.incrementAndGet();
+                if (n % 50000 == 0) {
+                    log.info("set elevation on {}/{} edges", n, nTotal);
+                    double failurePercentage = nPointsOutsideDEM.sum() * 100.0 / Math.max(1, nPointsEvaluated.sum());
+                    if (failurePercentage > 50) {
+                        log.warn("Fetching elevation failed at {}/{} points ({}%)",
+                                nPointsOutsideDEM.sum(), nPointsEvaluated.sum(), failurePercentage);
+                        log.warn("Elevation is missing at a large number of points. DEM may be for the wrong region. " +
+                                "If it is unprojected, perhaps the axes are not in (longitude, latitude) order.");
                     }
                 }
             }
+        });
+
+        // Set the profiles on this thread, in edge order, so that annotations are added in a repeatable order.
+        List<StreetEdge> edgesWithElevation = new ArrayList<StreetEdge>();
+        for (int i = 0; i < profiles.length; i++) {
+            StreetWithElevationEdge edge = edges.get(i);
+            if (profiles[i] != null) {
+                if (cache != null) {
+                    cache.put(edge.getGeometry().getCoordinates(), profiles[i]);
+                }
+                if (edge.setElevationProfile(profiles[i], false)) {
+                    log.trace(graph.addBuilderAnnotation(new ElevationFlattened(edge)));
+                }
+            }
+            if (edge.getElevationProfile() != null && !edge.isElevationFlattened()) {
+                edgesWithElevation.add(edge);
+            }
+        }
+        if (cache != null) {
+            cache.save();
         }
 
         @SuppressWarnings("unchecked")
@@ -135,6 +185,20 @@ public class ElevationModule implements GraphBuilderModule {
         assignMissingElevations(graph, edgesWithElevation, extraElevation);
     }
 
+    /**
+     * Make a coverage for one sampling task. If gridCov is a GridCoverage2D, apply a bilinear interpolator.
+     * UnifiedGridCoverages created by NEDGridCoverageFactoryImpl handle interpolation internally, but need
+     * interpolators of their own. Any other coverage is used as is.
+     */
+    private static Coverage makeCoverageForTask(Coverage gridCov) {
+        if (gridCov instanceof GridCoverage2D) {
+            return Interpolator2D.create((GridCoverage2D) gridCov, new InterpolationBilinear());
+        } else if (gridCov instanceof UnifiedGridCoverage) {
+            return ((UnifiedGridCoverage) gridCov).withNewInterpolators();
+        }
+        return gridCov;
+    }
+
     class ElevationRepairState {
         /* This uses an intuitionist approach to elevation inspection */
         public StreetEdge backEdge;
@@ -167,35 +231,37 @@ public class ElevationModule implements GraphBuilderModule {
 
         BinHeap<ElevationRepairState> pq = new BinHeap<ElevationRepairState>();
 
-        // elevation for each vertex (known or interpolated)
+        // elevation for each vertex (known or interpolated), indexed by vertex index, NaN where not known
+        double[] elevations = new double[Vertex.getMaxIndex()];
+        Arrays.fill(elevations, Double.NaN);
         // knownElevations will be null if there are no ElevationPoints in the data
         // for instance, with the Shapefile loader.)
-        HashMap<Vertex, Double> elevations; 
-        if (knownElevations != null)
-            elevations = (HashMap<Vertex, Double>) knownElevations.clone();
-        else
-            elevations = new HashMap<Vertex, Double>();
+        if (knownElevations != null) {
+            for (Map.Entry<Vertex, Double> entry : knownElevations.entrySet()) {
+                elevations[entry.getKey().getIndex()] = entry.getValue();
+            }
+        }
 
-        HashSet<Vertex> closed = new HashSet<Vertex>();
+        BitSet closed = new BitSet(elevations.length);
 
         // initialize queue with all vertices which already have known elevation
         for (StreetEdge e : edgesWithElevation) {
             PackedCoordinateSequence profile = e.getElevationProfile();
 
-            if (!elevations.containsKey(e.getFromVertex())) {
+            if (Double.isNaN(elevations[e.getFromVertex().getIndex()])) {
                 double firstElevation = profile.getOrdinate(0, 1);
                 ElevationRepairState state = new ElevationRepairState(null, null,
                         e.getFromVertex(), 0, firstElevation);
                 pq.insert(state, 0);
-                elevations.put(e.getFromVertex(), firstElevation);
+                elevations[e.getFromVertex().getIndex()] = firstElevation;
             }
 
-            if (!elevations.containsKey(e.getToVertex())) {
+            if (Double.isNaN(elevations[e.getToVertex().getIndex()])) {
                 double lastElevation = profile.getOrdinate(profile.size() - 1, 1);
                 ElevationRepairState state = new ElevationRepairState(null, null, e.getToVertex(),
                         0, lastElevation);
                 pq.insert(state, 0);
-                elevations.put(e.getToVertex(), lastElevation);
+                elevations[e.getToVertex().getIndex()] = lastElevation;
             }
         }
 
@@ -205,8 +271,8 @@ public class ElevationModule implements GraphBuilderModule {
         while (!pq.empty()) {
             ElevationRepairState state = pq.extract_min();
 
-            if (closed.contains(state.vertex)) continue;
-            closed.add(state.vertex);
+            if (closed.get(state.vertex.getIndex())) continue;
+            closed.set(state.vertex.getIndex());
 
             ElevationRepairState curState = state;
             Vertex initialVertex = null;
@@ -226,8 +292,8 @@ public class ElevationModule implements GraphBuilderModule {
                 if (tov == initialVertex)
                     continue;
 
-                Double elevation = elevations.get(tov);
-                if (elevation != null) {
+                double elevation = elevations[tov.getIndex()];
+                if (!Double.isNaN(elevation)) {
                     double distance = e.getDistance();
                     if (distance < bestDistance) {
                         bestDistance = distance;
@@ -249,8 +315,8 @@ public class ElevationModule implements GraphBuilderModule {
                 Vertex fromv = e.getFromVertex();
                 if (fromv == initialVertex)
                     continue;
-                Double elevation = elevations.get(fromv);
-                if (elevation != null) {
+                double elevation = elevations[fromv.getIndex()];
+                if (!Double.isNaN(elevation)) {
                     double distance = e.getDistance();
                     if (distance < bestDistance) {
                         bestDistance = distance;
@@ -280,17 +346,17 @@ public class ElevationModule implements GraphBuilderModule {
                     // watch out for division by 0 here, which will propagate NaNs 
                     // all the way out to edge lengths 
                     if (totalDistance == 0)
-                        elevations.put(state.vertex, bestElevation);
+                        elevations[state.vertex.getIndex()] = bestElevation;
                     else {
                         double elevation = (bestElevation * state.distance + 
                                state.initialElevation * bestDistance) / totalDistance;
-                        elevations.put(state.vertex, elevation);
+                        elevations[state.vertex.getIndex()] = elevation;
                     }
                     if (state.backState == null)
                         break;
                     bestDistance += state.backEdge.getDistance();
                     state = state.backState;
-                    if (elevations.containsKey(state.vertex))
+                    if (!Double.isNaN(elevations[state.vertex.getIndex()]))
                         break;
                 }
 
@@ -299,14 +365,14 @@ public class ElevationModule implements GraphBuilderModule {
 
         // do actual assignments
         for (Vertex v : graph.getVertices()) {
-            Double fromElevation = elevations.get(v);
+            double fromElevation = elevations[v.getIndex()];
             for (Edge e : v.getOutgoing()) {
                 if (e instanceof StreetWithElevationEdge) {
                     StreetWithElevationEdge edge = ((StreetWithElevationEdge) e);
 
-                    Double toElevation = elevations.get(edge.getToVertex());
+                    double toElevation = elevations[edge.getToVertex().getIndex()];
 
-                    if (fromElevation == null || toElevation == null) {
+                    if (Double.isNaN(fromElevation) || Double.isNaN(toElevation)) {
                         if (!edge.isElevationFlattened() && !edge.isSlopeOverride())
                             log.warn("Unexpectedly missing elevation for edge " + edge);
                         continue;
@@ -331,19 +397,18 @@ public class ElevationModule implements GraphBuilderModule {
     }
 
     /**
-     * Processes a single street edge, creating and assigning the elevation profile.
+     * Samples the elevation profile of a single street edge. This only reads the coverage and cache, so it may be called
+     * from several threads at once with a coverage for each.
      * 
-     * @param ee the street edge
-     * @param graph the graph (used only for error handling)
+     * @param coverage the coverage to sample elevations from
+     * @param cache elevations sampled in previous builds, or null
+     * @param coords the geometry of the street edge
+     * @return the elevation profile
      */
-    private void processEdge(Graph graph, StreetWithElevationEdge ee) {
-        if (ee.getElevationProfile() != null) {
-            return; /* already set up */
-        }
-        Geometry g = ee.getGeometry();
-        Coordinate[] coords = g.getCoordinates();
-
-        List<Coordinate> coordList = new LinkedList<Coordinate>();
+    private PackedCoordinateSequence sampleProfile(Coverage coverage, ElevationProfileCache cache, Coordinate[] coords) {
+        List<Coordinate> coordList = new ArrayList<Coordinate>();
+        // The points sampled, in the same order as coordList.
+        List<Coordinate> samplePoints = new ArrayList<Coordinate>();
 
         // calculate the total edge length in meters
         double edgeLenM = 0;
@@ -353,7 +418,8 @@ public class ElevationModule implements GraphBuilderModule {
         }
 
         // initial sample (x = 0)
-        coordList.add(new Coordinate(0, getElevation(coords[0])));
+        coordList.add(new Coordinate(0, 0));
+        samplePoints.add(coords[0]);
 
         // loop for edge-internal samples
         for (double x = distanceBetweenSamplesM; x < edgeLenM; x += distanceBetweenSamplesM) {
@@ -362,21 +428,24 @@ public class ElevationModule implements GraphBuilderModule {
                 break;
             }
 
-            Coordinate internal = getPointAlongEdge(coords, edgeLenM, x / edgeLenM);
-            coordList.add(new Coordinate(x, getElevation(internal)));
+            coordList.add(new Coordinate(x, 0));
+            samplePoints.add(getPointAlongEdge(coords, edgeLenM, x / edgeLenM));
         }
 
         // final sample (x = edge length)
-        coordList.add(new Coordinate(edgeLenM, getElevation(coords[coords.length - 1])));
+        coordList.add(new Coordinate(edgeLenM, 0));
+        samplePoints.add(coords[coords.length - 1]);
+
+        // use the elevations from the cache if the edge has the same samples, otherwise fetch them from the DEM
+        double[] cached = cache == null ? null : cache.get(coords);
+        for (int i = 0; i < coordList.size(); i++) {
+            coordList.get(i).y = (cached != null && cached.length == coordList.size()) ?
+                    cached[i] : getElevation(coverage, samplePoints.get(i));
+        }
 
         // construct the PCS
         Coordinate coordArr[] = new Coordinate[coordList.size()];
-        PackedCoordinateSequence elevPCS = new PackedCoordinateSequence.Double(
-                coordList.toArray(coordArr));
-
-        if(ee.setElevationProfile(elevPCS, false)) {
-            log.trace(graph.addBuilderAnnotation(new ElevationFlattened(ee)));
-        }
+        return new PackedCoordinateSequence.Double(coordList.toArray(coordArr));
     }
 
     /**
@@ -427,21 +496,23 @@ public class ElevationModule implements GraphBuilderModule {
     /**
      * Method for retrieving the elevation at a given Coordinate.
      * 
+     * @param coverage the coverage to sample
      * @param c the coordinate (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(Coordinate c) {
-        return getElevation(c.x, c.y);
+    private double getElevation(Coverage coverage, Coordinate c) {
+        return getElevation(coverage, c.x, c.y);
     }
 
     /**
      * Method for retrieving the elevation at a given (x, y) pair.
      * 
+     * @param coverage the coverage to sample
      * @param x the query longitude (NAD83)
      * @param y the query latitude (NAD83)
      * @return elevation in meters
      */
-    private double getElevation(double x, double y) {
+    private double getElevation(Coverage coverage, double x, double y) {
         double values[] = new double[1];
         try {
             // We specify a CRS here because otherwise the coordinates are assumed to be in the coverage's native CRS.
@@ -451,9 +522,9 @@ public class ElevationModule implements GraphBuilderModule {
             // rasters to also use (long, lat).
             coverage.evaluate(new DirectPosition2D(GeometryUtils.WGS84_XY, x, y), values);
         } catch (org.opengis.coverage.PointOutsideCoverageException e) {
-            nPointsOutsideDEM += 1;
+            nPointsOutsideDEM.increment();
         }
-        nPointsEvaluated += 1;
+        nPointsEvaluated.increment();
         return values[0];
     }
 
@@ -0,0 +1,141 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module.ned;
+
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.vividsolutions.jts.geom.Coordinate;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+
+/**
+ * Elevations sampled along street edges, saved to a file between graph builds so that edges whose geometry has not
+ * changed do not need to be sampled from the DEM again.
+ *
+ * Edges are identified by a hash of their geometry. A cache file is only used if it was written with the same distance
+ * between samples. The file does not record which DEM the elevations came from, so it must be deleted when the DEM
+ * changes. Only the edges put in the cache during this build are saved, so edges that have been removed from the
+ * street network drop out of the file.
+ */
+public class ElevationProfileCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ElevationProfileCache.class);
+
+    private static final int FORMAT_VERSION = 1;
+
+    private final File file;
+
+    private final double distanceBetweenSamplesM;
+
+    /** Elevations read from the file, keyed on geometry hash. Only read once loaded, so safe to use from many threads. */
+    private final TLongObjectMap<double[]> loaded = new TLongObjectHashMap<>();
+
+    /** Elevations to save, keyed on geometry hash. */
+    private final TLongObjectMap<double[]> current = new TLongObjectHashMap<>();
+
+    public ElevationProfileCache (File file, double distanceBetweenSamplesM) {
+        this.file = file;
+        this.distanceBetweenSamplesM = distanceBetweenSamplesM;
+    }
+
+    /** Read the cache file if there is one. A file that cannot be read or was sampled differently is ignored. */
+    public void load () {
+        if (!file.exists()) {
+            LOG.info("No elevation cache at {}, all edges will be sampled.", file);
+            return;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+            if (in.readInt() != FORMAT_VERSION || in.readDouble() != distanceBetweenSamplesM) {
+                LOG.info("Elevation cache {} was written with other settings and will be replaced.", file);
+                return;
+            }
+            int size = in.readInt();
+            for (int i = 0; i < size; i++) {
+                long key = in.readLong();
+                double[] elevations = new double[in.readInt()];
+                for (int j = 0; j < elevations.length; j++) {
+                    elevations[j] = in.readDouble();
+                }
+                loaded.put(key, elevations);
+            }
+            LOG.info("Read elevations for {} edges from {}.", loaded.size(), file);
+        } catch (IOException e) {
+            LOG.warn("Could not read elevation cache {}, all edges will be sampled.", file, e);
+            loaded.clear();
+        }
+    }
+
+    /** @return the elevations cached for an edge with this geometry, or null if there are none. */
+    public double[] get (Coordinate[] geometry) {
+        return loaded.get(key(geometry));
+    }
+
+    /** Keep the elevations of this profile to save for an edge with this geometry. Not thread-safe. */
+    public void put (Coordinate[] geometry, PackedCoordinateSequence profile) {
+        double[] elevations = new double[profile.size()];
+        for (int i = 0; i < elevations.length; i++) {
+            elevations[i] = profile.getOrdinate(i, 1);
+        }
+        current.put(key(geometry), elevations);
+    }
+
+    /** Write the elevations that were put in the cache, replacing the file. */
+    public void save () {
+        File tempFile = new File(file.getPath() + ".tmp");
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+            out.writeInt(FORMAT_VERSION);
+            out.writeDouble(distanceBetweenSamplesM);
+            out.writeInt(current.size());
+            for (long key : current.keys()) {
+                double[] elevations = current.get(key);
+                out.writeLong(key);
+                out.writeInt(elevations.length);
+                for (double elevation : elevations) {
+                    out.writeDouble(elevation);
+                }
+            }
+        } catch (IOException e) {
+            LOG.warn("Could not write elevation cache {}.", file, e);
+            tempFile.delete();
+            return;
+        }
+        if (!tempFile.renameTo(file) && !(file.delete() && tempFile.renameTo(file))) {
+            LOG.warn("Could not replace elevation cache {}.", file);
+            tempFile.delete();
+            return;
+        }
+        LOG.info("Wrote elevations for {} edges to {}.", current.size(), file);
+    }
+
+    private static long key (Coordinate[] geometry) {
+        Hasher hasher = Hashing.murmur3_128().newHasher();
+        hasher.putInt(geometry.length);
+        for (Coordinate c : geometry) {
+            hasher.putDouble(c.x).putDouble(c.y);
+        }
+        return hasher.hash().asLong();
+    }
+}
@@ -15,6 +15,7 @@ package org.opentripplanner.graph_builder.module.ned;
 
 import org.geotools.coverage.AbstractCoverage;
 import org.geotools.coverage.grid.GridCoverage2D;
+import org.geotools.coverage.grid.Interpolator2D;
 import org.geotools.geometry.GeneralEnvelope;
 import org.opengis.coverage.CannotEvaluateException;
 import org.opengis.coverage.Coverage;
@@ -24,6 +25,7 @@ import org.opengis.geometry.DirectPosition;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import javax.media.jai.InterpolationBilinear;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -111,4 +113,22 @@ public class UnifiedGridCoverage extends AbstractCoverage {
         regions.add(regionCoverage);
     }
 
+    /**
+     * Make a coverage of the same regions with interpolators of its own. GeoTools interpolators share buffers between
+     * calls and synchronize evaluation, so threads sampling elevation in parallel should each use their own copy.
+     */
+    public UnifiedGridCoverage withNewInterpolators() {
+        UnifiedGridCoverage copy = null;
+        for (Coverage region : regions) {
+            Coverage source = region instanceof Interpolator2D ? region.getSources().get(0) : region;
+            GridCoverage2D interpolated = Interpolator2D.create((GridCoverage2D) source, new InterpolationBilinear());
+            if (copy == null) {
+                copy = new UnifiedGridCoverage(getName(), interpolated, datums);
+            } else {
+                copy.add(interpolated);
+            }
+        }
+        return copy;
+    }
+
 }
@@ -17,10 +17,8 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.Collections;
 import java.util.List;
-import java.util.Map;
 
 import org.opentripplanner.common.geometry.GeometryUtils;
-import org.opentripplanner.openstreetmap.model.OSMNode;
 import org.opentripplanner.openstreetmap.model.OSMWay;
 import org.opentripplanner.openstreetmap.model.OSMWithTags;
 
@@ -47,7 +45,7 @@ class Area {
     private MultiPolygon jtsMultiPolygon;
 
     Area(OSMWithTags parent, List<OSMWay> outerRingWays, List<OSMWay> innerRingWays,
-            Map<Long, OSMNode> _nodes) {
+            OSMNodeStore _nodes) {
         this.parent = parent;
         // ring assignment
         List<List<Long>> innerRingNodes = constructRings(innerRingWays);
@@ -116,12 +114,10 @@ class Area {
 
         ArrayListMultimap<Long, OSMWay> waysByEndpoint = ArrayListMultimap.create();
         for (OSMWay way : ways) {
-            List<Long> refs = way.getNodeRefs();
-
-            long start = refs.get(0);
-            long end = refs.get(refs.size() - 1);
+            long start = way.getNodeRef(0);
+            long end = way.getNodeRef(way.getNodeRefCount() - 1);
             if (start == end) {
-                ArrayList<Long> ring = new ArrayList<Long>(refs);
+                ArrayList<Long> ring = new ArrayList<Long>(way.getNodeRefs());
                 closedRings.add(ring);
             } else {
                 waysByEndpoint.put(start, way);
@@ -151,10 +147,9 @@ class Area {
         for (Long endpoint : waysByEndpoint.keySet()) {
             List<OSMWay> list = waysByEndpoint.get(endpoint);
             firstWay = list.get(0);
-            List<Long> nodeRefs = firstWay.getNodeRefs();
-            partialRing.addAll(nodeRefs);
-            firstEndpoint = nodeRefs.get(0);
-            otherEndpoint = nodeRefs.get(nodeRefs.size() - 1);
+            partialRing.addAll(firstWay.getNodeRefs());
+            firstEndpoint = firstWay.getNodeRef(0);
+            otherEndpoint = firstWay.getNodeRef(firstWay.getNodeRefCount() - 1);
             break;
         }
         waysByEndpoint.get(firstEndpoint).remove(firstWay);
@@ -173,23 +168,25 @@ class Area {
 
         for (OSMWay way : ways) {
             // remove this way from the map
-            List<Long> nodeRefs = way.getNodeRefs();
-            long firstEndpoint = nodeRefs.get(0);
-            long otherEndpoint = nodeRefs.get(nodeRefs.size() - 1);
+            int nNodes = way.getNodeRefCount();
+            long firstEndpoint = way.getNodeRef(0);
+            long otherEndpoint = way.getNodeRef(nNodes - 1);
 
             waysByEndpoint.remove(firstEndpoint, way);
             waysByEndpoint.remove(otherEndpoint, way);
 
-            ArrayList<Long> newRing = new ArrayList<Long>(ring.size() + nodeRefs.size());
+            ArrayList<Long> newRing = new ArrayList<Long>(ring.size() + nNodes);
             long newFirstEndpoint;
             if (firstEndpoint == endpoint) {
-                for (int j = nodeRefs.size() - 1; j >= 1; --j) {
-                    newRing.add(nodeRefs.get(j));
+                for (int j = nNodes - 1; j >= 1; --j) {
+                    newRing.add(way.getNodeRef(j));
                 }
                 newRing.addAll(ring);
                 newFirstEndpoint = otherEndpoint;
             } else {
-                newRing.addAll(nodeRefs.subList(0, nodeRefs.size() - 1));
+                for (int j = 0; j < nNodes - 1; ++j) {
+                    newRing.add(way.getNodeRef(j));
+                }
                 newRing.addAll(ring);
                 newFirstEndpoint = firstEndpoint;
             }
@@ -207,10 +204,9 @@ class Area {
                 for (Long entry : waysByEndpoint.keySet()) {
                     List<OSMWay> list = waysByEndpoint.get(entry);
                     firstWay = list.get(0);
-                    nodeRefs = firstWay.getNodeRefs();
-                    newRing.addAll(nodeRefs);
-                    firstEndpoint = nodeRefs.get(0);
-                    otherEndpoint = nodeRefs.get(nodeRefs.size() - 1);
+                    newRing.addAll(firstWay.getNodeRefs());
+                    firstEndpoint = firstWay.getNodeRef(0);
+                    otherEndpoint = firstWay.getNodeRef(firstWay.getNodeRefCount() - 1);
                     break;
                 }
 
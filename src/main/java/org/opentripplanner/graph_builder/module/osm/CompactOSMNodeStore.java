@@ -0,0 +1,89 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module.osm;
+
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.TLongObjectMap;
+import gnu.trove.map.hash.TLongIntHashMap;
+import gnu.trove.map.hash.TLongObjectHashMap;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+/**
+ * Stores the great majority of nodes, those without tags, as nothing but coordinates in parallel primitive arrays,
+ * indexed by a primitive map from OSM ID. This takes about forty bytes per node rather than the hundred or more of a
+ * HashMap of OSMNode objects. Nodes with tags are kept whole. An OSMNode is made afresh each time an untagged node is
+ * fetched, which costs a little time while building the street graph.
+ */
+public class CompactOSMNodeStore implements OSMNodeStore {
+
+    private static final int NO_INDEX = -1;
+
+    /** Index of each untagged node in the coordinate arrays. Negative IDs are used for virtual nodes. */
+    private TLongIntMap indexForId = new TLongIntHashMap(1024, 0.75f, Long.MIN_VALUE, NO_INDEX);
+
+    private TDoubleArrayList lats = new TDoubleArrayList(1024);
+
+    private TDoubleArrayList lons = new TDoubleArrayList(1024);
+
+    private TLongObjectMap<OSMNode> taggedNodes = new TLongObjectHashMap<OSMNode>();
+
+    @Override
+    public void put(OSMNode node) {
+        long id = node.getId();
+        if (node.hasTags()) {
+            indexForId.remove(id); // leaves its coordinates unused, but nodes are not normally replaced
+            taggedNodes.put(id, node);
+            return;
+        }
+        taggedNodes.remove(id);
+        int index = indexForId.get(id);
+        if (index == NO_INDEX) {
+            indexForId.put(id, lats.size());
+            lats.add(node.lat);
+            lons.add(node.lon);
+        } else {
+            lats.set(index, node.lat);
+            lons.set(index, node.lon);
+        }
+    }
+
+    @Override
+    public OSMNode get(long id) {
+        OSMNode node = taggedNodes.get(id);
+        if (node != null)
+            return node;
+
+        int index = indexForId.get(id);
+        if (index == NO_INDEX)
+            return null;
+
+        node = new OSMNode();
+        node.setId(id);
+        node.lat = lats.get(index);
+        node.lon = lons.get(index);
+        return node;
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return taggedNodes.containsKey(id) || indexForId.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return taggedNodes.size() + indexForId.size();
+    }
+
+}
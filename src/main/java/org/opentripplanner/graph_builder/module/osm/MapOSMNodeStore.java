@@ -0,0 +1,48 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module.osm;
+
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Keeps every node as an object in a map. This is the fastest store, but each node costs over a hundred bytes.
+ */
+public class MapOSMNodeStore implements OSMNodeStore {
+
+    private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
+
+    @Override
+    public void put(OSMNode node) {
+        nodesById.put(node.getId(), node);
+    }
+
+    @Override
+    public OSMNode get(long id) {
+        return nodesById.get(id);
+    }
+
+    @Override
+    public boolean contains(long id) {
+        return nodesById.containsKey(id);
+    }
+
+    @Override
+    public int size() {
+        return nodesById.size();
+    }
+
+}
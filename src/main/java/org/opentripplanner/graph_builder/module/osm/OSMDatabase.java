@@ -17,6 +17,8 @@ import com.google.common.collect.ArrayListMultimap;
 import com.google.common.collect.Iterables;
 import com.google.common.collect.Multimap;
 import com.vividsolutions.jts.geom.*;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.opentripplanner.common.RepeatingTimePeriod;
 import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.common.geometry.GeometryUtils;
@@ -40,8 +42,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
     private static Logger LOG = LoggerFactory.getLogger(OSMDatabase.class);
 
-    /* Map of all nodes used in ways/areas keyed by their OSM ID */
-    private Map<Long, OSMNode> nodesById = new HashMap<Long, OSMNode>();
+    /* All nodes used in ways/areas keyed by their OSM ID */
+    private final OSMNodeStore nodesById;
 
     /* Map of all bike-rental nodes, keyed by their OSM ID */
     private Map<Long, OSMNode> bikeRentalNodes = new HashMap<Long, OSMNode>();
@@ -79,10 +81,10 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
     private Set<Long> areaWayIds = new HashSet<Long>();
 
     /* Set of all node IDs of kept ways. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> waysNodeIds = new HashSet<Long>();
+    private TLongSet waysNodeIds = new TLongHashSet();
 
     /* Set of all node IDs of kept areas. Needed to mark which nodes to keep in stage 3. */
-    private Set<Long> areaNodeIds = new HashSet<Long>();
+    private TLongSet areaNodeIds = new TLongHashSet();
 
     /* Track which vertical level each OSM way belongs to, for building elevators etc. */
     private Map<OSMWithTags, OSMLevel> wayLevels = new HashMap<OSMWithTags, OSMLevel>();
@@ -115,6 +117,15 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
      */
     public boolean noZeroLevels = true;
 
+    public OSMDatabase() {
+        this(new MapOSMNodeStore());
+    }
+
+    /** @param nodeStore where to keep the nodes, see CompactOSMNodeStore. */
+    public OSMDatabase(OSMNodeStore nodeStore) {
+        this.nodesById = nodeStore;
+    }
+
     public OSMNode getNode(Long nodeId) {
         return nodesById.get(nodeId);
     }
@@ -194,10 +205,10 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                 .isStop()))
             return;
 
-        if (nodesById.containsKey(node.getId()))
+        if (nodesById.contains(node.getId()))
             return;
 
-        nodesById.put(node.getId(), node);
+        nodesById.put(node);
 
         if (nodesById.size() % 100000 == 0)
             LOG.debug("nodes=" + nodesById.size());
@@ -223,15 +234,15 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
 
         /* An area can be specified as such, or be one by default as an amenity */
         if ((way.isTag("area", "yes") || way.isTag("amenity", "parking") || way.isTag("amenity",
-                "bicycle_parking")) && way.getNodeRefs().size() > 2) {
+                "bicycle_parking")) && way.getNodeRefCount() > 2) {
             // this is an area that's a simple polygon. So we can just add it straight
             // to the areas, if it's not part of a relation.
             if (!areaWayIds.contains(wayId)) {
                 singleWayAreas.add(way);
                 areaWaysById.put(wayId, way);
                 areaWayIds.add(wayId);
-                for (Long node : way.getNodeRefs()) {
-                    MapUtils.addToMapSet(areasForNode, node, way);
+                for (int i = 0; i < way.getNodeRefCount(); i++) {
+                    MapUtils.addToMapSet(areasForNode, way.getNodeRef(i), way);
                 }
             }
             return;
@@ -373,9 +384,9 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             OSMLevel wayLevel = getLevelForWay(way);
 
             // For each segment of the way
-            for (int i = 0; i < way.getNodeRefs().size() - 1; i++) {                
-                OSMNode nA = nodesById.get(way.getNodeRefs().get(i));
-                OSMNode nB = nodesById.get(way.getNodeRefs().get(i + 1));
+            for (int i = 0; i < way.getNodeRefCount() - 1; i++) {
+                OSMNode nA = nodesById.get(way.getNodeRef(i));
+                OSMNode nB = nodesById.get(way.getNodeRef(i + 1));
                 if (nA == null || nB == null) {
                     continue;
                 }
@@ -460,7 +471,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     	
                     	// don't insert the same node twice. This is not always safe; suppose a way crosses over the same node in the parking area twice.
                     	// but we assume it doesn't (and even if it does, it's not a huge deal, as it is still connected elsewhere on the same way).
-                    	if (way.getNodeRefs().contains(ringSegment.nA.getId()))
+                    	if (way.containsNodeRef(ringSegment.nA.getId()))
                     		continue;
                     	
                     	way.addNodeRef(ringSegment.nA.getId(), i + 1);
@@ -477,7 +488,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     else if (checkIntersectionDistance(p, ringSegment.nB, epsilon)) {
                     	// insert node B into the road, if it's not already there
                     	
-                    	if (way.getNodeRefs().contains(ringSegment.nB.getId()))
+                    	if (way.containsNodeRef(ringSegment.nB.getId()))
                     		continue;
                     	
                     	way.addNodeRef(ringSegment.nB.getId(), i + 1);
@@ -554,7 +565,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         node.setId(virtualNodeId);
         virtualNodeId--;
         waysNodeIds.add(node.getId());
-        nodesById.put(node.getId(), node);
+        nodesById.put(node);
         return node;
     }
 
@@ -582,13 +593,14 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
         }
     }
 
-    private void markNodesForKeeping(Collection<OSMWay> osmWays, Set<Long> nodeSet) {
+    private void markNodesForKeeping(Collection<OSMWay> osmWays, TLongSet nodeSet) {
         for (Iterator<OSMWay> it = osmWays.iterator(); it.hasNext();) {
             OSMWay way = it.next();
             // Since the way is kept, update nodes-with-neighbors
-            List<Long> nodes = way.getNodeRefs();
-            if (nodes.size() > 1) {
-                nodeSet.addAll(nodes);
+            if (way.getNodeRefCount() > 1) {
+                for (int i = 0; i < way.getNodeRefCount(); i++) {
+                    nodeSet.add(way.getNodeRef(i));
+                }
             }
         }
     }
@@ -601,8 +613,8 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
             if (processedAreas.contains(way)) {
                 continue;
             }
-            for (Long nodeRef : way.getNodeRefs()) {
-                if (!nodesById.containsKey(nodeRef)) {
+            for (int i = 0; i < way.getNodeRefCount(); i++) {
+                if (!nodesById.contains(way.getNodeRef(i))) {
                     continue AREA;
                 }
             }
@@ -644,8 +656,9 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     // relation includes way which does not exist in the data. Skip.
                     continue RELATION;
                 }
-                for (Long nodeId : way.getNodeRefs()) {
-                    if (!nodesById.containsKey(nodeId)) {
+                for (int i = 0; i < way.getNodeRefCount(); i++) {
+                    long nodeId = way.getNodeRef(i);
+                    if (!nodesById.contains(nodeId)) {
                         // this area is missing some nodes, perhaps because it is on
                         // the edge of the region, so we will simply not route on it.
                         continue RELATION;
@@ -909,7 +922,7 @@ public class OSMDatabase implements OpenStreetMapContentHandler {
                     platformArea = relationsById.get(member.getRef());
                 else
                     LOG.warn("Too many areas in relation " + relation.getId());
-            } else if ("node".equals(member.getType()) && nodesById.containsKey(member.getRef())) {
+            } else if ("node".equals(member.getType()) && nodesById.contains(member.getRef())) {
                 platformsNodes.add(nodesById.get(member.getRef()));
             }
         }
@@ -0,0 +1,37 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module.osm;
+
+import org.opentripplanner.openstreetmap.model.OSMNode;
+
+/**
+ * Holds the OSM nodes that an OSMDatabase keeps, keyed by their OSM ID. On large extracts this is most of the memory
+ * used while loading OSM, so there is a compact implementation as well as the simple map.
+ */
+public interface OSMNodeStore {
+
+    /** Store a node, replacing any node with the same ID. */
+    void put(OSMNode node);
+
+    /**
+     * @return the node with the given ID, or null if there is none. The node may be a new instance on each call, so
+     * nodes should be compared with equals, and changes to them may not be kept.
+     */
+    OSMNode get(long id);
+
+    boolean contains(long id);
+
+    int size();
+
+}
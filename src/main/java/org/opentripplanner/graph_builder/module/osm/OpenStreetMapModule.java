@@ -18,6 +18,8 @@ import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.Envelope;
 import com.vividsolutions.jts.geom.Geometry;
 import com.vividsolutions.jts.geom.LineString;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 import org.opentripplanner.common.TurnRestriction;
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.common.geometry.SphericalDistanceLibrary;
@@ -118,6 +120,11 @@ public class OpenStreetMapModule implements GraphBuilderModule {
      */
     public boolean staticBikeParkAndRide;
 
+    /**
+     * Whether to keep OSM nodes in a CompactOSMNodeStore rather than a map of node objects. (default false)
+     */
+    public boolean compactNodeStore = false;
+
     public List<String> provides() {
         return Arrays.asList("streets", "turns");
     }
@@ -168,7 +175,7 @@ public class OpenStreetMapModule implements GraphBuilderModule {
 
     @Override
     public void buildGraph(Graph graph, HashMap<Class<?>, Object> extra) {
-        OSMDatabase osmdb = new OSMDatabase();
+        OSMDatabase osmdb = new OSMDatabase(compactNodeStore ? new CompactOSMNodeStore() : new MapOSMNodeStore());
         Handler handler = new Handler(graph, osmdb);
         for (OpenStreetMapProvider provider : _providers) {
             LOG.info("Gathering OSM from provider: " + provider);
@@ -561,11 +568,12 @@ public class OpenStreetMapModule implements GraphBuilderModule {
 
                 // handle duplicate nodes in OSM ways
                 // this is a workaround for crappy OSM data quality
-                ArrayList<Long> nodes = new ArrayList<Long>(way.getNodeRefs().size());
+                ArrayList<Long> nodes = new ArrayList<Long>(way.getNodeRefCount());
                 long last = -1;
                 double lastLat = -1, lastLon = -1;
                 String lastLevel = null;
-                for (long nodeId : way.getNodeRefs()) {
+                for (int n = 0; n < way.getNodeRefCount(); n++) {
+                    long nodeId = way.getNodeRef(n);
                     OSMNode node = osmdb.getNode(nodeId);
                     if (node == null)
                         continue WAY;
@@ -921,10 +929,10 @@ public class OpenStreetMapModule implements GraphBuilderModule {
         }
 
         private void initIntersectionNodes() {
-            Set<Long> possibleIntersectionNodes = new HashSet<Long>();
+            TLongSet possibleIntersectionNodes = new TLongHashSet();
             for (OSMWay way : osmdb.getWays()) {
-                List<Long> nodes = way.getNodeRefs();
-                for (long node : nodes) {
+                for (int i = 0; i < way.getNodeRefCount(); i++) {
+                    long node = way.getNodeRef(i);
                     if (possibleIntersectionNodes.contains(node)) {
                         intersectionNodes.put(node, null);
                     } else {
@@ -16,7 +16,6 @@ package org.opentripplanner.graph_builder.module.osm;
 import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
-import java.util.Map;
 
 import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.openstreetmap.model.OSMNode;
@@ -67,7 +66,7 @@ public class Ring {
         geometry = new VLPolygon(vertices);
     }
 
-    public Ring(List<Long> osmNodes, Map<Long, OSMNode> _nodes) {
+    public Ring(List<Long> osmNodes, OSMNodeStore _nodes) {
         ArrayList<VLPoint> vertices = new ArrayList<VLPoint>();
         nodes = new ArrayList<OSMNode>(osmNodes.size());
         for (long nodeId : osmNodes) {
@@ -22,10 +22,20 @@ public class AnyFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvi
 
     private File _path;
 
+    private boolean cacheWays = false;
+
     public void setPath(File path) {
         _path = path;
     }
 
+    /**
+     * For PBF files, keep the ways decoded in the first pass rather than reading the file again for them.
+     * @see BinaryFileBasedOpenStreetMapProviderImpl#setCacheWays
+     */
+    public void setCacheWays(boolean cacheWays) {
+        this.cacheWays = cacheWays;
+    }
+
     public AnyFileBasedOpenStreetMapProviderImpl (File file) {
         this.setPath(file);
     }
@@ -38,6 +48,7 @@ public class AnyFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvi
             if (_path.getName().endsWith(".pbf")) {
                 BinaryFileBasedOpenStreetMapProviderImpl p = new BinaryFileBasedOpenStreetMapProviderImpl();
                 p.setPath(_path);
+                p.setCacheWays(cacheWays);
                 p.readOSM(handler);
             } else {
                 StreamedFileBasedOpenStreetMapProviderImpl p = new StreamedFileBasedOpenStreetMapProviderImpl();
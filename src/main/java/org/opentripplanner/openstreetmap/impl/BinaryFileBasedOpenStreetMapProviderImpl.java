@@ -13,55 +13,215 @@
 
 package org.opentripplanner.openstreetmap.impl;
 
+import crosby.binary.Fileformat;
+import crosby.binary.Osmformat;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMRelation;
+import org.opentripplanner.openstreetmap.model.OSMWay;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapContentHandler;
 import org.opentripplanner.openstreetmap.services.OpenStreetMapProvider;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
 import java.io.File;
 import java.io.FileInputStream;
-
-import crosby.binary.file.BlockInputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
 
 /**
  * Parser for the OpenStreetMap PBF format. Parses files in three passes:
  * First the relations, then the ways, then the nodes are also loaded.
  *
+ * Blocks are read from the file on the calling thread, but inflated and decoded on a pool of threads, and the
+ * entities they contain are handed to the content handler in file order on the calling thread. The first pass notes
+ * which kinds of entity each block holds, so the later passes skip blocks without ways or nodes instead of inflating
+ * them again. Optionally the ways are kept from the first pass, so the second pass does not read the file at all.
+ *
  * @see http://wiki.openstreetmap.org/wiki/PBF_Format
  * @see org.opentripplanner.openstreetmap.services.graph_builder.services.osm.OpenStreetMapContentHandler#biPhase
  * @since 0.4
  */
 public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapProvider {
 
+    private static final Logger LOG = LoggerFactory.getLogger(BinaryFileBasedOpenStreetMapProviderImpl.class);
+
+    /** The number of blocks being decoded or waiting to be handed over, per decoding thread. */
+    private static final int BLOCKS_IN_FLIGHT_PER_THREAD = 4;
+
     private File _path;
 
+    private int threads = Runtime.getRuntime().availableProcessors();
+
+    private boolean cacheWays = false;
+
     public void readOSM(OpenStreetMapContentHandler handler) {
+        ExecutorService decoders = Executors.newFixedThreadPool(threads);
         try {
-            BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(handler);
+            // The entity types found in each data block, and the ways decoded in the first pass if they are cached.
+            List<DecodedBlock> blocks = new ArrayList<>();
 
-            FileInputStream input = new FileInputStream(_path);
-            parser.setParseNodes(false);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+            readBlocks(decoders, i -> true, false, cacheWays, true, block -> {
+                block.relations.forEach(handler::addRelation);
+                block.relations = null;
+                blocks.add(block);
+            });
             handler.doneFirstPhaseRelations();
 
-            input = new FileInputStream(_path);
-            parser.setParseRelations(false);
-            parser.setParseWays(true);
-            (new BlockInputStream(input, parser)).process();
+            if (cacheWays) {
+                for (DecodedBlock block : blocks) {
+                    block.ways.forEach(handler::addWay);
+                    block.ways = null;
+                }
+            } else {
+                readBlocks(decoders, i -> blocks.get(i).hasWays, false, true, false,
+                        block -> block.ways.forEach(handler::addWay));
+            }
             handler.doneSecondPhaseWays();
 
-            input = new FileInputStream(_path);
-            parser.setParseNodes(true);
-            parser.setParseWays(false);
-            (new BlockInputStream(input, parser)).process();
+            readBlocks(decoders, i -> blocks.get(i).hasNodes, true, false, false,
+                    block -> block.nodes.forEach(handler::addNode));
             handler.doneThirdPhaseNodes();
         } catch (Exception ex) {
-            throw new IllegalStateException("error loading OSM from path " + _path, ex);        }
+            throw new IllegalStateException("error loading OSM from path " + _path, ex);
+        } finally {
+            decoders.shutdownNow();
+        }
+    }
+
+    /**
+     * Read the file once, decoding the wanted data blocks on the given executor and passing them to the consumer in
+     * file order.
+     *
+     * @param wanted whether to decode the data block with the given index, counting from zero in file order
+     */
+    private void readBlocks(ExecutorService decoders, IntPredicate wanted, boolean parseNodes, boolean parseWays,
+            boolean parseRelations, Consumer<DecodedBlock> consumer)
+            throws IOException, InterruptedException, ExecutionException {
+        long startTime = System.currentTimeMillis();
+        int nDecoded = 0;
+        Deque<Future<DecodedBlock>> inFlight = new ArrayDeque<>();
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(new FileInputStream(_path)))) {
+            int blockIndex = 0;
+            while (true) {
+                int headerSize;
+                try {
+                    headerSize = input.readInt();
+                } catch (EOFException e) {
+                    break;
+                }
+                byte[] headerBytes = new byte[headerSize];
+                input.readFully(headerBytes);
+                Fileformat.BlobHeader header = Fileformat.BlobHeader.parseFrom(headerBytes);
+
+                if ("OSMHeader".equals(header.getType())) {
+                    byte[] blob = new byte[header.getDatasize()];
+                    input.readFully(blob);
+                    new BinaryOpenStreetMapParser(null).parse(Osmformat.HeaderBlock.parseFrom(inflate(blob)));
+                    continue;
+                }
+                if (!"OSMData".equals(header.getType()) || !wanted.test(blockIndex++)) {
+                    skipFully(input, header.getDatasize());
+                    continue;
+                }
+
+                byte[] blob = new byte[header.getDatasize()];
+                input.readFully(blob);
+                inFlight.add(decoders.submit(() -> decode(blob, parseNodes, parseWays, parseRelations)));
+                nDecoded++;
+                if (inFlight.size() >= threads * BLOCKS_IN_FLIGHT_PER_THREAD) {
+                    consumer.accept(inFlight.remove().get());
+                }
+            }
+            while (!inFlight.isEmpty()) {
+                consumer.accept(inFlight.remove().get());
+            }
+        } finally {
+            inFlight.forEach(f -> f.cancel(true));
+        }
+        LOG.info("Decoded {} blocks of {} in {} sec", nDecoded, _path.getName(),
+                (System.currentTimeMillis() - startTime) / 1000.0);
+    }
+
+    /** Inflate and decode one data block. This is called on the decoding threads. */
+    private static DecodedBlock decode(byte[] blob, boolean parseNodes, boolean parseWays, boolean parseRelations)
+            throws IOException {
+        DecodedBlock block = new DecodedBlock();
+        BinaryOpenStreetMapParser parser = new BinaryOpenStreetMapParser(block);
+        parser.setParseNodes(parseNodes);
+        parser.setParseWays(parseWays);
+        parser.setParseRelations(parseRelations);
+        parser.parse(Osmformat.PrimitiveBlock.parseFrom(inflate(blob)));
+        block.hasNodes = parser.sawNodes();
+        block.hasWays = parser.sawWays();
+        block.hasRelations = parser.sawRelations();
+        return block;
+    }
+
+    /** @return the contents of a serialized Blob, inflated if necessary. */
+    private static byte[] inflate(byte[] blobBytes) throws IOException {
+        Fileformat.Blob blob = Fileformat.Blob.parseFrom(blobBytes);
+        if (blob.hasRaw()) {
+            return blob.getRaw().toByteArray();
+        }
+        if (!blob.hasZlibData()) {
+            throw new IOException("PBF block uses an unsupported compression");
+        }
+        Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(blob.getZlibData().toByteArray());
+            byte[] data = new byte[blob.getRawSize()];
+            inflater.inflate(data);
+            if (!inflater.finished()) {
+                throw new IOException("PBF block is larger than its stated size");
+            }
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException("PBF block is not valid zlib data", e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    private static void skipFully(DataInputStream input, int n) throws IOException {
+        if (input.skipBytes(n) < n) {
+            throw new EOFException();
+        }
     }
 
     public void setPath(File path) {
         _path = path;
     }
 
+    /**
+     * The number of threads inflating and decoding blocks, by default one per processor.
+     */
+    public void setThreads(int threads) {
+        this.threads = threads;
+    }
+
+    /**
+     * Keep all the ways decoded in the first pass until the second, rather than reading the file again. This saves
+     * inflating and decoding the way blocks twice, at the cost of holding every way in the file in memory at once,
+     * including those the content handler will discard.
+     */
+    public void setCacheWays(boolean cacheWays) {
+        this.cacheWays = cacheWays;
+    }
+
     public String toString() {
         return "BinaryFileBasedOpenStreetMapProviderImpl(" + _path + ")";
     }
@@ -72,4 +232,40 @@ public class BinaryFileBasedOpenStreetMapProviderImpl implements OpenStreetMapPr
             throw new RuntimeException("Can't read OSM path: " + _path);
         }
     }
+
+    /** The entities decoded from one data block, and which kinds of entity it holds. */
+    private static class DecodedBlock implements OpenStreetMapContentHandler {
+
+        List<OSMNode> nodes = new ArrayList<>();
+
+        List<OSMWay> ways = new ArrayList<>();
+
+        List<OSMRelation> relations = new ArrayList<>();
+
+        boolean hasNodes, hasWays, hasRelations;
+
+        @Override
+        public void addNode(OSMNode node) {
+            nodes.add(node);
+        }
+
+        @Override
+        public void addWay(OSMWay way) {
+            ways.add(way);
+        }
+
+        @Override
+        public void addRelation(OSMRelation relation) {
+            relations.add(relation);
+        }
+
+        @Override
+        public void doneFirstPhaseRelations() {}
+
+        @Override
+        public void doneSecondPhaseWays() {}
+
+        @Override
+        public void doneThirdPhaseNodes() {}
+    }
 }
@@ -35,6 +35,9 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
     private boolean _parseNodes = true;
     private Map<String, String> stringTable = new HashMap<String, String>();
 
+    /* Which kinds of entity were seen, whether or not they were parsed. */
+    private boolean _sawNodes, _sawWays, _sawRelations;
+
     public BinaryOpenStreetMapParser(OpenStreetMapContentHandler handler) {
         _handler = handler;
     }
@@ -58,6 +61,7 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseNodes(List<Osmformat.Node> nodes) {
+        _sawNodes |= !nodes.isEmpty();
         if(!_parseNodes) {
             return;
         }
@@ -87,6 +91,7 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
         long lastId = 0, lastLat = 0, lastLon = 0;
         int j = 0; // Index into the keysvals array.
 
+        _sawNodes |= nodes.getIdCount() > 0;
         if(!_parseNodes) {
             return;
         }
@@ -128,6 +133,7 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseWays(List<Osmformat.Way> ways) {
+        _sawWays |= !ways.isEmpty();
         if(!_parseWays) {
             return;
         }
@@ -160,6 +166,7 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
 
     @Override
     protected void parseRelations(List<Osmformat.Relation> rels) {
+        _sawRelations |= !rels.isEmpty();
         if(!_parseRelations) {
             return;
         }
@@ -243,4 +250,25 @@ public class BinaryOpenStreetMapParser extends BinaryParser {
     public void setParseNodes(boolean parseNodes) {
         _parseNodes = parseNodes;
     }
+
+    /**
+     * Were any nodes seen in the blocks parsed so far, even if they were not passed to the handler?
+     */
+    public boolean sawNodes() {
+        return _sawNodes;
+    }
+
+    /**
+     * Were any ways seen in the blocks parsed so far, even if they were not passed to the handler?
+     */
+    public boolean sawWays() {
+        return _sawWays;
+    }
+
+    /**
+     * Were any relations seen in the blocks parsed so far, even if they were not passed to the handler?
+     */
+    public boolean sawRelations() {
+        return _sawRelations;
+    }
 }
@@ -54,8 +54,8 @@ public class OSMMap implements OpenStreetMapContentHandler {
   public void pruneUnusedNodes() {
     Set<Long> nodes = new HashSet<Long>();
     for (OSMWay way : _ways.values()) {
-      for (long id : way.getNodeRefs())
-        nodes.add(id);
+      for (int i = 0; i < way.getNodeRefCount(); i++)
+        nodes.add(way.getNodeRef(i));
     }
     _nodes.keySet().retainAll(nodes);
   }
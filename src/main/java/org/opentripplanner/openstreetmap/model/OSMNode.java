@@ -25,6 +25,20 @@ public class OSMNode extends OSMWithTags {
         return "osm node " + id;
     }
 
+    /**
+     * Nodes are identified by their OSM ID. A compact node store may hand out a new instance for the same node each
+     * time it is fetched, so they must be compared with equals rather than ==.
+     */
+    @Override
+    public boolean equals(Object other) {
+        return other instanceof OSMNode && ((OSMNode) other).id == id;
+    }
+
+    @Override
+    public int hashCode() {
+        return Long.hashCode(id);
+    }
+
     /**
      * Returns the capacity of this node if defined, or 0.
      * 
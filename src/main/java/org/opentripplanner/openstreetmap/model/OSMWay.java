@@ -16,12 +16,19 @@
 
 package org.opentripplanner.openstreetmap.model;
 
-import java.util.ArrayList;
+import gnu.trove.decorator.TLongListDecorator;
+import gnu.trove.list.TLongList;
+import gnu.trove.list.array.TLongArrayList;
+
 import java.util.List;
 
 public class OSMWay extends OSMWithTags {
 
-    private List<Long> _nodes = new ArrayList<Long>();
+    /*
+     * Node IDs are kept unboxed, and most ways have only a few nodes so the list starts small. The no-entry value is
+     * one that is never an OSM ID, because the boxed view reads it as null.
+     */
+    private TLongList _nodes = new TLongArrayList(4, Long.MIN_VALUE);
 
     public void addNodeRef(OSMNodeRef nodeRef) {
         _nodes.add(nodeRef.getRef());
@@ -32,11 +39,30 @@ public class OSMWay extends OSMWithTags {
     }
 
     public void addNodeRef(long nodeRef, int index) {
-        _nodes.add(index, nodeRef);
+        _nodes.insert(index, nodeRef);
     }
 
+    /**
+     * @return a modifiable view of the node IDs of this way. IDs are boxed when they are read through the view, so
+     * loops over the nodes should use getNodeRefCount and getNodeRef instead.
+     */
     public List<Long> getNodeRefs() {
-        return _nodes;
+        return new TLongListDecorator(_nodes);
+    }
+
+    /** @return the number of nodes of this way. */
+    public int getNodeRefCount() {
+        return _nodes.size();
+    }
+
+    /** @return the ID of the node at the given position along this way. */
+    public long getNodeRef(int index) {
+        return _nodes.get(index);
+    }
+
+    /** @return whether the node with the given ID is part of this way. */
+    public boolean containsNodeRef(long nodeRef) {
+        return _nodes.contains(nodeRef);
     }
 
     public String toString() {
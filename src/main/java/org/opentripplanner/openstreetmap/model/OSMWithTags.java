@@ -15,6 +15,10 @@
 
 package org.opentripplanner.openstreetmap.model;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Map;
 
@@ -29,8 +33,17 @@ import org.opentripplanner.util.TranslatedString;
 
 public class OSMWithTags {
 
-    /* To save memory this is only created when an entity actually has tags. */
-    private Map<String, String> _tags;
+    /**
+     * Tag keys and values are repeated across millions of entities, so all entities share one copy of each. The
+     * interner is weak so that strings not used by any remaining entity can be collected once a graph is built.
+     */
+    private static final Interner<String> TAG_STRINGS = Interners.newWeakInterner();
+
+    /*
+     * Tag keys and values, alternating. To save memory this is only created when an entity actually has tags, and
+     * is packed into an array rather than a map: entities have only a handful of tags, which are quick to scan.
+     */
+    private String[] _tags;
 
     protected long id;
 
@@ -54,10 +67,7 @@ public class OSMWithTags {
      * Adds a tag.
      */
     public void addTag(OSMTag tag) {
-        if (_tags == null)
-            _tags = new HashMap<String, String>();
-
-        _tags.put(tag.getK().toLowerCase(), tag.getV());
+        addTag(tag.getK(), tag.getV());
     }
 
     /**
@@ -67,17 +77,58 @@ public class OSMWithTags {
         if (key == null || value == null)
             return;
 
+        key = TAG_STRINGS.intern(key.toLowerCase());
+        value = TAG_STRINGS.intern(value);
+        int i = indexOfTag(key);
+        if (i >= 0) {
+            _tags[i + 1] = value;
+        } else if (_tags == null) {
+            _tags = new String[] { key, value };
+        } else {
+            int n = _tags.length;
+            _tags = Arrays.copyOf(_tags, n + 2);
+            _tags[n] = key;
+            _tags[n + 1] = value;
+        }
+    }
+
+    /**
+     * The tags of an entity, or null if it has none. The map is a copy, changing it does not change the tags.
+     */
+    public Map<String, String> getTags() {
         if (_tags == null)
-            _tags = new HashMap<String, String>();
+            return null;
 
-        _tags.put(key.toLowerCase(), value);
+        Map<String, String> tags = new HashMap<String, String>();
+        for (int i = 0; i < _tags.length; i += 2) {
+            tags.put(_tags[i], _tags[i + 1]);
+        }
+        return tags;
     }
 
     /**
-     * The tags of an entity.
+     * Does this entity have any tags at all?
      */
-    public Map<String, String> getTags() {
-        return _tags;
+    public boolean hasTags() {
+        return _tags != null;
+    }
+
+    /** @return the index of the given lower case key in _tags, or -1 if there is no such tag. */
+    private int indexOfTag(String key) {
+        if (_tags == null)
+            return -1;
+
+        for (int i = 0; i < _tags.length; i += 2) {
+            if (_tags[i].equals(key))
+                return i;
+        }
+        return -1;
+    }
+
+    /** @return the value of the given lower case key, or null if there is no such tag. */
+    private String tagValue(String key) {
+        int i = indexOfTag(key);
+        return i < 0 ? null : _tags[i + 1];
     }
 
     /**
@@ -85,7 +136,7 @@ public class OSMWithTags {
      */
     public boolean hasTag(String tag) {
         tag = tag.toLowerCase();
-        return _tags != null && _tags.containsKey(tag);
+        return indexOfTag(tag) >= 0;
     }
 
     /**
@@ -126,10 +177,7 @@ public class OSMWithTags {
     /** @return a tag's value, converted to lower case. */
     public String getTag(String tag) {
         tag = tag.toLowerCase();
-        if (_tags != null && _tags.containsKey(tag)) {
-            return _tags.get(tag);
-        }
-        return null;
+        return tagValue(tag);
     }
 
     /**
@@ -137,8 +185,8 @@ public class OSMWithTags {
      */
     public Boolean isTag(String tag, String value) {
         tag = tag.toLowerCase();
-        if (_tags != null && _tags.containsKey(tag) && value != null)
-            return value.equals(_tags.get(tag));
+        if (value != null)
+            return value.equals(tagValue(tag));
 
         return false;
     }
@@ -148,30 +196,35 @@ public class OSMWithTags {
      * {@link org.opentripplanner.graph_builder.module.osm.OpenStreetMapModule#processRelations processRelations}
      */
     public I18NString getAssumedName() {
-        if (_tags.containsKey("name"))
+        if (indexOfTag("name") >= 0)
             return TranslatedString.getI18NString(TemplateLibrary.generateI18N("{name}", this));
 
-        if (_tags.containsKey("otp:route_name"))
-            return new NonLocalizedString(_tags.get("otp:route_name"));
+        String routeName = tagValue("otp:route_name");
+        if (routeName != null)
+            return new NonLocalizedString(routeName);
 
         if (this.creativeName != null)
             return this.creativeName;
 
-        if (_tags.containsKey("otp:route_ref"))
-            return new NonLocalizedString(_tags.get("otp:route_ref"));
+        String routeRef = tagValue("otp:route_ref");
+        if (routeRef != null)
+            return new NonLocalizedString(routeRef);
 
-        if (_tags.containsKey("ref"))
-            return new NonLocalizedString(_tags.get("ref"));
+        String ref = tagValue("ref");
+        if (ref != null)
+            return new NonLocalizedString(ref);
 
         return null;
     }
 
     public Map<String, String> getTagsByPrefix(String prefix) {
         Map<String, String> out = new HashMap<String, String>();
-        for (Map.Entry<String, String> entry : _tags.entrySet()) {
-            String k = entry.getKey();
-            if (k.equals(prefix) || k.startsWith(prefix + ":")) {
-                out.put(k, entry.getValue());
+        if (_tags != null) {
+            for (int i = 0; i < _tags.length; i += 2) {
+                String k = _tags[i];
+                if (k.equals(prefix) || k.startsWith(prefix + ":")) {
+                    out.put(k, _tags[i + 1]);
+                }
             }
         }
 
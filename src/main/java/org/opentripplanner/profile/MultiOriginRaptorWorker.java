@@ -0,0 +1,270 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.TIntIntMap;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static org.opentripplanner.profile.RaptorWorker.UNREACHED;
+
+/**
+ * Carries out the RAPTOR searches for a block of nearby origins together, over the same RaptorWorkerData and with
+ * requests that differ only in their origins. Nearby origins reach mostly the same stops and patterns, so searching
+ * them one by one repeats most of the work.
+ *
+ * The scheduled range-RAPTOR search is done for all the origins at once. The state for each stop holds one entry per
+ * origin side by side, and each pattern touched from any origin is scanned once per round for the whole block, so its
+ * timetable is read from memory once rather than once per origin. Scanning a pattern for an origin that did not touch
+ * it can only find arrivals that are also valid for that origin, so the earliest arrival times are the same as those
+ * of separate searches. The propagation to the targets and the frequency searches, which start from the scheduled
+ * results of each origin, are then done by a RaptorWorker per origin.
+ */
+public class MultiOriginRaptorWorker {
+
+    private static final Logger LOG = LoggerFactory.getLogger(MultiOriginRaptorWorker.class);
+
+    /**
+     * The most origins that should be searched together. Beyond this the state of each stop no longer fits in a couple
+     * of cache lines, and patterns touched by only a few origins are scanned for all of them.
+     */
+    public static final int MAX_ORIGINS = 32;
+
+    private final RaptorWorkerData data;
+
+    private final ProfileRequest req;
+
+    private final int nOrigins;
+
+    /** One worker per origin, which propagates its scheduled results and runs its frequency searches. */
+    private final RaptorWorker[] workers;
+
+    /** The best times at each stop from each origin, at index stop * nOrigins + origin. */
+    private final int[] bestTimes;
+
+    /** The best times at each stop from each origin via transit rather than a transfer, indexed as bestTimes. */
+    private final int[] bestNonTransferTimes;
+
+    /** The pattern used to reach each stop from each origin, indexed as bestTimes. */
+    private final int[] previousPatterns;
+
+    /** The trip boarded from each origin on the pattern being scanned, or -1. */
+    private final int[] onTrip;
+
+    /** stops touched this round from any origin */
+    private final BitSet stopsTouched;
+
+    /** stops touched any round this minute from any origin */
+    private final BitSet allStopsTouched;
+
+    private final BitSet patternsTouched;
+
+    private int maxTime;
+
+    public MultiOriginRaptorWorker (RaptorWorkerData data, ProfileRequest req, int nOrigins) {
+        if (nOrigins < 1 || nOrigins > MAX_ORIGINS)
+            throw new IllegalArgumentException("Can search between 1 and " + MAX_ORIGINS + " origins together");
+
+        this.data = data;
+        this.req = req;
+        this.nOrigins = nOrigins;
+        workers = new RaptorWorker[nOrigins];
+        for (int o = 0; o < nOrigins; o++) {
+            workers[o] = new RaptorWorker(data, req);
+        }
+        bestTimes = new int[data.nStops * nOrigins];
+        bestNonTransferTimes = new int[data.nStops * nOrigins];
+        previousPatterns = new int[data.nStops * nOrigins];
+        Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent minutes.
+        Arrays.fill(bestNonTransferTimes, UNREACHED);
+        Arrays.fill(previousPatterns, -1);
+        onTrip = new int[nOrigins];
+        stopsTouched = new BitSet(data.nStops);
+        allStopsTouched = new BitSet(data.nStops);
+        patternsTouched = new BitSet(data.nPatterns);
+    }
+
+    /**
+     * @param accessTimes for each origin, a map from transit stops to the time it takes to reach those stops
+     * @param nonTransitTimes for each origin, the time to reach all targets without transit.
+     * @return for each origin, the summary statistics of the times at the targets, as from RaptorWorker.runRaptor.
+     */
+    public PropagatedTimesStore[] runRaptor (Graph graph, TIntIntMap[] accessTimes, int[][] nonTransitTimes,
+            TaskStatistics ts) {
+        long beginCalcTime = System.currentTimeMillis();
+
+        int monteCarloDraws = workers[0].monteCarloDraws();
+        int minutes = workers[0].searchMinutes();
+        int iterations = minutes * workers[0].iterationsPerMinute(monteCarloDraws);
+        ts.searchCount = iterations * nOrigins;
+        ts.timeStep = 60;
+
+        PropagatedTimesStore[] propagatedTimesStores = new PropagatedTimesStore[nOrigins];
+        int[][] scheduledTimesAtTargets = new int[nOrigins][];
+        for (int o = 0; o < nOrigins; o++) {
+            propagatedTimesStores[o] = new PropagatedTimesStore(graph, req, data.nTargets);
+            propagatedTimesStores[o].startAccumulating(PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+            scheduledTimesAtTargets[o] = new int[data.nTargets];
+            Arrays.fill(scheduledTimesAtTargets[o], UNREACHED);
+        }
+
+        // times at targets from the current iteration, shared by the origins since they are finished one at a time
+        int[] timesAtTargets = new int[data.nTargets];
+
+        long searchTime = 0;
+        for (int n = 0; n < minutes; n++) {
+            int departureTime = req.toTime - 60 * (n + 1);
+            if (n % 15 == 0) {
+                LOG.info("minute {} for {} origins", n, nOrigins);
+            }
+
+            long beginSearchTime = System.nanoTime();
+            runRaptorScheduled(accessTimes, departureTime);
+            for (int o = 0; o < nOrigins; o++) {
+                RaptorWorker worker = workers[o];
+                for (int s = 0, i = o; s < data.nStops; s++, i += nOrigins) {
+                    worker.bestTimes[s] = bestTimes[i];
+                    worker.bestNonTransferTimes[s] = bestNonTransferTimes[i];
+                    worker.previousPatterns[s] = previousPatterns[i];
+                }
+                // Propagating from a stop that was only touched from other origins does not change the results.
+                worker.allStopsTouched.clear();
+                worker.allStopsTouched.or(allStopsTouched);
+                worker.finishMinute(nonTransitTimes[o], departureTime, monteCarloDraws, scheduledTimesAtTargets[o],
+                        timesAtTargets, propagatedTimesStores[o]);
+            }
+            searchTime += System.nanoTime() - beginSearchTime;
+        }
+
+        for (PropagatedTimesStore propagatedTimesStore : propagatedTimesStores) {
+            // make sure we ran every iteration, otherwise results are garbage.
+            if (propagatedTimesStore.getIterationCount() != iterations)
+                throw new IllegalStateException("Ran " + propagatedTimesStore.getIterationCount() +
+                        " iterations, expected " + iterations);
+            propagatedTimesStore.finishAccumulating();
+        }
+
+        long stopMajorTime = 0, targetMajorTime = 0;
+        ts.stopMajorPropagationCount = ts.targetMajorPropagationCount = 0;
+        for (RaptorWorker worker : workers) {
+            stopMajorTime += worker.stopMajorPropagationTime;
+            targetMajorTime += worker.targetMajorPropagationTime;
+            ts.stopMajorPropagationCount += worker.stopMajorPropagationCount;
+            ts.targetMajorPropagationCount += worker.targetMajorPropagationCount;
+        }
+        long propagationTime = stopMajorTime + targetMajorTime;
+        LOG.info("calc time {}sec for {} origins", (System.currentTimeMillis() - beginCalcTime) / 1000.0, nOrigins);
+        ts.propagation = (int) (propagationTime / 1000000);
+        ts.stopMajorPropagation = (int) (stopMajorTime / 1000000);
+        ts.targetMajorPropagation = (int) (targetMajorTime / 1000000);
+        ts.transitSearch = (int) ((searchTime - propagationTime) / 1000000);
+        return propagatedTimesStores;
+    }
+
+    /** Run a scheduled range-RAPTOR search from all the origins, keeping the state left by the previous minute. */
+    private void runRaptorScheduled (TIntIntMap[] accessTimes, int departureTime) {
+        maxTime = departureTime + RaptorWorker.MAX_DURATION;
+        patternsTouched.clear(); // clear patterns left over from previous calls.
+        allStopsTouched.clear();
+        stopsTouched.clear();
+        for (int o = 0; o < nOrigins; o++) {
+            TIntIntIterator iterator = accessTimes[o].iterator();
+            while (iterator.hasNext()) {
+                iterator.advance();
+                int stop = iterator.key();
+                int i = stop * nOrigins + o;
+                // note not setting bestNonTransferTimes here because the initial walk is effectively a "transfer"
+                bestTimes[i] = Math.min(iterator.value() + departureTime, bestTimes[i]);
+                markPatternsForStop(stop);
+            }
+        }
+        // Anytime a round updates some stops, move on to another round
+        while (doOneRound()) {
+            // keep going
+        }
+    }
+
+    /** Scan every touched pattern for all the origins, then apply transfers. See RaptorWorker.doOneRound. */
+    private boolean doOneRound () {
+        stopsTouched.clear(); // clear any stops left over from previous round.
+        for (int p = patternsTouched.nextSetBit(0); p >= 0; p = patternsTouched.nextSetBit(p + 1)) {
+            RaptorWorkerTimetable timetable = data.timetablesForPattern.get(p);
+            Arrays.fill(onTrip, -1);
+            int stopPositionInPattern = -1; // first increment will land this at zero
+            for (int stop : timetable.stopIndices) {
+                stopPositionInPattern += 1;
+                for (int o = 0, i = stop * nOrigins; o < nOrigins; o++, i++) {
+                    int trip = onTrip[o];
+                    if (trip == -1) {
+                        // We haven't boarded yet. If this stop has been reached from this origin, attempt to board.
+                        if (bestTimes[i] != UNREACHED)
+                            onTrip[o] = timetable.findDepartureAfter(stopPositionInPattern, bestTimes[i]);
+                        continue;
+                    }
+
+                    int arrivalTime = timetable.getArrival(trip, stopPositionInPattern);
+                    if (arrivalTime < maxTime && arrivalTime < bestNonTransferTimes[i]) {
+                        bestNonTransferTimes[i] = arrivalTime;
+                        stopsTouched.set(stop);
+                        allStopsTouched.set(stop);
+                        if (arrivalTime < bestTimes[i]) {
+                            bestTimes[i] = arrivalTime;
+                            previousPatterns[i] = p;
+                        }
+                    }
+
+                    // Back up to an earlier trip if there was a faster way to get to this stop.
+                    while (trip > 0 && timetable.getDeparture(trip - 1, stopPositionInPattern) > bestTimes[i]) {
+                        trip--;
+                    }
+                    onTrip[o] = trip;
+                }
+            }
+        }
+        doTransfers();
+        return !patternsTouched.isEmpty();
+    }
+
+    /**
+     * Apply transfers from every stop touched this round, for all the origins that have reached it by transit.
+     * Mark all the patterns passing through these stops and any stops transferred to.
+     */
+    private void doTransfers () {
+        patternsTouched.clear();
+        int[] transfers = data.transfersForStops;
+        for (int stop = stopsTouched.nextSetBit(0); stop >= 0; stop = stopsTouched.nextSetBit(stop + 1)) {
+            markPatternsForStop(stop);
+            int from = stop * nOrigins;
+            for (int t = data.firstTransferForStop[stop]; t < data.firstTransferForStop[stop + 1]; t += 2) {
+                int toStop = transfers[t];
+                int walkTime = (int) (transfers[t + 1] / req.walkSpeed);
+                int to = toStop * nOrigins;
+                boolean improved = false;
+                for (int o = 0; o < nOrigins; o++) {
+                    int fromTime = bestNonTransferTimes[from + o];
+                    if (fromTime == UNREACHED)
+                        continue;
+                    int toTime = fromTime + walkTime;
+                    if (toTime < maxTime && toTime < bestTimes[to + o]) {
+                        bestTimes[to + o] = toTime;
+                        previousPatterns[to + o] = previousPatterns[from + o];
+                        improved = true;
+                    }
+                }
+                if (improved)
+                    markPatternsForStop(toStop);
+            }
+        }
+    }
+
+    /** Mark all the patterns passing through the given stop. */
+    private void markPatternsForStop (int stop) {
+        for (int i = data.firstPatternForStop[stop]; i < data.firstPatternForStop[stop + 1]; i++) {
+            patternsTouched.set(data.patternsForStops[i]);
+        }
+    }
+}
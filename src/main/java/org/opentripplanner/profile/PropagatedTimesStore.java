@@ -50,6 +50,11 @@ import static org.apache.commons.math3.util.FastMath.toRadians;
  *
  * When exploring single-point (one-to-many) query results it would be great to have all these stored or produced on
  * demand for visualization.
+ *
+ * The times can be supplied all at once with setFromArray, or streamed in one search iteration at a time with
+ * accumulate. Streaming avoids holding an array of times for every iteration and target, which for large point sets
+ * and many Monte Carlo draws runs to gigabytes. Minima, maxima and averages are still exact when streaming, and
+ * percentiles are read from per-target histograms of travel times binned by minute.
  */
 public class PropagatedTimesStore {
 
@@ -69,6 +74,35 @@ public class PropagatedTimesStore {
 
     private static final Random random = new Random();
 
+    /** The width of the travel time histogram bins used to find percentiles when streaming. */
+    public static final int HISTOGRAM_BIN_SECONDS = 60;
+
+    /** Histogram bins up to the maximum travel time, plus one for any longer times. */
+    private static final int N_HISTOGRAM_BINS = RaptorWorker.MAX_DURATION / HISTOGRAM_BIN_SECONDS + 1;
+
+    /*
+     * State while streaming. The summary statistics are kept in mins and maxs until finishAccumulating converts them
+     * according to the confidence calculation method.
+     */
+
+    private ConfidenceCalculationMethod accumulationMethod;
+
+    private int iterationCount, iterationsInAveragesCount;
+
+    private long[] sums;
+
+    /** For each target, the number of iterations included in averages in which it was reached. */
+    private int[] averagedCounts;
+
+    /** For each target, the number of iterations in which it was reached. */
+    private int[] reachedCounts;
+
+    /**
+     * Histograms of travel times, at index target * N_HISTOGRAM_BINS + bin. Only kept when percentiles are needed, as
+     * it is much larger than the other statistics.
+     */
+    private int[] histograms;
+
     public PropagatedTimesStore(Graph graph, ProfileRequest req) {
         this(graph, req, Vertex.getMaxIndex());
     }
@@ -223,6 +257,163 @@ public class PropagatedTimesStore {
         }
     }
 
+    /**
+     * Prepare to receive search iterations one by one through accumulate. Bootstrapping resamples the times of every
+     * iteration, so it is only possible with setFromArray.
+     */
+    public void startAccumulating (ConfidenceCalculationMethod confidenceCalculationMethod) {
+        if (confidenceCalculationMethod == ConfidenceCalculationMethod.BOOTSTRAP)
+            throw new IllegalArgumentException("Bootstrapping is not possible when streaming times");
+
+        accumulationMethod = confidenceCalculationMethod;
+        iterationCount = iterationsInAveragesCount = 0;
+        sums = new long[size];
+        averagedCounts = new int[size];
+        reachedCounts = new int[size];
+        histograms = confidenceCalculationMethod == ConfidenceCalculationMethod.PERCENTILE ?
+                new int[size * N_HISTOGRAM_BINS] : null;
+    }
+
+    /**
+     * Add the travel times to every target from one search iteration. This is not thread safe: searches running in
+     * parallel should each accumulate into their own store, and merge them with mergeAccumulated at the end.
+     *
+     * @param times the travel time to each target, which the caller may reuse once this returns.
+     * @param includeInAverages whether this iteration should be included in average calculations, as in setFromArray.
+     */
+    public void accumulate (int[] times, boolean includeInAverages) {
+        iterationCount++;
+        if (includeInAverages) iterationsInAveragesCount++;
+
+        for (int target = 0; target < size; target++) {
+            int time = times[target];
+            if (time == RaptorWorker.UNREACHED)
+                continue;
+
+            if (time < mins[target])
+                mins[target] = time;
+            // maxs start out unreached, which is the same as Integer.MAX_VALUE
+            if (reachedCounts[target]++ == 0 || time > maxs[target])
+                maxs[target] = time;
+
+            if (includeInAverages) {
+                sums[target] += time;
+                averagedCounts[target]++;
+            }
+
+            if (histograms != null)
+                histograms[target * N_HISTOGRAM_BINS + Math.min(time / HISTOGRAM_BIN_SECONDS, N_HISTOGRAM_BINS - 1)]++;
+        }
+    }
+
+    /**
+     * Add the iterations accumulated into another store to those of this one, as if they had been accumulated here.
+     * The summary statistics do not depend on the order of the iterations. Both stores must have the same size and
+     * confidence calculation method, and neither may have finished accumulating.
+     */
+    public void mergeAccumulated (PropagatedTimesStore other) {
+        if (other.size != size || other.accumulationMethod != accumulationMethod)
+            throw new IllegalArgumentException("Cannot merge stores of different sizes or confidence methods");
+
+        iterationCount += other.iterationCount;
+        iterationsInAveragesCount += other.iterationsInAveragesCount;
+
+        for (int target = 0; target < size; target++) {
+            if (other.reachedCounts[target] == 0)
+                continue;
+
+            if (other.mins[target] < mins[target])
+                mins[target] = other.mins[target];
+            if (reachedCounts[target] == 0 || other.maxs[target] > maxs[target])
+                maxs[target] = other.maxs[target];
+
+            reachedCounts[target] += other.reachedCounts[target];
+            sums[target] += other.sums[target];
+            averagedCounts[target] += other.averagedCounts[target];
+        }
+
+        if (histograms != null) {
+            for (int i = 0; i < histograms.length; i++) {
+                histograms[i] += other.histograms[i];
+            }
+        }
+    }
+
+    /** @return the number of iterations accumulated so far. */
+    public int getIterationCount () {
+        return iterationCount;
+    }
+
+    /**
+     * Compute the summary statistics for each target from the accumulated iterations, in the same way as setFromArray.
+     * The histograms are retained for percentile.
+     */
+    public void finishAccumulating () {
+        for (int target = 0; target < size; target++) {
+            int count = averagedCounts[target];
+
+            // never reachable
+            if (count == 0) {
+                mins[target] = maxs[target] = Integer.MAX_VALUE;
+                continue;
+            }
+
+            // See setFromArray for an explanation of the reachability threshold.
+            if (count >= iterationsInAveragesCount * req.reachabilityThreshold)
+                avgs[target] = (int) (sums[target] / count);
+
+            switch (accumulationMethod) {
+            case PERCENTILE:
+                // the same ranks that setFromArray takes from the sorted times, clamped to the exact extrema
+                int reached = reachedCounts[target];
+                int lowest = mins[target], highest = maxs[target];
+                mins[target] = Math.max(lowest, timeAtRank(target, reached / 40));
+                maxs[target] = Math.min(highest, timeAtRank(target, 39 * reached / 40));
+                break;
+            case NONE:
+                mins[target] = maxs[target] = avgs[target];
+                break;
+            case MIN_MAX:
+            default:
+                // worst case: if it is sometimes unreachable, worst case is unreachable
+                if (reachedCounts[target] != iterationCount)
+                    maxs[target] = Integer.MAX_VALUE;
+                break;
+            }
+        }
+
+        sums = null;
+        averagedCounts = null;
+    }
+
+    /**
+     * @return the given percentile (between 0 and 1) of the accumulated travel times to the target over the iterations
+     * in which it was reached, to within the histogram bin width. Only available when accumulating with the PERCENTILE
+     * confidence calculation method.
+     */
+    public int percentile (int target, double percentile) {
+        if (histograms == null)
+            throw new IllegalStateException("Travel time histograms were not accumulated");
+
+        int reached = reachedCounts[target];
+        if (reached == 0)
+            return RaptorWorker.UNREACHED;
+
+        return timeAtRank(target, Math.min((int) (percentile * reached), reached - 1));
+    }
+
+    /** @return the midpoint of the histogram bin containing the travel time of the given rank, counting from 0. */
+    private int timeAtRank (int target, int rank) {
+        int offset = target * N_HISTOGRAM_BINS;
+        int cumulative = 0;
+        for (int bin = 0; bin < N_HISTOGRAM_BINS; bin++) {
+            cumulative += histograms[offset + bin];
+            if (cumulative > rank)
+                return bin * HISTOGRAM_BIN_SECONDS + HISTOGRAM_BIN_SECONDS / 2;
+        }
+        throw new IllegalStateException("Travel time histogram is inconsistent with reached count");
+    }
+
     /**
      * Make a ResultEnvelope directly from a given SampleSet.
      * The RaptorWorkerData must have been constructed from the same SampleSet.
@@ -0,0 +1,65 @@
+package org.opentripplanner.profile;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A journey from an origin to a destination found by RaptorPathFinder, made of an access leg, rides on transit
+ * vehicles linked by transfers, and an egress leg. Times are in seconds since midnight on the search date.
+ */
+public class RaptorJourney {
+
+    /** The time the journey leaves the origin. */
+    public int departureTime;
+
+    /** The time the journey reaches the destination. */
+    public int arrivalTime;
+
+    /** The number of transfers, one less than the number of rides. */
+    public int transfers;
+
+    /** The legs of the journey, in order. */
+    public List<Leg> legs = new ArrayList<>();
+
+    public int getDuration () {
+        return arrivalTime - departureTime;
+    }
+
+    @Override
+    public String toString () {
+        return String.format("RaptorJourney(%d transfers, %d sec, %s)", transfers, getDuration(), legs);
+    }
+
+    /** One leg of a journey, either on a transit vehicle or on the street. */
+    public static class Leg {
+
+        /** The stop where this leg begins, or null for the origin. */
+        public String fromStopId;
+
+        public String fromStopName;
+
+        /** The stop where this leg ends, or null for the destination. */
+        public String toStopId;
+
+        public String toStopName;
+
+        public int departureTime;
+
+        public int arrivalTime;
+
+        /** The route ridden on this leg, or null for a leg on the street. */
+        public String routeId;
+
+        /** The route type of the vehicle ridden on this leg (see com.conveyal.gtfs.model.Route), or -1 on the street. */
+        public int routeType = -1;
+
+        public boolean isTransit () {
+            return routeId != null || routeType != -1;
+        }
+
+        @Override
+        public String toString () {
+            return String.format("%s %s-%s", isTransit() ? routeId : "street", fromStopId, toStopId);
+        }
+    }
+}
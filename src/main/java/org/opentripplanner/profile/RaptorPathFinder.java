@@ -0,0 +1,327 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.iterator.TIntIntIterator;
+import gnu.trove.map.TIntIntMap;
+import org.joda.time.LocalDate;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+
+import static org.opentripplanner.profile.RaptorWorker.UNREACHED;
+
+/**
+ * Finds point-to-point transit journeys with RAPTOR on the compacted timetables in RaptorWorkerData, for a single
+ * departure time. Unlike RaptorWorker, which only keeps the best time at each stop over all rounds, this keeps the
+ * times and parent pointers of every round separately, so it can reconstruct the fastest journey for each number of
+ * transfers. The result is the Pareto set of journeys on (arrival time, number of transfers): each journey arrives
+ * strictly earlier than every journey with fewer transfers.
+ *
+ * Only scheduled trips are used; patterns running only on frequencies cannot be boarded, because the exact trips
+ * they represent are not known.
+ */
+public class RaptorPathFinder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorPathFinder.class);
+
+    /** The most rides in a journey; the most transfers is one less. */
+    public static final int MAX_ROUNDS = 8;
+
+    /** The end of the time window of the RAPTOR data for a date, late enough for trips running past midnight. */
+    private static final int DATA_WINDOW_END = 48 * 60 * 60;
+
+    private final RaptorWorkerData data;
+
+    private final ProfileRequest req;
+
+    /** The TransitStop for each RAPTOR stop index, or null for stops added by a scenario. */
+    private final TransitStop[] transitStops;
+
+    /*
+     * State of the search for each round and stop. In round k, times holds the earliest arrival at each stop with at
+     * most k rides, and rideTimes the earliest arrival by alighting from the k-th ride. The parent pointers of a stop
+     * record how it was reached in that round: transferFrom is the stop the last ride alighted at (the stop itself
+     * when there was no transfer), or -1 when the time is inherited from the previous round. The ride parents record
+     * the pattern, trip and positions in the pattern of the ride that alighted at a stop.
+     */
+
+    private int[][] times;
+
+    private int[][] transferFrom;
+
+    private int[][] rideTimes;
+
+    private int[][] ridePatterns;
+
+    private int[][] rideTrips;
+
+    private int[][] rideBoardPositions;
+
+    private int[][] rideAlightPositions;
+
+    public RaptorPathFinder (RaptorWorkerData data, Graph graph, ProfileRequest req) {
+        this.data = data;
+        this.req = req;
+        transitStops = new TransitStop[data.nStops];
+        for (TIntIntIterator it = data.indexForStop.iterator(); it.hasNext();) {
+            it.advance();
+            Vertex vertex = graph.getVertexById(it.key());
+            if (vertex instanceof TransitStop)
+                transitStops[it.value()] = (TransitStop) vertex;
+        }
+    }
+
+    /**
+     * Find journeys from the origin to the destination of the router's request, leaving at its fromTime. The street
+     * searches to find the stops near the origin and destination leave temporary vertices in the graph, so the caller
+     * must call router.cleanup() afterwards.
+     */
+    public static List<RaptorJourney> route (RepeatedRaptorProfileRouter router) throws ExecutionException {
+        Graph graph = router.graph;
+        ProfileRequest req = router.request;
+        RaptorWorkerData data = graph.index.raptorPathDataForDate.get(req.date, () -> buildData(graph, req.date));
+        TIntIntMap accessTimes = router.findInitialStops(false, data);
+        TIntIntMap egressTimes = router.findInitialStops(true, data);
+        return new RaptorPathFinder(data, graph, req).findJourneys(accessTimes, egressTimes, req.fromTime);
+    }
+
+    /**
+     * Make RAPTOR data for all the scheduled trips running on the given date, including those running past midnight,
+     * so that it can be reused for every departure time on that date. Journeys end at stops, so no targets are needed.
+     */
+    private static RaptorWorkerData buildData (Graph graph, LocalDate date) {
+        LOG.info("Making RAPTOR data for point to point searches on {}", date);
+        ProfileRequest req = new ProfileRequest();
+        req.date = date;
+        TimeWindow window = new TimeWindow(0, DATA_WINDOW_END, graph.index.servicesRunning(date),
+                DayOfWeek.of(date.getDayOfWeek()));
+        return RaptorWorkerData.withoutTargets(graph, window, req);
+    }
+
+    /**
+     * @param accessTimes the time to reach each stop near the origin, by RAPTOR stop index.
+     * @param egressTimes the time to reach the destination from each stop near it, by RAPTOR stop index.
+     * @return the fastest journey for each number of transfers that arrives earlier than all journeys with fewer
+     * transfers, in order of increasing transfers.
+     */
+    public List<RaptorJourney> findJourneys (TIntIntMap accessTimes, TIntIntMap egressTimes, int departureTime) {
+        if (accessTimes.isEmpty() || egressTimes.isEmpty())
+            return Collections.emptyList();
+
+        int rounds = search(accessTimes, departureTime);
+
+        List<RaptorJourney> journeys = new ArrayList<>();
+        int bestArrival = UNREACHED;
+        for (int round = 1; round <= rounds; round++) {
+            int bestStop = -1;
+            int roundArrival = UNREACHED;
+            for (TIntIntIterator it = egressTimes.iterator(); it.hasNext();) {
+                it.advance();
+                // Only stops reached in this round. The others were reached by walking from the origin, or in an
+                // earlier round in which their arrival was already considered.
+                if (transferFrom[round][it.key()] == -1)
+                    continue;
+                int time = times[round][it.key()];
+                if (time + it.value() < roundArrival) {
+                    roundArrival = time + it.value();
+                    bestStop = it.key();
+                }
+            }
+            // An arrival no earlier than with fewer rides is dominated.
+            if (roundArrival < bestArrival) {
+                bestArrival = roundArrival;
+                journeys.add(reconstruct(round, bestStop, egressTimes.get(bestStop), accessTimes));
+            }
+        }
+        LOG.debug("Found {} journeys in {} rounds", journeys.size(), rounds);
+        return journeys;
+    }
+
+    /** Run RAPTOR until no stop improves or MAX_ROUNDS is reached. @return the number of rounds run. */
+    private int search (TIntIntMap accessTimes, int departureTime) {
+        int nStops = data.nStops;
+        int maxTime = departureTime + RaptorWorker.MAX_DURATION;
+        times = new int[MAX_ROUNDS + 1][];
+        transferFrom = new int[MAX_ROUNDS + 1][];
+        rideTimes = new int[MAX_ROUNDS + 1][];
+        ridePatterns = new int[MAX_ROUNDS + 1][];
+        rideTrips = new int[MAX_ROUNDS + 1][];
+        rideBoardPositions = new int[MAX_ROUNDS + 1][];
+        rideAlightPositions = new int[MAX_ROUNDS + 1][];
+
+        // round 0 holds the access times
+        times[0] = new int[nStops];
+        transferFrom[0] = new int[nStops];
+        Arrays.fill(times[0], UNREACHED);
+        Arrays.fill(transferFrom[0], -1);
+        BitSet stopsImproved = new BitSet(nStops);
+        for (TIntIntIterator it = accessTimes.iterator(); it.hasNext();) {
+            it.advance();
+            times[0][it.key()] = departureTime + it.value();
+            stopsImproved.set(it.key());
+        }
+
+        int round = 0;
+        while (round < MAX_ROUNDS && !stopsImproved.isEmpty()) {
+            round++;
+            int[] previousTimes = times[round - 1];
+            int[] roundTimes = times[round] = Arrays.copyOf(previousTimes, nStops);
+            int[] roundTransferFrom = transferFrom[round] = new int[nStops];
+            int[] roundRideTimes = rideTimes[round] = new int[nStops];
+            int[] roundPatterns = ridePatterns[round] = new int[nStops];
+            int[] roundTrips = rideTrips[round] = new int[nStops];
+            int[] roundBoardPositions = rideBoardPositions[round] = new int[nStops];
+            int[] roundAlightPositions = rideAlightPositions[round] = new int[nStops];
+            Arrays.fill(roundTransferFrom, -1);
+            Arrays.fill(roundRideTimes, UNREACHED);
+
+            // patterns passing through the stops improved in the previous round
+            BitSet patterns = new BitSet(data.nPatterns);
+            for (int s = stopsImproved.nextSetBit(0); s >= 0; s = stopsImproved.nextSetBit(s + 1)) {
+                for (int i = data.firstPatternForStop[s]; i < data.firstPatternForStop[s + 1]; i++) {
+                    patterns.set(data.patternsForStops[i]);
+                }
+            }
+
+            BitSet stopsRidden = new BitSet(nStops);
+            for (int p = patterns.nextSetBit(0); p >= 0; p = patterns.nextSetBit(p + 1)) {
+                RaptorWorkerTimetable timetable = data.timetablesForPattern.get(p);
+                int trip = -1;
+                int boardPosition = -1;
+                for (int position = 0; position < timetable.stopIndices.length; position++) {
+                    int stop = timetable.stopIndices[position];
+
+                    // alight from the trip we are on
+                    if (trip != -1) {
+                        int arrival = timetable.getArrival(trip, position);
+                        if (arrival < maxTime && arrival < roundTimes[stop]) {
+                            roundTimes[stop] = arrival;
+                            roundTransferFrom[stop] = stop;
+                            roundRideTimes[stop] = arrival;
+                            roundPatterns[stop] = p;
+                            roundTrips[stop] = trip;
+                            roundBoardPositions[stop] = boardPosition;
+                            roundAlightPositions[stop] = position;
+                            stopsRidden.set(stop);
+                        }
+                    }
+
+                    // board here if the stop was reached in the previous round, and this catches an earlier trip
+                    if (previousTimes[stop] != UNREACHED) {
+                        int earliestTrip = timetable.findDepartureAfter(position, previousTimes[stop]);
+                        if (earliestTrip != -1 && (trip == -1 ||
+                                timetable.getDeparture(earliestTrip, position) < timetable.getDeparture(trip, position))) {
+                            trip = earliestTrip;
+                            boardPosition = position;
+                        }
+                    }
+                }
+            }
+
+            // transfers from the stops where a ride alighted
+            stopsImproved = (BitSet) stopsRidden.clone();
+            int[] transfers = data.transfersForStops;
+            for (int s = stopsRidden.nextSetBit(0); s >= 0; s = stopsRidden.nextSetBit(s + 1)) {
+                for (int i = data.firstTransferForStop[s]; i < data.firstTransferForStop[s + 1]; i += 2) {
+                    int toStop = transfers[i];
+                    int time = roundRideTimes[s] + (int) (transfers[i + 1] / req.walkSpeed);
+                    if (time < maxTime && time < roundTimes[toStop]) {
+                        roundTimes[toStop] = time;
+                        roundTransferFrom[toStop] = s;
+                        stopsImproved.set(toStop);
+                    }
+                }
+            }
+        }
+        return round;
+    }
+
+    /** Follow the parent pointers back from the given stop in the given round to the origin. */
+    private RaptorJourney reconstruct (int round, int stop, int egressTime, TIntIntMap accessTimes) {
+        List<RaptorJourney.Leg> legs = new ArrayList<>();
+        RaptorJourney journey = new RaptorJourney();
+
+        RaptorJourney.Leg egress = new RaptorJourney.Leg();
+        setFromStop(egress, stop);
+        egress.departureTime = times[round][stop];
+        egress.arrivalTime = egress.departureTime + egressTime;
+        legs.add(egress);
+        journey.arrivalTime = egress.arrivalTime;
+
+        int rides = 0;
+        while (true) {
+            // skip back to the round in which this stop was reached
+            while (round > 0 && transferFrom[round][stop] == -1) {
+                round--;
+            }
+            if (round == 0)
+                break;
+
+            int alightStop = transferFrom[round][stop];
+            if (alightStop != stop) {
+                RaptorJourney.Leg transfer = new RaptorJourney.Leg();
+                setFromStop(transfer, alightStop);
+                setToStop(transfer, stop);
+                transfer.departureTime = rideTimes[round][alightStop];
+                transfer.arrivalTime = times[round][stop];
+                legs.add(transfer);
+            }
+
+            RaptorWorkerTimetable timetable = data.timetablesForPattern.get(ridePatterns[round][alightStop]);
+            int trip = rideTrips[round][alightStop];
+            int boardPosition = rideBoardPositions[round][alightStop];
+            int boardStop = timetable.stopIndices[boardPosition];
+            RaptorJourney.Leg ride = new RaptorJourney.Leg();
+            setFromStop(ride, boardStop);
+            setToStop(ride, alightStop);
+            ride.departureTime = timetable.getDeparture(trip, boardPosition);
+            ride.arrivalTime = timetable.getArrival(trip, rideAlightPositions[round][alightStop]);
+            ride.routeId = timetable.routeId;
+            ride.routeType = timetable.mode;
+            legs.add(ride);
+            rides++;
+
+            // the ride was boarded using the time at the board stop from the previous round
+            stop = boardStop;
+            round--;
+        }
+
+        // leave the origin just in time to board the first ride
+        RaptorJourney.Leg access = new RaptorJourney.Leg();
+        setToStop(access, stop);
+        access.arrivalTime = legs.get(legs.size() - 1).departureTime;
+        access.departureTime = access.arrivalTime - accessTimes.get(stop);
+        legs.add(access);
+
+        Collections.reverse(legs);
+        journey.legs = legs;
+        journey.departureTime = access.departureTime;
+        journey.transfers = rides - 1;
+        return journey;
+    }
+
+    private void setFromStop (RaptorJourney.Leg leg, int stop) {
+        TransitStop transitStop = transitStops[stop];
+        if (transitStop != null) {
+            leg.fromStopId = transitStop.getStop().getId().toString();
+            leg.fromStopName = transitStop.getName();
+        }
+    }
+
+    private void setToStop (RaptorJourney.Leg leg, int stop) {
+        TransitStop transitStop = transitStops[stop];
+        if (transitStop != null) {
+            leg.toStopId = transitStop.getStop().getId().toString();
+            leg.toStopName = transitStop.getName();
+        }
+    }
+}
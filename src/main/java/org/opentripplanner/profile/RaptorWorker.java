@@ -109,10 +109,58 @@ public class RaptorWorker {
 
     private ProfileRequest req;
 
-    private long totalPropagationTime = 0;
+    /** Nanoseconds spent in this worker propagating stop by stop and target by target. */
+    long stopMajorPropagationTime = 0, targetMajorPropagationTime = 0;
+
+    /** The number of propagations done stop by stop and target by target. */
+    int stopMajorPropagationCount = 0, targetMajorPropagationCount = 0;
+
+    /** Nanoseconds spent in this worker searching departure minutes, including propagation. */
+    private long totalSearchTime = 0;
+
+    /** Scratch space for the stop times used in target-major propagation. */
+    private int[] propagationStopTimes;
+
+    /**
+     * The time given to unreached stops during target-major propagation. Adding a walk time to it cannot overflow,
+     * and the result is later than any real arrival.
+     */
+    private static final int UNREACHED_STOP_TIME = Integer.MAX_VALUE / 2;
+
+    /**
+     * Roughly how much faster one stop-target pair is propagated target by target than stop by stop. Propagation is
+     * done target by target when it visits at most this many times as many pairs as propagating stop by stop would.
+     */
+    private static final int TARGET_MAJOR_SPEEDUP = 2;
 
     private FrequencyRandomOffsets offsets;
 
+    /**
+     * The boarding assumption for the current frequency search. This is usually the requested one, but is replaced
+     * with the best and worst cases for the extrema draws. It is kept here rather than by modifying the request,
+     * which may be shared between concurrent workers.
+     */
+    private RaptorWorkerTimetable.BoardingAssumption boardingAssumption;
+
+    /**
+     * If true, the departure minutes are split into contiguous blocks which are searched concurrently on the common
+     * fork-join pool, one range-RAPTOR search per block. This makes a single search use all the cores, which suits
+     * interactive single-point requests. Batch jobs already run one search per core and should leave it off.
+     *
+     * Each block starts range-RAPTOR afresh at its latest minute rather than reusing the state left by the minute
+     * after it. Because a search from an earlier departure can always wait for the trips found from a later one,
+     * this gives the same travel times as the serial search, except near the MAX_DURATION cutoff: the serial search
+     * can carry over arrivals that are within a later departure's cutoff but beyond this one's. Monte Carlo draws use
+     * a separate random sequence per block.
+     */
+    public boolean parallelMinutes = false;
+
+    /** Blocks of fewer minutes than this lose more to restarting range-RAPTOR than they gain from parallelism. */
+    private static final int MIN_MINUTES_PER_BLOCK = 10;
+
+    /** The most blocks of minutes to search in parallel when parallelMinutes is set, by default one per processor. */
+    int maxParallelBlocks = Runtime.getRuntime().availableProcessors();
+
     public RaptorWorker(RaptorWorkerData data, ProfileRequest req) {
         this.data = data;
         // these should only reflect the results of the (deterministic) scheduled search
@@ -124,9 +172,11 @@ public class RaptorWorker {
         stopsTouched = new BitSet(data.nStops);
         patternsTouched = new BitSet(data.nPatterns);
         this.req = req; 
+        this.boardingAssumption = req.boardingAssumption;
         Arrays.fill(bestTimes, UNREACHED); // initialize once here and reuse on subsequent iterations.
         Arrays.fill(bestNonTransferTimes, UNREACHED);
         offsets = new FrequencyRandomOffsets(data);
+        propagationStopTimes = new int[data.nStops];
     }
 
     public void advance () {
@@ -155,140 +205,207 @@ public class RaptorWorker {
 
         PropagatedTimesStore propagatedTimesStore = new PropagatedTimesStore(graph, this.req, data.nTargets);
 
-        // optimization: if no schedules, only run Monte Carlo
-        int fromTime = req.fromTime;
-        int monteCarloDraws = MONTE_CARLO_COUNT_PER_MINUTE;
-        if (!data.hasSchedules) {
-            // only do one iteration
-            fromTime = req.toTime - 60;
-            monteCarloDraws = TOTAL_MONTE_CARLO_COUNT;
-        }
-
-        // if no frequencies, don't run Monte Carlo
-        int iterations = (req.toTime - fromTime - 60) / 60 + 1;
-
-        // if we do Monte Carlo, we do more iterations. But we only do monte carlo when we have frequencies.
-        // So only update the number of iterations when we're actually going to use all of them, to
-        // avoid uninitialized arrays.
-        // if we multiply when we're not doing monte carlo, we'll end up with too many iterations.
-        if (data.hasFrequencies)
-            // we add 2 because we do two "fake" draws where we do min or max instead of a monte carlo draw
-            iterations *= (monteCarloDraws + 2);
+        int monteCarloDraws = monteCarloDraws();
+        int minutes = searchMinutes();
+        int iterations = minutes * iterationsPerMinute(monteCarloDraws);
 
         ts.searchCount = iterations;
 
-        // Iterate backward through minutes (range-raptor) taking a snapshot of router state after each call
-        int[][] timesAtTargetsEachIteration = new int[iterations][data.nTargets];
-
-        // for each iteration, whether it is the result of a schedule or Monte Carlo search, or whether it is an extrema.
-        // extrema are not included in averages.
-        boolean[] includeIterationInAverages = new boolean[iterations];
-        Arrays.fill(includeIterationInAverages, true);
+        // Iterate backward through minutes (range-raptor), streaming the times at the targets from each iteration into
+        // the summary statistics rather than keeping them all.
+        // we can use min_max here as we've also run it once with best case and worst case board,
+        // so the best and worst cases are meaningful.
+        propagatedTimesStore.startAccumulating(PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
 
         // TODO don't hardwire timestep below
         ts.timeStep = 60;
 
+        // Split the minutes into contiguous blocks, each searched backward by its own worker. In serial mode this
+        // worker searches the single block containing every minute. Each block accumulates into its own store, so that
+        // the blocks do not contend for a shared one, and the stores are merged once all blocks are done.
+        int nBlocks = parallelMinutes ? Math.max(1, Math.min(maxParallelBlocks,
+                (minutes + MIN_MINUTES_PER_BLOCK - 1) / MIN_MINUTES_PER_BLOCK)) : 1;
+        RaptorWorker[] blockWorkers = new RaptorWorker[nBlocks];
+        PropagatedTimesStore[] blockStores = new PropagatedTimesStore[nBlocks];
+        blockWorkers[0] = this;
+        blockStores[0] = propagatedTimesStore;
+        for (int b = 1; b < nBlocks; b++) {
+            blockWorkers[b] = new RaptorWorker(data, req);
+            blockStores[b] = new PropagatedTimesStore(graph, this.req, data.nTargets);
+            blockStores[b].startAccumulating(PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        }
+        final int draws = monteCarloDraws;
+        IntStream blocks = IntStream.range(0, nBlocks);
+        if (nBlocks > 1) {
+            LOG.info("Searching {} minutes in {} parallel blocks", minutes, nBlocks);
+            blocks = blocks.parallel();
+        }
+        blocks.forEach(b -> blockWorkers[b].runMinutes(initialStops, nonTransitTimes, minutes * b / nBlocks,
+                minutes * (b + 1) / nBlocks, draws, blockStores[b]));
+        for (int b = 1; b < nBlocks; b++) {
+            propagatedTimesStore.mergeAccumulated(blockStores[b]);
+        }
+
+        // make sure we ran every iteration, otherwise results are garbage.
+        // This implies a bug in OTP, but it has happened in the past when we did
+        // not set the number of iterations correctly.
+        if (propagatedTimesStore.getIterationCount() != iterations)
+            throw new IllegalStateException("Ran " + propagatedTimesStore.getIterationCount() + " iterations, expected " +
+                    iterations);
+
+        // Times are summed over the blocks, so in parallel mode they are CPU rather than wall clock times.
+        long searchTime = 0, stopMajorTime = 0, targetMajorTime = 0;
+        ts.stopMajorPropagationCount = ts.targetMajorPropagationCount = 0;
+        for (RaptorWorker worker : blockWorkers) {
+            searchTime += worker.totalSearchTime;
+            stopMajorTime += worker.stopMajorPropagationTime;
+            targetMajorTime += worker.targetMajorPropagationTime;
+            ts.stopMajorPropagationCount += worker.stopMajorPropagationCount;
+            ts.targetMajorPropagationCount += worker.targetMajorPropagationCount;
+        }
+        long propagationTime = stopMajorTime + targetMajorTime;
+        long calcTime = System.currentTimeMillis() - beginCalcTime;
+        LOG.info("calc time {}sec", calcTime / 1000.0);
+        LOG.info("  propagation {}sec ({} stop-major, {} target-major)", propagationTime / 1e9,
+                ts.stopMajorPropagationCount, ts.targetMajorPropagationCount);
+        LOG.info("  raptor {}sec", (searchTime - propagationTime) / 1e9);
+        ts.propagation = (int) (propagationTime / 1000000);
+        ts.stopMajorPropagation = (int) (stopMajorTime / 1000000);
+        ts.targetMajorPropagation = (int) (targetMajorTime / 1000000);
+        ts.transitSearch = (int) ((searchTime - propagationTime) / 1000000);
+        //dumpVariableByte(timesAtTargetsEachMinute);
+        propagatedTimesStore.finishAccumulating();
+        return propagatedTimesStore;
+    }
+
+    /** @return the number of Monte Carlo draws to take in each departure minute. */
+    int monteCarloDraws () {
+        // optimization: if no schedules, only run Monte Carlo
+        return data.hasSchedules ? MONTE_CARLO_COUNT_PER_MINUTE : TOTAL_MONTE_CARLO_COUNT;
+    }
+
+    /** @return the number of departure minutes to search, counting back from the end of the time window. */
+    int searchMinutes () {
+        // if no schedules, only do one minute
+        return data.hasSchedules ? (req.toTime - req.fromTime - 60) / 60 + 1 : 1;
+    }
+
+    /** @return the number of iterations whose times are accumulated for each departure minute. */
+    int iterationsPerMinute (int monteCarloDraws) {
+        // if we do Monte Carlo, we do more iterations. But we only do monte carlo when we have frequencies.
+        // if we multiply when we're not doing monte carlo, we'll end up with too many iterations.
+        // we add 2 because we do two "fake" draws where we do min or max instead of a monte carlo draw
+        return data.hasFrequencies ? monteCarloDraws + 2 : 1;
+    }
+
+    /**
+     * Search a contiguous block of departure minutes with range-RAPTOR, from the latest to the earliest, adding the
+     * times at the targets from each iteration to the store. Minutes are counted backward from the end of the time
+     * window, so minute 0 departs at toTime - 60. Blocks can be searched concurrently by different workers.
+     *
+     * @param firstMinute the latest minute of the block, inclusive
+     * @param endMinute the minute after the earliest minute of the block, exclusive
+     */
+    private void runMinutes (TIntIntMap initialStops, int[] nonTransitTimes, int firstMinute, int endMinute,
+            int monteCarloDraws, PropagatedTimesStore propagatedTimesStore) {
+        long beginSearchTime = System.nanoTime();
+
         // times at targets from scheduled search
         int[] scheduledTimesAtTargets = new int[data.nTargets];
         Arrays.fill(scheduledTimesAtTargets, UNREACHED);
 
-        // current iteration
-        int iteration = 0;
+        // times at targets from the current iteration, reused for every iteration once its times have been accumulated
+        int[] timesAtTargets = new int[data.nTargets];
 
         // FIXME this should be changed to tolerate a zero-width time range
-        for (int departureTime = req.toTime - 60, n = 0; departureTime >= fromTime; departureTime -= 60, n++) {
+        for (int n = firstMinute; n < endMinute; n++) {
+            int departureTime = req.toTime - 60 * (n + 1);
             if (n % 15 == 0) {
                 LOG.info("minute {}", n);
             }
 
             // run the scheduled search
             this.runRaptorScheduled(initialStops, departureTime);
-            this.doPropagation(bestNonTransferTimes, scheduledTimesAtTargets, departureTime);
+            this.finishMinute(nonTransitTimes, departureTime, monteCarloDraws, scheduledTimesAtTargets, timesAtTargets,
+                    propagatedTimesStore);
+        }
+        totalSearchTime += (System.nanoTime() - beginSearchTime);
+    }
 
-            // pop in the walk only times; we don't want to force people to ride transit instead of
-            // walking a block
-            for (int i = 0; i < scheduledTimesAtTargets.length; i++) {
-                if (nonTransitTimes[i] != UNREACHED && nonTransitTimes[i] + departureTime < scheduledTimesAtTargets[i])
-                    scheduledTimesAtTargets[i] = nonTransitTimes[i] + departureTime;
-            }
+    /**
+     * Propagate the results of the scheduled search for one departure minute to the targets, run the frequency
+     * searches based on them, and add the times at the targets from each iteration to the store.
+     *
+     * @param scheduledTimesAtTargets the clock times at the targets from the scheduled search, carried between minutes
+     * @param timesAtTargets scratch space for the travel times at the targets from each iteration
+     */
+    void finishMinute (int[] nonTransitTimes, int departureTime, int monteCarloDraws, int[] scheduledTimesAtTargets,
+            int[] timesAtTargets, PropagatedTimesStore propagatedTimesStore) {
+        this.doPropagation(bestNonTransferTimes, scheduledTimesAtTargets, departureTime);
+
+        // pop in the walk only times; we don't want to force people to ride transit instead of
+        // walking a block
+        for (int i = 0; i < scheduledTimesAtTargets.length; i++) {
+            if (nonTransitTimes[i] != UNREACHED && nonTransitTimes[i] + departureTime < scheduledTimesAtTargets[i])
+                scheduledTimesAtTargets[i] = nonTransitTimes[i] + departureTime;
+        }
 
-            // run the frequency searches
-            if (data.hasFrequencies) {
-                for (int i = 0; i < monteCarloDraws + 2; i++) {
-                    // make copies for just this search. We need copies because we can't use dynamic
-                    // programming/range-raptor with randomized schedules
-                    int[] bestTimesCopy = Arrays.copyOf(bestTimes, bestTimes.length);
-                    int[] bestNonTransferTimesCopy = Arrays
-                            .copyOf(bestNonTransferTimes, bestNonTransferTimes.length);
-                    int[] previousPatternsCopy = Arrays
-                            .copyOf(previousPatterns, previousPatterns.length);
-
-                    // special cases: calculate the best and the worst cases as well
-                    // Note that this (intentionally) does not affect searches where the user has requested
-                    // an assumption other than RANDOM, or stops with transfer rules.
-                    RaptorWorkerTimetable.BoardingAssumption requestedBoardingAssumption = req.boardingAssumption;
-
-                    if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
-                        // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
-                    }
-                    else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
-                        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
-                        // don't include extrema in averages
-                        includeIterationInAverages[iteration] = false;
-                    }
-                    else if (requestedBoardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
-                        // use a new Monte Carlo draw each time
-                        // included in averages by default
-                        offsets.randomize();
-
-                    this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
-                            previousPatternsCopy);
-
-                    req.boardingAssumption = requestedBoardingAssumption;
-
-                    // do propagation
-                    int[] frequencyTimesAtTargets = timesAtTargetsEachIteration[iteration++];
-                    System.arraycopy(scheduledTimesAtTargets, 0, frequencyTimesAtTargets, 0,
-                            scheduledTimesAtTargets.length);
-                    // updates timesAtTargetsEachIteration directly because it has a reference into the array.
-                    this.doPropagation(bestNonTransferTimesCopy, frequencyTimesAtTargets,
-                            departureTime);
-
-                    // convert to elapsed time
-                    for (int t = 0; t < frequencyTimesAtTargets.length; t++) {
-                        if (frequencyTimesAtTargets[t] != UNREACHED)
-                            frequencyTimesAtTargets[t] -= departureTime;
-                    }
+        // run the frequency searches
+        if (data.hasFrequencies) {
+            for (int i = 0; i < monteCarloDraws + 2; i++) {
+                // make copies for just this search. We need copies because we can't use dynamic
+                // programming/range-raptor with randomized schedules
+                int[] bestTimesCopy = Arrays.copyOf(bestTimes, bestTimes.length);
+                int[] bestNonTransferTimesCopy = Arrays
+                        .copyOf(bestNonTransferTimes, bestNonTransferTimes.length);
+                int[] previousPatternsCopy = Arrays
+                        .copyOf(previousPatterns, previousPatterns.length);
+
+                // whether this iteration is the result of a Monte Carlo search, or whether it is an extremum.
+                boolean includeInAverages = true;
+
+                // special cases: calculate the best and the worst cases as well
+                // Note that this (intentionally) does not affect searches where the user has requested
+                // an assumption other than RANDOM, or stops with transfer rules.
+                if (i == 0 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
+                    boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+                    // don't include extrema in averages
+                    includeInAverages = false;
                 }
-            } else {
-                final int dt = departureTime;
-                timesAtTargetsEachIteration[iteration++] = IntStream.of(scheduledTimesAtTargets)
-                        .map(i -> i != UNREACHED ? i - dt : i)
-                        .toArray();
-            }
-        }
+                else if (i == 1 && req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM) {
+                    boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.BEST_CASE;
+                    // don't include extrema in averages
+                    includeInAverages = false;
+                }
+                else if (req.boardingAssumption == RaptorWorkerTimetable.BoardingAssumption.RANDOM)
+                    // use a new Monte Carlo draw each time
+                    // included in averages by default
+                    offsets.randomize();
 
-        // make sure we filled the array, otherwise results are garbage.
-        // This implies a bug in OTP, but it has happened in the past when we did
-        // not set the number of iterations correctly.
-        // iteration should be incremented past end of array by ++ in assignment above
-        if (iteration != iterations)
-            throw new IllegalStateException("Iterations did not completely fill output array");
+                this.runRaptorFrequency(departureTime, bestTimesCopy, bestNonTransferTimesCopy,
+                        previousPatternsCopy);
 
-        long calcTime = System.currentTimeMillis() - beginCalcTime;
-        LOG.info("calc time {}sec", calcTime / 1000.0);
-        LOG.info("  propagation {}sec", totalPropagationTime / 1000.0);
-        LOG.info("  raptor {}sec", (calcTime - totalPropagationTime) / 1000.0);
-        ts.propagation = (int) totalPropagationTime;
-        ts.transitSearch = (int) (calcTime - totalPropagationTime);
-        //dumpVariableByte(timesAtTargetsEachMinute);
-        // we can use min_max here as we've also run it once with best case and worst case board,
-        // so the best and worst cases are meaningful.
-        propagatedTimesStore.setFromArray(timesAtTargetsEachIteration, includeIterationInAverages,
-                PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
-        return propagatedTimesStore;
+                boardingAssumption = req.boardingAssumption;
+
+                // do propagation
+                System.arraycopy(scheduledTimesAtTargets, 0, timesAtTargets, 0, timesAtTargets.length);
+                this.doPropagation(bestNonTransferTimesCopy, timesAtTargets, departureTime);
+
+                // convert to elapsed time
+                for (int t = 0; t < timesAtTargets.length; t++) {
+                    if (timesAtTargets[t] != UNREACHED)
+                        timesAtTargets[t] -= departureTime;
+                }
+                propagatedTimesStore.accumulate(timesAtTargets, includeInAverages);
+            }
+        } else {
+            // convert to elapsed time
+            for (int t = 0; t < timesAtTargets.length; t++) {
+                int time = scheduledTimesAtTargets[t];
+                timesAtTargets[t] = time != UNREACHED ? time - departureTime : UNREACHED;
+            }
+            propagatedTimesStore.accumulate(timesAtTargets, true);
+        }
     }
 
     public void dumpVariableByte(int[][] array) {
@@ -391,7 +508,7 @@ public class RaptorWorker {
                         for (int trip = 0; trip < timetable.getFrequencyTripCount(); trip++) {
                             int boardTime = timetable
                                     .getFrequencyDeparture(trip, stopPositionInPattern,
-                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, req.boardingAssumption);
+                                            bestTimes[stopIndex], previousPatterns[stopIndex], offsets, boardingAssumption);
 
                             if (boardTime != -1 && boardTime < remainOnBoardTime) {
                                 // make sure we board the best frequency entry at a stop
@@ -489,8 +606,8 @@ public class RaptorWorker {
             // TODO this is reboarding every trip at every stop.
             markPatternsForStop(stop);
             int fromTime = bestNonTransferTimes[stop];
-            int[] transfers = data.transfersForStop.get(stop);
-            for (int i = 0; i < transfers.length; i++) {
+            int[] transfers = data.transfersForStops;
+            for (int i = data.firstTransferForStop[stop]; i < data.firstTransferForStop[stop + 1]; i++) {
                 int toStop = transfers[i++]; // increment i
                 int distance = transfers[i]; // i will be incremented at the end of the loop
                 int toTime = fromTime + (int) (distance / req.walkSpeed);
@@ -509,9 +626,12 @@ public class RaptorWorker {
      *
      * This is valid both for randomized frequencies and for schedules, because the stops that have
      * been updated will be in allStopsTouched.
+     *
+     * When many stops were touched, propagation is instead done target by target from all stops, which gives the
+     * same result with less work; see propagateTargetMajor.
      */
     public void doPropagation (int[] timesAtTransitStops, int[] timesAtTargets, int departureTime) {
-        long beginPropagationTime = System.currentTimeMillis();
+        long beginPropagationTime = System.nanoTime();
 
         // Record distances to each sample or intersection
         // We need to propagate all the way to samples (or intersections if there are no samples)
@@ -526,6 +646,28 @@ public class RaptorWorker {
         // a sample would be able to reach these two stops within the walk limit, but that the two
         // intersections it is connected to cannot reach both.
 
+        // Propagating stop by stop only visits the stops touched this minute, but updates the targets in random
+        // order. Propagating target by target visits every stop near every target, but reads the tables in order
+        // and keeps each target's minimum in a register. Estimate which one has less work to do.
+        int touchedPairs = 0;
+        for (int s = allStopsTouched.nextSetBit(0); s >= 0; s = allStopsTouched.nextSetBit(s + 1)) {
+            int[] targets = data.targetsForStop.get(s);
+            if (targets != null) touchedPairs += targets.length / 2;
+        }
+
+        if ((long) touchedPairs * TARGET_MAJOR_SPEEDUP >= data.stopsForTargets.length) {
+            propagateTargetMajor(timesAtTransitStops, timesAtTargets);
+            targetMajorPropagationTime += System.nanoTime() - beginPropagationTime;
+            targetMajorPropagationCount++;
+        } else {
+            propagateStopMajor(timesAtTransitStops, timesAtTargets);
+            stopMajorPropagationTime += System.nanoTime() - beginPropagationTime;
+            stopMajorPropagationCount++;
+        }
+    }
+
+    /** Propagate from each of the stops touched this minute to all of its targets. */
+    void propagateStopMajor (int[] timesAtTransitStops, int[] timesAtTargets) {
         // only loop over stops that were touched this minute
         for (int s = allStopsTouched.nextSetBit(0); s >= 0; s = allStopsTouched.nextSetBit(s + 1)) {
             // it's safe to use the best time at this stop for any number of transfers, even in range-raptor,
@@ -549,14 +691,41 @@ public class RaptorWorker {
                 }
             }
         }
-        totalPropagationTime += (System.currentTimeMillis() - beginPropagationTime);
+    }
+
+    /**
+     * Propagate to each target from all the stops near it, using the transposed tables. Stops that were not touched
+     * this minute have already been propagated in an earlier minute (or, for frequency searches, into the scheduled
+     * times the target times were copied from), so including them does not change the result.
+     *
+     * The inner loop is a branch-free minimum over the stops, which the JIT compiles tightly. Unreached stops are
+     * given a large but non-overflowing time so that they need no test.
+     */
+    void propagateTargetMajor (int[] timesAtTransitStops, int[] timesAtTargets) {
+        int[] stopTimes = propagationStopTimes;
+        for (int s = 0; s < stopTimes.length; s++) {
+            int time = timesAtTransitStops[s];
+            stopTimes[s] = time == UNREACHED ? UNREACHED_STOP_TIME : time;
+        }
+
+        int[] firstStopForTarget = data.firstStopForTarget;
+        int[] stopsForTargets = data.stopsForTargets;
+        int[] timesForTargets = data.timesForTargets;
+        for (int target = 0; target < data.nTargets; target++) {
+            int best = timesAtTargets[target];
+            for (int i = firstStopForTarget[target]; i < firstStopForTarget[target + 1]; i++) {
+                best = Math.min(best, stopTimes[stopsForTargets[i]] + timesForTargets[i]);
+            }
+            if (best < UNREACHED_STOP_TIME) {
+                timesAtTargets[target] = best;
+            }
+        }
     }
 
     /** Mark all the patterns passing through the given stop. */
     private void markPatternsForStop(int stop) {
-        int[] patterns = data.patternsForStop.get(stop);
-        for (int pattern : patterns) {
-            patternsTouched.set(pattern);
+        for (int i = data.firstPatternForStop[stop]; i < data.firstPatternForStop[stop + 1]; i++) {
+            patternsTouched.set(data.patternsForStops[i]);
         }
     }
 
@@ -42,7 +42,11 @@ import org.opentripplanner.routing.vertextype.TransitStop;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.BitSet;
@@ -53,6 +57,11 @@ import java.util.stream.Collectors;
 public class RaptorWorkerData implements Serializable {
     public static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerData.class);
 
+    /** Identifies the binary form written by write(). Increment the version whenever the form or the data change. */
+    private static final int MAGIC = 0x52574454; // RWDT
+
+    private static final int FORMAT_VERSION = 1;
+
     /** we use empty int arrays for various things, e.g. transfers from isolated stops. They're immutable so only use one */
     public static final int[] EMPTY_INT_ARRAY = new int[0];
 
@@ -63,11 +72,24 @@ public class RaptorWorkerData implements Serializable {
     /** The number of targets (vertices or samples) */
     public final int nTargets;
 
-    /** For every stop, one pair of ints (targetStopIndex, distanceMeters) for each transfer out of that stop. This uses 0-based stop indices that are specific to RaptorData */
-    public final List<int[]> transfersForStop = new ArrayList<>();
+    /*
+     * Transfers and patterns for each stop are stored in compressed sparse row form: the entries for stop s are at
+     * indices firstXForStop[s] through firstXForStop[s + 1] - 1 of the flat array, and firstXForStop has nStops + 1
+     * elements. This keeps them together in memory rather than in one array object per stop.
+     */
+
+    /**
+     * For every stop, one pair of ints (targetStopIndex, distanceMeters) for each transfer out of that stop. This uses
+     * 0-based stop indices that are specific to RaptorData. The offsets in firstTransferForStop count ints, not pairs.
+     */
+    public final int[] transfersForStops;
+
+    public final int[] firstTransferForStop;
+
+    /** The pattern indexes passing through each stop, again using Raptor indices. */
+    public final int[] patternsForStops;
 
-    /** A list of pattern indexes passing through each stop, again using Raptor indices. */
-    public final List<int[]> patternsForStop = new ArrayList<>();
+    public final int[] firstPatternForStop;
 
     /** For each pattern, a 2D array of stoptimes for each trip on the pattern. */
     public List<RaptorWorkerTimetable> timetablesForPattern = new ArrayList<>();
@@ -99,12 +121,29 @@ public class RaptorWorkerData implements Serializable {
      */
     public final List<int[]> targetsForStop = new ArrayList<>();
 
+    /*
+     * The same stop to target times transposed into target-major compressed sparse row form, for propagating target
+     * by target: the stops near target t and the times to reach t from them are at indices firstStopForTarget[t]
+     * through firstStopForTarget[t + 1] - 1 of stopsForTargets and timesForTargets.
+     */
+
+    public final int[] firstStopForTarget;
+
+    public final int[] stopsForTargets;
+
+    public final int[] timesForTargets;
+
     /** The 0-based RAPTOR indices of each stop from their vertex IDs */
     public transient final TIntIntMap indexForStop;
      /** Optional debug data: the name of each stop. */
     public transient final List<String> stopNames = new ArrayList<>();
     public transient final List<String> patternNames = new ArrayList<>();
 
+    /** Return a copy of the (targetStopIndex, distanceMeters) pairs for the transfers out of the given stop. */
+    public int[] getTransfersForStop (int stop) {
+        return Arrays.copyOfRange(transfersForStops, firstTransferForStop[stop], firstTransferForStop[stop + 1]);
+    }
+
     /** Create RaptorWorkerData for the given window and graph */
     public RaptorWorkerData (Graph graph, TimeWindow window, ProfileRequest request, TaskStatistics ts) {
         this(graph, window, request, null, ts);
@@ -120,6 +159,19 @@ public class RaptorWorkerData implements Serializable {
 
     /** Create RaptorWorkerData to be used to build ResultSets directly without creating an intermediate SampleSet */
     public RaptorWorkerData (Graph graph, TimeWindow window, ProfileRequest req, SampleSet sampleSet, TaskStatistics ts) {
+        this(graph, window, req, sampleSet, ts, true);
+    }
+
+    /**
+     * Create RaptorWorkerData with only the transit network and no targets, for searches that stop at transit stops
+     * and never propagate times to the streets. This skips building the stop trees and the stop to target tables.
+     */
+    public static RaptorWorkerData withoutTargets (Graph graph, TimeWindow window, ProfileRequest req) {
+        return new RaptorWorkerData(graph, window, req, null, new TaskStatistics(), false);
+    }
+
+    private RaptorWorkerData (Graph graph, TimeWindow window, ProfileRequest req, SampleSet sampleSet,
+                              TaskStatistics ts, boolean withTargets) {
         Scenario scenario = req.scenario;
 
         int totalPatterns = graph.index.patternForId.size();
@@ -406,14 +458,22 @@ public class RaptorWorkerData implements Serializable {
             }
         }
 
-        for (int stop = 0; patternsForStopList.containsKey(stop); stop++) {
-            patternsForStop.add(patternsForStopList.get(stop).toArray());
+        firstPatternForStop = new int[stopForIndex.size() + 1];
+        TIntList patternsForStopsList = new TIntArrayList();
+        for (int stop = 0; stop < stopForIndex.size(); stop++) {
+            firstPatternForStop[stop] = patternsForStopsList.size();
+            if (patternsForStopList.containsKey(stop))
+                patternsForStopsList.addAll(patternsForStopList.get(stop));
         }
+        firstPatternForStop[stopForIndex.size()] = patternsForStopsList.size();
+        patternsForStops = patternsForStopsList.toArray();
 
         /** Record transfers between all used stops. */
-        for (TIntIterator it = stopForIndex.iterator(); it.hasNext();) {
-            int stop = it.next();
-            TIntList transfers = new TIntArrayList();
+        firstTransferForStop = new int[stopForIndex.size() + 1];
+        TIntList transfers = new TIntArrayList();
+        for (int stopIndex = 0; stopIndex < stopForIndex.size(); stopIndex++) {
+            int stop = stopForIndex.get(stopIndex);
+            firstTransferForStop[stopIndex] = transfers.size();
             TransitStop tstop = (TransitStop) graph.getVertexById(stop);
 
             if (tstop != null) {
@@ -438,20 +498,24 @@ public class RaptorWorkerData implements Serializable {
                     transfers.add(tranIt.value());
                 }
             }
-
-            if (!transfers.isEmpty())
-                transfersForStop.add(transfers.toArray());
-            else
-                transfersForStop.add(EMPTY_INT_ARRAY);
         }
+        firstTransferForStop[stopForIndex.size()] = transfers.size();
+        transfersForStops = transfers.toArray();
 
         long stcStart = System.currentTimeMillis();
-        StopTreeCache stc = graph.index.getStopTreeCache();
+        StopTreeCache stc = withTargets ? graph.index.getStopTreeCache() : null;
         ts.stopTreeCaching = (int) (System.currentTimeMillis() - stcStart);
 
+        if (!withTargets) {
+            for (int i = 0; i < stopForIndex.size(); i++) {
+                targetsForStop.add(EMPTY_INT_ARRAY);
+            }
+            nTargets = 0;
+        }
+
         // Record times to nearby intersections for all used stops.
         // We use times rather than distances to avoid a costly floating-point divide during propagation
-        if (sampleSet == null) {
+        else if (sampleSet == null) {
             int maxWalkDistance = (int) (req.maxWalkTime * 60 * req.walkSpeed);
             for (TIntIterator stopIt = stopForIndex.iterator(); stopIt.hasNext();) {
                 int stop = stopIt.next();
@@ -584,7 +648,164 @@ public class RaptorWorkerData implements Serializable {
             nTargets = sampleSet.pset.capacity;
         }
 
-        // store transfer rules by stop
+        storeTransferRules(scenario, graph);
+
+        // Transpose the stop to target times for target-major propagation. Targets are filled in stop order, so the
+        // stops for each target are sorted.
+        firstStopForTarget = new int[nTargets + 1];
+        for (int[] targets : targetsForStop) {
+            for (int i = 0; i < targets.length; i += 2) {
+                firstStopForTarget[targets[i] + 1]++;
+            }
+        }
+        for (int target = 0; target < nTargets; target++) {
+            firstStopForTarget[target + 1] += firstStopForTarget[target];
+        }
+        stopsForTargets = new int[firstStopForTarget[nTargets]];
+        timesForTargets = new int[firstStopForTarget[nTargets]];
+        int[] nextStopForTarget = Arrays.copyOf(firstStopForTarget, nTargets);
+        for (int stop = 0; stop < targetsForStop.size(); stop++) {
+            int[] targets = targetsForStop.get(stop);
+            for (int i = 0; i < targets.length; i += 2) {
+                int pos = nextStopForTarget[targets[i]]++;
+                stopsForTargets[pos] = stop;
+                timesForTargets[pos] = targets[i + 1];
+            }
+        }
+
+        ts.stopCount = nStops = stopForIndex.size();
+        ts.patternCount = nPatterns = timetablesForPattern.size();
+        ts.targetCount = nTargets;
+    }
+
+    /**
+     * Read RAPTOR data written by write() for the given graph and request. The stops are found in the graph by label,
+     * and transfer rules are restored from the request's scenario.
+     */
+    public static RaptorWorkerData read (ByteBuffer in, Graph graph, ProfileRequest req) throws IOException {
+        return new RaptorWorkerData(in, graph, req);
+    }
+
+    private RaptorWorkerData (ByteBuffer in, Graph graph, ProfileRequest req) throws IOException {
+        if (in.getInt() != MAGIC || in.getInt() != FORMAT_VERSION)
+            throw new IOException("Not RAPTOR data in the current format");
+
+        nStops = in.getInt();
+        nPatterns = in.getInt();
+        nTargets = in.getInt();
+        hasSchedules = in.get() != 0;
+        hasFrequencies = in.get() != 0;
+        boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.values()[in.getInt()];
+
+        indexForStop = new TIntIntHashMap(nStops, 0.75f, Integer.MIN_VALUE, -1);
+        for (int stop = 0; stop < nStops; stop++) {
+            String label = readString(in);
+            Vertex tstop = graph.getVertex(label);
+            if (tstop == null || !TransitStop.class.isInstance(tstop))
+                throw new IOException("Transit stop " + label + " not found in graph");
+            indexForStop.put(tstop.getIndex(), stop);
+        }
+
+        transfersForStops = readInts(in);
+        firstTransferForStop = readInts(in);
+        patternsForStops = readInts(in);
+        firstPatternForStop = readInts(in);
+        for (int stop = 0; stop < nStops; stop++) {
+            targetsForStop.add(readInts(in));
+        }
+        firstStopForTarget = readInts(in);
+        stopsForTargets = readInts(in);
+        timesForTargets = readInts(in);
+
+        for (int pattern = 0; pattern < nPatterns; pattern++) {
+            RaptorWorkerTimetable timetable = new RaptorWorkerTimetable(in);
+            timetable.raptorData = this;
+            timetablesForPattern.add(timetable);
+        }
+
+        storeTransferRules(req.scenario, graph);
+    }
+
+    /**
+     * Write this data in a compact binary form, to be read back by read() against the same graph. The stops are
+     * recorded by label, so this is only possible when there are no stops added by the scenario. Transfer rules are
+     * not written, since they are restored from the scenario.
+     */
+    public void write (DataOutputStream out, Graph graph) throws IOException {
+        if (!addedStops.isEmpty())
+            throw new IllegalStateException("Cannot write RAPTOR data with stops added by a scenario");
+
+        out.writeInt(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeInt(nStops);
+        out.writeInt(nPatterns);
+        out.writeInt(nTargets);
+        out.writeBoolean(hasSchedules);
+        out.writeBoolean(hasFrequencies);
+        out.writeInt(boardingAssumption.ordinal());
+
+        String[] labels = new String[nStops];
+        for (TIntIntIterator it = indexForStop.iterator(); it.hasNext();) {
+            it.advance();
+            labels[it.value()] = graph.getVertexById(it.key()).getLabel();
+        }
+        for (String label : labels) {
+            writeString(out, label);
+        }
+
+        writeInts(out, transfersForStops);
+        writeInts(out, firstTransferForStop);
+        writeInts(out, patternsForStops);
+        writeInts(out, firstPatternForStop);
+        for (int[] targets : targetsForStop) {
+            writeInts(out, targets);
+        }
+        writeInts(out, firstStopForTarget);
+        writeInts(out, stopsForTargets);
+        writeInts(out, timesForTargets);
+
+        for (RaptorWorkerTimetable timetable : timetablesForPattern) {
+            timetable.write(out);
+        }
+    }
+
+    /** Write an int array, which may be null, prefixed with its length. */
+    static void writeInts (DataOutputStream out, int[] values) throws IOException {
+        if (values == null) {
+            out.writeInt(-1);
+            return;
+        }
+        out.writeInt(values.length);
+        for (int value : values) {
+            out.writeInt(value);
+        }
+    }
+
+    /** Read an int array written by writeInts, copying it in bulk. */
+    static int[] readInts (ByteBuffer in) {
+        int length = in.getInt();
+        if (length < 0)
+            return null;
+        int[] values = new int[length];
+        in.asIntBuffer().get(values);
+        in.position(in.position() + length * 4);
+        return values;
+    }
+
+    private static void writeString (DataOutputStream out, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    private static String readString (ByteBuffer in) {
+        byte[] bytes = new byte[in.getInt()];
+        in.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /** Store the transfer rules of the given scenario, by stop. */
+    private void storeTransferRules (Scenario scenario, Graph graph) {
         if (scenario != null && scenario.modifications != null) {
             for (TransferRule tr : Iterables.filter(scenario.modifications, TransferRule.class)) {
                 if (tr.stop == null) {
@@ -609,10 +830,6 @@ public class RaptorWorkerData implements Serializable {
                 }
             }
         }
-
-        ts.stopCount = nStops = stopForIndex.size();
-        ts.patternCount = nPatterns = timetablesForPattern.size();
-        ts.targetCount = nTargets;
     }
 
     /** find stops from a given SPT, including temporary stops. If useTimes is true, use times from the SPT, otherwise use distances */
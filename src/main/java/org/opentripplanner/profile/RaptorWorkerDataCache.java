@@ -0,0 +1,178 @@
+package org.opentripplanner.profile;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Iterables;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.analyst.scenario.AddTripPattern;
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.routing.graph.Graph;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.Callable;
+
+/**
+ * Stores RAPTOR data on disk so that it can be reused by later jobs with the same graph, scenario, time window and
+ * destinations, including after a worker restarts. Files are named by a hash of everything that goes into building the
+ * data, and are mapped into memory when they are read back.
+ *
+ * Only data for point set destinations can be cached: the targets of isochrone requests are vertex indices, which are
+ * not stable between graph builds. Nor can data for scenarios that add trip patterns, since their temporary stops
+ * only exist for the duration of a search.
+ *
+ * The total size of the files is bounded. When saving new data takes it over the limit, the least recently used files
+ * are deleted, judging by their modification times, which are updated whenever a file is read.
+ */
+public class RaptorWorkerDataCache {
+
+    private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerDataCache.class);
+
+    private static final String SUFFIX = ".raptor";
+
+    private final File directory;
+
+    private final long maxBytes;
+
+    /** @param maxBytes the most bytes of RAPTOR data to keep in the directory. */
+    public RaptorWorkerDataCache (File directory, long maxBytes) {
+        this.directory = directory;
+        this.maxBytes = maxBytes;
+        directory.mkdirs();
+    }
+
+    /** @return whether RAPTOR data for the given request and destinations can be cached on disk. */
+    public static boolean isCacheable (ProfileRequest req, SampleSet sampleSet) {
+        if (sampleSet == null)
+            return false;
+        if (req.scenario != null && req.scenario.modifications != null)
+            return Iterables.isEmpty(Iterables.filter(req.scenario.modifications, AddTripPattern.class));
+        return true;
+    }
+
+    /**
+     * Make the cache key for RAPTOR data. The scenario is passed in serialized form (e.g. as JSON), so that its
+     * modifications need not define their own hashes. The OTP commit is included because the data depend on the
+     * code that builds them.
+     */
+    public static String key (String graphId, String pointSetId, ProfileRequest req, byte[] scenario) {
+        Hasher hasher = Hashing.sha256().newHasher();
+        putString(hasher, MavenVersion.VERSION.commit);
+        putString(hasher, graphId);
+        putString(hasher, pointSetId);
+        putString(hasher, req.date.toString());
+        hasher.putInt(req.fromTime);
+        hasher.putInt(req.toTime);
+        hasher.putFloat(req.walkSpeed);
+        hasher.putInt(req.maxWalkTime);
+        hasher.putInt(req.boardingAssumption.ordinal());
+        hasher.putInt(scenario.length);
+        hasher.putBytes(scenario);
+        return hasher.hash().toString();
+    }
+
+    /** Hash a string with its length, so that consecutive strings cannot run into one another. */
+    private static void putString (Hasher hasher, String value) {
+        if (value == null) {
+            hasher.putInt(-1);
+            return;
+        }
+        hasher.putInt(value.length());
+        hasher.putString(value, Charsets.UTF_8);
+    }
+
+    /**
+     * Get the RAPTOR data with the given key from disk, or build it and save it for next time. Unreadable files are
+     * discarded and rebuilt, and a failure to save the data is logged but does not fail the request.
+     */
+    public RaptorWorkerData get (String key, Graph graph, ProfileRequest req, Callable<RaptorWorkerData> build)
+            throws Exception {
+        File file = new File(directory, key + SUFFIX);
+
+        if (file.exists()) {
+            try {
+                RaptorWorkerData data = read(file, graph, req);
+                file.setLastModified(System.currentTimeMillis());
+                LOG.info("Read RAPTOR data from {}", file);
+                return data;
+            } catch (Exception e) {
+                LOG.warn("Could not read cached RAPTOR data from {}, rebuilding it", file, e);
+                file.delete();
+            }
+        }
+
+        RaptorWorkerData data = build.call();
+
+        // Write to a temporary file and rename it, so that other workers sharing the directory never see a partial file.
+        File temp = null;
+        try {
+            temp = File.createTempFile(key, ".tmp", directory);
+            try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+                data.write(out, graph);
+            }
+            Files.move(temp.toPath(), file.toPath(), StandardCopyOption.ATOMIC_MOVE);
+            LOG.info("Saved RAPTOR data to {}", file);
+            evict(file);
+        } catch (IOException e) {
+            LOG.warn("Could not save RAPTOR data to {}", file, e);
+        } finally {
+            if (temp != null)
+                temp.delete();
+        }
+
+        return data;
+    }
+
+    /**
+     * Delete the least recently used files until the total size of the cache is within its limit, keeping the given
+     * file, which has just been saved, even if it is larger than the limit on its own.
+     */
+    private void evict (File keep) {
+        File[] files = directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+        if (files == null)
+            return;
+
+        long totalBytes = 0;
+        for (File file : files) {
+            totalBytes += file.length();
+        }
+        if (totalBytes <= maxBytes)
+            return;
+
+        Arrays.sort(files, Comparator.comparingLong(File::lastModified));
+        for (File file : files) {
+            if (totalBytes <= maxBytes)
+                break;
+            if (file.equals(keep))
+                continue;
+            long length = file.length();
+            if (file.delete()) {
+                totalBytes -= length;
+                LOG.info("Deleted {} to keep the RAPTOR data cache within {} bytes", file, maxBytes);
+            }
+        }
+    }
+
+    /** Map the file into memory and read the data from it. */
+    private static RaptorWorkerData read (File file, Graph graph, ProfileRequest req) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE)
+                throw new IOException("Cached RAPTOR data is too large to map into memory");
+            ByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            return RaptorWorkerData.read(buffer, graph, req);
+        }
+    }
+}
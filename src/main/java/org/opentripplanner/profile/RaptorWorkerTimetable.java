@@ -14,7 +14,10 @@ import org.opentripplanner.routing.trippattern.TripTimes;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.io.DataOutputStream;
+import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 import java.util.Collection;
 import java.util.Collections;
@@ -42,17 +45,33 @@ public class RaptorWorkerTimetable implements Serializable {
 
     private static final Logger LOG = LoggerFactory.getLogger(RaptorWorkerTimetable.class);
 
-    /* Times for schedule-based trips/patterns are stored in a 2D array. */
+    /*
+     * Times for schedule-based trips/patterns are stored stop-major in flat arrays: the times of all the trips at
+     * stop s are contiguous, at indices s * nTrips through (s + 1) * nTrips - 1, in the order the trips are sorted.
+     * This keeps the times scanned when boarding at a stop together in memory, and avoids one array object per trip.
+     */
 
     int nTrips, nStops;
 
-    /* For each trip on this pattern, an packed array of (arrival, departure) time pairs. */
-    public int[][] timesPerTrip;
+    /** Scheduled arrival times, stop-major. */
+    int[] arrivals;
+
+    /** Scheduled departure times, stop-major. */
+    int[] departures;
+
+    /**
+     * True if no trip overtakes another, i.e. the departures at every stop are in the same order as the trips. This
+     * allows finding departures with a binary search.
+     */
+    boolean fifo;
 
     /* Times for frequency-based trips are stored in parallel arrays (a column store). */
 
-    /** Times (0-based) for frequency trips */
-    int[][] frequencyTrips;
+    /**
+     * Times (0-based) for frequency trips, stop-major like the scheduled times: the arrival and departure of frequency
+     * trip t at stop s are at index s * getFrequencyTripCount() + t.
+     */
+    int[] frequencyArrivals, frequencyDepartures;
 
     /** Headways (seconds) for frequency trips, parallel to above. Note that frequency trips are unsorted. */
     int[] headwaySecs;
@@ -75,7 +94,7 @@ public class RaptorWorkerTimetable implements Serializable {
     /** Index of this pattern in RaptorData */
     public int dataIndex;
 
-    /** for debugging, the ID of the route this represents */
+    /** the ID of the route this represents, for debugging and for describing journeys */
     public transient String routeId;
 
     /** slack required when boarding a transit vehicle */
@@ -84,7 +103,42 @@ public class RaptorWorkerTimetable implements Serializable {
     public RaptorWorkerTimetable(int nTrips, int nStops) {
         this.nTrips = nTrips;
         this.nStops = nStops;
-        timesPerTrip = new int[nTrips][];
+        arrivals = new int[nTrips * nStops];
+        departures = new int[nTrips * nStops];
+    }
+
+    /** Read a timetable written by write(). */
+    RaptorWorkerTimetable(ByteBuffer in) {
+        nTrips = in.getInt();
+        nStops = in.getInt();
+        arrivals = RaptorWorkerData.readInts(in);
+        departures = RaptorWorkerData.readInts(in);
+        fifo = in.get() != 0;
+        frequencyArrivals = RaptorWorkerData.readInts(in);
+        frequencyDepartures = RaptorWorkerData.readInts(in);
+        headwaySecs = RaptorWorkerData.readInts(in);
+        startTimes = RaptorWorkerData.readInts(in);
+        endTimes = RaptorWorkerData.readInts(in);
+        stopIndices = RaptorWorkerData.readInts(in);
+        mode = in.getInt();
+        dataIndex = in.getInt();
+    }
+
+    /** Write this timetable as part of RaptorWorkerData.write(). The routeId and parent data are not written. */
+    void write(DataOutputStream out) throws IOException {
+        out.writeInt(nTrips);
+        out.writeInt(nStops);
+        RaptorWorkerData.writeInts(out, arrivals);
+        RaptorWorkerData.writeInts(out, departures);
+        out.writeBoolean(fifo);
+        RaptorWorkerData.writeInts(out, frequencyArrivals);
+        RaptorWorkerData.writeInts(out, frequencyDepartures);
+        RaptorWorkerData.writeInts(out, headwaySecs);
+        RaptorWorkerData.writeInts(out, startTimes);
+        RaptorWorkerData.writeInts(out, endTimes);
+        RaptorWorkerData.writeInts(out, stopIndices);
+        out.writeInt(mode);
+        out.writeInt(dataIndex);
     }
 
     /**
@@ -92,8 +146,23 @@ public class RaptorWorkerTimetable implements Serializable {
      * MIN_BOARD_TIME_SECONDS seconds of slack. 
      */
     public int findDepartureAfter(int stop, int time) {
-        for (int trip = 0; trip < timesPerTrip.length; trip++) {
-            if (getDeparture(trip, stop) > time + MIN_BOARD_TIME_SECONDS) {
+        int first = stop * nTrips;
+        int minDeparture = time + MIN_BOARD_TIME_SECONDS;
+        if (fifo) {
+            // find the first trip departing after minDeparture
+            int low = first, high = first + nTrips;
+            while (low < high) {
+                int mid = (low + high) >>> 1;
+                if (departures[mid] > minDeparture)
+                    high = mid;
+                else
+                    low = mid + 1;
+            }
+            return low < first + nTrips ? low - first : -1;
+        }
+
+        for (int trip = 0; trip < nTrips; trip++) {
+            if (departures[first + trip] > minDeparture) {
                 return trip;
             }
         }
@@ -101,11 +170,11 @@ public class RaptorWorkerTimetable implements Serializable {
     }
 
     public int getArrival (int trip, int stop) {
-        return timesPerTrip[trip][stop * 2];
+        return arrivals[stop * nTrips + trip];
     }
 
     public int getDeparture (int trip, int stop) {
-        return timesPerTrip[trip][stop * 2 + 1];
+        return departures[stop * nTrips + trip];
     }
 
     public int getFrequencyDeparture (int trip, int stop, int time, int previousPattern, FrequencyRandomOffsets offsets) {
@@ -118,7 +187,7 @@ public class RaptorWorkerTimetable implements Serializable {
      * by transfer rules).
      */
     public int getFrequencyDeparture (int trip, int stop, int time, int previousPattern, FrequencyRandomOffsets offsets, BoardingAssumption assumption) {
-        int timeToReachStop = frequencyTrips[trip][stop * 2 + 1];
+        int timeToReachStop = frequencyDepartures[stop * headwaySecs.length + trip];
 
         // figure out if there is an applicable transfer rule
         TransferRule transferRule = null;
@@ -225,7 +294,12 @@ public class RaptorWorkerTimetable implements Serializable {
      * Get the travel time (departure to arrival) on frequency trip trip, from stop from to stop to.  
      */
     public int getFrequencyTravelTime (int trip, int from, int to) {
-        return frequencyTrips[trip][to * 2] - frequencyTrips[trip][from * 2 + 1];
+        return getFrequencyArrivalOffset(trip, to) - frequencyDepartures[from * headwaySecs.length + trip];
+    }
+
+    /** Get the arrival time at the given stop of frequency trip trip, relative to the start of the trip. */
+    public int getFrequencyArrivalOffset (int trip, int stop) {
+        return frequencyArrivals[stop * headwaySecs.length + trip];
     }
 
     /**
@@ -242,7 +316,39 @@ public class RaptorWorkerTimetable implements Serializable {
 
     /** does this timetable have any scheduled trips? */
     public boolean hasScheduledTrips () {
-        return this.timesPerTrip != null && this.timesPerTrip.length > 0;
+        return this.nTrips > 0;
+    }
+
+    /**
+     * Store the scheduled times from the given per-trip arrays of (arrival, departure) pairs, which must already be
+     * sorted, in the stop-major arrays.
+     */
+    private void setScheduledTimes (List<int[]> timesPerTrip) {
+        fifo = true;
+        for (int trip = 0; trip < nTrips; trip++) {
+            int[] times = timesPerTrip.get(trip);
+            for (int stop = 0; stop < nStops; stop++) {
+                int index = stop * nTrips + trip;
+                arrivals[index] = times[stop * 2];
+                departures[index] = times[stop * 2 + 1];
+                if (trip > 0 && departures[index] < departures[index - 1])
+                    fifo = false;
+            }
+        }
+    }
+
+    /** Store the given per-trip arrays of (arrival, departure) pairs for frequency trips in the stop-major arrays. */
+    private void setFrequencyTimes (List<int[]> timesPerTrip) {
+        int nFrequencyTrips = timesPerTrip.size();
+        frequencyArrivals = new int[nFrequencyTrips * nStops];
+        frequencyDepartures = new int[nFrequencyTrips * nStops];
+        for (int trip = 0; trip < nFrequencyTrips; trip++) {
+            int[] times = timesPerTrip.get(trip);
+            for (int stop = 0; stop < nStops; stop++) {
+                frequencyArrivals[stop * nFrequencyTrips + trip] = times[stop * 2];
+                frequencyDepartures[stop * nFrequencyTrips + trip] = times[stop * 2 + 1];
+            }
+        }
     }
 
     /**
@@ -317,7 +423,7 @@ public class RaptorWorkerTimetable implements Serializable {
 
         // Copy the times into the compacted table
         RaptorWorkerTimetable rwtt = new RaptorWorkerTimetable(tripTimes.size(), pattern.getStops().size());
-        int t = 0;
+        List<int[]> timesPerTrip = Lists.newArrayList();
         for (TripTimes tt : tripTimes) {
             int[] times = new int[rwtt.nStops * 2];
             for (int s = 0; s < pattern.getStops().size(); s++) {
@@ -326,13 +432,14 @@ public class RaptorWorkerTimetable implements Serializable {
                 times[s * 2] = arrival;
                 times[s * 2 + 1] = departure;
             }
-            rwtt.timesPerTrip[t++] = times;
+            timesPerTrip.add(times);
         }
+        rwtt.setScheduledTimes(timesPerTrip);
 
-        ts.scheduledTripCount += rwtt.timesPerTrip.length;
+        ts.scheduledTripCount += rwtt.nTrips;
 
         // save frequency times
-        rwtt.frequencyTrips = new int[freqs.size()][pattern.getStops().size() * 2];
+        List<int[]> frequencyTimesPerTrip = Lists.newArrayList();
         rwtt.endTimes = new int[freqs.size()];
         rwtt.startTimes = new int[freqs.size()];
         rwtt.headwaySecs = new int[freqs.size()];
@@ -346,7 +453,7 @@ public class RaptorWorkerTimetable implements Serializable {
 
                 ts.frequencyTripCount += fe.numTrips();
 
-                int[] times = rwtt.frequencyTrips[i];
+                int[] times = new int[rwtt.nStops * 2];
 
                 // It's generally considered good practice to have frequency trips start at midnight, however that is
                 // not always the case, and we need to preserve the original times so that we can update them in
@@ -357,14 +464,17 @@ public class RaptorWorkerTimetable implements Serializable {
                     times[s * 2] = fe.tripTimes.getArrivalTime(s) - startTime;
                     times[s * 2 + 1] = fe.tripTimes.getDepartureTime(s) - startTime;
                 }
+                frequencyTimesPerTrip.add(times);
 
                 i++;
             }
         }
+        rwtt.setFrequencyTimes(frequencyTimesPerTrip);
 
         ts.frequencyEntryCount += rwtt.getFrequencyTripCount();
 
         rwtt.mode = pattern.route.getType();
+        rwtt.routeId = pattern.route.getId().toString();
 
         return rwtt;
     }
@@ -396,22 +506,22 @@ public class RaptorWorkerTimetable implements Serializable {
         RaptorWorkerTimetable rwtt = new RaptorWorkerTimetable(timetables.size(), atp.temporaryStops.length);
 
         // create timetabled trips
-        int t = 0;
-        for (AddTripPattern.PatternTimetable pt : timetables) {
-            rwtt.timesPerTrip[t++] = timesForPatternTimetable(atp, pt);
-        }
+        rwtt.setScheduledTimes(timetables.stream()
+                .map(pt -> timesForPatternTimetable(atp, pt))
+                .collect(Collectors.toList()));
 
-        ts.scheduledTripCount += rwtt.timesPerTrip.length;
+        ts.scheduledTripCount += rwtt.nTrips;
 
         // create frequency trips
-        rwtt.frequencyTrips = new int[frequencies.size()][atp.temporaryStops.length * 2];
+        rwtt.setFrequencyTimes(frequencies.stream()
+                .map(pt -> timesForPatternTimetable(atp, pt))
+                .collect(Collectors.toList()));
         rwtt.endTimes = new int[frequencies.size()];
         rwtt.startTimes = new int[frequencies.size()];
         rwtt.headwaySecs = new int[frequencies.size()];
 
-        t = 0;
+        int t = 0;
         for (AddTripPattern.PatternTimetable pt : frequencies) {
-            rwtt.frequencyTrips[t] = timesForPatternTimetable(atp, pt);
             rwtt.startTimes[t] = pt.startTime;
             rwtt.endTimes[t] = pt.endTime;
             rwtt.headwaySecs[t++] = pt.headwaySecs;
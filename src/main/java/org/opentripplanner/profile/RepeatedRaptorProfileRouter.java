@@ -16,6 +16,7 @@ import org.opentripplanner.analyst.scenario.AddTripPattern;
 import org.opentripplanner.api.parameter.QualifiedModeSet;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.core.TraverseMode;
@@ -29,7 +30,9 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.time.DayOfWeek;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.List;
 
 /**
  * Perform one-to-many profile routing using repeated RAPTOR searches. In this context, profile routing means finding
@@ -72,6 +75,9 @@ public class RepeatedRaptorProfileRouter {
 
     private ShortestPathTree preTransitSpt;
 
+    /** The routing contexts of the street searches from the origin and destination, destroyed by cleanup(). */
+    private final List<RoutingContext> routingContexts = new ArrayList<>();
+
     /** The sum of all earliest-arrival travel times to a given transit stop. Will be divided to create an average. */
     TObjectLongMap<TransitStop> accumulator = new TObjectLongHashMap<TransitStop>();
 
@@ -83,12 +89,21 @@ public class RepeatedRaptorProfileRouter {
 
     private PropagatedTimesStore propagatedTimesStore;
 
+    /** The times to the transit stops reachable from the origin, or null if there is no transit. */
+    private TIntIntMap transitStopAccessTimes;
+
+    /** The times to each target without using transit. */
+    private int[] nonTransitTimes;
+
     // Set this field to an existing taskStatistics before routing if you want to collect performance information.
     public TaskStatistics ts = new TaskStatistics();
 
     // Set this field to true before routing if you want the full travel times included in your response.
     public boolean includeTimes = false;
 
+    // Set this field to true before routing to search the departure minutes in parallel. See RaptorWorker.parallelMinutes.
+    public boolean parallelMinutes = false;
+
     /**
      * Make a router to use for making time surfaces only.
      *
@@ -128,11 +143,86 @@ public class RepeatedRaptorProfileRouter {
     }
 
     public ResultEnvelope route () {
+        boolean transit = isTransit();
+        long computationStartTime = System.currentTimeMillis();
+        findAccessTimes();
 
-        boolean isochrone = (sampleSet == null); // When no sample set is provided, we're making isochrones.
-        boolean transit = (request.transitModes != null && request.transitModes.isTransit()); // Does the search involve transit at all?
+        if (transit) {
+            RaptorWorker worker = new RaptorWorker(raptorWorkerData, request);
+            worker.parallelMinutes = parallelMinutes;
+            propagatedTimesStore = worker.runRaptor(graph, transitStopAccessTimes, nonTransitTimes, ts);
+            ts.initialStopCount = transitStopAccessTimes.size();
+        } else {
+            // Nontransit case: skip transit routing and make a propagated times store based on only one row.
+            propagatedTimesStore = new PropagatedTimesStore(graph, request, nonTransitTimes.length);
+            int[][] singleRoundResults = new int[1][];
+            singleRoundResults[0] = nonTransitTimes;
+            propagatedTimesStore.setFromArray(singleRoundResults, new boolean[] {true},
+                    PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        }
 
+        return makeResults(computationStartTime);
+    }
+
+    /**
+     * Route from the origins of several routers together, sharing the scans of the transit network between them (see
+     * MultiOriginRaptorWorker). The routers must all use transit and share the same RaptorWorkerData, and their
+     * requests must differ only in their origins. Each router's task statistics describe the search of the whole batch.
+     *
+     * @return the results for each router, in the same order.
+     */
+    public static List<ResultEnvelope> routeBatch (List<RepeatedRaptorProfileRouter> routers) {
         long computationStartTime = System.currentTimeMillis();
+        RepeatedRaptorProfileRouter first = routers.get(0);
+        for (RepeatedRaptorProfileRouter router : routers) {
+            if (!router.isTransit() || router.raptorWorkerData == null ||
+                    router.raptorWorkerData != first.raptorWorkerData)
+                throw new IllegalArgumentException("Batched routers must use transit and share RAPTOR data");
+        }
+
+        int nOrigins = routers.size();
+        TIntIntMap[] accessTimes = new TIntIntMap[nOrigins];
+        int[][] nonTransitTimes = new int[nOrigins][];
+        for (int o = 0; o < nOrigins; o++) {
+            RepeatedRaptorProfileRouter router = routers.get(o);
+            router.findAccessTimes();
+            accessTimes[o] = router.transitStopAccessTimes;
+            nonTransitTimes[o] = router.nonTransitTimes;
+        }
+
+        MultiOriginRaptorWorker worker = new MultiOriginRaptorWorker(first.raptorWorkerData, first.request, nOrigins);
+        PropagatedTimesStore[] propagatedTimesStores = worker.runRaptor(first.graph, accessTimes, nonTransitTimes,
+                first.ts);
+
+        List<ResultEnvelope> envelopes = new ArrayList<>();
+        for (int o = 0; o < nOrigins; o++) {
+            RepeatedRaptorProfileRouter router = routers.get(o);
+            router.propagatedTimesStore = propagatedTimesStores[o];
+            router.ts.initialStopCount = accessTimes[o].size();
+            router.ts.originsInBatch = nOrigins;
+            if (router != first) {
+                router.ts.searchCount = first.ts.searchCount;
+                router.ts.timeStep = first.ts.timeStep;
+                router.ts.propagation = first.ts.propagation;
+                router.ts.transitSearch = first.ts.transitSearch;
+            }
+            envelopes.add(router.makeResults(computationStartTime));
+        }
+        return envelopes;
+    }
+
+    /** @return whether the search involves transit at all. */
+    private boolean isTransit () {
+        return request.transitModes != null && request.transitModes.isTransit();
+    }
+
+    /**
+     * Find the times to the transit stops and to the targets without transit from the origin, making the RAPTOR data
+     * first if it was not supplied and is needed.
+     */
+    private void findAccessTimes () {
+        boolean transit = isTransit();
+
         LOG.info("Begin profile request");
 
         // Data tables may have been supplied by the caller (if they are cached). Otherwise generate a throw away one.
@@ -147,9 +237,9 @@ public class RepeatedRaptorProfileRouter {
         // times to all reachable vertices.
         long initialStopStartTime = System.currentTimeMillis();
         // This will return null if we have no transit data, but will leave behind a pre-transit SPT.
-        TIntIntMap transitStopAccessTimes = findInitialStops(false, raptorWorkerData);
+        transitStopAccessTimes = findInitialStops(false, raptorWorkerData);
         // Create an array containing the best travel time in seconds to each vertex in the graph when not using transit.
-        int[] nonTransitTimes = new int[Vertex.getMaxIndex()];
+        nonTransitTimes = new int[Vertex.getMaxIndex()];
         Arrays.fill(nonTransitTimes, Integer.MAX_VALUE);
         for (State state : preTransitSpt.getAllStates()) {
             // Note that we are using the walk distance divided by speed here in order to be consistent with the
@@ -174,19 +264,11 @@ public class RepeatedRaptorProfileRouter {
             nonTransitTimes = sampleSet.eval(nonTransitTimes);
         }
         ts.walkSearch = (int) (System.currentTimeMillis() - walkSearchStart);
+    }
 
-        if (transit) {
-            RaptorWorker worker = new RaptorWorker(raptorWorkerData, request);
-            propagatedTimesStore = worker.runRaptor(graph, transitStopAccessTimes, nonTransitTimes, ts);
-            ts.initialStopCount = transitStopAccessTimes.size();
-        } else {
-            // Nontransit case: skip transit routing and make a propagated times store based on only one row.
-            propagatedTimesStore = new PropagatedTimesStore(graph, request, nonTransitTimes.length);
-            int[][] singleRoundResults = new int[1][];
-            singleRoundResults[0] = nonTransitTimes;
-            propagatedTimesStore.setFromArray(singleRoundResults, new boolean[] {true},
-                    PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
-        }
+    /** Turn the times in the propagated times store into isochrones or accessibility results, as requested. */
+    private ResultEnvelope makeResults (long computationStartTime) {
+        boolean isochrone = (sampleSet == null); // When no sample set is provided, we're making isochrones.
         for (int min : propagatedTimesStore.mins) {
             if (min != RaptorWorker.UNREACHED) ts.targetsReached++;
         }
@@ -231,6 +313,7 @@ public class RepeatedRaptorProfileRouter {
         //rr.walkSpeed = request.walkSpeed;
         rr.to = rr.from;
         rr.setRoutingContext(graph);
+        routingContexts.add(rr.rctx);
         rr.dateTime = request.date.toDateMidnight(DateTimeZone.forTimeZone(graph.getTimeZone())).getMillis() / 1000 +
                 request.fromTime;
         rr.walkSpeed = request.walkSpeed;
@@ -281,6 +364,17 @@ public class RepeatedRaptorProfileRouter {
         }
     }
 
+    /**
+     * Destroy the routing contexts of the street searches made by findInitialStops, which remain linked into the graph
+     * by temporary edges until then. Call this once the street search results are no longer needed.
+     */
+    public void cleanup () {
+        for (RoutingContext rctx : routingContexts) {
+            rctx.destroy();
+        }
+        routingContexts.clear();
+    }
+
     /** Create RAPTOR worker data from a graph, profile request and sample set (the last of which may be null */
     public static RaptorWorkerData getRaptorWorkerData (ProfileRequest request, Graph graph, SampleSet sampleSet, TaskStatistics ts) {
         LOG.info("Make data...");
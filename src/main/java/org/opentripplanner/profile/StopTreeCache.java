@@ -47,6 +47,8 @@ public class StopTreeCache {
             rr.maxWalkDistance = maxWalkMeters;
             rr.softWalkLimiting = false;
             rr.dominanceFunction = new DominanceFunction.LeastWalk();
+            rr.indexedShortestPathTree = true;
+            rr.lightweightStreetTraversal = true;
 
             ShortestPathTree spt = astar.getShortestPathTree(rr, 5); // timeout in seconds
             // Copy vertex indices and distances into a flattened 2D array
@@ -62,6 +64,7 @@ public class StopTreeCache {
                 distances[i++] = (int) state.getWalkDistance();
             }
 
+            spt.release();
             rr.cleanup();
 
             synchronized (distancesForStop) {
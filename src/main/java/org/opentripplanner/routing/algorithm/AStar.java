@@ -18,13 +18,15 @@ import java.util.Collections;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.common.pqueue.OTPPriorityQueue;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.SearchTerminationStrategy;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
 import org.opentripplanner.routing.core.RoutingContext;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.StreetTraversal;
+import org.opentripplanner.routing.edgetype.StreetEdge;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.*;
@@ -63,16 +65,20 @@ public class AStar {
 
         public State u;
         public ShortestPathTree spt;
-        BinHeap<State> pq;
+        OTPPriorityQueue<State> pq;
         RemainingWeightHeuristic heuristic;
         public RoutingContext rctx;
         public int nVisited;
+        /** The number of states that came out of the queue after having been dominated, and were skipped. */
+        public int nStalePops;
         public List<State> targetAcceptedStates;
         public RunStatus status;
         private RoutingRequest options;
         private SearchTerminationStrategy terminationStrategy;
         public Vertex u_vertex;
         Double foundPathWeight = null;
+        /** Scratch record for street traversals that do not allocate states, or null if they are not in use. */
+        StreetTraversal streetTraversal;
 
         public RunState(RoutingRequest options, SearchTerminationStrategy terminationStrategy) {
             this.options = options;
@@ -134,9 +140,17 @@ public class AStar {
         // before reaching its target.
         int initialSize = runState.rctx.graph.getVertices().size();
         initialSize = (int) Math.ceil(2 * (Math.sqrt((double) initialSize + 1)));
-        runState.pq = new BinHeap<>(initialSize);
+        runState.pq = options.priorityQueueType.create(initialSize);
         runState.nVisited = 0;
+        runState.nStalePops = 0;
         runState.targetAcceptedStates = Lists.newArrayList();
+
+        // Traversing street edges without allocating states is only equivalent to a full traversal when the
+        // traversal results are not inspected by a visitor and there are no kiss and ride mode switches.
+        if (options.lightweightStreetTraversal && traverseVisitor == null && !verbose
+                && !options.modes.isTransit() && !options.kissAndRide) {
+            runState.streetTraversal = new StreetTraversal();
+        }
         
         if (addToQueue) {
             State initialState = new State(options);
@@ -163,6 +177,7 @@ public class AStar {
         if (!runState.spt.visit(runState.u)) {
             // state has been dominated since it was added to the priority queue, so it is
             // not in any optimal path. drop it on the floor and try the next one.
+            runState.nStalePops += 1;
             return false;
         }
         
@@ -180,6 +195,11 @@ public class AStar {
         Collection<Edge> edges = runState.options.arriveBy ? runState.u_vertex.getIncoming() : runState.u_vertex.getOutgoing();
         for (Edge edge : edges) {
 
+            if (runState.streetTraversal != null && edge instanceof StreetEdge) {
+                relaxStreetEdge((StreetEdge) edge);
+                continue;
+            }
+
             // Iterate over traversal results. When an edge leads nowhere (as indicated by
             // returning NULL), the iteration is over. TODO Use this to board multiple trips.
             for (State v = edge.traverse(runState.u); v != null; v = v.getNextResult()) {
@@ -233,9 +253,46 @@ public class AStar {
         return true;
     }
     
+    /**
+     * Relax a street edge like the general loop in iterate(), but look at the outcome of the traversal through the
+     * scratch record and only create a State once the shortest path tree is known to accept it.
+     */
+    private void relaxStreetEdge(StreetEdge edge) {
+        StreetTraversal traversal = runState.streetTraversal;
+        State u = runState.u;
+        if (!edge.traverse(u, traversal)) {
+            return;
+        }
+        Vertex v_vertex = runState.options.arriveBy ? edge.getFromVertex() : edge.getToVertex();
+        State probe = traversal.probe(u, edge, v_vertex);
+
+        double remaining_w = runState.heuristic.estimateRemainingWeight(probe);
+        if (remaining_w < 0 || Double.isInfinite(remaining_w) ) {
+            return;
+        }
+        double estimate = probe.getWeight() + remaining_w;
+        if (estimate > runState.options.maxWeight || isWorstTimeExceeded(probe, runState.options)) {
+            return;
+        }
+        if (!runState.spt.wouldAdd(probe)) {
+            return;
+        }
+
+        State v = traversal.makeState(u, edge);
+        if (v != null && runState.spt.add(v)) {
+            runState.pq.insert(v, estimate);
+        }
+    }
+
     void runSearch(long abortTime){
         /* the core of the A* algorithm */
         while (!runState.pq.empty()) { // Until the priority queue is empty:
+            /*
+             * Terminate if the search was aborted by another thread, for example when a concurrent search failed.
+             */
+            if (runState.options.rctx.aborted) {
+                break;
+            }
             /*
              * Terminate based on timeout?
              */
@@ -308,6 +365,7 @@ public class AStar {
 
         if (runState != null) {
             runSearch(abortTime);
+            recordQueueStatistics();
             spt = runState.spt;
         }
         
@@ -333,12 +391,20 @@ public class AStar {
             }
             
             runSearch(abortTime);
+            recordQueueStatistics();
             spt = runState.spt;
         }
         
         return spt;
     }
 
+    /** Accumulate the visit and stale pop counts of the finished search into the request's debug output. */
+    private void recordQueueStatistics() {
+        LOG.debug("{} queue: {} states visited, {} stale states skipped, {} left in queue",
+                runState.options.priorityQueueType, runState.nVisited, runState.nStalePops, runState.pq.size());
+        runState.rctx.debugOutput.searchFinished(runState.nVisited, runState.nStalePops);
+    }
+
     private void storeMemory() {
         if (store.isMonitoring("memoryUsed")) {
             System.gc();
@@ -0,0 +1,321 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.algorithm.strategies;
+
+import com.google.common.collect.Iterables;
+import com.vividsolutions.jts.geom.Coordinate;
+import gnu.trove.map.TObjectDoubleMap;
+import gnu.trove.map.hash.TObjectDoubleHashMap;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.edgetype.TimetableSnapshot;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A least-recently-used cache of the target side of InterleavedBidirectionalHeuristic: the lower bounds found by the
+ * backward street search around the target, and as much of the backward search through the transit network as had
+ * been done. Requests towards a popular destination (an airport, a stadium, downtown) can then skip the street search
+ * and pick up the transit search where an earlier request left it.
+ *
+ * The origin side of the heuristic depends on the origin, so it is still computed for every request.
+ *
+ * Entries are keyed on the target and on the request parameters that influence the weights of the heuristic search,
+ * including the transit services running around the time of the request: the reverse transit search does not enter
+ * patterns that do not run on those days. A temporary target vertex is identified by its coordinates, since a new one
+ * is created for every request. The weights of the temporary vertices linking such a target to the streets are kept by
+ * label and coordinates, and handed to the equivalent vertices that the next request towards the same point creates.
+ * An entry is only used with the graph and real-time timetable snapshot it was computed against. A new snapshot is
+ * published whenever real-time updates are applied, so every such update effectively empties the cache.
+ *
+ * Entries are never modified once they are in the cache. Heuristics copy the data out of an entry before extending it.
+ * This class is thread safe, one instance is shared by all requests on a router.
+ */
+public class HeuristicCache {
+
+    private final int maxEntries;
+
+    private final Map<Key, Entry> entries;
+
+    public HeuristicCache (final int maxEntries) {
+        this.maxEntries = maxEntries;
+        // An access-ordered map, which evicts the least recently used entry beyond the maximum size.
+        this.entries = new LinkedHashMap<Key, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<Key, Entry> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Create the cache key for a request. This must be called before the heuristic changes the walk limits of the
+     * request.
+     */
+    public static Key key (RoutingRequest request) {
+        Vertex target = request.rctx.target;
+        Object targetKey = target instanceof TemporaryVertex ?
+                new Coordinate(target.getX(), target.getY()) : target;
+        List<Object> parameters = Arrays.<Object>asList(
+                request.arriveBy,
+                request.modes.clone(),
+                request.optimize,
+                request.wheelchairAccessible,
+                request.maxWalkDistance,
+                request.maxPreTransitTime,
+                request.walkSpeed,
+                request.bikeSpeed,
+                request.carSpeed,
+                request.walkReluctance,
+                request.stairsReluctance,
+                request.turnReluctance,
+                request.maxSlope,
+                request.walkBoardCost,
+                request.bikeBoardCost,
+                request.triangleTimeFactor,
+                request.triangleSlopeFactor,
+                request.triangleSafetyFactor,
+                request.allowBikeRental,
+                request.bikeParkAndRide,
+                request.parkAndRide,
+                request.kissAndRide,
+                servicesRunning(request));
+        return new Key(targetKey, parameters);
+    }
+
+    /**
+     * @return the services running on any of the service days of the request. The lower bounds of transit edges only
+     * depend on the days of the request through this set (see TransitBoardAlight.timeLowerBound), so requests on
+     * different days with the same services can share an entry.
+     */
+    private static BitSet servicesRunning (RoutingRequest request) {
+        BitSet services = new BitSet();
+        if (request.rctx.serviceDays != null) {
+            for (ServiceDay serviceDay : request.rctx.serviceDays) {
+                services.or(serviceDay.getServiceIdsRunning());
+            }
+        }
+        return services;
+    }
+
+    /**
+     * @return the cached entry for the given key, or null if there is none that was computed against the given graph
+     *         and timetable snapshot.
+     */
+    public synchronized Entry get (Key key, Graph graph, TimetableSnapshot snapshot) {
+        Entry entry = entries.get(key);
+        if (entry == null) {
+            return null;
+        }
+        if (entry.graph != graph || entry.snapshot != snapshot) {
+            // Stale, it will not be valid again.
+            entries.remove(key);
+            return null;
+        }
+        return entry;
+    }
+
+    /**
+     * Store a copy of the target side of a heuristic, unless there is already an entry for the same graph and
+     * snapshot that has explored at least as much of the network. The state is only copied when it will be stored.
+     */
+    public void put (Key key, Graph graph, TimetableSnapshot snapshot, TObjectDoubleMap<Vertex> postBoardingWeights,
+                     BinHeap<Vertex> transitQueue, double maxWeightSeen, boolean finished) {
+        if (!improves(key, graph, snapshot, postBoardingWeights.size(), finished)) {
+            return;
+        }
+        // Copy outside the lock, the maps can be large once the transit network has been explored.
+        Entry entry = new Entry(graph, snapshot, postBoardingWeights, transitQueue, maxWeightSeen, finished);
+        synchronized (this) {
+            // Another request may have stored a better entry in the meantime.
+            if (improves(key, graph, snapshot, entry.postBoardingWeights.size(), finished)) {
+                entries.put(key, entry);
+            }
+        }
+    }
+
+    private synchronized boolean improves (Key key, Graph graph, TimetableSnapshot snapshot, int nWeights,
+                                           boolean finished) {
+        Entry existing = entries.get(key);
+        if (existing == null || existing.graph != graph || existing.snapshot != snapshot) {
+            return true;
+        }
+        return !existing.finished && (finished || nWeights > existing.postBoardingWeights.size());
+    }
+
+    public synchronized int size () {
+        return entries.size();
+    }
+
+    public synchronized void clear () {
+        entries.clear();
+    }
+
+    public int getMaxEntries () {
+        return maxEntries;
+    }
+
+    /** The target and the weight-related parameters of a request. */
+    public static class Key {
+
+        private final Object target;
+
+        private final List<Object> parameters;
+
+        private Key (Object target, List<Object> parameters) {
+            this.target = target;
+            this.parameters = parameters;
+        }
+
+        @Override
+        public boolean equals (Object other) {
+            if (!(other instanceof Key)) {
+                return false;
+            }
+            Key key = (Key) other;
+            return target.equals(key.target) && parameters.equals(key.parameters);
+        }
+
+        @Override
+        public int hashCode () {
+            return target.hashCode() * 31 + parameters.hashCode();
+        }
+
+        @Override
+        public String toString () {
+            return "HeuristicCache.Key(" + target + ", " + parameters + ")";
+        }
+    }
+
+    /** A copy of the target side of a heuristic, which is not modified after it has been created. */
+    public static class Entry {
+
+        final Graph graph;
+
+        final TimetableSnapshot snapshot;
+
+        final TObjectDoubleMap<Vertex> postBoardingWeights;
+
+        /** The lower bounds at temporary vertices, keyed on their label and coordinates. */
+        final Map<List<Object>, Double> temporaryWeights = new HashMap<>();
+
+        final BinHeap<Vertex> transitQueue;
+
+        final double maxWeightSeen;
+
+        final boolean finished;
+
+        /**
+         * Copy the given heuristic state. Temporary vertices belong to the request that created them and will not be
+         * seen again, so only their weights are kept, to be given to the equivalent vertices of later requests.
+         */
+        private Entry (Graph graph, TimetableSnapshot snapshot, TObjectDoubleMap<Vertex> postBoardingWeights,
+                       BinHeap<Vertex> transitQueue, double maxWeightSeen, boolean finished) {
+            this.graph = graph;
+            this.snapshot = snapshot;
+            this.postBoardingWeights = copyWeights(postBoardingWeights, true);
+            postBoardingWeights.forEachEntry((vertex, weight) -> {
+                if (vertex instanceof TemporaryVertex) {
+                    temporaryWeights.put(temporaryKey(vertex), weight);
+                }
+                return true;
+            });
+            this.transitQueue = new BinHeap<>(transitQueue);
+            this.maxWeightSeen = maxWeightSeen;
+            this.finished = finished;
+        }
+
+        /**
+         * @param target the target of the request using this entry. The temporary vertices connecting it to the
+         *               streets are given the weights of the corresponding vertices of the request that made the entry.
+         * @return a copy of the lower bounds in this entry, which the caller is free to modify.
+         */
+        TObjectDoubleMap<Vertex> copyPostBoardingWeights (Vertex target) {
+            TObjectDoubleMap<Vertex> copy = copyWeights(postBoardingWeights, false);
+            if (!temporaryWeights.isEmpty()) {
+                for (Vertex v : temporaryVertices(target)) {
+                    Double weight = temporaryWeights.get(temporaryKey(v));
+                    if (weight != null) {
+                        copy.put(v, weight);
+                    }
+                }
+            }
+            return copy;
+        }
+
+        /** @return a copy of the transit queue in this entry, which the caller is free to modify. */
+        BinHeap<Vertex> copyTransitQueue () {
+            return new BinHeap<>(transitQueue);
+        }
+
+        /**
+         * A temporary vertex splitting a street is labeled after the street, so together with its coordinates this
+         * identifies the vertex that splits the same street at the same point for a later request.
+         */
+        private static List<Object> temporaryKey (Vertex vertex) {
+            return Arrays.<Object>asList(vertex.getLabel(), vertex.getX(), vertex.getY());
+        }
+
+        /** @return the temporary vertices connected to the given one by temporary edges, including itself. */
+        private static Set<Vertex> temporaryVertices (Vertex target) {
+            Set<Vertex> vertices = new HashSet<>();
+            if (!(target instanceof TemporaryVertex)) {
+                return vertices;
+            }
+            Deque<Vertex> queue = new ArrayDeque<>();
+            vertices.add(target);
+            queue.add(target);
+            while (!queue.isEmpty()) {
+                Vertex v = queue.poll();
+                for (Edge e : Iterables.concat(v.getIncoming(), v.getOutgoing())) {
+                    for (Vertex u : Arrays.asList(e.getFromVertex(), e.getToVertex())) {
+                        if (u instanceof TemporaryVertex && vertices.add(u)) {
+                            queue.add(u);
+                        }
+                    }
+                }
+            }
+            return vertices;
+        }
+
+        private static TObjectDoubleMap<Vertex> copyWeights (TObjectDoubleMap<Vertex> weights,
+                                                             boolean skipTemporary) {
+            // Like the maps created by the heuristic, return Infinity for vertices that are not present.
+            TObjectDoubleMap<Vertex> copy = new TObjectDoubleHashMap<>(weights.size() * 2, 0.5f,
+                    Double.POSITIVE_INFINITY);
+            weights.forEachEntry((vertex, weight) -> {
+                if (!(skipTemporary && vertex instanceof TemporaryVertex)) {
+                    copy.put(vertex, weight);
+                }
+                return true;
+            });
+            return copy;
+        }
+    }
+
+}
@@ -100,6 +100,18 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
     // True when the entire transit network has been explored by the reverse search.
     boolean finished = false;
 
+    // If not null, the target side of this heuristic is looked up in and saved to this cache.
+    private transient HeuristicCache cache;
+
+    private transient HeuristicCache.Key cacheKey;
+
+    public InterleavedBidirectionalHeuristic() { }
+
+    /** @param cache a cache shared between requests, from which the target side of the heuristic can be reused. */
+    public InterleavedBidirectionalHeuristic(HeuristicCache cache) {
+        this.cache = cache;
+    }
+
     /**
      * Before the main search begins, the heuristic must search on the streets around the origin and destination.
      * This also sets up the initial states for the reverse search through the transit network, which progressively
@@ -110,6 +122,8 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         Vertex target = request.rctx.target;
         if (target == this.target) {
             LOG.debug("Reusing existing heuristic, the target vertex has not changed.");
+            // Later searches can pick up the reverse transit search where this one has left it.
+            saveToCache();
             return;
         }
         LOG.debug("Initializing heuristic computation.");
@@ -119,7 +133,12 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         this.routingRequest = request;
         request.softWalkLimiting = false;
         request.softPreTransitLimiting = false;
-        transitQueue = new BinHeap<>();
+        HeuristicCache.Entry cached = null;
+        if (cache != null) {
+            cacheKey = HeuristicCache.key(request);
+            cached = cache.get(cacheKey, graph, request.rctx.timetableSnapshot);
+        }
+        transitQueue = cached == null ? new BinHeap<>() : cached.copyTransitQueue();
         // Forward street search first, mark street vertices around the origin so H evaluates to 0
         TObjectDoubleMap<Vertex> forwardStreetSearchResults = streetSearch(request, false, abortTime);
         if (forwardStreetSearchResults == null) {
@@ -127,11 +146,19 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         }
         preTransitVertices = forwardStreetSearchResults.keySet();
         LOG.debug("end forward street search {} ms", System.currentTimeMillis() - start);
-        postBoardingWeights = streetSearch(request, true, abortTime);
-        if (postBoardingWeights == null) {
-            return; // Search timed out
+        if (cached != null) {
+            LOG.debug("Reusing the cached target side of the heuristic.");
+            postBoardingWeights = cached.copyPostBoardingWeights(target);
+            maxWeightSeen = cached.maxWeightSeen;
+            finished = cached.finished;
+        } else {
+            postBoardingWeights = streetSearch(request, true, abortTime);
+            if (postBoardingWeights == null) {
+                return; // Search timed out
+            }
+            LOG.debug("end backward street search {} ms", System.currentTimeMillis() - start);
+            saveToCache();
         }
-        LOG.debug("end backward street search {} ms", System.currentTimeMillis() - start);
         // once street searches are done, raise the limits to max
         // because hard walk limiting is incorrect and is observed to cause problems 
         // for trips near the cutoff
@@ -197,6 +224,7 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         for (int i = 0; i < HEURISTIC_STEPS_PER_MAIN_STEP; ++i) {
             if (transitQueue.empty()) {
                 finished = true;
+                saveToCache();
                 break;
             }
             int uWeight = (int) transitQueue.peek_min_key();
@@ -238,6 +266,19 @@ public class InterleavedBidirectionalHeuristic implements RemainingWeightHeurist
         }
     }
 
+    /**
+     * Store a copy of the target side of this heuristic in the cache, if there is one. This is done when the street
+     * search around the target is complete, when the heuristic is reused for another search towards the same target,
+     * and when the reverse search has explored the whole transit network.
+     */
+    private void saveToCache() {
+        if (cache == null || cacheKey == null || postBoardingWeights == null) {
+            return;
+        }
+        cache.put(cacheKey, graph, routingRequest.rctx.timetableSnapshot, postBoardingWeights, transitQueue,
+                maxWeightSeen, finished);
+    }
+
     /**
      * Explore the streets around the origin or target, recording the minimum weight of a path to each street vertex.
      * When searching around the target, also retain the states that reach transit stops since we'll want to
@@ -0,0 +1,559 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TIntDoubleMap;
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.TIntObjectMap;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TIntDoubleHashMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.contraction.ContractionHierarchyBuilder.ArcList;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.TemporaryVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * A contraction hierarchy over the street graph for one set of modes and one optimization type, and the query engine
+ * that finds shortest paths in it. See ContractionHierarchyBuilder for how it is made.
+ *
+ * Each node is a street edge. The label of a node in the forward search is the weight of a path from the origin up to
+ * the end of that edge, and in the backward search the weight of the rest of the path from the end of that edge to the
+ * destination. Both searches only follow arcs towards nodes that were contracted later, and they meet at the most
+ * important node on the shortest path. The shortcuts on the path found are then unpacked into street edges.
+ *
+ * The weights in the hierarchy were computed with the default request parameters. A hierarchy is only used for
+ * requests with the same weight-related parameters, and the path it finds is traversed again with the actual request
+ * to produce the GraphPath. If that does not give exactly the same weight, for instance because the request limits
+ * walking or because some edge behaves differently at the requested time, null is returned and the caller should fall
+ * back on a normal A* search.
+ *
+ * The hierarchy holds references to the street edges of the graph it was built on. Edges removed from the graph later,
+ * for instance when a street is split destructively to link in a bike rental station that appeared in a real-time
+ * update, stay in the hierarchy, but no path through them passes verification, so such requests also fall back on A*.
+ * Removing edges can only make paths longer, so paths that avoid them are still shortest paths. Streets added to the
+ * graph after the hierarchy was built are not in it, so it should be built once the street network is complete, as
+ * the graph builder does.
+ */
+public class ContractionHierarchy implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchy.class);
+
+    /** The maximum number of temporary edges between an endpoint of the search and the permanent street graph. */
+    private static final int MAX_TEMPORARY_EDGES = 4;
+
+    /** The relative difference allowed between the weight found in the hierarchy and the verified weight. */
+    private static final double WEIGHT_TOLERANCE = 1e-6;
+
+    public final TraverseModeSet modes;
+
+    public final OptimizeType optimize;
+
+    /** The request parameters that the weights depend on, as returned by weightParameters(). */
+    private final List<Object> parameters;
+
+    private final boolean timeDependentTurnRestrictions;
+
+    /** The street edge for each node. */
+    private final Edge[] edges;
+
+    private final TObjectIntMap<Edge> nodeForEdge;
+
+    /* Arcs from each node to nodes contracted after it, in compressed sparse row form. */
+
+    private final int[] upwardFirst;
+
+    private final int[] upwardNode;
+
+    private final double[] upwardWeight;
+
+    private final int[] upwardMiddle;
+
+    /* Arcs to each node from nodes contracted after it. The node array holds the node at the start of each arc. */
+
+    private final int[] downwardFirst;
+
+    private final int[] downwardNode;
+
+    private final double[] downwardWeight;
+
+    private final int[] downwardMiddle;
+
+    ContractionHierarchy (TraverseModeSet modes, OptimizeType optimize, List<Object> parameters,
+                          boolean timeDependentTurnRestrictions, Edge[] edges, TObjectIntMap<Edge> nodeForEdge,
+                          ArcList[] upward, ArcList[] downward) {
+        this.modes = modes;
+        this.optimize = optimize;
+        this.parameters = parameters;
+        this.timeDependentTurnRestrictions = timeDependentTurnRestrictions;
+        this.edges = edges;
+        this.nodeForEdge = nodeForEdge;
+        int nNodes = edges.length;
+        upwardFirst = new int[nNodes + 1];
+        downwardFirst = new int[nNodes + 1];
+        for (int v = 0; v < nNodes; v++) {
+            upwardFirst[v + 1] = upwardFirst[v] + upward[v].size;
+            downwardFirst[v + 1] = downwardFirst[v] + downward[v].size;
+        }
+        upwardNode = new int[upwardFirst[nNodes]];
+        upwardWeight = new double[upwardFirst[nNodes]];
+        upwardMiddle = new int[upwardFirst[nNodes]];
+        downwardNode = new int[downwardFirst[nNodes]];
+        downwardWeight = new double[downwardFirst[nNodes]];
+        downwardMiddle = new int[downwardFirst[nNodes]];
+        for (int v = 0; v < nNodes; v++) {
+            System.arraycopy(upward[v].node, 0, upwardNode, upwardFirst[v], upward[v].size);
+            System.arraycopy(upward[v].weight, 0, upwardWeight, upwardFirst[v], upward[v].size);
+            System.arraycopy(upward[v].middle, 0, upwardMiddle, upwardFirst[v], upward[v].size);
+            System.arraycopy(downward[v].node, 0, downwardNode, downwardFirst[v], downward[v].size);
+            System.arraycopy(downward[v].weight, 0, downwardWeight, downwardFirst[v], downward[v].size);
+            System.arraycopy(downward[v].middle, 0, downwardMiddle, downwardFirst[v], downward[v].size);
+        }
+    }
+
+    /**
+     * @return the request parameters that influence the weights of street edges for the modes of this request.
+     * Other parameters, such as the walk limit, are checked by traversing the path that was found.
+     */
+    public static List<Object> weightParameters (RoutingRequest request) {
+        return Arrays.<Object>asList(
+                request.modes,
+                request.optimize,
+                request.wheelchairAccessible,
+                request.walkSpeed,
+                request.bikeSpeed,
+                request.carSpeed,
+                request.walkReluctance,
+                request.stairsReluctance,
+                request.turnReluctance,
+                request.maxSlope,
+                request.triangleTimeFactor,
+                request.triangleSlopeFactor,
+                request.triangleSafetyFactor,
+                request.bikeSwitchTime,
+                request.bikeSwitchCost,
+                request.elevatorBoardTime,
+                request.elevatorBoardCost,
+                request.elevatorHopTime,
+                request.elevatorHopCost,
+                request.driveOnRight,
+                request.carDecelerationSpeed,
+                request.carAccelerationSpeed,
+                request.bikeWalkingOptions.walkSpeed,
+                request.bikeWalkingOptions.walkReluctance,
+                request.traversalCostModel.getClass().getName());
+    }
+
+    /** @return whether the weights in this hierarchy are those that the given request would see on the streets. */
+    public boolean isValidFor (RoutingRequest request) {
+        if (timeDependentTurnRestrictions) {
+            return false;
+        }
+        if (request.useTraffic && request.rctx.streetSpeedSnapshot != null) {
+            return false; // The speeds on the streets depend on the time.
+        }
+        return parameters.equals(weightParameters(request));
+    }
+
+    /**
+     * Find the shortest path between the endpoints of the request's routing context, which may be temporary vertices.
+     * The caller should check isValidFor() first.
+     * @return the path, or null if none was found in the hierarchy or it could not be verified.
+     */
+    public GraphPath getShortestPath (RoutingRequest request) {
+        long searchBeginTime = System.currentTimeMillis();
+        // The origin of the routing context is the destination in an arrive-by search.
+        Vertex from = request.arriveBy ? request.rctx.target : request.rctx.origin;
+        Vertex to = request.arriveBy ? request.rctx.origin : request.rctx.target;
+        if (from == null || to == null || from == to) {
+            return null;
+        }
+        // The hierarchy is always searched forward in time, like it was built.
+        RoutingRequest forward = request.clone();
+        forward.setArriveBy(false);
+
+        Query query = new Query();
+        State initialState = request.arriveBy ? new State(from, forward) :
+                new State(from, request.rctx.originBackEdge, request.getSecondsSinceEpoch(), forward);
+        if (!query.addForwardSeeds(initialState, to) || !query.addBackwardSeeds(to, forward)) {
+            return null;
+        }
+        List<Edge> path = query.search();
+        if (path == null) {
+            LOG.debug("No path found in the contraction hierarchy in {} msec.",
+                    System.currentTimeMillis() - searchBeginTime);
+            return null;
+        }
+        GraphPath graphPath = traverse(request, path, query.bestWeight);
+        LOG.debug("Contraction hierarchy search took {} msec, verified: {}",
+                System.currentTimeMillis() - searchBeginTime, graphPath != null);
+        return graphPath;
+    }
+
+    /**
+     * Traverse the edges of a path found in the hierarchy with the real request, in the direction of the request.
+     * @return the resulting path, or null if it cannot be traversed, uses an edge that has since been removed from the
+     * graph or does not have the expected weight.
+     */
+    private GraphPath traverse (RoutingRequest request, List<Edge> edges, double expectedWeight) {
+        if (request.arriveBy) {
+            edges = new ArrayList<>(edges);
+            Collections.reverse(edges);
+        }
+        State s = new State(request);
+        for (Edge e : edges) {
+            if (!(e instanceof TemporaryEdge) && !isInGraph(e)) {
+                LOG.debug("Path in the contraction hierarchy uses {}, which is no longer in the graph.", e);
+                return null;
+            }
+            s = e.traverse(s);
+            if (s == null) {
+                return null;
+            }
+        }
+        if (s.getVertex() != request.rctx.target) {
+            return null;
+        }
+        if (Math.abs(s.getWeight() - expectedWeight) > WEIGHT_TOLERANCE * Math.max(1, expectedWeight)) {
+            LOG.debug("Path weight {} differs from the weight {} in the contraction hierarchy.", s.getWeight(),
+                    expectedWeight);
+            return null;
+        }
+        return new GraphPath(s, true);
+    }
+
+    /** @return true if this permanent edge is still in the graph, that is if it has not been split or removed. */
+    private static boolean isInGraph (Edge edge) {
+        // Graph.removeEdge detaches the edge from its vertices, while destructive splitting only unlinks it from them.
+        Vertex to = edge.getToVertex();
+        return to != null && to.getIncoming().contains(edge);
+    }
+
+    /**
+     * Find the node sequence of an arc in the hierarchy, which may be a shortcut.
+     * @param nodes the nodes after the first node of the arc are appended to this list.
+     */
+    private void unpack (int from, int to, TIntArrayList nodes) {
+        // An explicit stack rather than recursion, since shortcuts can be deeply nested.
+        TIntArrayList stack = new TIntArrayList();
+        stack.add(from);
+        stack.add(to);
+        while (!stack.isEmpty()) {
+            int v = stack.removeAt(stack.size() - 1);
+            int u = stack.removeAt(stack.size() - 1);
+            int middle = middle(u, v);
+            if (middle < 0) {
+                nodes.add(v);
+            } else {
+                // Push the second half first so that the first half is unpacked first.
+                stack.add(middle);
+                stack.add(v);
+                stack.add(u);
+                stack.add(middle);
+            }
+        }
+    }
+
+    /** @return the node bypassed by the arc from u to v, or -1 if it is an arc of the original line graph. */
+    private int middle (int u, int v) {
+        for (int a = upwardFirst[u]; a < upwardFirst[u + 1]; a++) {
+            if (upwardNode[a] == v) {
+                return upwardMiddle[a];
+            }
+        }
+        for (int a = downwardFirst[v]; a < downwardFirst[v + 1]; a++) {
+            if (downwardNode[a] == u) {
+                return downwardMiddle[a];
+            }
+        }
+        throw new IllegalStateException("No arc in the contraction hierarchy between consecutive nodes.");
+    }
+
+    /**
+     * The state of one bidirectional search. The endpoints of a request are usually temporary vertices connected to
+     * the permanent streets by a few temporary edges. These are traversed outside the hierarchy, and the nodes where
+     * they meet the hierarchy become the initial nodes of the forward and backward searches.
+     */
+    private class Query {
+
+        final TIntDoubleMap forwardWeight = new TIntDoubleHashMap(64, 0.5f, -1, Double.POSITIVE_INFINITY);
+
+        final TIntIntMap forwardParent = new TIntIntHashMap(64, 0.5f, -1, -1);
+
+        final BinHeap<Integer> forwardQueue = new BinHeap<>();
+
+        final TIntDoubleMap backwardWeight = new TIntDoubleHashMap(64, 0.5f, -1, Double.POSITIVE_INFINITY);
+
+        final TIntIntMap backwardParent = new TIntIntHashMap(64, 0.5f, -1, -1);
+
+        final BinHeap<Integer> backwardQueue = new BinHeap<>();
+
+        /** The temporary edges leading to the first edge of each initial forward node, found in its state. */
+        final TIntObjectMap<State> forwardSeedStates = new TIntObjectHashMap<>();
+
+        /** The temporary edges leading from each initial backward node to the destination. */
+        final TIntObjectMap<List<Edge>> backwardSeedEdges = new TIntObjectHashMap<>();
+
+        double bestWeight = Double.POSITIVE_INFINITY;
+
+        int meetingNode = -1;
+
+        /** A path made only of temporary edges, when the endpoints are on the same street. */
+        State directState = null;
+
+        /**
+         * Traverse the temporary edges from the origin, then the first permanent edge.
+         * @return false if the origin is not connected to the hierarchy in a way that can be handled.
+         */
+        boolean addForwardSeeds (State initialState, Vertex destination) {
+            List<State> entryStates = new ArrayList<>();
+            collectForwardEntries(initialState, destination, 0, entryStates);
+            for (State entry : entryStates) {
+                for (Edge e : entry.getVertex().getOutgoing()) {
+                    int node = nodeForEdge.get(e);
+                    if (node < 0) {
+                        continue;
+                    }
+                    State s = e.traverse(entry);
+                    if (s != null && s.getWeight() < forwardWeight.get(node)) {
+                        forwardWeight.put(node, s.getWeight());
+                        forwardSeedStates.put(node, s);
+                        forwardQueue.insert(node, s.getWeight());
+                    }
+                }
+            }
+            return !forwardSeedStates.isEmpty() || directState != null;
+        }
+
+        private void collectForwardEntries (State s, Vertex destination, int depth, List<State> entryStates) {
+            Vertex v = s.getVertex();
+            if (v == destination) {
+                if (s.getWeight() < bestWeight) {
+                    bestWeight = s.getWeight();
+                    directState = s;
+                }
+                return;
+            }
+            if (!(v instanceof TemporaryVertex)) {
+                entryStates.add(s);
+                return;
+            }
+            if (depth == MAX_TEMPORARY_EDGES) {
+                return;
+            }
+            for (Edge e : v.getOutgoing()) {
+                if (e instanceof TemporaryEdge) {
+                    State s1 = e.traverse(s);
+                    if (s1 != null) {
+                        collectForwardEntries(s1, destination, depth + 1, entryStates);
+                    }
+                }
+            }
+        }
+
+        /**
+         * Find the ways from the permanent streets to the destination over temporary edges, and the weight of
+         * traversing them after each permanent edge that leads to them.
+         * @return false if the destination is not connected to the hierarchy in a way that can be handled.
+         */
+        boolean addBackwardSeeds (Vertex destination, RoutingRequest forward) {
+            List<List<Edge>> entryPaths = new ArrayList<>();
+            collectBackwardEntries(destination, new ArrayList<>(), entryPaths);
+            for (List<Edge> entryPath : entryPaths) {
+                // The path is in reverse order, it begins with the last edge.
+                Vertex entry = entryPath.isEmpty() ? destination : entryPath.get(entryPath.size() - 1).getFromVertex();
+                List<Edge> suffix = new ArrayList<>(entryPath);
+                Collections.reverse(suffix);
+                for (Edge e : entry.getIncoming()) {
+                    int node = nodeForEdge.get(e);
+                    if (node < 0) {
+                        continue;
+                    }
+                    State s = e.traverse(new State(e.getFromVertex(), forward));
+                    if (s == null) {
+                        continue;
+                    }
+                    double startWeight = s.getWeight();
+                    for (Edge suffixEdge : suffix) {
+                        s = suffixEdge.traverse(s);
+                        if (s == null) {
+                            break;
+                        }
+                    }
+                    if (s != null && s.getWeight() - startWeight < backwardWeight.get(node)) {
+                        double weight = s.getWeight() - startWeight;
+                        backwardWeight.put(node, weight);
+                        backwardSeedEdges.put(node, suffix);
+                        backwardQueue.insert(node, weight);
+                    }
+                }
+            }
+            return !backwardSeedEdges.isEmpty() || directState != null;
+        }
+
+        private void collectBackwardEntries (Vertex v, List<Edge> reversePath, List<List<Edge>> entryPaths) {
+            if (!(v instanceof TemporaryVertex)) {
+                entryPaths.add(new ArrayList<>(reversePath));
+                return;
+            }
+            if (reversePath.size() == MAX_TEMPORARY_EDGES) {
+                return;
+            }
+            for (Edge e : v.getIncoming()) {
+                if (e instanceof TemporaryEdge) {
+                    reversePath.add(e);
+                    collectBackwardEntries(e.getFromVertex(), reversePath, entryPaths);
+                    reversePath.remove(reversePath.size() - 1);
+                }
+            }
+        }
+
+        /** @return the edges of the shortest path, or null if there is none. */
+        List<Edge> search () {
+            // A node whose forward and backward labels are both set from the seeds may already be the best.
+            forwardWeight.forEachEntry((node, weight) -> {
+                meet(node, weight);
+                return true;
+            });
+            while (true) {
+                boolean forwardDone = forwardQueue.empty() || forwardQueue.peek_min_key() >= bestWeight;
+                boolean backwardDone = backwardQueue.empty() || backwardQueue.peek_min_key() >= bestWeight;
+                if (forwardDone && backwardDone) {
+                    break;
+                }
+                if (!forwardDone) {
+                    step(forwardQueue, forwardWeight, forwardParent, upwardFirst, upwardNode, upwardWeight, true);
+                }
+                if (!backwardDone) {
+                    step(backwardQueue, backwardWeight, backwardParent, downwardFirst, downwardNode, downwardWeight,
+                            false);
+                }
+            }
+            if (meetingNode < 0) {
+                return directState == null ? null : edgesOf(directState, false);
+            }
+            return path();
+        }
+
+        private void step (BinHeap<Integer> queue, TIntDoubleMap weights, TIntIntMap parents, int[] first,
+                           int[] arcNode, double[] arcWeight, boolean isForward) {
+            double weight = queue.peek_min_key();
+            int u = queue.extract_min();
+            if (weight > weights.get(u)) {
+                return; // Already settled with a lower weight.
+            }
+            for (int a = first[u]; a < first[u + 1]; a++) {
+                int v = arcNode[a];
+                double vWeight = weight + arcWeight[a];
+                if (vWeight < weights.get(v)) {
+                    weights.put(v, vWeight);
+                    parents.put(v, u);
+                    // Reaching v again makes any seed path to it irrelevant.
+                    if (isForward) {
+                        forwardSeedStates.remove(v);
+                    } else {
+                        backwardSeedEdges.remove(v);
+                    }
+                    queue.insert(v, vWeight);
+                    if (isForward) {
+                        meet(v, vWeight);
+                    } else {
+                        meet(v, forwardWeight.get(v));
+                    }
+                }
+            }
+        }
+
+        private void meet (int node, double forward) {
+            double total = forward + backwardWeight.get(node);
+            if (total < bestWeight) {
+                bestWeight = total;
+                meetingNode = node;
+            }
+        }
+
+        /** Unpack the forward and backward search trees through the meeting node into street edges. */
+        private List<Edge> path () {
+            // Forward part, from the meeting node back to a seed.
+            TIntArrayList upNodes = new TIntArrayList();
+            int v = meetingNode;
+            upNodes.add(v);
+            while (forwardParent.get(v) >= 0) {
+                v = forwardParent.get(v);
+                upNodes.add(v);
+            }
+            upNodes.reverse();
+            int forwardSeed = v;
+            // Backward part, from the meeting node to a seed.
+            TIntArrayList downNodes = new TIntArrayList();
+            v = meetingNode;
+            downNodes.add(v);
+            while (backwardParent.get(v) >= 0) {
+                v = backwardParent.get(v);
+                downNodes.add(v);
+            }
+            int backwardSeed = v;
+
+            TIntArrayList nodes = new TIntArrayList();
+            nodes.add(upNodes.get(0));
+            for (int i = 1; i < upNodes.size(); i++) {
+                unpack(upNodes.get(i - 1), upNodes.get(i), nodes);
+            }
+            for (int i = 1; i < downNodes.size(); i++) {
+                unpack(downNodes.get(i - 1), downNodes.get(i), nodes);
+            }
+
+            // The seed state holds the temporary edges from the origin, and the first node's edge itself.
+            List<Edge> path = edgesOf(forwardSeedStates.get(forwardSeed), true);
+            for (int i = 0; i < nodes.size(); i++) {
+                path.add(edges[nodes.get(i)]);
+            }
+            path.addAll(backwardSeedEdges.get(backwardSeed));
+            return path;
+        }
+
+        /** @return the edges leading to the given state, in order, optionally leaving out the last one. */
+        private List<Edge> edgesOf (State state, boolean withoutLast) {
+            List<Edge> path = new ArrayList<>();
+            for (State s = state; s.getBackState() != null; s = s.getBackState()) {
+                path.add(s.getBackEdge());
+            }
+            Collections.reverse(path);
+            if (withoutLast) {
+                path.remove(path.size() - 1);
+            }
+            return path;
+        }
+    }
+
+}
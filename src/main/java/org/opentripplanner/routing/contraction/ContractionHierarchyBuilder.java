@@ -0,0 +1,418 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.pqueue.BinHeap;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.TemporaryEdge;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Computes a ContractionHierarchy over the street graph for one set of modes and one optimization type.
+ *
+ * The hierarchy is built over the edge-based (line) graph of the streets: each node is a street edge, and there is an
+ * arc from edge A to edge B when B can be traversed right after A. The weight of that arc is the weight of traversing
+ * B after A, as computed by the edge's own traverse method. Turn costs and turn restrictions therefore end up in the
+ * arc weights and in the absence of arcs, which would not be possible if the nodes were intersections.
+ *
+ * Nodes are contracted in order of increasing importance, estimated by the number of shortcuts their contraction
+ * would add minus the number of arcs it removes. A shortcut is only added when a bounded "witness" search finds no
+ * path between its endpoints that is at least as short without going through the contracted node.
+ */
+public class ContractionHierarchyBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ContractionHierarchyBuilder.class);
+
+    /** Witness searches give up after settling this many nodes, and assume that a shortcut is needed. */
+    private static final int WITNESS_SEARCH_SETTLED_LIMIT = 500;
+
+    private final Graph graph;
+
+    private final TraverseModeSet modes;
+
+    private final OptimizeType optimize;
+
+    private RoutingRequest request;
+
+    private Edge[] edges;
+
+    private int nNodes;
+
+    /** Outgoing and incoming arcs of each node, including those to or from already contracted nodes. */
+    private ArcList[] out;
+
+    private ArcList[] in;
+
+    private boolean[] contracted;
+
+    private int[] deletedNeighbors;
+
+    /** The arcs of the finished hierarchy, going from each node to nodes contracted after it. */
+    private ArcList[] upward;
+
+    /** The arcs of the finished hierarchy, coming to each node from nodes contracted after it. */
+    private ArcList[] downward;
+
+    // Scratch space for witness searches, reset after each search.
+    private double[] witnessWeight;
+
+    private TIntArrayList witnessTouched = new TIntArrayList();
+
+    public ContractionHierarchyBuilder (Graph graph, TraverseModeSet modes, OptimizeType optimize) {
+        this.graph = graph;
+        this.modes = modes;
+        this.optimize = optimize;
+    }
+
+    public ContractionHierarchy build () {
+        long start = System.currentTimeMillis();
+        makeRequest();
+        if (request == null) {
+            LOG.warn("There are no streets in the graph, not building a contraction hierarchy for {}.", modes);
+            return null;
+        }
+        makeLineGraph();
+        LOG.info("Contracting {} street edges for {} {}...", nNodes, modes, optimize);
+        contract();
+        ContractionHierarchy hierarchy = new ContractionHierarchy(modes, optimize,
+                ContractionHierarchy.weightParameters(request), hasTimeDependentTurnRestrictions(), edges,
+                nodeForEdge(), upward, downward);
+        LOG.info("Done building the contraction hierarchy for {} {} in {} seconds.", modes, optimize,
+                (System.currentTimeMillis() - start) / 1000);
+        return hierarchy;
+    }
+
+    /**
+     * Build a request for the modes and optimization type with default parameters, and a routing context on the
+     * graph that its states can use. The edges only need the context for turn restrictions and real-time speeds.
+     */
+    private void makeRequest () {
+        Vertex anyStreetVertex = null;
+        for (Vertex v : graph.getVertices()) {
+            if (v instanceof StreetVertex) {
+                anyStreetVertex = v;
+                break;
+            }
+        }
+        if (anyStreetVertex == null) {
+            return;
+        }
+        request = new RoutingRequest(modes, optimize);
+        request.useTraffic = false;
+        request.setRoutingContext(graph, anyStreetVertex, anyStreetVertex);
+    }
+
+    /** Number the street edges that can be traversed by the given modes, and find the arcs between them. */
+    private void makeLineGraph () {
+        List<Edge> nodes = new ArrayList<>();
+        List<State> firstStates = new ArrayList<>();
+        TObjectIntMap<Edge> nodeForEdge = new TObjectIntHashMap<>(graph.countEdges(), 0.5f, -1);
+        for (Vertex v : graph.getVertices()) {
+            if (!(v instanceof StreetVertex)) {
+                continue;
+            }
+            State s0 = new State(v, request);
+            for (Edge e : v.getOutgoing()) {
+                if (!isStreetEdge(e)) {
+                    continue;
+                }
+                State s1 = e.traverse(s0);
+                if (s1 != null) {
+                    nodeForEdge.put(e, nodes.size());
+                    nodes.add(e);
+                    firstStates.add(s1);
+                }
+            }
+        }
+        nNodes = nodes.size();
+        edges = nodes.toArray(new Edge[nNodes]);
+        out = new ArcList[nNodes];
+        in = new ArcList[nNodes];
+        for (int i = 0; i < nNodes; i++) {
+            out[i] = new ArcList();
+            in[i] = new ArcList();
+        }
+        int nArcs = 0;
+        for (int i = 0; i < nNodes; i++) {
+            State s1 = firstStates.get(i);
+            for (Edge next : edges[i].getToVertex().getOutgoing()) {
+                int j = nodeForEdge.get(next);
+                if (j < 0) {
+                    continue;
+                }
+                State s2 = next.traverse(s1);
+                if (s2 == null) {
+                    continue; // Turn restriction
+                }
+                double weight = s2.getWeight() - s1.getWeight();
+                if (out[i].addOrImprove(j, weight, -1)) {
+                    in[j].addOrImprove(i, weight, -1);
+                    nArcs++;
+                }
+            }
+        }
+        LOG.info("The line graph for {} {} has {} nodes and {} arcs.", modes, optimize, nNodes, nArcs);
+    }
+
+    private void contract () {
+        contracted = new boolean[nNodes];
+        deletedNeighbors = new int[nNodes];
+        upward = new ArcList[nNodes];
+        downward = new ArcList[nNodes];
+        witnessWeight = new double[nNodes];
+        Arrays.fill(witnessWeight, Double.POSITIVE_INFINITY);
+
+        BinHeap<Integer> queue = new BinHeap<>(nNodes);
+        for (int v = 0; v < nNodes; v++) {
+            queue.insert(v, priority(v));
+        }
+        int nContracted = 0;
+        int nShortcuts = 0;
+        List<Shortcut> shortcuts = new ArrayList<>();
+        while (!queue.empty()) {
+            int v = queue.extract_min();
+            // Priorities are updated lazily: recompute this one, and put it back if it is no longer the lowest.
+            double priority = priority(v);
+            if (!queue.empty() && priority > queue.peek_min_key()) {
+                queue.insert(v, priority);
+                continue;
+            }
+            shortcuts.clear();
+            findShortcuts(v, shortcuts);
+            for (Shortcut shortcut : shortcuts) {
+                if (out[shortcut.from].addOrImprove(shortcut.to, shortcut.weight, v)) {
+                    in[shortcut.to].addOrImprove(shortcut.from, shortcut.weight, v);
+                    nShortcuts++;
+                }
+            }
+            // All remaining neighbors will be contracted later, so the arcs to and from them are in the hierarchy.
+            upward[v] = new ArcList();
+            downward[v] = new ArcList();
+            ArcList vOut = out[v];
+            for (int a = 0; a < vOut.size; a++) {
+                int x = vOut.node[a];
+                if (!contracted[x]) {
+                    upward[v].addOrImprove(x, vOut.weight[a], vOut.middle[a]);
+                    deletedNeighbors[x]++;
+                }
+            }
+            ArcList vIn = in[v];
+            for (int a = 0; a < vIn.size; a++) {
+                int u = vIn.node[a];
+                if (!contracted[u]) {
+                    downward[v].addOrImprove(u, vIn.weight[a], vIn.middle[a]);
+                    deletedNeighbors[u]++;
+                }
+            }
+            contracted[v] = true;
+            // The adjacency lists of contracted nodes are no longer needed.
+            out[v] = null;
+            in[v] = null;
+            nContracted++;
+            if (nContracted % 100000 == 0) {
+                LOG.info("Contracted {} of {} nodes, added {} shortcuts.", nContracted, nNodes, nShortcuts);
+            }
+        }
+        LOG.info("Added {} shortcuts.", nShortcuts);
+    }
+
+    /**
+     * The order in which to contract nodes: those whose contraction adds the fewest arcs first, and among those the
+     * ones with the fewest contracted neighbors, which spreads the contraction evenly over the graph.
+     */
+    private double priority (int v) {
+        List<Shortcut> shortcuts = new ArrayList<>();
+        findShortcuts(v, shortcuts);
+        int degree = 0;
+        for (int a = 0; a < out[v].size; a++) {
+            if (!contracted[out[v].node[a]]) degree++;
+        }
+        for (int a = 0; a < in[v].size; a++) {
+            if (!contracted[in[v].node[a]]) degree++;
+        }
+        return shortcuts.size() - degree + deletedNeighbors[v];
+    }
+
+    /** Find the shortcuts needed to preserve shortest paths between the neighbors of v when v is contracted. */
+    private void findShortcuts (int v, List<Shortcut> shortcuts) {
+        ArcList vIn = in[v];
+        ArcList vOut = out[v];
+        double maxOutWeight = 0;
+        for (int b = 0; b < vOut.size; b++) {
+            if (!contracted[vOut.node[b]]) {
+                maxOutWeight = Math.max(maxOutWeight, vOut.weight[b]);
+            }
+        }
+        for (int a = 0; a < vIn.size; a++) {
+            int u = vIn.node[a];
+            if (contracted[u]) {
+                continue;
+            }
+            double inWeight = vIn.weight[a];
+            witnessSearch(u, v, inWeight + maxOutWeight);
+            for (int b = 0; b < vOut.size; b++) {
+                int x = vOut.node[b];
+                if (contracted[x] || x == u) {
+                    continue;
+                }
+                double viaWeight = inWeight + vOut.weight[b];
+                if (witnessWeight[x] > viaWeight) {
+                    shortcuts.add(new Shortcut(u, x, viaWeight));
+                }
+            }
+            resetWitnessSearch();
+        }
+    }
+
+    /**
+     * A Dijkstra search from the given source over uncontracted nodes other than the excluded one, up to the given
+     * weight. Leaves the weights it finds in witnessWeight.
+     */
+    private void witnessSearch (int source, int excluded, double maxWeight) {
+        BinHeap<Integer> queue = new BinHeap<>(64);
+        witnessWeight[source] = 0;
+        witnessTouched.add(source);
+        queue.insert(source, 0);
+        int settled = 0;
+        while (!queue.empty()) {
+            double weight = queue.peek_min_key();
+            int u = queue.extract_min();
+            if (weight > witnessWeight[u]) {
+                continue; // Already settled with a lower weight.
+            }
+            if (weight > maxWeight || ++settled > WITNESS_SEARCH_SETTLED_LIMIT) {
+                break;
+            }
+            ArcList uOut = out[u];
+            for (int a = 0; a < uOut.size; a++) {
+                int x = uOut.node[a];
+                if (x == excluded || contracted[x]) {
+                    continue;
+                }
+                double xWeight = weight + uOut.weight[a];
+                if (xWeight < witnessWeight[x]) {
+                    if (witnessWeight[x] == Double.POSITIVE_INFINITY) {
+                        witnessTouched.add(x);
+                    }
+                    witnessWeight[x] = xWeight;
+                    queue.insert(x, xWeight);
+                }
+            }
+        }
+    }
+
+    private void resetWitnessSearch () {
+        for (int i = 0; i < witnessTouched.size(); i++) {
+            witnessWeight[witnessTouched.get(i)] = Double.POSITIVE_INFINITY;
+        }
+        witnessTouched.resetQuick();
+    }
+
+    private TObjectIntMap<Edge> nodeForEdge () {
+        TObjectIntMap<Edge> nodeForEdge = new TObjectIntHashMap<>(nNodes, 0.5f, -1);
+        for (int i = 0; i < nNodes; i++) {
+            nodeForEdge.put(edges[i], i);
+        }
+        return nodeForEdge;
+    }
+
+    /**
+     * Turn restrictions that only apply at certain times cannot be represented in the hierarchy, which was built for
+     * a single point in time.
+     */
+    private boolean hasTimeDependentTurnRestrictions () {
+        for (Edge e : edges) {
+            for (TurnRestriction restriction : graph.getTurnRestrictions(e)) {
+                if (restriction.time != null) {
+                    LOG.warn("The street graph has time-dependent turn restrictions. The contraction hierarchy for " +
+                            "{} {} will not be used.", modes, optimize);
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /** Only permanent edges between street vertices are part of the hierarchy. */
+    static boolean isStreetEdge (Edge e) {
+        return !(e instanceof TemporaryEdge) && e.getFromVertex() instanceof StreetVertex
+                && e.getToVertex() instanceof StreetVertex;
+    }
+
+    private static class Shortcut {
+        final int from;
+        final int to;
+        final double weight;
+
+        Shortcut (int from, int to, double weight) {
+            this.from = from;
+            this.to = to;
+            this.weight = weight;
+        }
+    }
+
+    /** A growable list of arcs to (or from) other nodes, keeping only the lowest weight arc to each node. */
+    static class ArcList {
+
+        int[] node = new int[4];
+
+        double[] weight = new double[4];
+
+        /** The node that a shortcut bypasses, or -1 for an original arc. */
+        int[] middle = new int[4];
+
+        int size = 0;
+
+        /** @return true if an arc was added or its weight lowered. */
+        boolean addOrImprove (int toNode, double arcWeight, int middleNode) {
+            for (int i = 0; i < size; i++) {
+                if (node[i] == toNode) {
+                    if (weight[i] <= arcWeight) {
+                        return false;
+                    }
+                    weight[i] = arcWeight;
+                    middle[i] = middleNode;
+                    return true;
+                }
+            }
+            if (size == node.length) {
+                node = Arrays.copyOf(node, size * 2);
+                weight = Arrays.copyOf(weight, size * 2);
+                middle = Arrays.copyOf(middle, size * 2);
+            }
+            node[size] = toNode;
+            weight[size] = arcWeight;
+            middle[size] = middleNode;
+            size++;
+            return true;
+        }
+    }
+
+}
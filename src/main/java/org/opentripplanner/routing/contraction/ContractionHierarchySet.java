@@ -0,0 +1,53 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.contraction;
+
+import org.opentripplanner.routing.core.RoutingRequest;
+
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The contraction hierarchies built for a graph, one per combination of modes and optimization type. This is stored
+ * in the graph as a service.
+ */
+public class ContractionHierarchySet implements Serializable {
+
+    private static final long serialVersionUID = 1L;
+
+    private final List<ContractionHierarchy> hierarchies = new ArrayList<>();
+
+    public void add (ContractionHierarchy hierarchy) {
+        hierarchies.add(hierarchy);
+    }
+
+    public List<ContractionHierarchy> getHierarchies () {
+        return hierarchies;
+    }
+
+    /** @return a hierarchy whose weights are valid for the given request, or null if there is none. */
+    public ContractionHierarchy getHierarchy (RoutingRequest request) {
+        if (request.modes.isTransit()) {
+            return null;
+        }
+        for (ContractionHierarchy hierarchy : hierarchies) {
+            if (hierarchy.isValidFor(request)) {
+                return hierarchy;
+            }
+        }
+        return null;
+    }
+
+}
@@ -120,8 +120,11 @@ public class RoutingContext implements Cloneable {
     /** An object that accumulates profiling and debugging info for inclusion in the response. */
     public DebugOutput debugOutput = new DebugOutput();
 
-    /** Indicates that the search timed out or was otherwise aborted. */
-    public boolean aborted;
+    /**
+     * Indicates that the search timed out or was otherwise aborted. Setting this from another thread stops a running
+     * search at its next step.
+     */
+    public volatile boolean aborted;
 
     /** Indicates that a maximum slope constraint was specified but was removed during routing to produce a result. */
     public boolean slopeRestrictionRemoved = false;
@@ -332,6 +335,31 @@ public class RoutingContext implements Cloneable {
 
     /* INSTANCE METHODS */
 
+    /**
+     * Make a routing context for another search between the same endpoints, on behalf of the given request, which
+     * should be a clone of this context's request possibly with a different time or banned trips. No vertices or
+     * edges are created: the new context shares the (possibly temporary) endpoints of this one, so it must not be
+     * destroyed itself, and must not be used after this context is destroyed. It has its own service days, abort
+     * flag and debug output, so that searches using the two contexts can run concurrently.
+     */
+    public RoutingContext branch(RoutingRequest branchRequest) {
+        RoutingContext branch;
+        try {
+            branch = (RoutingContext) super.clone();
+        } catch (CloneNotSupportedException e) {
+            throw new RuntimeException(e);
+        }
+        branch.opt = branchRequest;
+        branchRequest.rctx = branch;
+        branch.debugOutput = new DebugOutput();
+        branch.aborted = false;
+        branch.slopeRestrictionRemoved = false;
+        if (branchRequest.modes.isTransit()) {
+            branch.setServiceDays();
+        }
+        return branch;
+    }
+
     public void check() {
         ArrayList<String> notFound = new ArrayList<String>();
 
@@ -19,6 +19,7 @@ import org.onebusaway.gtfs.model.Route;
 import org.onebusaway.gtfs.model.Trip;
 import org.opentripplanner.api.parameter.QualifiedModeSet;
 import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.common.pqueue.PriorityQueueType;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.common.model.NamedPlace;
 import org.opentripplanner.routing.edgetype.StreetEdge;
@@ -435,6 +436,25 @@ public class RoutingRequest implements Cloneable, Serializable {
     /** The function that compares paths converging on the same vertex to decide which ones continue to be explored. */
     public DominanceFunction dominanceFunction = new DominanceFunction.Pareto();
 
+    /**
+     * Store the states of the shortest path tree in arrays indexed by vertex index rather than in a map.
+     * This does not change search results, only speed and allocation, so it is not considered in equals().
+     */
+    public boolean indexedShortestPathTree = false;
+
+    /**
+     * In searches that do not use transit or kiss and ride, compute street edge traversals into a reusable scratch
+     * record and only create a State when the shortest path tree would keep it. This does not change search results,
+     * only speed and allocation, so it is not considered in equals().
+     */
+    public boolean lightweightStreetTraversal = false;
+
+    /**
+     * The priority queue implementation used by AStar. The radix heap quantizes weights and requires a consistent
+     * heuristic, so it should only be used for street-only and batch searches.
+     */
+    public PriorityQueueType priorityQueueType = PriorityQueueType.BINARY_HEAP;
+
     /** Accept only paths that use transit (no street-only paths). */
     public boolean onlyTransitTrips = false;
 
@@ -82,6 +82,11 @@ public class ServiceDay implements Serializable {
         return this.serviceIdsRunning.intersects(serviceCodes);
     }
 
+    /** @return the codes of the services running on this ServiceDay. The caller must not modify the set. */
+    public BitSet getServiceIdsRunning() {
+        return serviceIdsRunning;
+    }
+
     /**
      * Return the ServiceDate for this ServiceDay.
      */
@@ -139,10 +139,14 @@ public class StateEditor {
     }
 
     public boolean weHaveWalkedTooFar(RoutingRequest options) {
+        return walkedTooFar(child.walkDistance, options);
+    }
+
+    static boolean walkedTooFar(double walkDistance, RoutingRequest options) {
         // Only apply limit in transit-only case, unless this is a one-to-many request with hard
         // walk limiting, in which case we want to cut off the search.
         if (options.modes.isTransit() || !options.softWalkLimiting && options.batch)
-            return child.walkDistance >= options.maxWalkDistance;
+            return walkDistance >= options.maxWalkDistance;
 
         return false;
     }
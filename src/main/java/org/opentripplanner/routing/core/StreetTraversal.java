@@ -0,0 +1,128 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.core;
+
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Vertex;
+
+/**
+ * A reusable scratch record of the outcome of traversing a street edge: the increments to weight, time, walk distance
+ * and pre-transit time, plus the few StateData fields a street traversal may change.
+ *
+ * Every ordinary traversal clones a State (and often its StateData) through a StateEditor, even though most of the
+ * resulting states are immediately rejected by the shortest path tree. In a street-only search the search can instead
+ * fill in one of these, look at the outcome through probe(), and only call makeState() when the shortest path tree
+ * would actually keep the result. One instance belongs to one search and is overwritten on every traversal.
+ */
+public class StreetTraversal {
+
+    public double weight;
+
+    public int seconds;
+
+    public double walkDistance;
+
+    public int preTransitSeconds;
+
+    public TraverseMode backMode;
+
+    public boolean backWalkingBike;
+
+    public boolean enteredNoThroughTrafficArea;
+
+    /** The single State instance handed out by probe(), overwritten on every call. */
+    private State probe;
+
+    /** Clear the increments before computing a new traversal. */
+    public void reset() {
+        weight = 0;
+        seconds = 0;
+        walkDistance = 0;
+        preTransitSeconds = 0;
+        backMode = null;
+        backWalkingBike = false;
+        enteredNoThroughTrafficArea = false;
+    }
+
+    /** @return the walk distance of the state that this traversal would produce from the given parent. */
+    public double walkDistanceAfter(State parent) {
+        return parent.walkDistance + walkDistance;
+    }
+
+    /** @return the pre-transit time of the state that this traversal would produce from the given parent. */
+    public int preTransitTimeAfter(State parent) {
+        return parent.preTransitTime + preTransitSeconds;
+    }
+
+    /**
+     * @return true if a state with the walk distance this traversal would produce exceeds the walk limit, using the
+     *         same rule as StateEditor.weHaveWalkedTooFar().
+     */
+    public boolean walkedTooFar(State parent, RoutingRequest options) {
+        return StateEditor.walkedTooFar(walkDistanceAfter(parent), options);
+    }
+
+    /**
+     * @return true if the increments are ones a StateEditor would accept. A StateEditor flags negative or NaN
+     *         increments as defective traversals and refuses to make a state from them.
+     */
+    public boolean isValid() {
+        return weight >= 0 && seconds >= 0 && walkDistance >= 0 && preTransitSeconds >= 0;
+    }
+
+    /**
+     * Expose the outcome of this traversal as a State, without allocating. The returned State is shared and is
+     * overwritten by the next call, so it must only be read (by a heuristic, a dominance function or a limit check)
+     * and never stored. It shares the parent's StateData, so only the fields that street traversals do not change
+     * (boarding, rental and parking status) can be read from that.
+     */
+    public State probe(State parent, Edge edge, Vertex vertex) {
+        if (probe == null) {
+            probe = parent.clone();
+        }
+        long millis = seconds * 1000L;
+        probe.time = parent.time + (parent.getOptions().arriveBy ? -millis : millis);
+        probe.weight = parent.weight + weight;
+        probe.vertex = vertex;
+        probe.backState = parent;
+        probe.backEdge = edge;
+        probe.next = null;
+        probe.stateData = parent.stateData;
+        probe.walkDistance = parent.walkDistance + walkDistance;
+        probe.preTransitTime = parent.preTransitTime + preTransitSeconds;
+        probe.pathParserStates = parent.pathParserStates;
+        return probe;
+    }
+
+    /** Apply the increments to a StateEditor for the given parent and edge, as a full traversal would. */
+    public StateEditor edit(State parent, Edge edge) {
+        StateEditor s1 = parent.edit(edge);
+        s1.setBackMode(backMode);
+        s1.setBackWalkingBike(backWalkingBike);
+        if (enteredNoThroughTrafficArea) {
+            s1.setEnteredNoThroughTrafficArea();
+        }
+        s1.incrementWalkDistance(walkDistance);
+        s1.incrementPreTransitTime(preTransitSeconds);
+        s1.incrementTimeInSeconds(seconds);
+        s1.incrementWeight(weight);
+        return s1;
+    }
+
+    /** Materialize the State that this traversal produces. */
+    public State makeState(State parent, Edge edge) {
+        return edit(parent, edge).makeState();
+    }
+
+}
@@ -21,8 +21,12 @@ import org.opentripplanner.common.TurnRestrictionType;
 import org.opentripplanner.common.geometry.*;
 import org.opentripplanner.common.model.P2;
 import org.opentripplanner.routing.core.*;
+import org.opentripplanner.routing.graph.CompactGraphReader;
+import org.opentripplanner.routing.graph.CompactGraphWriter;
 import org.opentripplanner.routing.graph.Edge;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.MappedGraphFile;
+import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.util.ElevationUtils;
 import org.opentripplanner.routing.vertextype.BarrierVertex;
 import org.opentripplanner.routing.vertextype.IntersectionVertex;
@@ -96,7 +100,18 @@ public class StreetEdge extends Edge implements Cloneable {
      */
     protected float bicycleSafetyFactor;
 
-    private int[] compactGeometry;
+    /**
+     * The compacted geometry. If this edge was read from a mapped graph file this is null until the geometry is first
+     * used, after which it holds the geometry decoded from the file. It is volatile so that the decoded array is safely
+     * published to other routing threads.
+     */
+    private volatile int[] compactGeometry;
+
+    /** If not null, the file from which the geometry (and any elevation profile) of this edge is read on demand. */
+    private transient MappedGraphFile mappedFile;
+
+    /** The position of the geometry within mappedFile, or 0 if it is not held in that file. */
+    private transient long geometryPosition;
     
     private I18NString name;
 
@@ -163,6 +178,11 @@ public class StreetEdge extends Edge implements Cloneable {
     }
 
 
+    /** Used when reading the compact graph format, where the fields are filled in by readCompactFields. */
+    protected StreetEdge(StreetVertex v1, StreetVertex v2) {
+        super(v1, v2);
+    }
+
     //For testing only
     public StreetEdge(StreetVertex v1, StreetVertex v2, LineString geometry,
                       String name, double length,
@@ -293,6 +313,29 @@ public class StreetEdge extends Edge implements Cloneable {
 
     /** return a StateEditor rather than a State so that we can make parking/mode switch modifications for kiss-and-ride. */
     private StateEditor doTraverse(State s0, RoutingRequest options, TraverseMode traverseMode) {
+        StreetTraversal result = new StreetTraversal();
+        if (!computeTraversal(s0, options, traverseMode, result)) {
+            return null;
+        }
+        return result.edit(s0, this);
+    }
+
+    /**
+     * Traverse this edge in the state's current non-transit mode without creating any State, leaving the outcome in
+     * the given scratch record. The caller can then decide whether the result is worth keeping and materialize it with
+     * StreetTraversal.makeState(). This gives exactly the same result as traverse(State) except for kiss-and-ride
+     * searches, whose mode switches are not handled here.
+     *
+     * @return false if the edge cannot be traversed, in which case the contents of the record are meaningless.
+     */
+    public boolean traverse(State s0, StreetTraversal result) {
+        result.reset();
+        return computeTraversal(s0, s0.getOptions(), s0.getNonTransitMode(), result) && result.isValid();
+    }
+
+    /** Compute the increments for traversing this edge from s0 into the result record, which must have been reset. */
+    private boolean computeTraversal(State s0, RoutingRequest options, TraverseMode traverseMode,
+            StreetTraversal result) {
         boolean walkingBike = options.walkingBike;
         boolean backWalkingBike = s0.isBackWalkingBike();
         TraverseMode backMode = s0.getBackMode();
@@ -305,7 +348,7 @@ public class StreetEdge extends Edge implements Cloneable {
             // or the other).
             // TODO profiling indicates that this is a hot spot.
             if (this.isReverseOf(backEdge) || backEdge.isReverseOf(this)) {
-                return null;
+                return false;
             }
         }
 
@@ -316,9 +359,9 @@ public class StreetEdge extends Edge implements Cloneable {
         /* Check whether this street allows the current mode. If not and we are biking, attempt to walk the bike. */
         if (!canTraverse(options, traverseMode)) {
             if (traverseMode == TraverseMode.BICYCLE) {
-                return doTraverse(s0, options.bikeWalkingOptions, TraverseMode.WALK);
+                return computeTraversal(s0, options.bikeWalkingOptions, TraverseMode.WALK, result);
             }
-            return null;
+            return false;
         }
 
         // Automobiles have variable speeds depending on the edge type
@@ -394,24 +437,24 @@ public class StreetEdge extends Edge implements Cloneable {
             weight *= options.walkReluctance;
         }
 
-        StateEditor s1 = s0.edit(this);
-        s1.setBackMode(traverseMode);
-        s1.setBackWalkingBike(walkingBike);
+        result.backMode = traverseMode;
+        result.backWalkingBike = walkingBike;
 
         /* Handle no through traffic areas. */
         if (this.isNoThruTraffic()) {
             // Record transition into no-through-traffic area.
             if (backEdge instanceof StreetEdge && !((StreetEdge)backEdge).isNoThruTraffic()) {
-                s1.setEnteredNoThroughTrafficArea();
+                result.enteredNoThroughTrafficArea = true;
             }
             // If we transitioned into a no-through-traffic area at some point, check if we are exiting it.
-            if (s1.hasEnteredNoThroughTrafficArea()) {
+            if (s0.hasEnteredNoThruTrafficArea() || result.enteredNoThroughTrafficArea) {
                 // Only Edges are marked as no-thru, but really we need to avoid creating dominant, pruned states
                 // on thru _Vertices_. This could certainly be improved somehow.
-                for (StreetEdge se : Iterables.filter(s1.getVertex().getOutgoing(), StreetEdge.class)) {
+                Vertex v1 = s0.getOptions().arriveBy ? fromv : tov;
+                for (StreetEdge se : Iterables.filter(v1.getOutgoing(), StreetEdge.class)) {
                     if (!se.isNoThruTraffic()) {
                         // This vertex has at least one through-traffic edge. We can't dominate it with a no-thru state.
-                        return null;
+                        return false;
                     }
                 }
             }
@@ -428,9 +471,9 @@ public class StreetEdge extends Edge implements Cloneable {
 
             // Apply turn restrictions
             if (options.arriveBy && !canTurnOnto(backPSE, s0, backMode)) {
-                return null;
+                return false;
             } else if (!options.arriveBy && !backPSE.canTurnOnto(this, s0, traverseMode)) {
-                return null;
+                return false;
             }
 
             /*
@@ -463,7 +506,7 @@ public class StreetEdge extends Edge implements Cloneable {
             }
 
             if (!traverseMode.isDriving()) {
-                s1.incrementWalkDistance(realTurnCost / 100);  // just a tie-breaker
+                result.walkDistance += realTurnCost / 100;  // just a tie-breaker
             }
 
             long turnTime = (long) Math.ceil(realTurnCost);
@@ -474,53 +517,53 @@ public class StreetEdge extends Edge implements Cloneable {
 
         if (walkingBike || TraverseMode.BICYCLE.equals(traverseMode)) {
             if (!(backWalkingBike || TraverseMode.BICYCLE.equals(backMode))) {
-                s1.incrementTimeInSeconds(options.bikeSwitchTime);
-                s1.incrementWeight(options.bikeSwitchCost);
+                result.seconds += options.bikeSwitchTime;
+                result.weight += options.bikeSwitchCost;
             }
         }
 
         if (!traverseMode.isDriving()) {
-            s1.incrementWalkDistance(getDistance());
+            result.walkDistance += getDistance();
         }
 
         /* On the pre-kiss/pre-park leg, limit both walking and driving, either soft or hard. */
         int roundedTime = (int) Math.ceil(time);
         if (options.kissAndRide || options.parkAndRide) {
             if (options.arriveBy) {
-                if (!s0.isCarParked()) s1.incrementPreTransitTime(roundedTime);
+                if (!s0.isCarParked()) result.preTransitSeconds += roundedTime;
             } else {
-                if (!s0.isEverBoarded()) s1.incrementPreTransitTime(roundedTime);
+                if (!s0.isEverBoarded()) result.preTransitSeconds += roundedTime;
             }
-            if (s1.isMaxPreTransitTimeExceeded(options)) {
+            if (result.preTransitTimeAfter(s0) > options.maxPreTransitTime) {
                 if (options.softPreTransitLimiting) {
-                    weight += calculateOverageWeight(s0.getPreTransitTime(), s1.getPreTransitTime(),
+                    weight += calculateOverageWeight(s0.getPreTransitTime(), result.preTransitTimeAfter(s0),
                             options.maxPreTransitTime, options.preTransitPenalty,
                                     options.preTransitOverageRate);
-                } else return null;
+                } else return false;
             }
         }
         
         /* Apply a strategy for avoiding walking too far, either soft (weight increases) or hard limiting (pruning). */
-        if (s1.weHaveWalkedTooFar(options)) {
+        if (result.walkedTooFar(s0, options)) {
 
             // if we're using a soft walk-limit
             if( options.softWalkLimiting ){
-                // just slap a penalty for the overage onto s1
-                weight += calculateOverageWeight(s0.getWalkDistance(), s1.getWalkDistance(),
+                // just slap a penalty for the overage onto the result
+                weight += calculateOverageWeight(s0.getWalkDistance(), result.walkDistanceAfter(s0),
                         options.getMaxWalkDistance(), options.softWalkPenalty,
                                 options.softWalkOverageRate);
             } else {
                 // else, it's a hard limit; bail
                 LOG.debug("Too much walking. Bailing.");
-                return null;
+                return false;
             }
         }
 
-        s1.incrementTimeInSeconds(roundedTime);
-        
-        s1.incrementWeight(weight);
+        result.seconds += roundedTime;
+
+        result.weight += weight;
 
-        return s1;
+        return true;
     }
 
     private double calculateOverageWeight(double firstValue, double secondValue, double maxValue,
@@ -603,9 +646,57 @@ public class StreetEdge extends Edge implements Cloneable {
     }
 
     private void writeObject(ObjectOutputStream out) throws IOException {
+        // Geometry left in a mapped file is not held in a serialized field, so bring it onto the heap first.
+        compactGeometry = getCompactGeometry();
         out.defaultWriteObject();
     }
 
+    /**
+     * Write the fields of this edge as a binary record in the compact graph format. The vertices and edge ID are
+     * written by the caller. Subclasses adding fields must override this and readCompactFields together.
+     */
+    public void writeCompactFields(CompactGraphWriter out) throws IOException {
+        out.writeByte(flags);
+        out.writeVarInt(length_mm);
+        out.writeFloat(bicycleSafetyFactor);
+        out.writeSignedVarInts(getCompactGeometry());
+        out.writeName(name);
+        out.writeVarInt(permission.code);
+        out.writeLong(wayId);
+        out.writeVarInt(streetClass);
+        out.writeFloat(carSpeed);
+        out.writeByte(inAngle);
+        out.writeByte(outAngle);
+    }
+
+    /** Read the fields written by writeCompactFields, in the same order. */
+    protected void readCompactFields(CompactGraphReader in) throws IOException {
+        flags = in.readByte();
+        length_mm = in.readVarInt();
+        bicycleSafetyFactor = in.readFloat();
+        mappedFile = in.getMappedFile();
+        if (mappedFile != null) {
+            geometryPosition = in.skipSignedVarInts();
+        } else {
+            compactGeometry = in.readSignedVarInts();
+        }
+        name = in.readName();
+        permission = StreetTraversalPermission.get(in.readVarInt());
+        wayId = in.readLong();
+        streetClass = in.readVarInt();
+        carSpeed = in.readFloat();
+        inAngle = in.readByte();
+        outAngle = in.readByte();
+    }
+
+    /** Create a StreetEdge between the given vertices from a record written by writeCompactFields. */
+    public static StreetEdge readCompact(StreetVertex v1, StreetVertex v2, CompactGraphReader in)
+            throws IOException {
+        StreetEdge edge = new StreetEdge(v1, v2);
+        edge.readCompactFields(in);
+        return edge;
+    }
+
     public String toString() {
         return "StreetEdge(" + getId() + ", " + name + ", " + fromv + " -> " + tov
                 + " length=" + this.getDistance() + " carSpeed=" + this.getCarSpeed()
@@ -665,16 +756,39 @@ public class StreetEdge extends Edge implements Cloneable {
 	}
 
 	public LineString getGeometry() {
-		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), compactGeometry, isBack());
+		return CompactLineString.uncompactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), getCompactGeometry(), isBack());
 	}
 
 	private void setGeometry(LineString geometry) {
 		this.compactGeometry = CompactLineString.compactLineString(fromv.getLon(), fromv.getLat(), tov.getLon(), tov.getLat(), isBack() ? (LineString)geometry.reverse() : geometry, isBack());
+		this.geometryPosition = 0;
+	}
+
+	/**
+	 * Get the compacted geometry, decoding it from the mapped graph file if it was left there when loading. The
+	 * decoded geometry is kept, so each edge is decoded at most once and only the edges actually used by searches
+	 * take up heap. Two threads may both decode it the first time, which is harmless.
+	 */
+	private int[] getCompactGeometry() {
+		int[] geometry = compactGeometry;
+		if (geometry == null && geometryPosition != 0) {
+			geometry = mappedFile.readSignedVarInts(geometryPosition);
+			compactGeometry = geometry;
+		}
+		return geometry;
+	}
+
+	/** @return the mapped graph file this edge was read from, or null if its street data is all on the heap. */
+	protected MappedGraphFile getMappedFile() {
+		return mappedFile;
 	}
 
 	public void shareData(StreetEdge reversedEdge) {
-	    if (Arrays.equals(compactGeometry, reversedEdge.compactGeometry)) {
+	    if (Arrays.equals(getCompactGeometry(), reversedEdge.getCompactGeometry())) {
+	        // The position is only meaningful within the file it refers to, so the two are always copied together.
 	        compactGeometry = reversedEdge.compactGeometry;
+	        mappedFile = reversedEdge.mappedFile;
+	        geometryPosition = reversedEdge.geometryPosition;
 	    } else {
 	        LOG.warn("Can't share geometry between {} and {}", this, reversedEdge);
 	    }
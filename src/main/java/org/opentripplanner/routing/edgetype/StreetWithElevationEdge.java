@@ -15,6 +15,8 @@ package org.opentripplanner.routing.edgetype;
 
 import org.opentripplanner.common.geometry.CompactElevationProfile;
 import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+import org.opentripplanner.routing.graph.CompactGraphReader;
+import org.opentripplanner.routing.graph.CompactGraphWriter;
 import org.opentripplanner.routing.util.ElevationUtils;
 import org.opentripplanner.routing.util.SlopeCosts;
 import org.opentripplanner.routing.vertextype.StreetVertex;
@@ -23,6 +25,9 @@ import com.vividsolutions.jts.geom.LineString;
 import org.opentripplanner.util.I18NString;
 import org.opentripplanner.util.NonLocalizedString;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+
 /**
  * A StreetEdge with elevation data.
  * 
@@ -34,6 +39,9 @@ public class StreetWithElevationEdge extends StreetEdge {
 
     private byte[] packedElevationProfile;
 
+    /** The position of the elevation profile within the mapped graph file, or 0 if it is held in the field above. */
+    private transient long elevationPosition;
+
     private float slopeSpeedFactor = 1.0f;
 
     private float slopeWorkFactor = 1.0f;
@@ -52,6 +60,42 @@ public class StreetWithElevationEdge extends StreetEdge {
         super(v1, v2, geometry, new NonLocalizedString(name), length, permission, back);
     }
 
+    private StreetWithElevationEdge(StreetVertex v1, StreetVertex v2) {
+        super(v1, v2);
+    }
+
+    @Override
+    public void writeCompactFields(CompactGraphWriter out) throws IOException {
+        super.writeCompactFields(out);
+        out.writeNullableBytes(getPackedElevationProfile());
+        out.writeFloat(slopeSpeedFactor);
+        out.writeFloat(slopeWorkFactor);
+        out.writeFloat(maxSlope);
+        out.writeBoolean(flattened);
+    }
+
+    @Override
+    protected void readCompactFields(CompactGraphReader in) throws IOException {
+        super.readCompactFields(in);
+        if (in.getMappedFile() != null) {
+            elevationPosition = in.skipNullableBytes();
+        } else {
+            packedElevationProfile = in.readNullableBytes();
+        }
+        slopeSpeedFactor = in.readFloat();
+        slopeWorkFactor = in.readFloat();
+        maxSlope = in.readFloat();
+        flattened = in.readBoolean();
+    }
+
+    /** Create a StreetWithElevationEdge between the given vertices from a record written by writeCompactFields. */
+    public static StreetWithElevationEdge readCompact(StreetVertex v1, StreetVertex v2, CompactGraphReader in)
+            throws IOException {
+        StreetWithElevationEdge edge = new StreetWithElevationEdge(v1, v2);
+        edge.readCompactFields(in);
+        return edge;
+    }
+
     @Override
     public StreetWithElevationEdge clone() {
         return (StreetWithElevationEdge) super.clone();
@@ -68,6 +112,7 @@ public class StreetWithElevationEdge extends StreetEdge {
         SlopeCosts costs = ElevationUtils.getSlopeCosts(elev, slopeLimit);
 
         packedElevationProfile = CompactElevationProfile.compactElevationProfile(elev);
+        elevationPosition = 0;
         slopeSpeedFactor = (float)costs.slopeSpeedFactor;
         slopeWorkFactor = (float)costs.slopeWorkFactor;
         maxSlope = (float)costs.maxSlope;
@@ -80,7 +125,20 @@ public class StreetWithElevationEdge extends StreetEdge {
 
     @Override
     public PackedCoordinateSequence getElevationProfile() {
-        return CompactElevationProfile.uncompactElevationProfile(packedElevationProfile);
+        return CompactElevationProfile.uncompactElevationProfile(getPackedElevationProfile());
+    }
+
+    private byte[] getPackedElevationProfile() {
+        return elevationPosition == 0 ? packedElevationProfile : getMappedFile().readNullableBytes(elevationPosition);
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        // The elevation profile may have been left in a mapped file, see StreetEdge.writeObject.
+        if (elevationPosition != 0) {
+            packedElevationProfile = getPackedElevationProfile();
+            elevationPosition = 0;
+        }
+        out.defaultWriteObject();
     }
 
     @Override
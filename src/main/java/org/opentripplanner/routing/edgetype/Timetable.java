@@ -87,6 +87,17 @@ public class Timetable implements Serializable {
      * Helps determine whether a particular pattern is worth searching for departures at a given time. 
      */
     private transient int minTime, maxTime;
+
+    /**
+     * For each stop, the indexes into tripTimes sorted by departure time at that stop (ties broken by ascending trip
+     * index), allowing a binary search for the next departure. When the trips are in the same order at consecutive
+     * stops, which is the case unless trips overtake one another, those stops share the same array.
+     * Null when the Timetable has been modified since it was last finished, in which case a linear search is used.
+     */
+    private transient int[][] departureOrder;
+
+    /** Like departureOrder but sorted by arrival time, with ties broken by descending trip index. */
+    private transient int[][] arrivalOrder;
     
     /** Construct an empty Timetable. */
     public Timetable(TripPattern pattern) {
@@ -146,37 +157,73 @@ public class Timetable implements Serializable {
         }
         TripTimes bestTrip = null;
         Stop currentStop = pattern.getStop(stopIndex);
-        // Linear search through the timetable looking for the best departure.
-        // We no longer use a binary search on Timetables because:
-        // 1. we allow combining trips from different service IDs on the same tripPattern.
-        // 2. We mix frequency-based and one-off TripTimes together on tripPatterns.
-        // 3. Stoptimes may change with realtime updates, and we cannot count on them being sorted.
-        //    The complexity of keeping sorted indexes up to date does not appear to be worth the
-        //    apparently minor speed improvement.
         int bestTime = boarding ? Integer.MAX_VALUE : Integer.MIN_VALUE;
-        // Hoping JVM JIT will distribute the loop over the if clauses as needed.
-        // We could invert this and skip some service days based on schedule overlap as in RRRR.
-        for (TripTimes tt : tripTimes) {
-            if (tt.isCanceled()) continue;
-            if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
-            if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
-            int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
-            if (adjustedTime == -1) continue;
+        int[][] tripOrder = boarding ? departureOrder : arrivalOrder;
+        if (tripOrder != null) {
+            // Binary search in the trips sorted by time at this stop, then step through them in time order until
+            // one is found that is running and acceptable. Transfer rules can only push the boarding time later
+            // (or the alighting time earlier), so the first such trip is the best one.
+            int[] order = tripOrder[stopIndex];
             if (boarding) {
-                int depTime = tt.getDepartureTime(stopIndex);
-                if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
-                                           // now its not sure if this check should be still in place because there is a boolean field
-                                           // for canceled trips
-                if (depTime >= adjustedTime && depTime < bestTime) {
-                    bestTrip = tt;
-                    bestTime = depTime;
+                for (int i = firstDepartureAtOrAfter(order, stopIndex, time); i < order.length; i++) {
+                    TripTimes tt = tripTimes.get(order[i]);
+                    if (tt.isCanceled()) continue;
+                    if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+                    if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                    int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                    if (adjustedTime == -1) continue;
+                    int depTime = tt.getDepartureTime(stopIndex);
+                    if (depTime < 0) continue;
+                    if (depTime >= adjustedTime) {
+                        bestTrip = tt;
+                        bestTime = depTime;
+                        break;
+                    }
                 }
             } else {
-                int arvTime = tt.getArrivalTime(stopIndex);
-                if (arvTime < 0) continue;
-                if (arvTime <= adjustedTime && arvTime > bestTime) {
-                    bestTrip = tt;
-                    bestTime = arvTime;
+                for (int i = lastArrivalAtOrBefore(order, stopIndex, time); i >= 0; i--) {
+                    TripTimes tt = tripTimes.get(order[i]);
+                    if (tt.isCanceled()) continue;
+                    if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue;
+                    if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                    int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                    if (adjustedTime == -1) continue;
+                    int arvTime = tt.getArrivalTime(stopIndex);
+                    if (arvTime < 0) continue;
+                    if (arvTime <= adjustedTime) {
+                        bestTrip = tt;
+                        bestTime = arvTime;
+                        break;
+                    }
+                }
+            }
+        } else {
+            // The sorted indexes are only built when the timetable is finished. A realtime Timetable that has been
+            // modified since then falls back on a linear search through all the trips.
+            // Hoping JVM JIT will distribute the loop over the if clauses as needed.
+            // We could invert this and skip some service days based on schedule overlap as in RRRR.
+            for (TripTimes tt : tripTimes) {
+                if (tt.isCanceled()) continue;
+                if ( ! serviceDay.serviceRunning(tt.serviceCode)) continue; // TODO merge into call on next line
+                if ( ! tt.tripAcceptable(s0, stopIndex)) continue;
+                int adjustedTime = adjustTimeForTransfer(s0, currentStop, tt.trip, boarding, serviceDay, time);
+                if (adjustedTime == -1) continue;
+                if (boarding) {
+                    int depTime = tt.getDepartureTime(stopIndex);
+                    if (depTime < 0) continue; // negative values were previously used for canceled trips/passed stops/skipped stops, but
+                                               // now its not sure if this check should be still in place because there is a boolean field
+                                               // for canceled trips
+                    if (depTime >= adjustedTime && depTime < bestTime) {
+                        bestTrip = tt;
+                        bestTime = depTime;
+                    }
+                } else {
+                    int arvTime = tt.getArrivalTime(stopIndex);
+                    if (arvTime < 0) continue;
+                    if (arvTime <= adjustedTime && arvTime > bestTime) {
+                        bestTrip = tt;
+                        bestTime = arvTime;
+                    }
                 }
             }
         }
@@ -215,6 +262,34 @@ public class Timetable implements Serializable {
         return bestTrip;
     }
 
+    /** @return the position in the given order of the first trip departing the given stop at or after the given time. */
+    private int firstDepartureAtOrAfter(int[] order, int stopIndex, int time) {
+        int lo = 0, hi = order.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tripTimes.get(order[mid]).getDepartureTime(stopIndex) < time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo;
+    }
+
+    /** @return the position in the given order of the last trip arriving at the given stop at or before the given time. */
+    private int lastArrivalAtOrBefore(int[] order, int stopIndex, int time) {
+        int lo = 0, hi = order.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (tripTimes.get(order[mid]).getArrivalTime(stopIndex) <= time) {
+                lo = mid + 1;
+            } else {
+                hi = mid;
+            }
+        }
+        return lo - 1;
+    }
+
     /**
      * Check transfer table rules. Given the last alight time from the State,
      * return the boarding time t0 adjusted for this particular trip's minimum transfer time,
@@ -295,6 +370,50 @@ public class Timetable implements Serializable {
             minTime = Math.min(minTime, freq.getMinDeparture());
             maxTime = Math.max(maxTime, freq.getMaxArrival());
         }
+        /* Sort the trips at each stop so getNextTrip can use a binary search. */
+        departureOrder = new int[nStops][];
+        arrivalOrder = new int[nStops][];
+        for (int s = 0; s < nStops; s++) {
+            departureOrder[s] = sortTrips(s, true, s > 0 ? departureOrder[s - 1] : null);
+            arrivalOrder[s] = sortTrips(s, false, s > 0 ? arrivalOrder[s - 1] : null);
+        }
+    }
+
+    /**
+     * Sort the indexes of the trips in this timetable by departure or arrival time at the given stop. If the trips are
+     * already correctly ordered by the order from the previous stop, that array is returned so it can be shared.
+     * Ties are broken by trip index so that getNextTrip picks the same trip as a linear search would.
+     */
+    private int[] sortTrips(int stopIndex, boolean departures, int[] previousOrder) {
+        int nTrips = tripTimes.size();
+        long[] keys = new long[nTrips];
+        for (int i = 0; i < nTrips; i++) {
+            keys[i] = sortKey(i, stopIndex, departures);
+        }
+        if (previousOrder != null) {
+            boolean sorted = true;
+            for (int i = 1; i < nTrips && sorted; i++) {
+                sorted = keys[previousOrder[i - 1]] < keys[previousOrder[i]];
+            }
+            if (sorted) return previousOrder;
+        }
+        Arrays.sort(keys);
+        int[] order = new int[nTrips];
+        for (int i = 0; i < nTrips; i++) {
+            int tiebreak = (int) keys[i];
+            order[i] = departures ? tiebreak : Integer.MAX_VALUE - tiebreak;
+        }
+        return order;
+    }
+
+    /** Pack a time in the high bits and the trip index tie-breaker in the low bits, so longs sort in the right order. */
+    private long sortKey(int tripIndex, int stopIndex, boolean departures) {
+        TripTimes tt = tripTimes.get(tripIndex);
+        if (departures) {
+            return ((long) tt.getDepartureTime(stopIndex) << 32) | tripIndex;
+        } else {
+            return ((long) tt.getArrivalTime(stopIndex) << 32) | (Integer.MAX_VALUE - tripIndex);
+        }
     }
 
     /** @return the index of TripTimes for this trip ID in this particular Timetable */
@@ -338,6 +457,7 @@ public class Timetable implements Serializable {
      * @return old trip times of trip
      */
     public TripTimes setTripTimes(int tripIndex, TripTimes tt) {
+        invalidateTripOrder();
         return tripTimes.set(tripIndex, tt);
     }
 
@@ -518,9 +638,19 @@ public class Timetable implements Serializable {
      * Here we don't know if it's a scheduled trip or a realtime-added trip.
      */
     public void addTripTimes(TripTimes tt) {
+        invalidateTripOrder();
         tripTimes.add(tt);
     }
 
+    /**
+     * Discard the sorted trip indexes after a modification. They will be rebuilt the next time this Timetable is
+     * finished (e.g. when a TimetableSnapshot is committed), and linear searches are used until then.
+     */
+    private void invalidateTripOrder() {
+        departureOrder = null;
+        arrivalOrder = null;
+    }
+
     /**
      * Add a frequency entry to this Timetable. See addTripTimes method. Maybe Frequency Entries should
      * just be TripTimes for simplicity.
@@ -0,0 +1,283 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.util.I18NString;
+import org.opentripplanner.util.NonLocalizedString;
+
+import java.io.ByteArrayInputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Decodes the values written by a CompactGraphWriter from an NIO channel, refilling a buffer as it goes so that
+ * arbitrarily large graphs are decoded in a single streaming pass.
+ */
+public class CompactGraphReader {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final ReadableByteChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    /** Names in the order they were first written, so that later references can be resolved. */
+    private final List<I18NString> nameTable = new ArrayList<>();
+
+    /** Empty arrays are immutable, so all empty arrays read can be the same instance. */
+    private static final int[] EMPTY_INTS = new int[0];
+
+    /** The total number of bytes read from the channel into the buffer. */
+    private long channelBytesRead = 0;
+
+    /** If not null, the file being read, mapped into memory so bulky fields can be decoded later on demand. */
+    private final MappedGraphFile mappedFile;
+
+    /** Finds the classes of serialized names, or null to find them as usual. */
+    private ClassLoader classLoader;
+
+    public CompactGraphReader(ReadableByteChannel channel) {
+        this(channel, null);
+    }
+
+    /**
+     * @param mappedFile the file being read, mapped into memory. The channel must be positioned at the start of that
+     *                   file, so that positions in the stream are positions in the file.
+     */
+    public CompactGraphReader(ReadableByteChannel channel, MappedGraphFile mappedFile) {
+        this.channel = channel;
+        this.mappedFile = mappedFile;
+        buffer.limit(0); // start out empty
+    }
+
+    /** Find the classes of serialized names with this class loader, or as usual if it is null. */
+    public void setClassLoader(ClassLoader classLoader) {
+        this.classLoader = classLoader;
+    }
+
+    /** @return the memory-mapped file being read, or null if bulky fields should be read onto the heap. */
+    public MappedGraphFile getMappedFile() {
+        return mappedFile;
+    }
+
+    /** @return the number of bytes consumed from the start of the stream, i.e. the position of the next value. */
+    public long getPosition() {
+        return channelBytesRead - buffer.remaining();
+    }
+
+    /** Make sure at least n bytes are available in the buffer. n must not exceed BUFFER_SIZE. */
+    private void require(int n) throws IOException {
+        if (buffer.remaining() >= n) return;
+        buffer.compact();
+        while (buffer.position() < n) {
+            int r = channel.read(buffer);
+            if (r < 0) {
+                throw new EOFException("Unexpected end of compact graph stream.");
+            }
+            channelBytesRead += r;
+        }
+        buffer.flip();
+    }
+
+    public byte readByte() throws IOException {
+        require(1);
+        return buffer.get();
+    }
+
+    public boolean readBoolean() throws IOException {
+        return readByte() != 0;
+    }
+
+    public int readInt() throws IOException {
+        require(4);
+        return buffer.getInt();
+    }
+
+    public long readLong() throws IOException {
+        require(8);
+        return buffer.getLong();
+    }
+
+    public float readFloat() throws IOException {
+        require(4);
+        return buffer.getFloat();
+    }
+
+    public double readDouble() throws IOException {
+        require(8);
+        return buffer.getDouble();
+    }
+
+    public int readVarInt() throws IOException {
+        int result = 0;
+        for (int shift = 0; shift < 35; shift += 7) {
+            byte b = readByte();
+            result |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed variable-length integer in compact graph stream.");
+    }
+
+    public int readSignedVarInt() throws IOException {
+        int i = readVarInt();
+        return (i >>> 1) ^ -(i & 1);
+    }
+
+    public long readVarLong() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 70; shift += 7) {
+            byte b = readByte();
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) return result;
+        }
+        throw new IOException("Malformed variable-length long in compact graph stream.");
+    }
+
+    /** Read a byte array preceded by its length. */
+    public byte[] readBytes() throws IOException {
+        return readRawBytes(readVarInt());
+    }
+
+    /** Read a byte array of known length. */
+    public byte[] readRawBytes(int length) throws IOException {
+        byte[] bytes = new byte[length];
+        int offset = 0;
+        while (offset < bytes.length) {
+            require(1);
+            int n = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.get(bytes, offset, n);
+            offset += n;
+        }
+        return bytes;
+    }
+
+    public byte[] readNullableBytes() throws IOException {
+        return readBoolean() ? readBytes() : null;
+    }
+
+    public String readString() throws IOException {
+        return new String(readBytes(), StandardCharsets.UTF_8);
+    }
+
+    public int[] readSignedVarInts() throws IOException {
+        int length = readVarInt() - 1;
+        if (length < 0) return null;
+        if (length == 0) return EMPTY_INTS;
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            values[i] = readSignedVarInt();
+        }
+        return values;
+    }
+
+    /**
+     * Skip over an int array written by CompactGraphWriter.writeSignedVarInts, so that it can be read later from the
+     * mapped file with MappedGraphFile.readSignedVarInts.
+     * @return the position of the array.
+     */
+    public long skipSignedVarInts() throws IOException {
+        long position = getPosition();
+        int length = readVarInt() - 1;
+        for (int i = 0; i < length; i++) {
+            readVarInt();
+        }
+        return position;
+    }
+
+    /**
+     * Skip over a byte array written by CompactGraphWriter.writeNullableBytes, so that it can be read later from the
+     * mapped file with MappedGraphFile.readNullableBytes.
+     * @return the position of the array.
+     */
+    public long skipNullableBytes() throws IOException {
+        long position = getPosition();
+        if (!readBoolean()) return position;
+        int length = readVarInt();
+        while (length > 0) {
+            require(1);
+            int n = Math.min(length, buffer.remaining());
+            buffer.position(buffer.position() + n);
+            length -= n;
+        }
+        return position;
+    }
+
+    /** Read a name written by CompactGraphWriter.writeName. Repeated names return the same instance. */
+    public I18NString readName() throws IOException {
+        int code = readVarInt();
+        I18NString name;
+        switch (code) {
+            case CompactGraphWriter.NAME_NULL:
+                return null;
+            case CompactGraphWriter.NAME_NON_LOCALIZED:
+                name = new NonLocalizedString(readString());
+                break;
+            case CompactGraphWriter.NAME_SERIALIZED:
+                try (ObjectInputStream in = new Graph.GraphObjectInputStream(
+                        new ByteArrayInputStream(readBytes()), classLoader)) {
+                    name = (I18NString) in.readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException("Unknown name class in compact graph stream.", e);
+                }
+                break;
+            default:
+                return nameTable.get(code - CompactGraphWriter.NAME_REFERENCE);
+        }
+        nameTable.add(name);
+        return name;
+    }
+
+    /**
+     * @return an InputStream over the rest of the data, starting with any bytes already in the buffer. This reader
+     * must not be used after calling this method.
+     */
+    public InputStream remainingInputStream() {
+        return new InputStream() {
+            @Override
+            public int read() throws IOException {
+                if (!buffer.hasRemaining() && !refill()) return -1;
+                return buffer.get() & 0xFF;
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (len == 0) return 0;
+                if (!buffer.hasRemaining() && !refill()) return -1;
+                int n = Math.min(len, buffer.remaining());
+                buffer.get(b, off, n);
+                return n;
+            }
+
+            private boolean refill() throws IOException {
+                buffer.clear();
+                int n = 0;
+                while (n == 0) {
+                    n = channel.read(buffer);
+                }
+                buffer.flip();
+                if (n < 0) return false;
+                channelBytesRead += n;
+                return true;
+            }
+        };
+    }
+
+}
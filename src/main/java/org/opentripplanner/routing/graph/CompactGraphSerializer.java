@@ -0,0 +1,345 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.common.MavenVersion;
+import org.opentripplanner.graph_builder.annotation.GraphBuilderAnnotation;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetWithElevationEdge;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.OsmVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+import org.opentripplanner.util.I18NString;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.BufferedOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads and writes graphs in the compact format. The bulk of a graph (the street vertices and edges) is written as
+ * sections of binary records, and everything else (the Graph object itself, transit data, other edges, annotations)
+ * follows as an embedded Java serialization stream. The layout is:
+ *
+ * <pre>
+ * header:   magic "OTPGRAPH", format version, OTP version string, OTP commit string
+ * vertices: count, then per vertex: type, label, x, y, name, flags [, OSM node ID]
+ * edges:    count, then per edge: type, from vertex, to vertex, edge ID, fields written by StreetEdge.writeCompactFields
+ * objects:  Java serialization stream containing the Graph, a List of the remaining edges, a boolean, and annotations
+ *           if that boolean is true
+ * </pre>
+ *
+ * Within the object stream, references to vertices and edges from the binary sections are replaced with their
+ * position in those sections, so they are neither duplicated nor written twice. Only exact classes whose fields are
+ * known are written as binary records; subclasses fall back on Java serialization.
+ *
+ * All sections are decoded in a single pass, building vertex edge lists as each edge is constructed, so there is no
+ * need to hold the serialized form of the whole graph in memory at once.
+ */
+class CompactGraphSerializer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(CompactGraphSerializer.class);
+
+    static final byte[] MAGIC = "OTPGRAPH".getBytes(StandardCharsets.US_ASCII);
+
+    /** Increment this when the binary layout changes. */
+    static final int FORMAT_VERSION = 1;
+
+    private static final int VERTEX_INTERSECTION = 0;
+    private static final int VERTEX_OSM = 1;
+
+    private static final int EDGE_STREET = 0;
+    private static final int EDGE_STREET_WITH_ELEVATION = 1;
+
+    private static final int FLAG_TRAFFIC_LIGHT = 1;
+    private static final int FLAG_FREE_FLOWING = 2;
+
+    /** @return true if the given stream, which must support mark and reset, starts with a compact graph header. */
+    static boolean isCompact(InputStream in) throws IOException {
+        in.mark(MAGIC.length);
+        byte[] start = new byte[MAGIC.length];
+        int n = 0;
+        while (n < start.length) {
+            int r = in.read(start, n, start.length - n);
+            if (r < 0) break;
+            n += r;
+        }
+        in.reset();
+        return n == MAGIC.length && Arrays.equals(start, MAGIC);
+    }
+
+    /**
+     * Write the graph to the given channel, which is not closed.
+     * @param edges all the edges in the graph, as consolidated by Graph.save.
+     * @param annotations the graph builder annotations to write, or null to skip debug data.
+     */
+    static void write(Graph graph, List<Edge> edges, List<GraphBuilderAnnotation> annotations,
+                      WritableByteChannel channel) throws IOException {
+
+        // Vertices that have no edges do not survive serialization in either format.
+        Map<Vertex, Integer> vertexIndex = new IdentityHashMap<>();
+        List<Vertex> vertices = new ArrayList<>();
+        for (Edge e : edges) {
+            for (Vertex v : new Vertex[] {e.getFromVertex(), e.getToVertex()}) {
+                if (isCompactVertex(v) && !vertexIndex.containsKey(v)) {
+                    vertexIndex.put(v, vertices.size());
+                    vertices.add(v);
+                }
+            }
+        }
+        Map<Edge, Integer> edgeIndex = new IdentityHashMap<>();
+        List<StreetEdge> streetEdges = new ArrayList<>();
+        List<Edge> otherEdges = new ArrayList<>();
+        for (Edge e : edges) {
+            if (isCompactEdge(e) && vertexIndex.containsKey(e.getFromVertex())
+                    && vertexIndex.containsKey(e.getToVertex())) {
+                edgeIndex.put(e, streetEdges.size());
+                streetEdges.add((StreetEdge) e);
+            } else {
+                otherEdges.add(e);
+            }
+        }
+        LOG.info("Writing {} vertices and {} edges as binary records, {} edges as Java objects.",
+                vertices.size(), streetEdges.size(), otherEdges.size());
+
+        CompactGraphWriter out = new CompactGraphWriter(channel);
+        out.writeRawBytes(MAGIC);
+        out.writeInt(FORMAT_VERSION);
+        out.writeString(MavenVersion.VERSION.version);
+        out.writeString(MavenVersion.VERSION.commit);
+
+        out.writeVarInt(vertices.size());
+        for (Vertex v : vertices) {
+            IntersectionVertex iv = (IntersectionVertex) v;
+            boolean osm = v.getClass() == OsmVertex.class;
+            out.writeByte(osm ? VERTEX_OSM : VERTEX_INTERSECTION);
+            out.writeString(v.getLabel());
+            out.writeDouble(v.getX());
+            out.writeDouble(v.getY());
+            out.writeName(v.getRawName());
+            out.writeByte((iv.trafficLight ? FLAG_TRAFFIC_LIGHT : 0) | (iv.freeFlowing ? FLAG_FREE_FLOWING : 0));
+            if (osm) {
+                out.writeLong(((OsmVertex) v).nodeId);
+            }
+        }
+
+        out.writeVarInt(streetEdges.size());
+        for (StreetEdge e : streetEdges) {
+            out.writeByte(e.getClass() == StreetWithElevationEdge.class ? EDGE_STREET_WITH_ELEVATION : EDGE_STREET);
+            out.writeVarInt(vertexIndex.get(e.getFromVertex()));
+            out.writeVarInt(vertexIndex.get(e.getToVertex()));
+            out.writeVarInt(e.getId());
+            e.writeCompactFields(out);
+        }
+        out.flush();
+        LOG.debug("Binary sections written, {} bytes.", out.getBytesWritten());
+
+        ObjectOutputStream objectOut = new ReplacingObjectOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(channel)), vertexIndex, edgeIndex);
+        objectOut.writeObject(graph);
+        objectOut.writeObject(otherEdges);
+        objectOut.writeBoolean(annotations != null);
+        if (annotations != null) {
+            objectOut.writeObject(annotations);
+        }
+        objectOut.flush();
+    }
+
+    /**
+     * Read a graph written by write(). The edges are attached to their vertices as they are created, but the graph is
+     * not indexed and its vertex map is not filled in; that is left to the caller.
+     * @param readAnnotations whether to read the graph builder annotations, if they were written.
+     * @param mappedFile if not null, the file being read mapped into memory, in which case edge geometries and
+     *                   elevation profiles are left in that file rather than read onto the heap.
+     * @param classLoader the class loader for classes in the object stream and serialized names, or null for the
+     *                    default.
+     */
+    @SuppressWarnings("unchecked")
+    static Contents read(InputStream in, boolean readAnnotations, MappedGraphFile mappedFile, ClassLoader classLoader)
+            throws IOException, ClassNotFoundException {
+        CompactGraphReader reader = new CompactGraphReader(Channels.newChannel(in), mappedFile);
+        reader.setClassLoader(classLoader);
+        if (!Arrays.equals(reader.readRawBytes(MAGIC.length), MAGIC)) {
+            throw new IOException("Not a compact graph file.");
+        }
+        int formatVersion = reader.readInt();
+        if (formatVersion != FORMAT_VERSION) {
+            throw new IOException("Compact graph format version " + formatVersion + " is not supported, expected "
+                    + FORMAT_VERSION + ". Please rebuild the graph.");
+        }
+        String version = reader.readString();
+        String commit = reader.readString();
+        LOG.info("Compact graph written by OTP {} (commit {}).", version, commit);
+        if (!version.equals(MavenVersion.VERSION.version)) {
+            // The layout of the edge records may have changed, so do not attempt to decode them.
+            LOG.error("This graph was built with a different version of OTP. Please rebuild it.");
+            throw new RuntimeException("Graph version mismatch detected.");
+        }
+
+        Contents contents = new Contents();
+        int nVertices = reader.readVarInt();
+        contents.vertices = new Vertex[nVertices];
+        for (int i = 0; i < nVertices; i++) {
+            int type = reader.readByte();
+            String label = reader.readString();
+            double x = reader.readDouble();
+            double y = reader.readDouble();
+            I18NString name = reader.readName();
+            int flags = reader.readByte();
+            IntersectionVertex v;
+            if (type == VERTEX_OSM) {
+                v = new OsmVertex(null, label, x, y, reader.readLong(), name);
+            } else if (type == VERTEX_INTERSECTION) {
+                v = new IntersectionVertex(null, label, x, y, name);
+            } else {
+                throw new IOException("Unknown vertex type " + type + " in compact graph file.");
+            }
+            v.trafficLight = (flags & FLAG_TRAFFIC_LIGHT) != 0;
+            v.freeFlowing = (flags & FLAG_FREE_FLOWING) != 0;
+            contents.vertices[i] = v;
+        }
+
+        int nEdges = reader.readVarInt();
+        contents.streetEdges = new StreetEdge[nEdges];
+        for (int i = 0; i < nEdges; i++) {
+            int type = reader.readByte();
+            StreetVertex from = (StreetVertex) contents.vertices[reader.readVarInt()];
+            StreetVertex to = (StreetVertex) contents.vertices[reader.readVarInt()];
+            int id = reader.readVarInt();
+            StreetEdge e;
+            if (type == EDGE_STREET) {
+                e = StreetEdge.readCompact(from, to, reader);
+            } else if (type == EDGE_STREET_WITH_ELEVATION) {
+                e = StreetWithElevationEdge.readCompact(from, to, reader);
+            } else {
+                throw new IOException("Unknown edge type " + type + " in compact graph file.");
+            }
+            ((Edge) e).setId(id); // setId is not visible through the StreetEdge type
+            contents.streetEdges[i] = e;
+        }
+        LOG.debug("Binary sections read: |V|={} |E|={}", nVertices, nEdges);
+
+        ObjectInputStream objectIn = new ResolvingObjectInputStream(reader.remainingInputStream(),
+                contents.vertices, contents.streetEdges, classLoader);
+        contents.graph = (Graph) objectIn.readObject();
+        contents.otherEdges = (List<Edge>) objectIn.readObject();
+        if (readAnnotations && objectIn.readBoolean()) {
+            contents.annotations = (List<GraphBuilderAnnotation>) objectIn.readObject();
+        }
+        return contents;
+    }
+
+    /** Only these exact classes are written as binary records, since their fields are known. */
+    private static boolean isCompactVertex(Vertex v) {
+        return v.getClass() == IntersectionVertex.class || v.getClass() == OsmVertex.class;
+    }
+
+    private static boolean isCompactEdge(Edge e) {
+        return e.getClass() == StreetEdge.class || e.getClass() == StreetWithElevationEdge.class;
+    }
+
+    /** Everything read from a compact graph file. */
+    static class Contents {
+        Graph graph;
+        Vertex[] vertices;
+        StreetEdge[] streetEdges;
+        List<Edge> otherEdges;
+        /** Null unless requested and present in the file. */
+        List<GraphBuilderAnnotation> annotations;
+    }
+
+    /** Stands in for a vertex from the binary section within the object stream. */
+    private static class VertexRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final int index;
+        VertexRef(int index) {
+            this.index = index;
+        }
+    }
+
+    /** Stands in for an edge from the binary section within the object stream. */
+    private static class EdgeRef implements Serializable {
+        private static final long serialVersionUID = 1L;
+        final int index;
+        EdgeRef(int index) {
+            this.index = index;
+        }
+    }
+
+    private static class ReplacingObjectOutputStream extends ObjectOutputStream {
+
+        private final Map<Vertex, Integer> vertexIndex;
+
+        private final Map<Edge, Integer> edgeIndex;
+
+        ReplacingObjectOutputStream(OutputStream out, Map<Vertex, Integer> vertexIndex,
+                                    Map<Edge, Integer> edgeIndex) throws IOException {
+            super(out);
+            this.vertexIndex = vertexIndex;
+            this.edgeIndex = edgeIndex;
+            enableReplaceObject(true);
+        }
+
+        @Override
+        protected Object replaceObject(Object obj) throws IOException {
+            if (obj instanceof Vertex) {
+                Integer index = vertexIndex.get(obj);
+                if (index != null) return new VertexRef(index);
+            } else if (obj instanceof Edge) {
+                Integer index = edgeIndex.get(obj);
+                if (index != null) return new EdgeRef(index);
+            }
+            return obj;
+        }
+    }
+
+    private static class ResolvingObjectInputStream extends Graph.GraphObjectInputStream {
+
+        private final Vertex[] vertices;
+
+        private final Edge[] edges;
+
+        ResolvingObjectInputStream(InputStream in, Vertex[] vertices, Edge[] edges, ClassLoader classLoader)
+                throws IOException {
+            super(in, classLoader);
+            this.vertices = vertices;
+            this.edges = edges;
+            enableResolveObject(true);
+        }
+
+        @Override
+        protected Object resolveObject(Object obj) throws IOException {
+            if (obj instanceof VertexRef) {
+                return vertices[((VertexRef) obj).index];
+            } else if (obj instanceof EdgeRef) {
+                return edges[((EdgeRef) obj).index];
+            }
+            return obj;
+        }
+    }
+
+}
@@ -0,0 +1,198 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import org.opentripplanner.util.I18NString;
+import org.opentripplanner.util.NonLocalizedString;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Encodes primitive values into a buffer that is flushed to an NIO channel, for the compact graph format.
+ * Integers that are usually small are written as variable-length integers (7 bits per byte, high bit set on all
+ * bytes but the last), signed ones after zigzag encoding. Names are deduplicated: each distinct I18NString is written
+ * in full the first time it is seen and by reference afterward, so the reader can decode them in a single pass.
+ *
+ * @see CompactGraphReader for the matching decoder.
+ */
+public class CompactGraphWriter {
+
+    /** Name codes. Codes at or above NAME_REFERENCE refer to the name table: code - NAME_REFERENCE is the index. */
+    static final int NAME_NULL = 0;
+    static final int NAME_NON_LOCALIZED = 1;
+    static final int NAME_SERIALIZED = 2;
+    static final int NAME_REFERENCE = 3;
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final WritableByteChannel channel;
+
+    private final ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+    private final Map<I18NString, Integer> nameTable = new HashMap<>();
+
+    private long bytesWritten = 0;
+
+    public CompactGraphWriter(WritableByteChannel channel) {
+        this.channel = channel;
+    }
+
+    /** Make sure there is room in the buffer for n bytes, flushing it if necessary. n must not exceed BUFFER_SIZE. */
+    private void ensure(int n) throws IOException {
+        if (buffer.remaining() < n) flush();
+    }
+
+    /** Write out everything in the buffer. Must be called before anything else writes to the underlying channel. */
+    public void flush() throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            bytesWritten += channel.write(buffer);
+        }
+        buffer.clear();
+    }
+
+    /** @return the number of bytes flushed to the channel so far. */
+    public long getBytesWritten() {
+        return bytesWritten;
+    }
+
+    public void writeByte(int b) throws IOException {
+        ensure(1);
+        buffer.put((byte) b);
+    }
+
+    public void writeBoolean(boolean b) throws IOException {
+        writeByte(b ? 1 : 0);
+    }
+
+    public void writeInt(int i) throws IOException {
+        ensure(4);
+        buffer.putInt(i);
+    }
+
+    public void writeLong(long l) throws IOException {
+        ensure(8);
+        buffer.putLong(l);
+    }
+
+    public void writeFloat(float f) throws IOException {
+        ensure(4);
+        buffer.putFloat(f);
+    }
+
+    public void writeDouble(double d) throws IOException {
+        ensure(8);
+        buffer.putDouble(d);
+    }
+
+    /** Write a non-negative int in one to five bytes. Negative values are valid but always take five bytes. */
+    public void writeVarInt(int i) throws IOException {
+        ensure(5);
+        while ((i & ~0x7F) != 0) {
+            buffer.put((byte) ((i & 0x7F) | 0x80));
+            i >>>= 7;
+        }
+        buffer.put((byte) i);
+    }
+
+    /** Write an int that may be negative, zigzag encoded so that small magnitudes take few bytes. */
+    public void writeSignedVarInt(int i) throws IOException {
+        writeVarInt((i << 1) ^ (i >> 31));
+    }
+
+    /** Write a non-negative long in one to ten bytes. */
+    public void writeVarLong(long l) throws IOException {
+        ensure(10);
+        while ((l & ~0x7FL) != 0) {
+            buffer.put((byte) ((l & 0x7F) | 0x80));
+            l >>>= 7;
+        }
+        buffer.put((byte) l);
+    }
+
+    /** Write a byte array preceded by its length. */
+    public void writeBytes(byte[] bytes) throws IOException {
+        writeVarInt(bytes.length);
+        writeRawBytes(bytes);
+    }
+
+    /** Write a byte array without its length, e.g. a fixed-size magic number. */
+    public void writeRawBytes(byte[] bytes) throws IOException {
+        int offset = 0;
+        while (offset < bytes.length) {
+            ensure(1);
+            int n = Math.min(buffer.remaining(), bytes.length - offset);
+            buffer.put(bytes, offset, n);
+            offset += n;
+        }
+    }
+
+    /** Write a possibly null byte array. */
+    public void writeNullableBytes(byte[] bytes) throws IOException {
+        writeBoolean(bytes != null);
+        if (bytes != null) writeBytes(bytes);
+    }
+
+    public void writeString(String s) throws IOException {
+        writeBytes(s.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Write a possibly null int array, each element zigzag encoded. Suited to delta-coded arrays. */
+    public void writeSignedVarInts(int[] values) throws IOException {
+        if (values == null) {
+            writeVarInt(0);
+            return;
+        }
+        writeVarInt(values.length + 1);
+        for (int v : values) {
+            writeSignedVarInt(v);
+        }
+    }
+
+    /**
+     * Write a possibly null name. Plain names are written as UTF-8 strings, other implementations of I18NString with
+     * Java serialization. Names that were already written are replaced by their index in the name table.
+     */
+    public void writeName(I18NString name) throws IOException {
+        if (name == null) {
+            writeVarInt(NAME_NULL);
+            return;
+        }
+        Integer index = nameTable.get(name);
+        if (index != null) {
+            writeVarInt(NAME_REFERENCE + index);
+            return;
+        }
+        nameTable.put(name, nameTable.size());
+        if (name instanceof NonLocalizedString) {
+            writeVarInt(NAME_NON_LOCALIZED);
+            writeString(name.toString());
+        } else {
+            writeVarInt(NAME_SERIALIZED);
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+                out.writeObject(name);
+            }
+            writeBytes(bytes.toByteArray());
+        }
+    }
+
+}
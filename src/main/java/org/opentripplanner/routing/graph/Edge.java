@@ -280,4 +280,9 @@ public abstract class Edge implements Serializable {
     	return this.id;
     }
 
+    /** Restore the ID of an edge read from a compact graph file, which does not go through Java deserialization. */
+    void setId(int id) {
+        this.id = id;
+    }
+
 }
@@ -63,6 +63,10 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
 import java.util.*;
 import java.util.concurrent.ConcurrentHashMap;
 import java.util.prefs.Preferences;
@@ -677,21 +681,55 @@ public class Graph implements Serializable {
     public static Graph load(File file, LoadLevel level) throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " ...");
         // cannot use getClassLoader() in static context
-        ObjectInputStream in = new ObjectInputStream(new FileInputStream(file));
-        return load(in, level);
+        return load(new FileInputStream(file), level);
     }
 
     public static Graph load(ClassLoader classLoader, File file, LoadLevel level)
             throws IOException, ClassNotFoundException {
         LOG.info("Reading graph " + file.getAbsolutePath() + " with alternate classloader ...");
-        ObjectInputStream in = new GraphObjectInputStream(new BufferedInputStream(
-                new FileInputStream(file)), classLoader);
-        return load(in, level);
+        BufferedInputStream in = new BufferedInputStream(new FileInputStream(file));
+        if (CompactGraphSerializer.isCompact(in)) {
+            return loadCompact(in, level, new DefaultStreetVertexIndexFactory(), null, classLoader);
+        }
+        return load(new GraphObjectInputStream(in, classLoader), level);
     }
 
+    /** Load a graph in either of the formats in GraphFormat, detecting which one it is. */
     public static Graph load(InputStream is, LoadLevel level) throws ClassNotFoundException,
             IOException {
-        return load(new ObjectInputStream(is), level);
+        return load(is, level, new DefaultStreetVertexIndexFactory());
+    }
+
+    /**
+     * Load a graph, leaving the bulky street data (edge geometries and elevation profiles) in the graph file, which is
+     * mapped into memory and decoded on demand. This reduces the heap needed by each graph, and lets several processes
+     * serving the same file share its pages. Only graphs in the compact format can be loaded this way; others are
+     * loaded entirely onto the heap. The file must not be modified in place while the graph is in use. Graph.save
+     * replaces the file with a new one rather than writing to it, so it is safe to save over a mapped file.
+     */
+    public static Graph loadMapped(File file, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws IOException, ClassNotFoundException {
+        LOG.info("Reading graph " + file.getAbsolutePath() + " with street data mapped into memory ...");
+        try (InputStream in = new BufferedInputStream(new FileInputStream(file))) {
+            if (!CompactGraphSerializer.isCompact(in)) {
+                LOG.warn("Graph is not in the compact format, its street data will be loaded onto the heap.");
+                return load(new ObjectInputStream(in), level, indexFactory);
+            }
+            return loadCompact(in, level, indexFactory, MappedGraphFile.map(file), null);
+        }
+    }
+
+    /**
+     * Load a graph in either of the formats in GraphFormat, detecting which one it is.
+     * The stream is buffered here, so there is no need for the caller to buffer it.
+     */
+    public static Graph load(InputStream is, LoadLevel level, StreetVertexIndexFactory indexFactory)
+            throws ClassNotFoundException, IOException {
+        BufferedInputStream in = new BufferedInputStream(is);
+        if (CompactGraphSerializer.isCompact(in)) {
+            return loadCompact(in, level, indexFactory, null, null);
+        }
+        return load(new ObjectInputStream(in), level, indexFactory);
     }
 
     /**
@@ -780,6 +818,49 @@ public class Graph implements Serializable {
         }
     }
 
+    /** @param classLoader the class loader for the classes in the embedded object stream, or null for the default. */
+    @SuppressWarnings("unchecked")
+    private static Graph loadCompact(InputStream in, LoadLevel level, StreetVertexIndexFactory indexFactory,
+                                     MappedGraphFile mappedFile, ClassLoader classLoader)
+            throws IOException, ClassNotFoundException {
+        try {
+            CompactGraphSerializer.Contents contents =
+                    CompactGraphSerializer.read(in, level == LoadLevel.DEBUG, mappedFile, classLoader);
+            Graph graph = contents.graph;
+            LOG.debug("Basic graph info read.");
+            if (graph.graphVersionMismatch())
+                throw new RuntimeException("Graph version mismatch detected.");
+            if (level == LoadLevel.BASIC)
+                return graph;
+            graph.vertices = new HashMap<String, Vertex>();
+            for (Vertex v : contents.vertices) {
+                graph.vertices.put(v.getLabel(), v);
+            }
+            for (Edge e : contents.otherEdges) {
+                graph.vertices.put(e.getFromVertex().getLabel(), e.getFromVertex());
+                graph.vertices.put(e.getToVertex().getLabel(), e.getToVertex());
+            }
+
+            LOG.info("Main graph read. |V|={} |E|={}", graph.countVertices(), graph.countEdges());
+            graph.index(indexFactory);
+
+            if (level == LoadLevel.FULL) {
+                return graph;
+            }
+
+            if (contents.annotations != null) {
+                graph.graphBuilderAnnotations = contents.annotations;
+                LOG.debug("Debug info read.");
+            } else {
+                LOG.warn("Graph file does not contain debug data.");
+            }
+            return graph;
+        } catch (InvalidClassException ex) {
+            LOG.error("Stored graph is incompatible with this version of OTP, please rebuild it.");
+            throw new IllegalStateException("Stored Graph version error", ex);
+        }
+    }
+
     /**
      * Compares the OTP version number stored in the graph with that of the currently running instance. Logs warnings explaining that mismatched
      * versions can cause problems.
@@ -814,33 +895,39 @@ public class Graph implements Serializable {
     }
 
     public void save(File file) throws IOException {
+        save(file, GraphFormat.JAVA);
+    }
+
+    /**
+     * Save the graph to the given file. The graph is written to a temporary file in the same directory, which then
+     * replaces the given file in a single rename. The original file is never truncated or written in place, so a
+     * server that has it mapped into memory (see loadMapped) keeps reading the old contents until it reloads.
+     */
+    public void save(File file, GraphFormat format) throws IOException {
         LOG.info("Main graph size: |V|={} |E|={}", this.countVertices(), this.countEdges());
-        LOG.info("Writing graph " + file.getAbsolutePath() + " ...");
-        ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
-                new FileOutputStream(file)));
+        LOG.info("Writing graph " + file.getAbsolutePath() + " in " + format + " format ...");
+        File tempFile = File.createTempFile(file.getName(), ".tmp", file.getAbsoluteFile().getParentFile());
         try {
-            save(out);
-            out.close();
-        } catch (RuntimeException e) {
-            out.close();
-            file.delete(); // remove half-written file
+            if (format == GraphFormat.COMPACT) {
+                try (FileChannel channel = new FileOutputStream(tempFile).getChannel()) {
+                    saveCompact(channel);
+                }
+            } else {
+                try (ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(
+                        new FileOutputStream(tempFile)))) {
+                    save(out);
+                }
+            }
+            Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException | RuntimeException e) {
+            tempFile.delete(); // remove half-written file
             throw e;
         }
     }
 
     public void save(ObjectOutputStream out) throws IOException {
-        LOG.debug("Consolidating edges...");
-        // this is not space efficient
-        List<Edge> edges = new ArrayList<Edge>(this.countEdges());
-        for (Vertex v : getVertices()) {
-            // there are assumed to be no edges in an incoming list that are not
-            // in an outgoing list
-            edges.addAll(v.getOutgoing());
-            if (v.getDegreeOut() + v.getDegreeIn() == 0)
-                LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
-        }
-        LOG.debug("Assigning vertex/edge ID numbers...");
-        this.rebuildVertexAndEdgeIndices();
+        List<Edge> edges = consolidateEdges();
         LOG.debug("Writing edges...");
         out.writeObject(this);
         out.writeObject(edges);
@@ -856,8 +943,33 @@ public class Graph implements Serializable {
         LOG.info("Graph written.");
     }
 
+    /** Write this graph in the compact format. The channel is not closed. */
+    public void saveCompact(WritableByteChannel channel) throws IOException {
+        List<Edge> edges = consolidateEdges();
+        LOG.debug("Writing edges...");
+        CompactGraphSerializer.write(this, edges, debugData ? this.graphBuilderAnnotations : null, channel);
+        LOG.info("Graph written.");
+    }
+
+    private List<Edge> consolidateEdges() {
+        LOG.debug("Consolidating edges...");
+        // this is not space efficient
+        List<Edge> edges = new ArrayList<Edge>(this.countEdges());
+        for (Vertex v : getVertices()) {
+            // there are assumed to be no edges in an incoming list that are not
+            // in an outgoing list
+            edges.addAll(v.getOutgoing());
+            if (v.getDegreeOut() + v.getDegreeIn() == 0)
+                LOG.debug("vertex {} has no edges, it will not survive serialization.", v);
+        }
+        LOG.debug("Assigning vertex/edge ID numbers...");
+        this.rebuildVertexAndEdgeIndices();
+        return edges;
+    }
+
     /* deserialization for org.opentripplanner.customize */
-    private static class GraphObjectInputStream extends ObjectInputStream {
+    /** An object stream that finds classes with the given class loader, or as usual if that is null. */
+    static class GraphObjectInputStream extends ObjectInputStream {
         ClassLoader classLoader;
 
         public GraphObjectInputStream(InputStream in, ClassLoader classLoader) throws IOException {
@@ -866,7 +978,10 @@ public class Graph implements Serializable {
         }
 
         @Override
-        public Class<?> resolveClass(ObjectStreamClass osc) {
+        public Class<?> resolveClass(ObjectStreamClass osc) throws IOException, ClassNotFoundException {
+            if (classLoader == null) {
+                return super.resolveClass(osc);
+            }
             try {
                 return Class.forName(osc.getName(), false, classLoader);
             } catch (ClassNotFoundException e) {
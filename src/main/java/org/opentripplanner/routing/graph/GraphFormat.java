@@ -0,0 +1,35 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+/**
+ * The file formats in which a graph can be saved. Loading detects the format from the start of the file, so this
+ * only needs to be chosen when writing.
+ */
+public enum GraphFormat {
+
+    /** The whole graph as a single Java serialization stream. */
+    JAVA,
+
+    /** Street vertices and edges as binary records, followed by Java serialization of everything else. */
+    COMPACT;
+
+    /** @return the format with the given case-insensitive name, or null if there is no such format. */
+    public static GraphFormat forName(String name) {
+        for (GraphFormat format : values()) {
+            if (format.name().equalsIgnoreCase(name)) return format;
+        }
+        return null;
+    }
+}
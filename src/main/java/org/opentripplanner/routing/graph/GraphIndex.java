@@ -1,5 +1,7 @@
 package org.opentripplanner.routing.graph;
 
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
 import com.google.common.collect.ArrayListMultimap;
 import java.util.BitSet;
 import java.util.Collection;
@@ -38,6 +40,7 @@ import org.opentripplanner.index.IndexGraphQLSchema;
 import org.opentripplanner.index.model.StopTimesInPattern;
 import org.opentripplanner.index.model.TripTimeShort;
 import org.opentripplanner.profile.ProfileTransfer;
+import org.opentripplanner.profile.RaptorWorkerData;
 import org.opentripplanner.profile.StopCluster;
 import org.opentripplanner.profile.StopNameNormalizer;
 import org.opentripplanner.profile.StopTreeCache;
@@ -119,6 +122,13 @@ public class GraphIndex {
     /** Store distances from each stop to all nearby street intersections. Useful in speeding up analyst requests. */
     private transient StopTreeCache stopTreeCache = null;
 
+    /**
+     * RAPTOR data without targets for point to point searches (see RaptorPathFinder), for the few service dates
+     * requested most recently.
+     */
+    public final transient Cache<LocalDate, RaptorWorkerData> raptorPathDataForDate =
+            CacheBuilder.newBuilder().maximumSize(7).build();
+
     public GraphIndex (Graph graph) {
         LOG.info("Indexing graph...");
 
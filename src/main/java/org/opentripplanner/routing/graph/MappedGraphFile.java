@@ -0,0 +1,116 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.graph;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * A compact-format graph file mapped read-only into memory, from which bulky street data (edge geometries and
+ * elevation profiles) is decoded on demand rather than being held on the heap. The pages of the file are managed by
+ * the operating system: they are loaded only when touched, can be evicted under memory pressure, and are shared
+ * between all processes serving the same file.
+ *
+ * Values are decoded with absolute reads, so instances may be used by any number of threads at once. The file must
+ * not be modified in place while it is mapped; replace it by writing a new file and renaming it instead.
+ */
+public class MappedGraphFile {
+
+    /** Files are mapped in segments of 1GB, since a single buffer cannot exceed 2GB. */
+    private static final int SEGMENT_BITS = 30;
+
+    private static final long SEGMENT_SIZE = 1L << SEGMENT_BITS;
+
+    private final File file;
+
+    private final MappedByteBuffer[] segments;
+
+    private MappedGraphFile(File file, MappedByteBuffer[] segments) {
+        this.file = file;
+        this.segments = segments;
+    }
+
+    /** Map the whole of the given file into memory. The mapping remains valid after this method returns. */
+    public static MappedGraphFile map(File file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            long length = channel.size();
+            int nSegments = (int) ((length + SEGMENT_SIZE - 1) >>> SEGMENT_BITS);
+            MappedByteBuffer[] segments = new MappedByteBuffer[nSegments];
+            for (int i = 0; i < nSegments; i++) {
+                long start = i * SEGMENT_SIZE;
+                segments[i] = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(SEGMENT_SIZE, length - start));
+            }
+            return new MappedGraphFile(file, segments);
+        }
+    }
+
+    /** Decode an int array written by CompactGraphWriter.writeSignedVarInts at the given position. */
+    public int[] readSignedVarInts(long position) {
+        Decoder decoder = new Decoder(position);
+        int length = decoder.readVarInt() - 1;
+        if (length < 0) return null;
+        int[] values = new int[length];
+        for (int i = 0; i < length; i++) {
+            int v = decoder.readVarInt();
+            values[i] = (v >>> 1) ^ -(v & 1);
+        }
+        return values;
+    }
+
+    /** Decode a byte array written by CompactGraphWriter.writeNullableBytes at the given position. */
+    public byte[] readNullableBytes(long position) {
+        Decoder decoder = new Decoder(position);
+        if (decoder.readByte() == 0) return null;
+        byte[] bytes = new byte[decoder.readVarInt()];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = decoder.readByte();
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString() {
+        return "MappedGraphFile(" + file + ")";
+    }
+
+    /** A read position within the file. Values may straddle segment boundaries. */
+    private class Decoder {
+
+        long position;
+
+        Decoder(long position) {
+            this.position = position;
+        }
+
+        byte readByte() {
+            byte b = segments[(int) (position >>> SEGMENT_BITS)].get((int) (position & (SEGMENT_SIZE - 1)));
+            position++;
+            return b;
+        }
+
+        int readVarInt() {
+            int result = 0;
+            for (int shift = 0; shift < 35; shift += 7) {
+                byte b = readByte();
+                result |= (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) return result;
+            }
+            throw new IllegalStateException("Malformed variable-length integer in " + file);
+        }
+    }
+
+}
@@ -232,6 +232,11 @@ public abstract class Vertex implements Serializable, Cloneable {
         return this.name.toString(locale);
     }
 
+    /** The name of this vertex before localization, for writing it out in the compact graph format. */
+    I18NString getRawName() {
+        return name;
+    }
+
     /* FIELD ACCESSOR METHODS : READ ONLY */
 
     /** Every vertex has a label which is globally unique. */
@@ -14,6 +14,7 @@
 package org.opentripplanner.routing.impl;
 
 import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.onebusaway.gtfs.model.AgencyAndId;
 import org.opentripplanner.api.resource.DebugOutput;
 import org.opentripplanner.common.model.GenericLocation;
@@ -22,6 +23,8 @@ import org.opentripplanner.routing.algorithm.strategies.EuclideanRemainingWeight
 import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.RemainingWeightHeuristic;
 import org.opentripplanner.routing.algorithm.strategies.TrivialRemainingWeightHeuristic;
+import org.opentripplanner.routing.contraction.ContractionHierarchy;
+import org.opentripplanner.routing.contraction.ContractionHierarchySet;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.State;
 import org.opentripplanner.routing.edgetype.LegSwitchingEdge;
@@ -37,6 +40,11 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 import java.util.stream.Collectors;
 
 /**
@@ -108,22 +116,8 @@ public class GraphPathFinder {
         LOG.debug("rreq={}", options);
 
         // Choose an appropriate heuristic for goal direction.
-        RemainingWeightHeuristic heuristic;
-        RemainingWeightHeuristic reversedSearchHeuristic;
-        if (options.disableRemainingWeightHeuristic) {
-            heuristic = new TrivialRemainingWeightHeuristic();
-            reversedSearchHeuristic = new TrivialRemainingWeightHeuristic();
-        } else if (options.modes.isTransit()) {
-            // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
-            // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
-            // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
-            heuristic = new InterleavedBidirectionalHeuristic();
-            reversedSearchHeuristic = new InterleavedBidirectionalHeuristic();
-        } else {
-            heuristic = new EuclideanRemainingWeightHeuristic();
-            reversedSearchHeuristic = new EuclideanRemainingWeightHeuristic();
-        }
-        options.rctx.remainingWeightHeuristic = heuristic;
+        options.rctx.remainingWeightHeuristic = newHeuristic(options);
+        RemainingWeightHeuristic reversedSearchHeuristic = newHeuristic(options);
 
 
         /* In RoutingRequest, maxTransfers defaults to 2. Over long distances, we may see
@@ -144,15 +138,20 @@ public class GraphPathFinder {
         long searchBeginTime = System.currentTimeMillis();
         LOG.debug("BEGIN SEARCH");
         List<GraphPath> paths = Lists.newArrayList();
-        while (paths.size() < options.numItineraries) {
-            // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
-            int timeoutIndex = paths.size();
-            if (timeoutIndex >= router.timeouts.length) {
-                timeoutIndex = router.timeouts.length - 1;
+        if (router.graphVisualizer == null) {
+            List<GraphPath> hierarchyPaths = getPathsFromContractionHierarchy(options);
+            if (hierarchyPaths != null) {
+                LOG.debug("END SEARCH ({} msec)", System.currentTimeMillis() - searchBeginTime);
+                return hierarchyPaths;
             }
-            double timeout = searchBeginTime + (router.timeouts[timeoutIndex] * 1000);
-            timeout -= System.currentTimeMillis(); // Convert from absolute to relative time
-            timeout /= 1000; // Convert milliseconds to seconds
+        }
+        if (router.itinerarySearchExecutor != null && options.numItineraries > 1 && router.graphVisualizer == null) {
+            paths.addAll(getPathsConcurrently(originalReq, options, searchBeginTime));
+            // Any remaining itineraries are searched for serially below, avoiding the trips already found.
+            banTrips(options, paths);
+        }
+        while (paths.size() < options.numItineraries && !options.rctx.aborted) {
+            double timeout = relativeTimeout(paths.size(), searchBeginTime);
             if (timeout <= 0) {
                 // Catch the case where advancing to the next (lower) timeout value means the search is timed out
                 // before it even begins. Passing a negative relative timeout in the SPT call would mean "no timeout".
@@ -176,28 +175,9 @@ public class GraphPathFinder {
             }
 
             // Find all trips used in this path and ban them for the remaining searches
-            for (GraphPath path : newPaths) {
-                // path.dump();
-                List<AgencyAndId> tripIds = path.getTrips();
-                for (AgencyAndId tripId : tripIds) {
-                    options.banTrip(tripId);
-                }
-                if (tripIds.isEmpty()) {
-                    // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
-                    options.onlyTransitTrips = true;
-                }
-            }
+            banTrips(options, newPaths);
 
-            paths.addAll(newPaths.stream()
-                    .filter(path -> {
-                        double duration = options.useRequestedDateTimeInMaxHours
-                            ? options.arriveBy
-                                ? options.dateTime - path.getStartTime()
-                                : path.getEndTime() - options.dateTime
-                            : path.getDuration();
-                        return duration < options.maxHours * 60 * 60;
-                    })
-                    .collect(Collectors.toList()));
+            paths.addAll(filterByMaxHours(options, newPaths));
 
             LOG.debug("we have {} paths", paths.size());
         }
@@ -206,6 +186,205 @@ public class GraphPathFinder {
         return paths;
     }
 
+    /**
+     * Search for the requested number of itineraries concurrently rather than one after the other. Instead of banning
+     * the trips found by earlier searches, search N departs (or arrives, in an arrive-by search) N time steps after
+     * (or before) the requested time. The first search runs on the calling thread and the others on the router's
+     * itinerary search executor. Search N is subject to the Nth timeout, like the Nth serial search, and a search that
+     * has not finished by then is aborted and its paths left out. An exception thrown by any of the searches is
+     * rethrown on the calling thread, after aborting the others. This method only returns once all the searches have
+     * stopped, since they use the temporary vertices of the main request, which the caller destroys afterwards.
+     *
+     * @return the distinct paths found, at most options.numItineraries of them. Paths using the same trips are
+     *         considered duplicates, of which the shortest is kept.
+     */
+    private List<GraphPath> getPathsConcurrently(RoutingRequest originalReq, RoutingRequest options,
+                                                 long searchBeginTime) {
+        List<RoutingRequest> branches = new ArrayList<>();
+        List<Future<List<GraphPath>>> futures = new ArrayList<>();
+        for (int i = 1; i < options.numItineraries; i++) {
+            RoutingRequest branchOptions = options.clone();
+            long offset = (long) i * router.itinerarySearchTimeStep;
+            branchOptions.dateTime += options.arriveBy ? -offset : offset;
+            options.rctx.branch(branchOptions);
+            branchOptions.rctx.remainingWeightHeuristic = newHeuristic(options);
+            final int timeoutIndex = i;
+            try {
+                futures.add(router.itinerarySearchExecutor.submit(() -> searchBranch(originalReq, options,
+                        branchOptions, timeoutIndex, searchBeginTime)));
+                branches.add(branchOptions);
+            } catch (RejectedExecutionException e) {
+                // The router is shutting down, make do with the paths found on this thread.
+                break;
+            }
+        }
+
+        List<List<GraphPath>> branchPaths = new ArrayList<>();
+        try {
+            branchPaths.add(searchBranch(originalReq, options, options, 0, searchBeginTime));
+            for (int i = 0; i < futures.size(); i++) {
+                // Each search gives up on its own timeout, but do not wait for one that fails to notice it.
+                long timeoutMillis = (long) (relativeTimeout(i + 1, searchBeginTime) * 1000);
+                try {
+                    branchPaths.add(futures.get(i).get(Math.max(timeoutMillis, 0), TimeUnit.MILLISECONDS));
+                } catch (TimeoutException e) {
+                    LOG.warn("Concurrent itinerary search {} did not finish before its timeout.", i + 1);
+                } catch (ExecutionException e) {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+                    if (cause instanceof Error) throw (Error) cause;
+                    throw new RuntimeException("Concurrent itinerary search failed.", cause);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    break;
+                }
+            }
+        } finally {
+            // Stop any searches that are still running after a timeout or failure, and wait for them to notice. The
+            // searches do not respond to interruption, so cancelling their futures would not stop them.
+            for (RoutingRequest branchOptions : branches) {
+                branchOptions.rctx.aborted = true;
+            }
+            for (Future<List<GraphPath>> future : futures) {
+                try {
+                    Uninterruptibles.getUninterruptibly(future);
+                } catch (ExecutionException e) {
+                    // Already rethrown if it was the first failure, otherwise superseded by it.
+                }
+            }
+        }
+
+        Map<List<AgencyAndId>, GraphPath> pathsByTrips = new LinkedHashMap<>();
+        for (List<GraphPath> paths : branchPaths) {
+            for (GraphPath path : paths) {
+                List<AgencyAndId> trips = path.getTrips();
+                GraphPath existing = pathsByTrips.get(trips);
+                if (existing == null || path.getDuration() < existing.getDuration()) {
+                    pathsByTrips.put(trips, path);
+                }
+            }
+        }
+        List<GraphPath> paths = new ArrayList<>(pathsByTrips.values());
+        Collections.sort(paths, new PathComparator(options.arriveBy));
+        if (paths.size() > options.numItineraries) {
+            paths = new ArrayList<>(paths.subList(0, options.numItineraries));
+        }
+        LOG.debug("{} concurrent searches found {} distinct paths", branchPaths.size(), paths.size());
+        return paths;
+    }
+
+    /**
+     * Carry out one of the concurrent searches in getPathsConcurrently, using its own AStar instance.
+     * @param options the main request, against which maxHours is checked.
+     * @param branchOptions the request for this search, which may be the main request itself.
+     * @return the paths found, or an empty list if there are none or the search timed out.
+     */
+    private List<GraphPath> searchBranch(RoutingRequest originalReq, RoutingRequest options,
+                                         RoutingRequest branchOptions, int timeoutIndex, long searchBeginTime) {
+        double timeout = relativeTimeout(timeoutIndex, searchBeginTime);
+        if (timeout <= 0) {
+            branchOptions.rctx.aborted = true;
+        }
+        if (branchOptions.rctx.aborted) {
+            return Collections.emptyList(); // timed out or aborted before it started
+        }
+        AStar aStar = new AStar();
+        aStar.getShortestPathTree(branchOptions, timeout);
+        if (branchOptions.rctx.aborted) {
+            return Collections.emptyList();
+        }
+        List<GraphPath> newPaths = aStar.getPathsToTarget();
+        if (!newPaths.isEmpty() && branchOptions.compactLegsByReversedSearch) {
+            newPaths = compactLegsByReversedSearch(aStar, originalReq, branchOptions, newPaths, timeout,
+                    newHeuristic(branchOptions));
+        }
+        return filterByMaxHours(options, newPaths);
+    }
+
+    /**
+     * Search in a contraction hierarchy built for the request's street modes, if there is one and its weights are
+     * valid for this request. Only street-only requests can be answered this way.
+     * @return the shortest path if it satisfies maxHours, or null if the caller should carry out a normal search.
+     */
+    private List<GraphPath> getPathsFromContractionHierarchy(RoutingRequest options) {
+        ContractionHierarchySet hierarchies = router.graph.getService(ContractionHierarchySet.class);
+        if (hierarchies == null) {
+            return null;
+        }
+        ContractionHierarchy hierarchy = hierarchies.getHierarchy(options);
+        if (hierarchy == null) {
+            return null;
+        }
+        GraphPath path = hierarchy.getShortestPath(options);
+        if (path == null) {
+            LOG.debug("No verified path in the contraction hierarchy, falling back on A* search.");
+            return null;
+        }
+        return filterByMaxHours(options, Collections.singletonList(path));
+    }
+
+    /**
+     * Choose an appropriate heuristic for goal direction. Heuristics hold per-search state, so each search needs its
+     * own instance. They may share data through the router's heuristic cache.
+     */
+    private RemainingWeightHeuristic newHeuristic(RoutingRequest options) {
+        if (options.disableRemainingWeightHeuristic) {
+            return new TrivialRemainingWeightHeuristic();
+        } else if (options.modes.isTransit()) {
+            // Only use the BiDi heuristic for transit. It is not very useful for on-street modes.
+            // heuristic = new InterleavedBidirectionalHeuristic(options.rctx.graph);
+            // Use a simplistic heuristic until BiDi heuristic is improved, see #2153
+            return new InterleavedBidirectionalHeuristic(router.heuristicCache);
+        } else {
+            return new EuclideanRemainingWeightHeuristic();
+        }
+    }
+
+    /**
+     * @param searchIndex the number of the search, which selects the applicable router timeout.
+     * @return the time in seconds left before that timeout, relative to the start of the first search.
+     */
+    private double relativeTimeout(int searchIndex, long searchBeginTime) {
+        // TODO pull all this timeout logic into a function near org.opentripplanner.util.DateUtils.absoluteTimeout()
+        int timeoutIndex = searchIndex;
+        if (timeoutIndex >= router.timeouts.length) {
+            timeoutIndex = router.timeouts.length - 1;
+        }
+        double timeout = searchBeginTime + (router.timeouts[timeoutIndex] * 1000);
+        timeout -= System.currentTimeMillis(); // Convert from absolute to relative time
+        timeout /= 1000; // Convert milliseconds to seconds
+        return timeout;
+    }
+
+    /** Ban all trips used in the given paths from subsequent searches using the given options. */
+    private static void banTrips(RoutingRequest options, List<GraphPath> paths) {
+        for (GraphPath path : paths) {
+            // path.dump();
+            List<AgencyAndId> tripIds = path.getTrips();
+            for (AgencyAndId tripId : tripIds) {
+                options.banTrip(tripId);
+            }
+            if (tripIds.isEmpty()) {
+                // This path does not use transit (is entirely on-street). Do not repeatedly find the same one.
+                options.onlyTransitTrips = true;
+            }
+        }
+    }
+
+    /** @return the given paths that do not exceed options.maxHours. */
+    private static List<GraphPath> filterByMaxHours(RoutingRequest options, List<GraphPath> paths) {
+        return paths.stream()
+                .filter(path -> {
+                    double duration = options.useRequestedDateTimeInMaxHours
+                        ? options.arriveBy
+                            ? options.dateTime - path.getStartTime()
+                            : path.getEndTime() - options.dateTime
+                        : path.getDuration();
+                    return duration < options.maxHours * 60 * 60;
+                })
+                .collect(Collectors.toList());
+    }
+
     /**
      * Do a full reversed search to compact the legs of the path.
      *
@@ -54,6 +54,9 @@ public class InputStreamGraphSource implements GraphSource {
 
     private LoadLevel loadLevel;
 
+    /** Whether to leave street data in the memory-mapped graph file, when the graph is read from a file. */
+    private boolean mapStreetData = false;
+
     private Object preEvictMutex = new Boolean(false);
 
     /**
@@ -75,6 +78,18 @@ public class InputStreamGraphSource implements GraphSource {
         return new InputStreamGraphSource(routerId, loadLevel, new FileStreams(path));
     }
 
+    /**
+     * @param mapStreetData If true, street geometries and elevation profiles of graphs in the compact format are
+     *        left in the memory-mapped graph file rather than loaded onto the heap. See Graph.loadMapped.
+     * @return A GraphSource loading graph from the file system under a base path.
+     */
+    public static InputStreamGraphSource newFileGraphSource(String routerId, File path,
+            LoadLevel loadLevel, boolean mapStreetData) {
+        InputStreamGraphSource graphSource = newFileGraphSource(routerId, path, loadLevel);
+        graphSource.mapStreetData = mapStreetData;
+        return graphSource;
+    }
+
     /**
      * @param routerId
      * @param path
@@ -203,21 +218,30 @@ public class InputStreamGraphSource implements GraphSource {
      */
     private Router loadGraph() {
         final Graph newGraph;
-        try (InputStream is = streams.getGraphInputStream()) {
-            LOG.info("Loading graph...");
+        File graphFile = mapStreetData ? streams.getGraphFile() : null;
+        if (graphFile != null) {
+            LOG.info("Loading graph with street data mapped into memory...");
             try {
-                newGraph = Graph.load(new ObjectInputStream(is), loadLevel,
-                        streetVertexIndexFactory);
+                newGraph = Graph.loadMapped(graphFile, loadLevel, streetVertexIndexFactory);
             } catch (Exception ex) {
                 LOG.error("Exception while loading graph '{}'.", routerId, ex);
                 return null;
             }
-
-            newGraph.routerId = (routerId);
-        } catch (IOException e) {
-            LOG.warn("Graph file not found or not openable for routerId '{}': {}", routerId, e);
-            return null;
+        } else {
+            try (InputStream is = streams.getGraphInputStream()) {
+                LOG.info("Loading graph...");
+                try {
+                    newGraph = Graph.load(is, loadLevel, streetVertexIndexFactory);
+                } catch (Exception ex) {
+                    LOG.error("Exception while loading graph '{}'.", routerId, ex);
+                    return null;
+                }
+            } catch (IOException e) {
+                LOG.warn("Graph file not found or not openable for routerId '{}': {}", routerId, e);
+                return null;
+            }
         }
+        newGraph.routerId = (routerId);
 
         // Decorate the graph TODO how are we "decorating" it? This appears to refer to loading its configuration.
         // Even if a config file is not present on disk one could be bundled inside.
@@ -253,6 +277,9 @@ public class InputStreamGraphSource implements GraphSource {
 
         public abstract InputStream getConfigInputStream() throws IOException;
 
+        /** @return the graph file, if the graph is read from a file that can be memory-mapped, otherwise null. */
+        public abstract File getGraphFile();
+
         public abstract long getLastModified();
     }
 
@@ -271,6 +298,11 @@ public class InputStreamGraphSource implements GraphSource {
             return new FileInputStream(graphFile);
         }
 
+        @Override
+        public File getGraphFile() {
+            return new File(path, GRAPH_FILENAME);
+        }
+
         @Override
         public InputStream getConfigInputStream() throws IOException {
             File configFile = new File(path, Router.ROUTER_CONFIG_FILENAME);
@@ -305,6 +337,11 @@ public class InputStreamGraphSource implements GraphSource {
                     .getResourceAsStream(graphFile.getPath());
         }
 
+        @Override
+        public File getGraphFile() {
+            return null;
+        }
+
         @Override
         public InputStream getConfigInputStream() {
             File configFile = new File(path, Router.ROUTER_CONFIG_FILENAME);
@@ -334,6 +371,9 @@ public class InputStreamGraphSource implements GraphSource {
 
         public LoadLevel loadLevel = LoadLevel.FULL;
 
+        /** Leave street data of compact graphs in the memory-mapped graph file, see Graph.loadMapped. */
+        public boolean mapStreetData = false;
+
         public FileFactory(File basePath) {
             this.basePath = basePath;
         }
@@ -341,7 +381,7 @@ public class InputStreamGraphSource implements GraphSource {
         @Override
         public GraphSource createGraphSource(String routerId) {
             return InputStreamGraphSource.newFileGraphSource(routerId, getBasePath(routerId),
-                    loadLevel);
+                    loadLevel, mapStreetData);
         }
 
         @Override
@@ -0,0 +1,300 @@
+/* This program is free software: you can redistribute it and/or
+modify it under the terms of the GNU Lesser General Public License
+as published by the Free Software Foundation, either version 3 of
+the License, or (at your option) any later version.
+
+This program is distributed in the hope that it will be useful,
+but WITHOUT ANY WARRANTY; without even the implied warranty of
+MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+GNU General Public License for more details.
+
+You should have received a copy of the GNU General Public License
+along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.spt;
+
+import gnu.trove.map.TIntIntMap;
+import gnu.trove.map.hash.TIntIntHashMap;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.graph.Vertex;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+
+/**
+ * A ShortestPathTree that stores its states in flat arrays addressed by vertex index rather than in a map from
+ * vertices to lists of states. This avoids hashing vertices and allocating one list per reached vertex on every call
+ * to add(), which dominates allocation in large walk and bike searches.
+ *
+ * For each vertex index there is a head slot. Each slot holds a State and the number of the next slot for the same
+ * vertex, so the states at a vertex form a singly linked list threaded through parallel arrays. The dominance logic
+ * is exactly the same as in the map-based ShortestPathTree.
+ *
+ * The arrays are sized to Vertex.getMaxIndex() and can be large, so they are recycled: when the caller is done with
+ * the tree it should call release(), which clears only the slots that were used and returns the storage to a
+ * per-thread pool for the next search on the same thread. Trees that are never released are simply garbage collected.
+ */
+public class IndexedShortestPathTree extends ShortestPathTree {
+
+    private static final Logger LOG = LoggerFactory.getLogger(IndexedShortestPathTree.class);
+
+    /** Marks the end of a chain of slots, or a vertex that has no states. */
+    private static final int NONE = -1;
+
+    /** At most one idle storage instance is kept per thread. */
+    private static final ThreadLocal<Storage> pool = new ThreadLocal<>();
+
+    private Storage storage;
+
+    public IndexedShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction) {
+        super(options, dominanceFunction, null);
+        storage = pool.get();
+        if (storage == null) {
+            storage = new Storage(Vertex.getMaxIndex());
+        } else {
+            // Take the storage out of the pool so that a nested search on this thread gets its own.
+            pool.remove();
+        }
+    }
+
+    @Override
+    public boolean add(State newState) {
+        Storage st = storage;
+        int vertexIndex = newState.getVertex().getIndex();
+        st.ensureVertexCapacity(vertexIndex);
+
+        // Walk the chain for this vertex, unlinking any states the new one dominates.
+        // Order is important, because in the case of a tie we want to reject the new state.
+        int prev = NONE;
+        int slot = st.head[vertexIndex];
+        while (slot != NONE) {
+            State oldState = st.states[slot];
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, newState))
+                return false;
+            int next = st.next[slot];
+            if (dominanceFunction.betterOrEqualAndComparable(newState, oldState)) {
+                st.states[slot] = null;
+                if (prev == NONE) {
+                    st.head[vertexIndex] = next;
+                } else {
+                    st.next[prev] = next;
+                }
+            } else {
+                prev = slot;
+            }
+            slot = next;
+        }
+
+        // Any states remaining are co-dominant with the new state. Append it to the end of the chain so states are
+        // kept in insertion order, like the map-based implementation.
+        int newSlot = st.newSlot(newState);
+        if (prev == NONE) {
+            if (!st.touched[vertexIndex]) {
+                st.touched[vertexIndex] = true;
+                st.addTouchedVertex(vertexIndex);
+            }
+            st.head[vertexIndex] = newSlot;
+        } else {
+            st.next[prev] = newSlot;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean wouldAdd(State candidate) {
+        int vertexIndex = candidate.getVertex().getIndex();
+        if (vertexIndex >= storage.head.length) return true;
+        for (int slot = storage.head[vertexIndex]; slot != NONE; slot = storage.next[slot]) {
+            if (dominanceFunction.betterOrEqualAndComparable(storage.states[slot], candidate)) return false;
+        }
+        return true;
+    }
+
+    @Override
+    public boolean visit(State state) {
+        int vertexIndex = state.getVertex().getIndex();
+        if (vertexIndex >= storage.head.length) return false;
+        for (int slot = storage.head[vertexIndex]; slot != NONE; slot = storage.next[slot]) {
+            if (storage.states[slot] == state) return true;
+        }
+        return false;
+    }
+
+    @Override
+    public State getState(Vertex dest) {
+        int vertexIndex = dest.getIndex();
+        if (vertexIndex >= storage.head.length) return null;
+        State ret = null;
+        for (int slot = storage.head[vertexIndex]; slot != NONE; slot = storage.next[slot]) {
+            State s = storage.states[slot];
+            if ((ret == null || s.weight < ret.weight) && s.isFinal()) {
+                ret = s;
+            }
+        }
+        return ret;
+    }
+
+    @Override
+    public List<State> getStates(Vertex dest) {
+        int vertexIndex = dest.getIndex();
+        if (vertexIndex >= storage.head.length || storage.head[vertexIndex] == NONE) return null;
+        List<State> ret = new ArrayList<>();
+        for (int slot = storage.head[vertexIndex]; slot != NONE; slot = storage.next[slot]) {
+            ret.add(storage.states[slot]);
+        }
+        return ret;
+    }
+
+    @Override
+    public Set<Vertex> getVertices() {
+        Set<Vertex> vertices = Collections.newSetFromMap(new IdentityHashMap<Vertex, Boolean>());
+        for (int i = 0; i < storage.nTouched; i++) {
+            int slot = storage.head[storage.touchedVertices[i]];
+            if (slot != NONE) vertices.add(storage.states[slot].getVertex());
+        }
+        return vertices;
+    }
+
+    @Override
+    public int getVertexCount() {
+        return storage.nTouched;
+    }
+
+    @Override
+    public Collection<State> getAllStates() {
+        ArrayList<State> allStates = new ArrayList<>();
+        for (int i = 0; i < storage.nTouched; i++) {
+            for (int slot = storage.head[storage.touchedVertices[i]]; slot != NONE; slot = storage.next[slot]) {
+                allStates.add(storage.states[slot]);
+            }
+        }
+        return allStates;
+    }
+
+    @Override
+    public void dump() {
+        TIntIntMap histogram = new TIntIntHashMap();
+        int statesCount = 0;
+        int maxSize = 0;
+        for (int i = 0; i < storage.nTouched; i++) {
+            int size = 0;
+            for (int slot = storage.head[storage.touchedVertices[i]]; slot != NONE; slot = storage.next[slot]) {
+                size++;
+            }
+            histogram.adjustOrPutValue(size, 1, 1);
+            statesCount += size;
+            if (size > maxSize) {
+                maxSize = size;
+            }
+        }
+        LOG.info("SPT: vertices: " + storage.nTouched + " states: total: "
+                + statesCount + " per vertex max: " + maxSize + " avg: "
+                + (statesCount * 1.0 / storage.nTouched) + " slots used: " + storage.nSlots);
+        int[] nStates = histogram.keys();
+        Arrays.sort(nStates);
+        for (int nState : nStates) {
+            LOG.info(nState + " states: " + histogram.get(nState) + " vertices.");
+        }
+    }
+
+    /**
+     * Clear the slots used by this tree and return its storage to the pool for the current thread. This tree must not
+     * be used afterward. Calling this method more than once has no effect.
+     */
+    @Override
+    public void release() {
+        if (storage == null) return;
+        storage.clear();
+        if (pool.get() == null) {
+            pool.set(storage);
+        }
+        storage = null;
+    }
+
+    @Override
+    public String toString() {
+        if (storage == null) return "IndexedShortestPathTree(released)";
+        return "IndexedShortestPathTree(" + storage.nTouched + " vertices)";
+    }
+
+    /**
+     * The recyclable arrays backing an IndexedShortestPathTree. The per-vertex arrays are indexed by vertex index,
+     * the per-slot arrays by slot number. Slots are never reused within a search, so the number of slots is the total
+     * number of states ever added to the tree.
+     */
+    private static class Storage {
+
+        /** The first slot for each vertex index, or NONE. */
+        int[] head;
+
+        /** Whether each vertex index has ever received a state, so it is listed once in touchedVertices. */
+        boolean[] touched;
+
+        /** The state in each slot, or null if that state has been dominated. */
+        State[] states;
+
+        /** The next slot for the same vertex, or NONE. */
+        int[] next;
+
+        int nSlots = 0;
+
+        /** The vertex indexes that have received states, in the order they were first reached. */
+        int[] touchedVertices;
+
+        int nTouched = 0;
+
+        Storage (int nVertices) {
+            nVertices = Math.max(nVertices, 16);
+            head = new int[nVertices];
+            Arrays.fill(head, NONE);
+            touched = new boolean[nVertices];
+            int initialSlots = 64;
+            states = new State[initialSlots];
+            next = new int[initialSlots];
+            touchedVertices = new int[initialSlots];
+        }
+
+        /** Vertices may be created after the tree (e.g. temporary vertices), so the vertex arrays grow on demand. */
+        void ensureVertexCapacity (int vertexIndex) {
+            if (vertexIndex < head.length) return;
+            int oldLength = head.length;
+            int newLength = Math.max(vertexIndex + 1, oldLength + (oldLength >> 1));
+            head = Arrays.copyOf(head, newLength);
+            Arrays.fill(head, oldLength, newLength, NONE);
+            touched = Arrays.copyOf(touched, newLength);
+        }
+
+        int newSlot (State state) {
+            if (nSlots == states.length) {
+                int newLength = states.length * 2;
+                states = Arrays.copyOf(states, newLength);
+                next = Arrays.copyOf(next, newLength);
+            }
+            states[nSlots] = state;
+            next[nSlots] = NONE;
+            return nSlots++;
+        }
+
+        void addTouchedVertex (int vertexIndex) {
+            if (nTouched == touchedVertices.length) {
+                touchedVertices = Arrays.copyOf(touchedVertices, nTouched * 2);
+            }
+            touchedVertices[nTouched++] = vertexIndex;
+        }
+
+        /** Reset only the entries that were used, which is much cheaper than refilling the vertex arrays. */
+        void clear () {
+            for (int i = 0; i < nTouched; i++) {
+                int v = touchedVertices[i];
+                head[v] = NONE;
+                touched[v] = false;
+            }
+            Arrays.fill(states, 0, nSlots, null);
+            nTouched = 0;
+            nSlots = 0;
+        }
+    }
+
+}
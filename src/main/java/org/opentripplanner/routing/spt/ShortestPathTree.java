@@ -47,9 +47,18 @@ public class ShortestPathTree {
     private Map<Vertex, List<State>> stateSets;
 
     public ShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction) {
+        this(options, dominanceFunction, new IdentityHashMap<Vertex, List<State>>());
+    }
+
+    /**
+     * Allows subclasses that keep their states in some other structure to skip allocating the state map.
+     * Such subclasses must override every method that reads or writes the map.
+     */
+    protected ShortestPathTree (RoutingRequest options, DominanceFunction dominanceFunction,
+            Map<Vertex, List<State>> stateSets) {
         this.options = options;
         this.dominanceFunction = dominanceFunction;
-        stateSets = new IdentityHashMap<Vertex, List<State>>();
+        this.stateSets = stateSets;
     }
 
     /** @return a list of GraphPaths, sometimes empty but never null. */
@@ -152,6 +161,23 @@ public class ShortestPathTree {
         return true;
     }
 
+    /**
+     * Check whether add() would accept the given state, without modifying the tree. This allows a search to avoid
+     * allocating a state that would be immediately rejected.
+     *
+     * @param candidate a state that is not (and may never be) in the tree
+     * @return true if no state already in the tree dominates the candidate
+     */
+    public boolean wouldAdd(State candidate) {
+        List<State> states = stateSets.get(candidate.getVertex());
+        if (states == null) return true;
+        for (State oldState : states) {
+            if (dominanceFunction.betterOrEqualAndComparable(oldState, candidate))
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Returns the 'best' state for the given Vertex, where 'best' depends on the implementation.
      *
@@ -233,6 +259,13 @@ public class ShortestPathTree {
         return allStates;
     }
 
+    /**
+     * Signal that the caller is done reading from this tree, allowing implementations to recycle their storage.
+     * The tree must not be queried after calling this method, though States already retrieved from it remain valid.
+     * Does nothing by default.
+     */
+    public void release() { }
+
     public String toString() {
         return "ShortestPathTree(" + this.stateSets.size() + " vertices)";
     }
@@ -4,6 +4,7 @@ import com.beust.jcommander.IParameterValidator;
 import com.beust.jcommander.Parameter;
 import com.beust.jcommander.ParameterException;
 import jersey.repackaged.com.google.common.collect.Lists;
+import org.opentripplanner.routing.graph.GraphFormat;
 import org.opentripplanner.routing.services.GraphService;
 
 import java.io.File;
@@ -57,6 +58,10 @@ public class CommandLineParameters implements Cloneable {
             description = "The directory under which to cache OSM and NED tiles. Default is BASE_PATH/cache.")
     public File cacheDirectory;
 
+    @Parameter(names = {"--graphFormat"}, validateWith = GraphFormatName.class,
+            description = "File format in which to save built graphs: java or compact. Both formats are loaded.")
+    public String graphFormat = "java";
+
     @Parameter(names = {"--inMemory"},
             description = "Pass the graph to the server in-memory after building it, without saving to disk.")
     public boolean inMemory;
@@ -100,6 +105,11 @@ public class CommandLineParameters implements Cloneable {
             description = "Path to directory containing graphs. Defaults to BASE_PATH/graphs.")
     public File graphDirectory;
 
+    @Parameter(names = {"--mapStreetData"},
+            description = "Leave street geometries and elevation profiles of graphs saved in the compact format in the "
+                    + "memory-mapped graph file instead of loading them onto the heap.")
+    public boolean mapStreetData = false;
+
     @Parameter(names = {"--pointSets"}, validateWith = ReadableDirectory.class,
             description = "Path to directory containing PointSets. Defaults to BASE_PATH/pointsets.")
     public File pointSetDirectory;
@@ -268,5 +278,14 @@ public class CommandLineParameters implements Cloneable {
             }
         }
     }
-}
 
+    public static class GraphFormatName implements IParameterValidator {
+        @Override
+        public void validate(String name, String value) throws ParameterException {
+            if (GraphFormat.forName(value) == null) {
+                String msg = String.format("%s: '%s' is not a graph format (java or compact).", name, value);
+                throw new ParameterException(msg);
+            }
+        }
+    }
+}
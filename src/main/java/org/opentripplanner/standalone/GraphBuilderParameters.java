@@ -7,6 +7,9 @@ import org.opentripplanner.routing.services.FareServiceFactory;
 
 import com.fasterxml.jackson.databind.JsonNode;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * These are parameters that when changed, necessitate a Graph rebuild.
  * They are distinct from the RouterParameters which can be applied to a pre-built graph or on the fly at runtime.
@@ -93,6 +96,12 @@ public class GraphBuilderParameters {
     /** If specified, download NED elevation tiles from the given AWS S3 bucket. */
     public final S3BucketConfig elevationBucket;
 
+    /**
+     * Keep the elevations sampled for each street edge in a file in the graph directory, so that edges that have not
+     * changed are not sampled again on the next build. The file must be deleted if the elevation data changes.
+     */
+    public final boolean elevationCache;
+
     /**
      * A specific fares service to use.
      */
@@ -157,6 +166,25 @@ public class GraphBuilderParameters {
      */
     public final double maxTransferDistance;
 
+    /**
+     * Street modes to build contraction hierarchies for, speeding up street-only searches. Each entry is a
+     * comma-separated set of modes, optionally followed by a colon and an optimization type, e.g. "CAR" or
+     * "BICYCLE:SAFE". None are built by default.
+     */
+    public final List<String> contractionHierarchies = new ArrayList<>();
+
+    /**
+     * Keep untagged OSM nodes as bare coordinates while loading OSM, which takes less than half the memory of the
+     * default store at the cost of a slightly slower street graph build. Useful for country-sized extracts.
+     */
+    public final boolean compactOsmNodeStore;
+
+    /**
+     * When loading OSM PBF files, keep the ways decoded while reading relations instead of decoding them again. This
+     * makes loading faster but holds all the ways in the file in memory at once, so it is off by default.
+     */
+    public final boolean osmCacheWays;
+
     /**
      * Set all parameters from the given Jackson JSON tree, applying defaults.
      * Supplying MissingNode.getInstance() will cause all the defaults to be applied.
@@ -177,6 +205,7 @@ public class GraphBuilderParameters {
         matchBusRoutesToStreets = config.path("matchBusRoutesToStreets").asBoolean(false);
         fetchElevationUS = config.path("fetchElevationUS").asBoolean(false);
         elevationBucket = S3BucketConfig.fromConfig(config.path("elevationBucket"));
+        elevationCache = config.path("elevationCache").asBoolean(false);
         fareServiceFactory = DefaultFareServiceFactory.fromConfig(config.path("fares"));
         customNamer = CustomNamer.CustomNamerFactory.fromConfig(config.path("osmNaming"));
         wayPropertySet = WayPropertySetSource.fromConfig(config.path("osmWayPropertySet").asText("default"));
@@ -190,6 +219,11 @@ public class GraphBuilderParameters {
         banDiscouragedWalking = config.path("banDiscouragedWalking").asBoolean(false);
         banDiscouragedBiking = config.path("banDiscouragedBiking").asBoolean(false);
         maxTransferDistance = config.path("maxTransferDistance").asDouble(2000);
+        compactOsmNodeStore = config.path("compactOsmNodeStore").asBoolean(false);
+        osmCacheWays = config.path("osmCacheWays").asBoolean(false);
+        for (JsonNode hierarchy : config.path("contractionHierarchies")) {
+            contractionHierarchies.add(hierarchy.asText());
+        }
     }
 
 }
@@ -183,6 +183,7 @@ public class OTPMain {
         graphService = new GraphService(params.autoReload);
         InputStreamGraphSource.FileFactory graphSourceFactory =
                 new InputStreamGraphSource.FileFactory(params.graphDirectory);
+        graphSourceFactory.mapStreetData = params.mapStreetData;
         graphService.graphSourceFactory = graphSourceFactory;
         if (params.graphDirectory != null) {
             graphSourceFactory.basePath = params.graphDirectory;
@@ -7,10 +7,12 @@ import ch.qos.logback.classic.encoder.PatternLayoutEncoder;
 import ch.qos.logback.classic.spi.ILoggingEvent;
 import ch.qos.logback.core.FileAppender;
 import com.fasterxml.jackson.databind.JsonNode;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
 import org.opentripplanner.analyst.request.*;
 import org.opentripplanner.analyst.scenario.ScenarioStore;
 import org.opentripplanner.inspector.TileRendererManager;
 import org.opentripplanner.reflect.ReflectiveInitializer;
+import org.opentripplanner.routing.algorithm.strategies.HeuristicCache;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.graph.Graph;
@@ -21,6 +23,8 @@ import org.opentripplanner.visualizer.GraphVisualizer;
 import org.slf4j.LoggerFactory;
 
 import java.util.EnumMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 /**
  * Represents the configuration of a single router (a single graph for a specific geographic area)
@@ -36,6 +40,21 @@ public class Router {
     public Graph graph;
     public double[] timeouts = {5, 4, 2};
 
+    /**
+     * If not null, requests for several itineraries search for them concurrently on this executor, rather than one
+     * after another. Configured with "itinerarySearchThreads".
+     */
+    public ExecutorService itinerarySearchExecutor = null;
+
+    /** The offset in seconds between the departure (or arrival) times of concurrent itinerary searches. */
+    public int itinerarySearchTimeStep = 600;
+
+    /**
+     * If not null, the target side of the goal direction heuristic for transit searches is kept in this cache and
+     * reused by later requests towards the same destination. Configured with "heuristicCacheSize".
+     */
+    public HeuristicCache heuristicCache = null;
+
     /**
      *  Separate logger for incoming requests. This should be handled with a Logback logger rather than something
      *  simple like a PrintStream because requests come in multi-threaded.
@@ -126,6 +145,36 @@ public class Router {
         }
         LOG.info("Timeouts for router '{}': {}", this.id, this.timeouts);
 
+        /* Concurrent itinerary searches, off by default. */
+        JsonNode itinerarySearchThreads = config.get("itinerarySearchThreads");
+        if (itinerarySearchThreads != null) {
+            if (itinerarySearchThreads.isInt() && itinerarySearchThreads.intValue() > 0) {
+                this.itinerarySearchExecutor = Executors.newFixedThreadPool(itinerarySearchThreads.intValue(),
+                        new ThreadFactoryBuilder().setNameFormat("ItinerarySearch-" + this.id + "-%d")
+                                .setDaemon(true).build());
+                LOG.info("Router '{}' will search for itineraries on {} threads.", this.id,
+                        itinerarySearchThreads.intValue());
+            } else {
+                LOG.error("The 'itinerarySearchThreads' configuration option should be a positive integer.");
+            }
+        }
+        JsonNode itinerarySearchTimeStep = config.get("itinerarySearchTimeStep");
+        if (itinerarySearchTimeStep != null) {
+            this.itinerarySearchTimeStep = itinerarySearchTimeStep.asInt(this.itinerarySearchTimeStep);
+        }
+
+        /* Caching of goal direction heuristics between requests, off by default. */
+        JsonNode heuristicCacheSize = config.get("heuristicCacheSize");
+        if (heuristicCacheSize != null) {
+            if (heuristicCacheSize.isInt() && heuristicCacheSize.intValue() > 0) {
+                this.heuristicCache = new HeuristicCache(heuristicCacheSize.intValue());
+                LOG.info("Router '{}' will cache the heuristics for up to {} destinations.", this.id,
+                        heuristicCacheSize.intValue());
+            } else {
+                LOG.error("The 'heuristicCacheSize' configuration option should be a positive integer.");
+            }
+        }
+
         JsonNode requestLogFile = config.get("requestLogFile");
         if (requestLogFile != null) {
             this.requestLogger = createLogger(requestLogFile.asText());
@@ -179,6 +228,12 @@ public class Router {
     /** Shut down this router when evicted or (auto-)reloaded. Stop any real-time updater threads. */
     public void shutdown() {
         GraphUpdaterConfigurator.shutdownGraph(this.graph);
+        if (itinerarySearchExecutor != null) {
+            itinerarySearchExecutor.shutdown();
+        }
+        if (heuristicCache != null) {
+            heuristicCache.clear();
+        }
     }
 
     /**
@@ -0,0 +1,144 @@
+package org.opentripplanner.analyst.broker;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.config.RequestConfig;
+import org.apache.http.client.methods.HttpDelete;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.opentripplanner.analyst.cluster.AnalystWorker;
+import org.opentripplanner.analyst.cluster.JobSimulator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * This test is not an automatic unit test. It is a load test that must be started manually. It starts up a broker,
+ * then for each of several numbers of workers it submits a job with JobSimulator and measures how many tasks per
+ * second the broker delivers. The workers are simulated: they mark each task completed as soon as they receive it,
+ * so the throughput measured is that of the broker alone.
+ */
+public class BrokerLoadTest {
+
+    private static final Logger LOG = LoggerFactory.getLogger(BrokerLoadTest.class);
+    static final String BROKER_URL = "http://localhost:9001";
+    static final int N_TASKS = 20000;
+    static final int[] N_WORKERS = { 1, 10, 50, 100, 200 };
+
+    public static void main(String[] params) throws Exception {
+
+        // Start a broker in a new thread.
+        Properties brokerConfig = new Properties();
+        brokerConfig.setProperty("graphs-bucket", "FAKE");
+        brokerConfig.setProperty("pointsets-bucket", "FAKE");
+        brokerConfig.setProperty("work-offline", "true");
+        BrokerMain brokerMain = new BrokerMain(brokerConfig);
+        Thread brokerThread = new Thread(brokerMain);
+        brokerThread.start();
+        Thread.sleep(2000); // give the broker time to start listening
+
+        List<String> results = new ArrayList<>();
+        for (int nWorkers : N_WORKERS) {
+            PoolingHttpClientConnectionManager mgr = new PoolingHttpClientConnectionManager();
+            mgr.setDefaultMaxPerRoute(nWorkers * 2);
+            mgr.setMaxTotal(nWorkers * 2);
+            // Time out long polls so that the workers notice when they are stopped.
+            RequestConfig requestConfig = RequestConfig.custom().setSocketTimeout(5000).build();
+            CloseableHttpClient httpClient = HttpClients.custom()
+                    .setConnectionManager(mgr)
+                    .setDefaultRequestConfig(requestConfig)
+                    .build();
+
+            // Start some workers.
+            List<SimulatedWorker> workers = new ArrayList<>();
+            List<Thread> workerThreads = new ArrayList<>();
+            for (int i = 0; i < nWorkers; i++) {
+                SimulatedWorker worker = new SimulatedWorker("worker-" + nWorkers + "-" + i, httpClient);
+                Thread workerThread = new Thread(worker);
+                workers.add(worker);
+                workerThreads.add(workerThread);
+                workerThread.start();
+            }
+
+            // Feed some work to the broker.
+            JobSimulator jobSimulator = new JobSimulator();
+            jobSimulator.nOrigins = N_TASKS;
+            jobSimulator.graphId = "GRAPH";
+            long startTime = System.currentTimeMillis();
+            String jobId = jobSimulator.sendFakeJob();
+
+            // Wait for all tasks to be marked finished
+            Job job;
+            while ((job = brokerMain.broker.findJob(jobId)) == null || !job.isComplete()) {
+                Thread.sleep(100);
+            }
+            double seconds = (System.currentTimeMillis() - startTime) / 1000.0;
+            String result = String.format("%d workers: %d tasks in %.1f sec, %.0f tasks/sec",
+                    nWorkers, N_TASKS, seconds, N_TASKS / seconds);
+            LOG.info(result);
+            results.add(result);
+
+            // Stop the workers. Closing their connections removes any long polls they have waiting on the broker.
+            workers.forEach(w -> w.running = false);
+            httpClient.close();
+            for (Thread workerThread : workerThreads) {
+                workerThread.join();
+            }
+        }
+
+        results.forEach(LOG::info);
+        System.exit(0);
+    }
+
+    /** A worker that marks every task it receives completed straight away. */
+    private static class SimulatedWorker implements Runnable {
+
+        private static final ObjectMapper mapper = new ObjectMapper();
+
+        final String workerId;
+
+        final CloseableHttpClient httpClient;
+
+        volatile boolean running = true;
+
+        SimulatedWorker (String workerId, CloseableHttpClient httpClient) {
+            this.workerId = workerId;
+            this.httpClient = httpClient;
+        }
+
+        @Override
+        public void run() {
+            while (running) {
+                HttpPost httpPost = new HttpPost(BROKER_URL + "/dequeue/GRAPH");
+                httpPost.setHeader(AnalystWorker.WORKER_ID_HEADER, workerId);
+                try {
+                    HttpResponse response = httpClient.execute(httpPost);
+                    HttpEntity entity = response.getEntity();
+                    if (response.getStatusLine().getStatusCode() != 200) {
+                        EntityUtils.consumeQuietly(entity);
+                        continue;
+                    }
+                    // Only the task IDs are needed, don't bother deserializing whole requests.
+                    JsonNode tasks = mapper.readTree(entity.getContent());
+                    EntityUtils.consumeQuietly(entity);
+                    for (JsonNode task : tasks) {
+                        HttpDelete httpDelete = new HttpDelete(BROKER_URL + "/tasks/" + task.get("taskId").asInt());
+                        EntityUtils.consumeQuietly(httpClient.execute(httpDelete).getEntity());
+                    }
+                } catch (IOException | IllegalStateException e) {
+                    // Long poll timed out, or the client was closed because the test is over.
+                }
+            }
+        }
+    }
+
+}
@@ -0,0 +1,82 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+import org.opentripplanner.profile.ProfileRequest;
+import org.opentripplanner.routing.core.TraverseModeSet;
+
+import java.util.ArrayList;
+import java.util.List;
+
+public class BatchTaskBufferTest extends TestCase {
+
+    /** The number of tasks the broker hands out per poll (Broker.MAX_TASKS_PER_WORKER). */
+    private static final int TASKS_PER_POLL = 8;
+
+    private static final int N_PROCESSORS = 16;
+
+    /** The width in points of the grid of origins, whose tasks are handed out row by row. */
+    private static final int GRID_WIDTH = 100;
+
+    /**
+     * On a worker with more processors than tasks per poll, tasks should be collected over several polls and searched
+     * in blocks of several nearby origins.
+     */
+    public void testBlocksOfSeveralOrigins() {
+        BatchTaskBuffer buffer = new BatchTaskBuffer(N_PROCESSORS);
+        int nextTask = 0;
+        int nPolls = 0;
+        // The scheduler still has work, so the worker keeps polling.
+        while (!buffer.isReady(N_PROCESSORS)) {
+            buffer.add(poll(nextTask));
+            nextTask += TASKS_PER_POLL;
+            nPolls++;
+        }
+        assertEquals(N_PROCESSORS * BatchTaskBuffer.TARGET_ORIGINS_PER_BLOCK / TASKS_PER_POLL, nPolls);
+
+        List<List<AnalystClusterRequest>> blocks = buffer.drain();
+        assertTrue(buffer.isEmpty());
+        assertEquals(N_PROCESSORS, blocks.size());
+        for (List<AnalystClusterRequest> block : blocks) {
+            assertEquals(BatchTaskBuffer.TARGET_ORIGINS_PER_BLOCK, block.size());
+            // The origins of a block are close together, within a few points of each other.
+            double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
+            double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+            for (AnalystClusterRequest task : block) {
+                minLat = Math.min(minLat, task.profileRequest.fromLat);
+                maxLat = Math.max(maxLat, task.profileRequest.fromLat);
+                minLon = Math.min(minLon, task.profileRequest.fromLon);
+                maxLon = Math.max(maxLon, task.profileRequest.fromLon);
+            }
+            assertTrue(maxLat - minLat < 0.0015);
+            assertTrue(maxLon - minLon < 0.0085);
+        }
+    }
+
+    /** When the scheduler runs out of work, the tasks collected so far should be scheduled without waiting for more. */
+    public void testReadyWhenSchedulerIsEmpty() {
+        BatchTaskBuffer buffer = new BatchTaskBuffer(N_PROCESSORS);
+        assertFalse(buffer.isReady(0));
+        buffer.add(poll(0));
+        assertFalse(buffer.isReady(1));
+        assertTrue(buffer.isReady(0));
+        List<List<AnalystClusterRequest>> blocks = buffer.drain();
+        assertEquals(TASKS_PER_POLL, blocks.size());
+    }
+
+    /** The tasks of one poll: consecutive points of a grid of origins, spaced 0.001 degrees apart. */
+    private static List<AnalystClusterRequest> poll(int firstTask) {
+        List<AnalystClusterRequest> tasks = new ArrayList<>();
+        for (int i = firstTask; i < firstTask + TASKS_PER_POLL; i++) {
+            ProfileRequest req = new ProfileRequest();
+            req.fromLat = 39.9 + (i / GRID_WIDTH) * 0.001;
+            req.fromLon = -83.1 + (i % GRID_WIDTH) * 0.001;
+            req.transitModes = new TraverseModeSet("TRANSIT");
+            AnalystClusterRequest task = new AnalystClusterRequest("destinations", "graph", req);
+            task.jobId = "job";
+            task.taskId = i;
+            task.outputLocation = "bucket";
+            tasks.add(task);
+        }
+        return tasks;
+    }
+}
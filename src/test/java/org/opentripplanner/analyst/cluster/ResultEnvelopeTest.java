@@ -0,0 +1,93 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+import org.opentripplanner.analyst.Histogram;
+import org.opentripplanner.analyst.ResultSet;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ResultEnvelopeTest extends TestCase {
+
+    /** A result envelope read back from its binary form should hold the same results. */
+    public void testBinaryRoundTrip() throws IOException {
+        Random random = new Random(42);
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.profile = true;
+        envelope.jobId = "job";
+        envelope.id = "origin";
+        envelope.bestCase = makeResultSet(random);
+        envelope.avgCase = makeResultSet(random);
+        envelope.worstCase = makeResultSet(random);
+        envelope.worstCase.times = null;
+        assertTrue(envelope.canWriteBinary());
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        envelope.writeBinary(bytes);
+        ResultEnvelope read = ResultEnvelope.readBinary(new ByteArrayInputStream(bytes.toByteArray()));
+
+        assertTrue(read.profile);
+        assertEquals("job", read.jobId);
+        assertEquals("origin", read.id);
+        assertNull(read.destinationPointsetId);
+        assertNull(read.pointEstimate);
+        assertNull(read.spread);
+        for (ResultEnvelope.Which which : new ResultEnvelope.Which[] {
+                ResultEnvelope.Which.BEST_CASE, ResultEnvelope.Which.AVERAGE, ResultEnvelope.Which.WORST_CASE }) {
+            ResultSet expected = envelope.get(which);
+            ResultSet actual = read.get(which);
+            assertEquals(expected.id, actual.id);
+            assertTrue(Arrays.equals(expected.times, actual.times));
+            assertEquals(expected.histograms.keySet(), actual.histograms.keySet());
+            for (String key : expected.histograms.keySet()) {
+                assertTrue(Arrays.equals(expected.histograms.get(key).counts, actual.histograms.get(key).counts));
+                assertTrue(Arrays.equals(expected.histograms.get(key).sums, actual.histograms.get(key).sums));
+            }
+        }
+    }
+
+    /** Times that vary smoothly should take about a byte each. */
+    public void testBinaryIsCompact() throws IOException {
+        ResultSet resultSet = new ResultSet();
+        resultSet.times = new int[10000];
+        for (int i = 0; i < resultSet.times.length; i++) {
+            resultSet.times[i] = i % 100 == 0 ? Integer.MAX_VALUE : 1800 + (i % 100) * 5;
+        }
+        ResultEnvelope envelope = new ResultEnvelope();
+        envelope.pointEstimate = resultSet;
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        envelope.writeBinary(bytes);
+        assertTrue(bytes.size() < resultSet.times.length * 3 / 2);
+        ResultEnvelope read = ResultEnvelope.readBinary(new ByteArrayInputStream(bytes.toByteArray()));
+        assertTrue(Arrays.equals(resultSet.times, read.pointEstimate.times));
+    }
+
+    private static ResultSet makeResultSet(Random random) {
+        ResultSet resultSet = new ResultSet();
+        resultSet.id = "pointset_" + random.nextInt();
+        resultSet.times = new int[1000];
+        for (int i = 0; i < resultSet.times.length; i++) {
+            // include values that need every length of encoding
+            switch (random.nextInt(4)) {
+                case 0: resultSet.times[i] = Integer.MAX_VALUE; break;
+                case 1: resultSet.times[i] = random.nextInt(); break;
+                default: resultSet.times[i] = random.nextInt(7200);
+            }
+        }
+        for (String key : new String[] { "jobs", "workers" }) {
+            Histogram histogram = new Histogram();
+            histogram.counts = new int[120];
+            histogram.sums = new int[120];
+            for (int i = 1; i < 120; i++) {
+                histogram.counts[i] = histogram.counts[i - 1] + random.nextInt(100);
+                histogram.sums[i] = histogram.sums[i - 1] + random.nextInt(100000);
+            }
+            resultSet.histograms.put(key, histogram);
+        }
+        return resultSet;
+    }
+}
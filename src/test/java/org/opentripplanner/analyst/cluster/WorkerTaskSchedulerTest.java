@@ -0,0 +1,88 @@
+package org.opentripplanner.analyst.cluster;
+
+import junit.framework.TestCase;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WorkerTaskSchedulerTest extends TestCase {
+
+    /** Tasks queued behind a long task should be stolen by another thread rather than wait for it. */
+    public void testWorkStealing() throws InterruptedException {
+        WorkerTaskScheduler scheduler = new WorkerTaskScheduler(2, 2);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch done = new CountDownLatch(3);
+        scheduler.submitBatch(queueWait -> {
+            await(release);
+            done.countDown();
+        });
+        scheduler.submitBatch(queueWait -> done.countDown());
+        scheduler.submitBatch(queueWait -> done.countDown());
+
+        // the two short tasks finish while the long one is still running
+        for (int i = 0; i < 100 && done.getCount() > 1; i++) {
+            Thread.sleep(10);
+        }
+        assertEquals(1, done.getCount());
+        release.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+    }
+
+    /** A high-priority task should not wait for batch tasks, whether they are running or queued. */
+    public void testHighPriorityPreemptsBatch() throws InterruptedException {
+        WorkerTaskScheduler scheduler = new WorkerTaskScheduler(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch batchDone = new CountDownLatch(2);
+        for (int i = 0; i < 2; i++) {
+            scheduler.submitBatch(queueWait -> {
+                await(release);
+                batchDone.countDown();
+            });
+        }
+
+        CountDownLatch highPriorityDone = new CountDownLatch(1);
+        scheduler.submitHighPriority(queueWait -> highPriorityDone.countDown());
+        assertTrue(highPriorityDone.await(1, TimeUnit.SECONDS));
+        assertEquals(2, batchDone.getCount());
+
+        release.countDown();
+        assertTrue(batchDone.await(1, TimeUnit.SECONDS));
+        scheduler.awaitCapacity();
+        assertEquals(0, scheduler.getBufferedBatchTaskCount());
+    }
+
+    /** When all threads are busy, high-priority tasks should queue for a bounded set of threads, not spawn more. */
+    public void testHighPriorityThreadsAreBounded() throws InterruptedException {
+        WorkerTaskScheduler scheduler = new WorkerTaskScheduler(1, 1);
+        CountDownLatch release = new CountDownLatch(1);
+        CountDownLatch started = new CountDownLatch(4);
+        CountDownLatch done = new CountDownLatch(4);
+        for (int i = 0; i < 4; i++) {
+            scheduler.submitHighPriority(queueWait -> {
+                started.countDown();
+                await(release);
+                done.countDown();
+            });
+        }
+
+        // the batch thread and the two reserved threads take one task each, the fourth waits
+        for (int i = 0; i < 100 && started.getCount() > 1; i++) {
+            Thread.sleep(10);
+        }
+        Thread.sleep(50);
+        assertEquals(1, started.getCount());
+        assertEquals(1, scheduler.getHighPriorityTaskCount());
+
+        release.countDown();
+        assertTrue(done.await(1, TimeUnit.SECONDS));
+        assertEquals(0, scheduler.getHighPriorityTaskCount());
+    }
+
+    private static void await(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new RuntimeException(e);
+        }
+    }
+}
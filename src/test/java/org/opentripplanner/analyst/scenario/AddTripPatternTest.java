@@ -178,9 +178,9 @@ public class AddTripPatternTest extends TestCase {
         // make sure that we have transfers a) between the new lines b) from the new lines
         // to the existing lines c) from the existing lines to the new lines
         // stop IDs in the data will be 0 and 1 for existing stops, 2 - 6 for Broad/High and 7 - 11 for Bexley/CMH
-        int[] txFromExisting = data.transfersForStop.get(0);
+        int[] txFromExisting = data.getTransfersForStop(0);
         if (txFromExisting.length == 0)
-            txFromExisting = data.transfersForStop.get(1);
+            txFromExisting = data.getTransfersForStop(1);
 
         // make sure there's a transfer to stop 4 (Broad/High)
         // the AddTripPattern instructions are processed in order
@@ -201,7 +201,7 @@ public class AddTripPatternTest extends TestCase {
 
         // Check that there are transfers from the new route to the existing route
         // This is the stop at Broad and High
-        int[] txToExisting = data.transfersForStop.get(4);
+        int[] txToExisting = data.getTransfersForStop(4);
         assertTrue(txToExisting.length > 0);
         foundTx = false;
 
@@ -216,7 +216,7 @@ public class AddTripPatternTest extends TestCase {
         assertTrue("transfer from new to existing", foundTx);
 
         // Check that there are transfers between the new routes
-        int[] txBetweenNew = data.transfersForStop.get(7);
+        int[] txBetweenNew = data.getTransfersForStop(7);
         assertTrue(txBetweenNew.length > 0);
         foundTx = false;
 
@@ -25,7 +25,7 @@ import junit.framework.TestCase;
 public class TestPQueues extends TestCase { 
     private static final int N = 50000;
 
-    public void doQueue(BinHeap<Integer> q,
+    public void doQueue(OTPPriorityQueue<Integer> q,
                         List<Integer> input, List<Integer> expected) {
         List<Integer> result = new ArrayList<Integer>(N);
         int expectedSum = 0;
@@ -58,7 +58,7 @@ public class TestPQueues extends TestCase {
         assertTrue(sum == expectedSum);
     }
     
-    public void fillQueue(BinHeap<Integer> q, List<Integer> input) {
+    public void fillQueue(OTPPriorityQueue<Integer> q, List<Integer> input) {
         for (Integer i : input) {
             q.insert(i, i * 0.5);
         }
@@ -90,6 +90,41 @@ public class TestPQueues extends TestCase {
         }
         doQueue(new BinHeap<Integer>(), input, expected);
         fillQueue(new BinHeap<Integer>(), input);
+        doQueue(new FourAryHeap<Integer>(), input, expected);
+        fillQueue(new FourAryHeap<Integer>(), input);
+        // Keys are multiples of 0.5 so they are not affected by quantization.
+        doQueue(new RadixHeap<Integer>(PriorityQueueType.RADIX_KEYS_PER_UNIT), input, expected);
+        fillQueue(new RadixHeap<Integer>(PriorityQueueType.RADIX_KEYS_PER_UNIT), input);
+    }
+
+    /*
+     * A radix heap must return keys in order as long as they are inserted monotonically,
+     * interleaving inserts and extractions as in a Dijkstra search.
+     */
+    public void testRadixHeapMonotone() {
+        RadixHeap<Integer> rh = new RadixHeap<Integer>(PriorityQueueType.RADIX_KEYS_PER_UNIT);
+        rh.insert(0, 0);
+        double lastKey = 0;
+        int extracted = 0;
+        while (!rh.empty()) {
+            double key = rh.peek_min_key();
+            Integer i = rh.extract_min();
+            assertTrue(key >= lastKey - 1 / PriorityQueueType.RADIX_KEYS_PER_UNIT);
+            lastKey = key;
+            if (++extracted < N) {
+                // enqueue a few successors at random distances, as if relaxing edges
+                for (int j = 0; j < 3; j++) {
+                    rh.insert(extracted, key + Math.random() * 100);
+                }
+            }
+        }
+        assertTrue(extracted >= N);
+        // values below the last extracted key are clamped to it rather than lost
+        rh.insert(1, lastKey - 10);
+        rh.insert(2, lastKey + 10);
+        assertEquals(rh.extract_min(), Integer.valueOf(1));
+        assertEquals(rh.extract_min(), Integer.valueOf(2));
+        assertNull(rh.extract_min());
     }
 
     /*
@@ -1,14 +1,26 @@
 package org.opentripplanner.graph_builder.linking;
 
 
+import com.google.common.collect.Iterables;
 import org.junit.Before;
 import org.junit.Test;
 import org.opentripplanner.common.model.GenericLocation;
 import org.opentripplanner.routing.core.RoutingRequest;
 import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.edgetype.StreetTransitLink;
 import org.opentripplanner.routing.graph.Graph;
 import org.opentripplanner.routing.graph.Vertex;
+import org.opentripplanner.routing.vertextype.TransitStop;
 
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.opentripplanner.graph_builder.module.FakeGraph.addPerpendicularRoutes;
+import static org.opentripplanner.graph_builder.module.FakeGraph.buildGraphNoTransit;
 import static org.mockito.Matchers.any;
 import static org.mockito.Matchers.eq;
 import static org.mockito.Mockito.spy;
@@ -40,4 +52,39 @@ public class SimpleStreetSplitterTest {
         spySimpleStreetSplitter.linkOriginDestination(genericLocation, routingRequest, true);
         verify(spySimpleStreetSplitter).linkToGraph(any(Vertex.class), eq(TraverseMode.WALK), eq(routingRequest), eq(false));
     }
+
+    /**
+     * Linking all the stops at once, with the closest edges found in parallel, should link each stop to the same places
+     * as linking the stops one at a time.
+     */
+    @Test
+    public void testLinkAllStationsMatchesLinkingOneAtATime() throws Exception {
+        Graph g1 = buildGraphNoTransit();
+        addPerpendicularRoutes(g1);
+        new SimpleStreetSplitter(g1).linkAllStationsToGraph();
+
+        Graph g2 = buildGraphNoTransit();
+        addPerpendicularRoutes(g2);
+        SimpleStreetSplitter splitter = new SimpleStreetSplitter(g2);
+        for (TransitStop stop : Iterables.filter(g2.getVertices(), TransitStop.class)) {
+            splitter.linkToClosestWalkableEdge(stop, SimpleStreetSplitter.DESTRUCTIVE_SPLIT);
+        }
+
+        Map<String, Set<String>> links = getLinks(g1);
+        assertFalse(links.isEmpty());
+        assertEquals(links, getLinks(g2));
+    }
+
+    /** @return the locations of the street vertices each stop is linked to, keyed on stop label. */
+    private static Map<String, Set<String>> getLinks(Graph graph) {
+        Map<String, Set<String>> links = new HashMap<>();
+        for (TransitStop stop : Iterables.filter(graph.getVertices(), TransitStop.class)) {
+            Set<String> locations = new TreeSet<>();
+            for (StreetTransitLink link : Iterables.filter(stop.getOutgoing(), StreetTransitLink.class)) {
+                locations.add(String.format("%.7f,%.7f", link.getToVertex().getLon(), link.getToVertex().getLat()));
+            }
+            if (!locations.isEmpty()) links.put(stop.getLabel(), locations);
+        }
+        return links;
+    }
 }
@@ -0,0 +1,75 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module;
+
+import com.google.common.collect.Iterables;
+import org.junit.Test;
+import org.opentripplanner.routing.edgetype.SimpleTransfer;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.vertextype.TransitStop;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+public class DirectTransferGeneratorTest {
+
+    /**
+     * Transfers found on many threads should be those a search from each stop finds, created in order of origin and
+     * destination stop so that edge IDs do not depend on thread timing.
+     */
+    @Test
+    public void testTransfers() throws Exception {
+        Graph g = buildGraphNoTransit();
+        addPerpendicularRoutes(g);
+        link(g);
+        new DirectTransferGenerator(500).buildGraph(g, new HashMap<>());
+        assertTrue(g.hasDirectTransfers);
+
+        List<SimpleTransfer> transfers = g.getEdges().stream()
+                .filter(e -> e instanceof SimpleTransfer)
+                .map(e -> (SimpleTransfer) e)
+                .sorted((a, b) -> Integer.compare(a.getId(), b.getId()))
+                .collect(Collectors.toList());
+        assertFalse(transfers.isEmpty());
+
+        for (int i = 1; i < transfers.size(); i++) {
+            SimpleTransfer previous = transfers.get(i - 1), transfer = transfers.get(i);
+            int fromOrder = Integer.compare(previous.getFromVertex().getIndex(), transfer.getFromVertex().getIndex());
+            assertTrue(fromOrder < 0 ||
+                    fromOrder == 0 && previous.getToVertex().getIndex() < transfer.getToVertex().getIndex());
+        }
+
+        NearbyStopFinder nearbyStopFinder = new NearbyStopFinder(g, 500);
+        for (TransitStop stop : Iterables.filter(g.getVertices(), TransitStop.class)) {
+            Set<TransitStop> expected = new HashSet<>();
+            for (NearbyStopFinder.StopAtDistance sd : nearbyStopFinder.findNearbyStopsConsideringPatterns(stop)) {
+                if (sd.tstop != stop) expected.add(sd.tstop);
+            }
+            Set<TransitStop> actual = new HashSet<>();
+            for (Edge e : stop.getOutgoing()) {
+                if (e instanceof SimpleTransfer) actual.add((TransitStop) e.getToVertex());
+            }
+            assertEquals(expected, actual);
+        }
+    }
+}
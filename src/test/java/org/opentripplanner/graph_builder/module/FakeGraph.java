@@ -116,6 +116,79 @@ public class FakeGraph {
         gtfs.buildGraph(gg, new HashMap<>());
     }
 
+    /**
+     * Add the stops of addTransit with two routes between them, one running only on weekdays and one only on Sundays,
+     * for tests that depend on the service running on the day of a search.
+     */
+    public static void addWeekdayAndSundayTransit (Graph gg) throws Exception {
+        GTFSFeed feed = new GTFSFeed();
+        Agency a = createDummyAgency("agency", "Agency", "America/New_York");
+        feed.agency.put("agency", a);
+
+        com.conveyal.gtfs.model.Stop s1 = new com.conveyal.gtfs.model.Stop();
+        s1.stop_id = s1.stop_name = "s1";
+        s1.stop_lat = 40.2182;
+        s1.stop_lon = -83.0889;
+        feed.stops.put(s1.stop_id, s1);
+
+        com.conveyal.gtfs.model.Stop s2 = new com.conveyal.gtfs.model.Stop();
+        s2.stop_id = s2.stop_name = "s2";
+        s2.stop_lat = 39.9621;
+        s2.stop_lon = -83.0007;
+        feed.stops.put(s2.stop_id, s2);
+
+        for (boolean sunday : new boolean[] { false, true }) {
+            Service s = new Service(sunday ? "sunday" : "weekday");
+            s.calendar = new Calendar();
+            s.calendar.service = s;
+            s.calendar.start_date = 19991231;
+            s.calendar.end_date = 21001231;
+            s.calendar.monday = s.calendar.tuesday = s.calendar.wednesday = s.calendar.thursday =
+                    s.calendar.friday = sunday ? 0 : 1;
+            s.calendar.saturday = 0;
+            s.calendar.sunday = sunday ? 1 : 0;
+            feed.services.put(s.service_id, s);
+
+            Route r = new Route();
+            r.route_short_name = sunday ? "S" : "W";
+            r.route_long_name = sunday ? "Sunday High Street" : "Weekday High Street";
+            r.route_type = 3;
+            r.agency = a;
+            r.route_id = sunday ? "sundayroute" : "weekdayroute";
+            feed.routes.put(r.route_id, r);
+
+            for (int departure = 7 * 3600; departure < 20 * 3600; departure += FREQUENCY) {
+                Trip t = new Trip();
+                t.trip_id = r.route_id + departure;
+                t.service = s;
+                t.route = r;
+                feed.trips.put(t.trip_id, t);
+
+                StopTime st1 = new StopTime();
+                st1.trip_id = t.trip_id;
+                st1.arrival_time = departure;
+                st1.departure_time = departure;
+                st1.stop_id = s1.stop_id;
+                st1.stop_sequence = 1;
+                feed.stop_times.put(new Fun.Tuple2(st1.trip_id, st1.stop_sequence), st1);
+
+                StopTime st2 = new StopTime();
+                st2.trip_id = t.trip_id;
+                st2.arrival_time = departure + TRAVEL_TIME;
+                st2.departure_time = departure + TRAVEL_TIME;
+                st2.stop_sequence = 2;
+                st2.stop_id = s2.stop_id;
+                feed.stop_times.put(new Fun.Tuple2(st2.trip_id, st2.stop_sequence), st2);
+            }
+        }
+
+        File tempFile = File.createTempFile("gtfs", ".zip");
+        feed.toFile(tempFile.getAbsolutePath());
+
+        GtfsModule gtfs = new GtfsModule(Arrays.asList(new GtfsBundle(tempFile)));
+        gtfs.buildGraph(gg, new HashMap<>());
+    }
+
     /** Add many transit lines to a lot of stops */
     public static void addTransitMultipleLines (Graph g) throws Exception {
         // using conveyal GTFS lib to build GTFS so a lot of code does not have to be rewritten later
@@ -0,0 +1,54 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module.ned;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import org.junit.Test;
+import org.opentripplanner.common.geometry.PackedCoordinateSequence;
+
+import java.io.File;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertNull;
+
+public class ElevationProfileCacheTest {
+
+    /** Elevations saved for an edge should be found by its geometry in the next build, but not by other geometries. */
+    @Test
+    public void testSaveAndLoad() throws Exception {
+        File file = File.createTempFile("elevation", ".cache");
+        file.delete();
+        Coordinate[] geometry = { new Coordinate(-122.68, 45.52), new Coordinate(-122.67, 45.53) };
+        Coordinate[] otherGeometry = { new Coordinate(-122.68, 45.52), new Coordinate(-122.66, 45.53) };
+        PackedCoordinateSequence profile = new PackedCoordinateSequence.Double(new Coordinate[] {
+                new Coordinate(0, 50.5), new Coordinate(10, 52.25), new Coordinate(14.1, 49) });
+
+        ElevationProfileCache cache = new ElevationProfileCache(file, 10);
+        cache.load();
+        assertNull(cache.get(geometry));
+        cache.put(geometry, profile);
+        cache.save();
+
+        cache = new ElevationProfileCache(file, 10);
+        cache.load();
+        assertArrayEquals(new double[] { 50.5, 52.25, 49 }, cache.get(geometry), 0);
+        assertNull(cache.get(otherGeometry));
+
+        // elevations sampled at another spacing should not be used
+        cache = new ElevationProfileCache(file, 5);
+        cache.load();
+        assertNull(cache.get(geometry));
+        file.delete();
+    }
+}
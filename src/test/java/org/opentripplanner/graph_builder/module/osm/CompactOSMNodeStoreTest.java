@@ -0,0 +1,99 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.graph_builder.module.osm;
+
+import org.junit.Test;
+import org.opentripplanner.openstreetmap.impl.AnyFileBasedOpenStreetMapProviderImpl;
+import org.opentripplanner.openstreetmap.model.OSMNode;
+import org.opentripplanner.openstreetmap.model.OSMWay;
+
+import java.io.File;
+import java.net.URLDecoder;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class CompactOSMNodeStoreTest {
+
+    @Test
+    public void testPutAndGet() {
+        CompactOSMNodeStore store = new CompactOSMNodeStore();
+        OSMNode plain = makeNode(1, 52.1, 16.1);
+        OSMNode virtual = makeNode(-100000, 52.2, 16.2);
+        OSMNode tagged = makeNode(3, 52.3, 16.3);
+        tagged.addTag("highway", "bus_stop");
+        store.put(plain);
+        store.put(virtual);
+        store.put(tagged);
+
+        assertEquals(3, store.size());
+        assertFalse(store.contains(2));
+        assertNull(store.get(2));
+
+        OSMNode node = store.get(1);
+        assertEquals(plain, node);
+        assertEquals(52.1, node.lat, 0);
+        assertEquals(16.1, node.lon, 0);
+        assertEquals(virtual, store.get(-100000));
+        assertEquals(52.2, store.get(-100000).lat, 0);
+        // tagged nodes are kept whole
+        assertSame(tagged, store.get(3));
+
+        store.put(makeNode(1, 53, 17));
+        assertEquals(3, store.size());
+        assertEquals(53, store.get(1).lat, 0);
+    }
+
+    /** Loading OSM with the compact store should keep the same nodes as with the default store. */
+    @Test
+    public void testSameAsMapStore() throws Exception {
+        File file = new File(URLDecoder.decode(getClass().getResource("map.osm.pbf").getPath(), "UTF-8"));
+        OSMDatabase mapDb = new OSMDatabase(new MapOSMNodeStore());
+        new AnyFileBasedOpenStreetMapProviderImpl(file).readOSM(mapDb);
+        OSMDatabase compactDb = new OSMDatabase(new CompactOSMNodeStore());
+        new AnyFileBasedOpenStreetMapProviderImpl(file).readOSM(compactDb);
+
+        assertEquals(mapDb.getWays().size(), compactDb.getWays().size());
+        int nNodes = 0;
+        for (OSMWay way : mapDb.getWays()) {
+            for (long nodeId : way.getNodeRefs()) {
+                OSMNode expected = mapDb.getNode(nodeId);
+                OSMNode actual = compactDb.getNode(nodeId);
+                if (expected == null) {
+                    assertNull(actual);
+                    continue;
+                }
+                assertNotNull(actual);
+                assertEquals(expected, actual);
+                assertEquals(expected.lat, actual.lat, 0);
+                assertEquals(expected.lon, actual.lon, 0);
+                assertEquals(expected.getTags(), actual.getTags());
+                nNodes++;
+            }
+        }
+        assertTrue(nNodes > 0);
+    }
+
+    private static OSMNode makeNode(long id, double lat, double lon) {
+        OSMNode node = new OSMNode();
+        node.setId(id);
+        node.lat = lat;
+        node.lon = lon;
+        return node;
+    }
+}
@@ -22,6 +22,8 @@ import org.opentripplanner.graph_builder.module.osm.WayProperties;
 import org.opentripplanner.graph_builder.module.osm.WayPropertySet;
 import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
 
+import java.util.Arrays;
+
 public class OSMWayTest {
 
     @Test
@@ -344,4 +346,23 @@ public class OSMWayTest {
         assertTrue(permissionPair.first.allows(StreetTraversalPermission.CAR));
         assertFalse(permissionPair.second.allows(StreetTraversalPermission.CAR));
     }
+
+    @Test
+    public void testNodeRefs() {
+        OSMWay way = new OSMWay();
+        assertEquals(0, way.getNodeRefCount());
+
+        way.addNodeRef(10);
+        way.addNodeRef(30);
+        way.addNodeRef(20, 1);
+        assertEquals(3, way.getNodeRefCount());
+        assertEquals(10, way.getNodeRef(0));
+        assertEquals(20, way.getNodeRef(1));
+        assertEquals(30, way.getNodeRef(2));
+        assertTrue(way.containsNodeRef(20));
+        assertFalse(way.containsNodeRef(40));
+
+        // the boxed view sees the same nodes
+        assertEquals(Arrays.asList(10L, 20L, 30L), way.getNodeRefs());
+    }
 }
@@ -40,6 +40,22 @@ public class OSMWithTagsTest {
         assertEquals("bar", o.getTag("foo"));
         assertEquals("bar", o.getTag("FOO"));
     }
+
+    @Test
+    public void testReplaceTag() {
+        OSMWithTags o = new OSMWithTags();
+        assertFalse(o.hasTags());
+        assertNull(o.getTags());
+
+        o.addTag("foo", "bar");
+        o.addTag("baz", "qux");
+        o.addTag("FOO", "quux");
+        assertTrue(o.hasTags());
+        assertEquals("quux", o.getTag("foo"));
+        assertEquals("qux", o.getTag("baz"));
+        assertEquals(2, o.getTags().size());
+        assertEquals("quux", o.getTags().get("foo"));
+    }
     
     @Test
     public void testIsFalse() {
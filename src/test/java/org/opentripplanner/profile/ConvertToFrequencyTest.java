@@ -68,7 +68,7 @@ public class ConvertToFrequencyTest extends TestCase {
 
         RaptorWorkerTimetable tt = rrpr2.raptorWorkerData.timetablesForPattern.get(0);
         assertEquals(FakeGraph.FREQUENCY, tt.headwaySecs[0]);
-        assertEquals(FakeGraph.TRAVEL_TIME, tt.frequencyTrips[0][2]);
+        assertEquals(FakeGraph.TRAVEL_TIME, tt.getFrequencyArrivalOffset(0, 1));
     }
 
     /**
@@ -125,7 +125,7 @@ public class ConvertToFrequencyTest extends TestCase {
         // there should be no travel time variation because only trips on the dominant pattern are considered
         // for travel time.
         assertEquals(FakeGraph.FREQUENCY, tt.headwaySecs[0]);
-        assertEquals(FakeGraph.TRAVEL_TIME, tt.frequencyTrips[0][2]);
+        assertEquals(FakeGraph.TRAVEL_TIME, tt.getFrequencyArrivalOffset(0, 1));
 
         // now try it with groupings by pattern
         ConvertToFrequency ctf3  = new ConvertToFrequency();
@@ -168,9 +168,9 @@ public class ConvertToFrequencyTest extends TestCase {
         assertEquals((int) (FakeGraph.FREQUENCY / 0.1), shrt.headwaySecs[0]);
 
         // make sure that the hop time is always FakeGraph.TRAVEL_TIME
-        assertEquals(FakeGraph.TRAVEL_TIME, shrt.frequencyTrips[0][2]);
-        assertEquals(FakeGraph.TRAVEL_TIME, lng.frequencyTrips[0][2]);
-        assertEquals(FakeGraph.TRAVEL_TIME * 2, lng.frequencyTrips[0][4]);
+        assertEquals(FakeGraph.TRAVEL_TIME, shrt.getFrequencyArrivalOffset(0, 1));
+        assertEquals(FakeGraph.TRAVEL_TIME, lng.getFrequencyArrivalOffset(0, 1));
+        assertEquals(FakeGraph.TRAVEL_TIME * 2, lng.getFrequencyArrivalOffset(0, 2));
     }
 
     /** Test bidirectional conversion */
@@ -0,0 +1,47 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.junit.Test;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.util.Arrays;
+
+/**
+ * Test searching several origins together.
+ */
+public class MultiOriginRaptorWorkerTest extends TestCase {
+
+    /** Searching a block of origins together should give each origin the same times as searching it alone. */
+    @Test
+    public void testSameAsSingleOrigin () throws Exception {
+        Graph g = RaptorWorkerTest.buildGraph();
+        ProfileRequest req = RaptorWorkerTest.profileRequest();
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, g, null, new TaskStatistics());
+
+        int nOrigins = 5;
+        TIntIntMap[] accessTimes = new TIntIntMap[nOrigins];
+        int[][] nonTransitTimes = new int[nOrigins][];
+        for (int o = 0; o < nOrigins; o++) {
+            ProfileRequest originRequest = RaptorWorkerTest.profileRequest(39.9908 + o * 0.002, -83.0118 - o * 0.002);
+            accessTimes[o] = new RepeatedRaptorProfileRouter(g, originRequest).findInitialStops(false, data);
+            nonTransitTimes[o] = new int[data.nTargets];
+            Arrays.fill(nonTransitTimes[o], RaptorWorker.UNREACHED);
+        }
+
+        PropagatedTimesStore[] together = new MultiOriginRaptorWorker(data, req, nOrigins)
+                .runRaptor(g, accessTimes, nonTransitTimes, new TaskStatistics());
+
+        int reached = 0;
+        for (int o = 0; o < nOrigins; o++) {
+            PropagatedTimesStore alone = new RaptorWorker(data, req)
+                    .runRaptor(g, accessTimes[o], nonTransitTimes[o], new TaskStatistics());
+            assertTrue("Best times from origin " + o, Arrays.equals(alone.mins, together[o].mins));
+            assertTrue("Average times from origin " + o, Arrays.equals(alone.avgs, together[o].avgs));
+            assertTrue("Worst times from origin " + o, Arrays.equals(alone.maxs, together[o].maxs));
+            reached += alone.countTargetsReached();
+        }
+        assertTrue(reached > 0);
+    }
+}
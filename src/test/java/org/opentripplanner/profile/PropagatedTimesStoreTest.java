@@ -5,6 +5,9 @@ import org.junit.Test;
 import org.opentripplanner.graph_builder.module.FakeGraph;
 import org.opentripplanner.routing.graph.Graph;
 
+import java.util.Arrays;
+import java.util.Random;
+
 /**
  * Test the propagated times store.
  */
@@ -66,4 +69,132 @@ public class PropagatedTimesStoreTest extends TestCase {
         // 1000 should not be included in average
         assertEquals(1, pts.avgs[0]);
     }
-}
\ No newline at end of file
+
+    /**
+     * Test that streaming iterations into the store gives the same minima, maxima and averages as supplying them all
+     * at once, including for targets that are only sometimes reachable and for extrema not included in averages.
+     */
+    @Test
+    public static void testAccumulate () {
+        ProfileRequest pr = new ProfileRequest();
+        Graph g = new Graph();
+
+        Random random = new Random(42);
+        int nTargets = 50;
+        int[][] times = new int[200][nTargets];
+        boolean[] includeInAverages = new boolean[times.length];
+        for (int i = 0; i < times.length; i++) {
+            includeInAverages[i] = i % 4 != 0;
+            for (int t = 0; t < nTargets; t++) {
+                // the last target is never reached
+                boolean reached = t < nTargets - 1 && random.nextInt(nTargets) > t;
+                times[i][t] = reached ? random.nextInt(RaptorWorker.MAX_DURATION) : RaptorWorker.UNREACHED;
+            }
+        }
+
+        PropagatedTimesStore expected = new PropagatedTimesStore(g, pr, nTargets);
+        expected.setFromArray(times, includeInAverages, PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+
+        PropagatedTimesStore pts = new PropagatedTimesStore(g, pr, nTargets);
+        pts.startAccumulating(PropagatedTimesStore.ConfidenceCalculationMethod.MIN_MAX);
+        for (int i = 0; i < times.length; i++) {
+            pts.accumulate(times[i], includeInAverages[i]);
+        }
+        pts.finishAccumulating();
+
+        assertEquals(times.length, pts.getIterationCount());
+        assertTrue(Arrays.equals(expected.mins, pts.mins));
+        assertTrue(Arrays.equals(expected.avgs, pts.avgs));
+        assertTrue(Arrays.equals(expected.maxs, pts.maxs));
+        assertEquals(RaptorWorker.UNREACHED, pts.mins[nTargets - 1]);
+    }
+
+    /**
+     * Test that accumulating blocks of iterations into separate stores and merging them gives the same statistics as
+     * accumulating all the iterations into one store, as when departure minutes are searched in parallel.
+     */
+    @Test
+    public static void testMergeAccumulated () {
+        ProfileRequest pr = new ProfileRequest();
+        Graph g = new Graph();
+
+        Random random = new Random(42);
+        int nTargets = 50;
+        int[][] times = new int[200][nTargets];
+        boolean[] includeInAverages = new boolean[times.length];
+        for (int i = 0; i < times.length; i++) {
+            includeInAverages[i] = i % 4 != 0;
+            for (int t = 0; t < nTargets; t++) {
+                // later targets are reached less often, and only in some of the blocks
+                boolean reached = t < nTargets - 1 && random.nextInt(nTargets) > t;
+                times[i][t] = reached ? random.nextInt(RaptorWorker.MAX_DURATION) : RaptorWorker.UNREACHED;
+            }
+        }
+
+        PropagatedTimesStore expected = new PropagatedTimesStore(g, pr, nTargets);
+        expected.startAccumulating(PropagatedTimesStore.ConfidenceCalculationMethod.PERCENTILE);
+        for (int i = 0; i < times.length; i++) {
+            expected.accumulate(times[i], includeInAverages[i]);
+        }
+        expected.finishAccumulating();
+
+        int nBlocks = 3;
+        PropagatedTimesStore[] blocks = new PropagatedTimesStore[nBlocks];
+        for (int b = 0; b < nBlocks; b++) {
+            blocks[b] = new PropagatedTimesStore(g, pr, nTargets);
+            blocks[b].startAccumulating(PropagatedTimesStore.ConfidenceCalculationMethod.PERCENTILE);
+            for (int i = times.length * b / nBlocks; i < times.length * (b + 1) / nBlocks; i++) {
+                blocks[b].accumulate(times[i], includeInAverages[i]);
+            }
+        }
+        PropagatedTimesStore pts = blocks[0];
+        for (int b = 1; b < nBlocks; b++) {
+            pts.mergeAccumulated(blocks[b]);
+        }
+        pts.finishAccumulating();
+
+        assertEquals(times.length, pts.getIterationCount());
+        assertTrue(Arrays.equals(expected.mins, pts.mins));
+        assertTrue(Arrays.equals(expected.avgs, pts.avgs));
+        assertTrue(Arrays.equals(expected.maxs, pts.maxs));
+        for (int t = 0; t < nTargets; t++) {
+            assertEquals(expected.percentile(t, 0.5), pts.percentile(t, 0.5));
+        }
+    }
+
+    /** Test that percentiles read from the streamed histograms are within a bin of the exact percentiles. */
+    @Test
+    public static void testAccumulatePercentiles () {
+        ProfileRequest pr = new ProfileRequest();
+        Graph g = new Graph();
+
+        Random random = new Random(42);
+        int[][] times = new int[400][1];
+        boolean[] includeInAverages = new boolean[times.length];
+        Arrays.fill(includeInAverages, true);
+        for (int i = 0; i < times.length; i++) {
+            times[i][0] = 600 + random.nextInt(3600);
+        }
+
+        PropagatedTimesStore expected = new PropagatedTimesStore(g, pr, 1);
+        expected.setFromArray(times, includeInAverages, PropagatedTimesStore.ConfidenceCalculationMethod.PERCENTILE);
+
+        PropagatedTimesStore pts = new PropagatedTimesStore(g, pr, 1);
+        pts.startAccumulating(PropagatedTimesStore.ConfidenceCalculationMethod.PERCENTILE);
+        for (int[] iteration : times) {
+            pts.accumulate(iteration, true);
+        }
+        pts.finishAccumulating();
+
+        assertEquals(expected.avgs[0], pts.avgs[0]);
+        assertTrue(Math.abs(expected.mins[0] - pts.mins[0]) < PropagatedTimesStore.HISTOGRAM_BIN_SECONDS);
+        assertTrue(Math.abs(expected.maxs[0] - pts.maxs[0]) < PropagatedTimesStore.HISTOGRAM_BIN_SECONDS);
+
+        int[] sorted = new int[times.length];
+        for (int i = 0; i < times.length; i++) {
+            sorted[i] = times[i][0];
+        }
+        Arrays.sort(sorted);
+        assertTrue(Math.abs(sorted[times.length / 2] - pts.percentile(0, 0.5)) < PropagatedTimesStore.HISTOGRAM_BIN_SECONDS);
+    }
+}
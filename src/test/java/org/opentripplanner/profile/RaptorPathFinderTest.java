@@ -0,0 +1,113 @@
+package org.opentripplanner.profile;
+
+import org.junit.Test;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test journey reconstruction from RAPTOR rounds.
+ */
+public class RaptorPathFinderTest {
+
+    /**
+     * Going diagonally across a grid of perpendicular routes needs a transfer, and the journeys found should be
+     * Pareto-optimal and made of legs that follow one another.
+     */
+    @Test
+    public void testJourneys () throws Exception {
+        Graph g = RaptorWorkerTest.buildGraph();
+        ProfileRequest req = RaptorWorkerTest.profileRequest(39.9908, -83.0118);
+        req.toLat = 39.9508;
+        req.toLon = -82.9518;
+
+        List<RaptorJourney> journeys = route(g, req);
+        assertFalse(journeys.isEmpty());
+
+        RaptorJourney previous = null;
+        for (RaptorJourney journey : journeys) {
+            if (previous != null) {
+                assertTrue(journey.transfers > previous.transfers);
+                assertTrue(journey.arrivalTime < previous.arrivalTime);
+            }
+            previous = journey;
+
+            assertTrue(journey.departureTime >= req.fromTime);
+            assertTrue(journey.legs.size() >= 3);
+            assertNull(journey.legs.get(0).fromStopId);
+            assertNull(journey.legs.get(journey.legs.size() - 1).toStopId);
+            assertEquals(journey.departureTime, journey.legs.get(0).departureTime);
+            assertEquals(journey.arrivalTime, journey.legs.get(journey.legs.size() - 1).arrivalTime);
+
+            int rides = 0;
+            RaptorJourney.Leg previousLeg = null;
+            for (RaptorJourney.Leg leg : journey.legs) {
+                assertTrue(leg.departureTime <= leg.arrivalTime);
+                if (previousLeg != null) {
+                    assertEquals(previousLeg.toStopId, leg.fromStopId);
+                    assertTrue(previousLeg.arrivalTime <= leg.departureTime);
+                }
+                if (leg.isTransit()) {
+                    assertNotNull(leg.routeId);
+                    rides++;
+                }
+                previousLeg = leg;
+            }
+            assertEquals(journey.transfers + 1, rides);
+        }
+    }
+
+    /**
+     * When the destination is within walking distance of the stops near the origin, the stops reached by walking are
+     * also stops near the destination. They must not be taken for the end of a journey in the first round, which
+     * would give a journey without any ride.
+     */
+    @Test
+    public void testNoJourneyWithoutRides () throws Exception {
+        Graph g = RaptorWorkerTest.buildGraph();
+        ProfileRequest req = RaptorWorkerTest.profileRequest(39.9908, -83.0118);
+
+        for (RaptorJourney journey : route(g, req)) {
+            assertTrue(journey.transfers >= 0);
+            int rides = 0;
+            for (RaptorJourney.Leg leg : journey.legs) {
+                if (leg.isTransit())
+                    rides++;
+            }
+            assertEquals(journey.transfers + 1, rides);
+        }
+    }
+
+    /** RAPTOR data are built once for each date, and reused by later searches on that date. */
+    @Test
+    public void testDataReused () throws Exception {
+        Graph g = RaptorWorkerTest.buildGraph();
+        ProfileRequest req = RaptorWorkerTest.profileRequest(39.9908, -83.0118);
+        req.toLat = 39.9508;
+        req.toLon = -82.9518;
+
+        List<RaptorJourney> first = route(g, req);
+        RaptorWorkerData data = g.index.raptorPathDataForDate.getIfPresent(req.date);
+        assertNotNull(data);
+        assertEquals(0, data.nTargets);
+
+        req.fromTime += 10 * 60;
+        List<RaptorJourney> later = route(g, req);
+        assertSame(data, g.index.raptorPathDataForDate.getIfPresent(req.date));
+        assertEquals(1, g.index.raptorPathDataForDate.size());
+        assertFalse(first.isEmpty());
+        assertFalse(later.isEmpty());
+        assertTrue(later.get(0).departureTime >= req.fromTime);
+    }
+
+    private static List<RaptorJourney> route (Graph g, ProfileRequest req) throws Exception {
+        RepeatedRaptorProfileRouter router = new RepeatedRaptorProfileRouter(g, req);
+        try {
+            return RaptorPathFinder.route(router);
+        } finally {
+            router.cleanup();
+        }
+    }
+}
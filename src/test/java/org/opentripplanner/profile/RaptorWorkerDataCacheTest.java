@@ -0,0 +1,166 @@
+package org.opentripplanner.profile;
+
+import org.joda.time.LocalDate;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.routing.graph.Graph;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+/**
+ * Test the on-disk cache of RAPTOR data.
+ */
+public class RaptorWorkerDataCacheTest {
+
+    @Rule
+    public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+    /** Keys should depend only on the inputs of the data, so that separate workers and restarts find the same file. */
+    @Test
+    public void testKeyStability () {
+        ProfileRequest req = RaptorWorkerTest.profileRequest();
+        String key = RaptorWorkerDataCache.key("graph", "points", req, scenario("{\"modifications\":[]}"));
+
+        // separately made but equal inputs
+        assertEquals(key, RaptorWorkerDataCache.key("graph", "points", RaptorWorkerTest.profileRequest(),
+                scenario("{\"modifications\":[]}")));
+        // the origin is not part of the data
+        assertEquals(key, RaptorWorkerDataCache.key("graph", "points", RaptorWorkerTest.profileRequest(40.0, -83.0),
+                scenario("{\"modifications\":[]}")));
+        // keys can be used as file names
+        assertTrue(key.matches("[0-9a-f]{64}"));
+
+        byte[] scenario = scenario("{\"modifications\":[]}");
+        assertFalse(key.equals(RaptorWorkerDataCache.key("graph2", "points", req, scenario)));
+        assertFalse(key.equals(RaptorWorkerDataCache.key("graph", "points2", req, scenario)));
+        // strings are delimited, so moving characters from one to the other gives a different key
+        assertFalse(key.equals(RaptorWorkerDataCache.key("graphp", "oints", req, scenario)));
+        assertFalse(key.equals(RaptorWorkerDataCache.key("graph", "points", req, scenario("{}"))));
+
+        ProfileRequest otherDate = RaptorWorkerTest.profileRequest();
+        otherDate.date = new LocalDate(2015, 9, 18);
+        assertFalse(key.equals(RaptorWorkerDataCache.key("graph", "points", otherDate, scenario)));
+        ProfileRequest otherWindow = RaptorWorkerTest.profileRequest();
+        otherWindow.toTime += 60;
+        assertFalse(key.equals(RaptorWorkerDataCache.key("graph", "points", otherWindow, scenario)));
+        ProfileRequest otherWalkSpeed = RaptorWorkerTest.profileRequest();
+        otherWalkSpeed.walkSpeed += 0.1f;
+        assertFalse(key.equals(RaptorWorkerDataCache.key("graph", "points", otherWalkSpeed, scenario)));
+    }
+
+    /**
+     * Data should be built and saved on the first request and read back from disk on the next. A file that cannot be
+     * read should be rebuilt and replaced.
+     */
+    @Test
+    public void testSaveReadAndRebuild () throws Exception {
+        Graph g = RaptorWorkerTest.buildGraph();
+        ProfileRequest req = RaptorWorkerTest.profileRequest();
+        SampleSet sampleSet = RaptorWorkerTest.sampleSet(g);
+        AtomicInteger builds = new AtomicInteger();
+        Callable<RaptorWorkerData> build = () -> {
+            builds.incrementAndGet();
+            return RepeatedRaptorProfileRouter.getRaptorWorkerData(req, g, sampleSet, new TaskStatistics());
+        };
+
+        File directory = temporaryFolder.newFolder("raptor");
+        RaptorWorkerDataCache cache = new RaptorWorkerDataCache(directory, Long.MAX_VALUE);
+        String key = RaptorWorkerDataCache.key("graph", "points", req, new byte[0]);
+        File file = new File(directory, key + ".raptor");
+
+        RaptorWorkerData built = cache.get(key, g, req, build);
+        assertEquals(1, builds.get());
+        assertTrue(file.exists());
+        // no temporary files are left behind
+        assertEquals(1, directory.list().length);
+
+        RaptorWorkerData read = cache.get(key, g, req, build);
+        assertEquals(1, builds.get());
+        assertNotSame(built, read);
+        assertSameTargets(built, read);
+
+        // Truncate the file, as if a worker had been stopped while writing it without the atomic rename.
+        byte[] garbage = "not RAPTOR data".getBytes(StandardCharsets.UTF_8);
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(garbage);
+        }
+        RaptorWorkerData rebuilt = cache.get(key, g, req, build);
+        assertEquals(2, builds.get());
+        assertSameTargets(built, rebuilt);
+        assertTrue(file.length() > garbage.length);
+
+        cache.get(key, g, req, build);
+        assertEquals(2, builds.get());
+    }
+
+    /** A failure to save the data should be logged, and the request should go on with the data it built. */
+    @Test
+    public void testUnwritableDirectory () throws Exception {
+        Graph g = RaptorWorkerTest.buildGraph();
+        ProfileRequest req = RaptorWorkerTest.profileRequest();
+        File directory = temporaryFolder.newFolder("raptor");
+        RaptorWorkerDataCache cache = new RaptorWorkerDataCache(directory, Long.MAX_VALUE);
+        // Temporary files cannot be created once the directory is gone.
+        assertTrue(directory.delete());
+
+        RaptorWorkerData data = cache.get("key", g, req, () -> RepeatedRaptorProfileRouter.getRaptorWorkerData(req,
+                g, RaptorWorkerTest.sampleSet(g), new TaskStatistics()));
+        assertNotNull(data);
+        assertFalse(new File(directory, "key.raptor").exists());
+    }
+
+    /** Saving data beyond the size limit should delete the least recently used files. */
+    @Test
+    public void testEviction () throws Exception {
+        Graph g = RaptorWorkerTest.buildGraph();
+        ProfileRequest req = RaptorWorkerTest.profileRequest();
+        SampleSet sampleSet = RaptorWorkerTest.sampleSet(g);
+        Callable<RaptorWorkerData> build =
+                () -> RepeatedRaptorProfileRouter.getRaptorWorkerData(req, g, sampleSet, new TaskStatistics());
+
+        // Find the size of one file, then allow for two of them.
+        File sizing = temporaryFolder.newFolder("sizing");
+        new RaptorWorkerDataCache(sizing, Long.MAX_VALUE).get("a", g, req, build);
+        long fileBytes = new File(sizing, "a.raptor").length();
+
+        File directory = temporaryFolder.newFolder("raptor");
+        RaptorWorkerDataCache cache = new RaptorWorkerDataCache(directory, 2 * fileBytes);
+        File a = new File(directory, "a.raptor");
+        File b = new File(directory, "b.raptor");
+        File c = new File(directory, "c.raptor");
+        cache.get("a", g, req, build);
+        a.setLastModified(System.currentTimeMillis() - 20000);
+        cache.get("b", g, req, build);
+        b.setLastModified(System.currentTimeMillis() - 10000);
+        // Reading a makes it more recently used than b.
+        cache.get("a", g, req, build);
+        cache.get("c", g, req, build);
+
+        assertTrue(a.exists());
+        assertFalse(b.exists());
+        assertTrue(c.exists());
+    }
+
+    private static byte[] scenario (String json) {
+        return json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void assertSameTargets (RaptorWorkerData expected, RaptorWorkerData actual) {
+        assertEquals(expected.nStops, actual.nStops);
+        assertEquals(expected.nTargets, actual.nTargets);
+        for (int s = 0; s < expected.nStops; s++) {
+            assertTrue(Arrays.equals(expected.targetsForStop.get(s), actual.targetsForStop.get(s)));
+        }
+    }
+}
@@ -0,0 +1,185 @@
+package org.opentripplanner.profile;
+
+import gnu.trove.map.TIntIntMap;
+import junit.framework.TestCase;
+import org.joda.time.LocalDate;
+import org.junit.Test;
+import org.opentripplanner.analyst.PointFeature;
+import org.opentripplanner.analyst.PointSet;
+import org.opentripplanner.analyst.SampleSet;
+import org.opentripplanner.analyst.cluster.TaskStatistics;
+import org.opentripplanner.api.parameter.QualifiedModeSet;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+/**
+ * Test the RAPTOR worker.
+ */
+public class RaptorWorkerTest extends TestCase {
+
+    /**
+     * Searching the departure minutes in parallel blocks should find the same best times as the serial search.
+     * Each block restarts range-RAPTOR, which can only lose arrivals beyond the travel time cutoff, so only targets
+     * reached within the cutoff are compared.
+     */
+    @Test
+    public void testParallelMinutes () throws Exception {
+        Graph g = buildGraph();
+        ProfileRequest req = profileRequest();
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, g, null, new TaskStatistics());
+        TIntIntMap accessTimes = new RepeatedRaptorProfileRouter(g, req).findInitialStops(false, data);
+        assertFalse(accessTimes.isEmpty());
+        int[] nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+
+        RaptorWorker serialWorker = new RaptorWorker(data, req);
+        PropagatedTimesStore serial = serialWorker.runRaptor(g, accessTimes, nonTransitTimes, new TaskStatistics());
+
+        RaptorWorker parallelWorker = new RaptorWorker(data, req);
+        parallelWorker.parallelMinutes = true;
+        // several blocks whatever the number of processors, which only limits how many of them run at once
+        parallelWorker.maxParallelBlocks = 4;
+        PropagatedTimesStore parallel = parallelWorker.runRaptor(g, accessTimes, nonTransitTimes, new TaskStatistics());
+
+        int reached = 0;
+        for (int target = 0; target < data.nTargets; target++) {
+            if (serial.mins[target] < RaptorWorker.MAX_DURATION) {
+                assertEquals("Best time to target " + target, serial.mins[target], parallel.mins[target]);
+                reached++;
+            }
+        }
+        assertTrue(reached > 0);
+    }
+
+    /** Propagating target by target should give the same times as propagating stop by stop. */
+    @Test
+    public void testTargetMajorPropagation () throws Exception {
+        Graph g = buildGraph();
+        ProfileRequest req = profileRequest();
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, g, null, new TaskStatistics());
+        RaptorWorker worker = new RaptorWorker(data, req);
+        worker.allStopsTouched.set(0, data.nStops);
+
+        Random random = new Random(42);
+        int[] timesAtStops = new int[data.nStops];
+        int[] timesAtTargets = new int[data.nTargets];
+        for (int s = 0; s < data.nStops; s++) {
+            timesAtStops[s] = random.nextInt(4) == 0 ? RaptorWorker.UNREACHED : 8 * 3600 + random.nextInt(3600);
+        }
+        for (int t = 0; t < data.nTargets; t++) {
+            timesAtTargets[t] = random.nextInt(2) == 0 ? RaptorWorker.UNREACHED : 8 * 3600 + random.nextInt(7200);
+        }
+
+        int[] stopMajor = Arrays.copyOf(timesAtTargets, timesAtTargets.length);
+        worker.propagateStopMajor(timesAtStops, stopMajor);
+        int[] targetMajor = Arrays.copyOf(timesAtTargets, timesAtTargets.length);
+        worker.propagateTargetMajor(timesAtStops, targetMajor);
+
+        assertTrue(Arrays.equals(stopMajor, targetMajor));
+        assertFalse(Arrays.equals(timesAtTargets, targetMajor));
+    }
+
+    /**
+     * RAPTOR data read back from its binary form should be the same as the data that was written. Only data for point
+     * set destinations are saved to disk, so that is what is written here.
+     */
+    @Test
+    public void testWriteRead () throws Exception {
+        Graph g = buildGraph();
+        ProfileRequest req = profileRequest();
+        RaptorWorkerData data = RepeatedRaptorProfileRouter.getRaptorWorkerData(req, g, sampleSet(g),
+                new TaskStatistics());
+        assertEquals(GRID_SIZE * GRID_SIZE, data.nTargets);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        data.write(new DataOutputStream(bytes), g);
+        RaptorWorkerData read = RaptorWorkerData.read(ByteBuffer.wrap(bytes.toByteArray()), g, req);
+
+        assertEquals(data.nStops, read.nStops);
+        assertEquals(data.nPatterns, read.nPatterns);
+        assertEquals(data.nTargets, read.nTargets);
+        assertEquals(data.indexForStop, read.indexForStop);
+        assertTrue(Arrays.equals(data.transfersForStops, read.transfersForStops));
+        assertTrue(Arrays.equals(data.patternsForStops, read.patternsForStops));
+        assertEquals(data.targetsForStop.size(), read.targetsForStop.size());
+        for (int s = 0; s < data.targetsForStop.size(); s++) {
+            assertTrue(Arrays.equals(data.targetsForStop.get(s), read.targetsForStop.get(s)));
+        }
+        assertTrue(Arrays.equals(data.stopsForTargets, read.stopsForTargets));
+        assertTrue(Arrays.equals(data.timesForTargets, read.timesForTargets));
+        assertTrue(data.stopsForTargets.length > 0);
+        for (int p = 0; p < data.nPatterns; p++) {
+            RaptorWorkerTimetable tt = data.timetablesForPattern.get(p);
+            RaptorWorkerTimetable readTt = read.timetablesForPattern.get(p);
+            assertTrue(Arrays.equals(tt.arrivals, readTt.arrivals));
+            assertTrue(Arrays.equals(tt.frequencyDepartures, readTt.frequencyDepartures));
+            assertTrue(Arrays.equals(tt.stopIndices, readTt.stopIndices));
+            assertSame(read, readTt.raptorData);
+        }
+
+        // Searching on the data read back should give the same results.
+        TIntIntMap accessTimes = new RepeatedRaptorProfileRouter(g, req).findInitialStops(false, data);
+        int[] nonTransitTimes = new int[data.nTargets];
+        Arrays.fill(nonTransitTimes, RaptorWorker.UNREACHED);
+        PropagatedTimesStore expected = new RaptorWorker(data, req)
+                .runRaptor(g, accessTimes, nonTransitTimes, new TaskStatistics());
+        PropagatedTimesStore actual = new RaptorWorker(read, req)
+                .runRaptor(g, accessTimes, nonTransitTimes, new TaskStatistics());
+        assertTrue(Arrays.equals(expected.mins, actual.mins));
+        assertTrue(Arrays.equals(expected.avgs, actual.avgs));
+    }
+
+    /** Build the fake Columbus graph with perpendicular routes, linked and indexed. Shared with other RAPTOR tests. */
+    static Graph buildGraph () throws Exception {
+        Graph g = buildGraphNoTransit();
+        addPerpendicularRoutes(g);
+        link(g);
+        g.index(new DefaultStreetVertexIndexFactory());
+        return g;
+    }
+
+    /** The number of points along each side of the grid of destinations made by sampleSet. */
+    static final int GRID_SIZE = 10;
+
+    /** A grid of destinations spaced about 500 meters apart, covering the routes of the graph from buildGraph. */
+    static SampleSet sampleSet (Graph g) {
+        PointSet points = new PointSet(GRID_SIZE * GRID_SIZE);
+        for (int i = 0; i < GRID_SIZE * GRID_SIZE; i++) {
+            PointFeature feature = new PointFeature(Integer.toString(i));
+            feature.setLat(39.95 + (i / GRID_SIZE) * 0.005);
+            feature.setLon(-83.02 + (i % GRID_SIZE) * 0.006);
+            points.addFeature(feature, i);
+        }
+        return points.getSampleSet(g);
+    }
+
+    static ProfileRequest profileRequest () {
+        return profileRequest(39.9908, -83.0118);
+    }
+
+    /** A walk-access request for the morning peak on the graph from buildGraph, from and to the given point. */
+    static ProfileRequest profileRequest (double lat, double lon) {
+        ProfileRequest req = new ProfileRequest();
+        req.fromLon = req.toLon = lon;
+        req.fromLat = req.toLat = lat;
+        req.date = new LocalDate(2015, 9, 17);
+        req.bikeSpeed = 4.1f;
+        req.walkSpeed = 1.3f;
+        req.fromTime = 7 * 3600;
+        req.toTime = 9 * 3600;
+        req.maxWalkTime = 20;
+        req.transitModes = new TraverseModeSet("TRANSIT");
+        req.accessModes = req.egressModes = req.directModes = new QualifiedModeSet("WALK");
+        req.boardingAssumption = RaptorWorkerTimetable.BoardingAssumption.WORST_CASE;
+        return req;
+    }
+}
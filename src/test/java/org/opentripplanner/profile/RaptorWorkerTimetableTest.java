@@ -0,0 +1,39 @@
+package org.opentripplanner.profile;
+
+import junit.framework.TestCase;
+import org.junit.Test;
+
+/**
+ * Test the compacted RAPTOR timetables.
+ */
+public class RaptorWorkerTimetableTest extends TestCase {
+
+    /** The binary search for FIFO timetables should find the same trips as the linear search. */
+    @Test
+    public void testFindDepartureAfter () {
+        int nTrips = 7;
+        int nStops = 3;
+        RaptorWorkerTimetable timetable = new RaptorWorkerTimetable(nTrips, nStops);
+        for (int stop = 0; stop < nStops; stop++) {
+            for (int trip = 0; trip < nTrips; trip++) {
+                // two trips depart at the same time, to check that the first is found
+                int departure = 3600 + (trip < 4 ? trip : trip - 1) * 600 + stop * 300;
+                timetable.arrivals[stop * nTrips + trip] = departure - 30;
+                timetable.departures[stop * nTrips + trip] = departure;
+            }
+        }
+
+        for (int stop = 0; stop < nStops; stop++) {
+            for (int time = 3000; time < 8000; time += 10) {
+                timetable.fifo = false;
+                int linear = timetable.findDepartureAfter(stop, time);
+                timetable.fifo = true;
+                int binary = timetable.findDepartureAfter(stop, time);
+                assertEquals("Departure after " + time + " at stop " + stop, linear, binary);
+                if (binary > 0)
+                    assertTrue(timetable.getDeparture(binary - 1, stop) <= time + RaptorWorkerTimetable.MIN_BOARD_TIME_SECONDS);
+            }
+        }
+        assertEquals(-1, timetable.findDepartureAfter(0, 24 * 3600));
+    }
+}
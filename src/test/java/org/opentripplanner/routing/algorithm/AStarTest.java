@@ -34,6 +34,7 @@ import org.opentripplanner.routing.graph.TemporaryConcreteEdge;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.location.TemporaryStreetLocation;
 import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.spt.IndexedShortestPathTree;
 import org.opentripplanner.routing.spt.ShortestPathTree;
 
 import com.vividsolutions.jts.geom.Coordinate;
@@ -244,6 +245,39 @@ public class AStarTest {
         }
     }
 
+    @Test
+    public void testIndexedShortestPathTree() {
+        RoutingRequest options = new RoutingRequest();
+        options.walkSpeed = 1.0;
+        options.batch = true;
+        options.setRoutingContext(_graph, _graph.getVertex("56th_24th"), _graph.getVertex("leary_20th"));
+        ShortestPathTree mapTree = new AStar().getShortestPathTree(options);
+
+        options.indexedShortestPathTree = true;
+        ShortestPathTree indexedTree = new AStar().getShortestPathTree(options);
+        assertTrue(indexedTree instanceof IndexedShortestPathTree);
+
+        assertEquals(mapTree.getVertexCount(), indexedTree.getVertexCount());
+        assertEquals(mapTree.getVertices(), indexedTree.getVertices());
+        assertEquals(mapTree.getAllStates().size(), indexedTree.getAllStates().size());
+        for (Vertex v : mapTree.getVertices()) {
+            assertEquals(mapTree.getState(v).getWeight(), indexedTree.getState(v).getWeight(), 0.0);
+            assertTrue(indexedTree.visit(indexedTree.getState(v)));
+        }
+        List<State> states = indexedTree.getPath(_graph.getVertex("leary_20th"), false).states;
+        assertEquals(7, states.size());
+        assertEquals("56th_24th", states.get(0).getVertex().getLabel());
+        assertEquals("leary_20th", states.get(6).getVertex().getLabel());
+
+        // The storage released by the first tree should be cleanly reused by the next search on this thread.
+        indexedTree.release();
+        assertEquals("IndexedShortestPathTree(released)", indexedTree.toString());
+        ShortestPathTree reusedTree = new AStar().getShortestPathTree(options);
+        assertEquals(mapTree.getVertexCount(), reusedTree.getVertexCount());
+        assertEquals(mapTree.getAllStates().size(), reusedTree.getAllStates().size());
+        reusedTree.release();
+    }
+
     /****
      * Private Methods
      ****/
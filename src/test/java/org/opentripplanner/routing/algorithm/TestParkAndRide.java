@@ -15,6 +15,7 @@ package org.opentripplanner.routing.algorithm;
 
 import junit.framework.TestCase;
 import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.strategies.HeuristicCache;
 import org.opentripplanner.routing.algorithm.strategies.InterleavedBidirectionalHeuristic;
 import org.opentripplanner.routing.bike_park.BikePark;
 import org.opentripplanner.routing.core.RoutingRequest;
@@ -142,6 +143,20 @@ public class TestParkAndRide extends TestCase {
         tree = aStar.getShortestPathTree(options);
         path = tree.getPath(C, false);
         assertNotNull(path);
+
+        // The same search twice with a heuristic cache, the second one reusing the target side of the first.
+        HeuristicCache cache = new HeuristicCache(10);
+        double weight = path.getWeight();
+        for (int i = 0; i < 2; i++) {
+            options = new RoutingRequest("WALK,CAR_PARK,TRANSIT");
+            options.setRoutingContext(graph, A, C);
+            options.rctx.remainingWeightHeuristic = new InterleavedBidirectionalHeuristic(cache);
+            tree = aStar.getShortestPathTree(options);
+            path = tree.getPath(C, false);
+            assertNotNull(path);
+            assertEquals(weight, path.getWeight());
+            assertEquals(1, cache.size());
+        }
     }
 
     public void testBike() throws Exception {
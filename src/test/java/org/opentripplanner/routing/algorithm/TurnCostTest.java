@@ -214,6 +214,41 @@ public class TurnCostTest {
         assertEquals(380, states.get(4).getElapsedTimeSeconds()); // broad2_3 = 100
     }
 
+    @Test
+    public void testLightweightStreetTraversal() {
+        for (TraverseMode mode : new TraverseMode[] {TraverseMode.WALK, TraverseMode.CAR}) {
+            RoutingRequest options = proto.clone();
+            options.traversalCostModel = (new ConstantIntersectionTraversalCostModel(10.0));
+            options.setMode(mode);
+            options.setRoutingContext(_graph, topRight, bottomLeft);
+            ShortestPathTree fullTree = new AStar().getShortestPathTree(options);
+
+            options.lightweightStreetTraversal = true;
+            ShortestPathTree lightTree = new AStar().getShortestPathTree(options);
+
+            // Skipping allocation of rejected states must not change which states are kept, or their contents.
+            assertEquals(fullTree.getAllStates().size(), lightTree.getAllStates().size());
+            List<State> full = fullTree.getPath(bottomLeft, false).states;
+            List<State> light = lightTree.getPath(bottomLeft, false).states;
+            assertEquals(full.size(), light.size());
+            for (int i = 0; i < full.size(); i++) {
+                assertEquals(full.get(i).getVertex(), light.get(i).getVertex());
+                assertEquals(full.get(i).getBackEdge(), light.get(i).getBackEdge());
+                assertEquals(full.get(i).getBackMode(), light.get(i).getBackMode());
+                assertEquals(full.get(i).getTimeSeconds(), light.get(i).getTimeSeconds());
+                assertEquals(full.get(i).getWeight(), light.get(i).getWeight(), 0.0);
+                assertEquals(full.get(i).getWalkDistance(), light.get(i).getWalkDistance(), 0.0);
+            }
+        }
+        // The restricted left turn must still be avoided when driving.
+        RoutingRequest options = proto.clone();
+        options.traversalCostModel = (new ConstantIntersectionTraversalCostModel(10.0));
+        options.setMode(TraverseMode.CAR);
+        options.lightweightStreetTraversal = true;
+        options.setRoutingContext(_graph, topRight, bottomLeft);
+        checkForwardRouteDuration(options, 380);
+    }
+
     /****
      * Private Methods
      ****/
@@ -0,0 +1,96 @@
+package org.opentripplanner.routing.algorithm.strategies;
+
+import org.joda.time.DateTime;
+import org.joda.time.DateTimeZone;
+import org.junit.Test;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.impl.GraphPathFinder;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.standalone.Router;
+
+import java.util.List;
+
+import static org.junit.Assert.*;
+import static org.opentripplanner.graph_builder.module.FakeGraph.*;
+
+public class HeuristicCacheTest {
+
+    /**
+     * Two searches between the same coordinates, the second reusing the target side of the heuristic from the first.
+     * Both link the destination to the streets with new temporary vertices, and both must find the transit path.
+     */
+    @Test
+    public void testSameTemporaryTargetTwice() throws Exception {
+        Graph graph = buildGraphNoTransit();
+        addTransit(graph);
+        link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        Router router = new Router("TEST", graph);
+        router.timeouts = new double[] { 60 };
+        router.heuristicCache = new HeuristicCache(10);
+
+        GraphPath first = null;
+        for (int i = 0; i < 2; i++) {
+            List<GraphPath> paths = new GraphPathFinder(router).getPaths(request());
+            assertEquals(1, router.heuristicCache.size());
+            assertFalse(paths.isEmpty());
+            GraphPath path = paths.get(0);
+            // The stops are far apart, the path can only be found by riding the bus between them.
+            assertFalse(path.getTrips().isEmpty());
+            if (first == null) {
+                first = path;
+            } else {
+                assertEquals(first.getTrips(), path.getTrips());
+                assertEquals(first.getWeight(), path.getWeight(), 1e-6);
+            }
+        }
+    }
+
+    /**
+     * A search on a Sunday after one on a Wednesday towards the same target must not reuse the Wednesday heuristic, in
+     * which the Sunday route was never explored because it does not run on the days around a Wednesday.
+     */
+    @Test
+    public void testDifferentServiceDays() throws Exception {
+        Graph graph = buildGraphNoTransit();
+        addWeekdayAndSundayTransit(graph);
+        link(graph);
+        graph.index(new DefaultStreetVertexIndexFactory());
+        Router router = new Router("TEST", graph);
+        router.timeouts = new double[] { 60 };
+
+        // The Sunday path without any cache, for comparison.
+        List<GraphPath> expected = new GraphPathFinder(router).getPaths(request(14));
+        assertFalse(expected.isEmpty());
+
+        router.heuristicCache = new HeuristicCache(10);
+        List<GraphPath> wednesday = new GraphPathFinder(router).getPaths(request(10));
+        assertFalse(wednesday.isEmpty());
+        assertEquals(1, router.heuristicCache.size());
+        List<GraphPath> sunday = new GraphPathFinder(router).getPaths(request(14));
+        assertEquals(2, router.heuristicCache.size());
+        assertFalse(sunday.isEmpty());
+        assertEquals(expected.get(0).getTrips(), sunday.get(0).getTrips());
+        assertEquals(expected.get(0).getWeight(), sunday.get(0).getWeight(), 1e-6);
+        assertFalse(wednesday.get(0).getTrips().equals(sunday.get(0).getTrips()));
+    }
+
+    /** A request on a Wednesday between points near the two stops of the bus route in the fake graph. */
+    private static RoutingRequest request() {
+        return request(10);
+    }
+
+    /** A request on the given day of June 2015 between points near the two stops of the bus route. */
+    private static RoutingRequest request(int day) {
+        RoutingRequest request = new RoutingRequest("WALK,TRANSIT");
+        request.from = new GenericLocation(40.2180, -83.0885);
+        request.to = new GenericLocation(39.9625, -83.0010);
+        request.dateTime = new DateTime(2015, 6, day, 7, 50, DateTimeZone.forID("America/New_York")).getMillis()
+                / 1000;
+        request.setNumItineraries(1);
+        return request;
+    }
+}
@@ -0,0 +1,179 @@
+package org.opentripplanner.routing.contraction;
+
+import com.vividsolutions.jts.geom.Coordinate;
+import com.vividsolutions.jts.geom.LineString;
+import org.junit.Before;
+import org.junit.Test;
+import org.opentripplanner.common.TurnRestriction;
+import org.opentripplanner.common.TurnRestrictionType;
+import org.opentripplanner.common.geometry.GeometryUtils;
+import org.opentripplanner.routing.algorithm.AStar;
+import org.opentripplanner.routing.core.OptimizeType;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.graph.Edge;
+import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.spt.GraphPath;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.StreetVertex;
+
+import static org.junit.Assert.*;
+
+public class ContractionHierarchyTest {
+
+    private static final int SIZE = 6;
+
+    private Graph graph;
+
+    private StreetVertex[][] grid;
+
+    private ContractionHierarchy hierarchy;
+
+    /** A grid city with two-way streets of varying length and speed, and a few turn restrictions. */
+    @Before
+    public void before() {
+        graph = new Graph();
+        grid = new StreetVertex[SIZE][SIZE];
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                grid[i][j] = new IntersectionVertex(graph, "v_" + i + "_" + j, 0.001 * i, 45 + 0.001 * j);
+            }
+        }
+        for (int i = 0; i < SIZE; i++) {
+            for (int j = 0; j < SIZE; j++) {
+                if (i + 1 < SIZE) {
+                    twoWayStreet(grid[i][j], grid[i + 1][j], 100 + ((i * 7 + j * 13) % 5) * 20, 5 + (j % 3) * 5);
+                }
+                if (j + 1 < SIZE) {
+                    twoWayStreet(grid[i][j], grid[i][j + 1], 100 + ((i * 11 + j * 3) % 5) * 20, 5 + (i % 3) * 5);
+                }
+            }
+        }
+        disallowTurn(grid[1][1], grid[2][1], grid[2][2]);
+        disallowTurn(grid[3][2], grid[3][3], grid[4][3]);
+        disallowTurn(grid[2][4], grid[2][3], grid[1][3]);
+        hierarchy = new ContractionHierarchyBuilder(graph, new TraverseModeSet(TraverseMode.CAR), OptimizeType.QUICK)
+                .build();
+    }
+
+    @Test
+    public void testSameWeightsAsAStar() {
+        int nPaths = 0;
+        for (StreetVertex from : new StreetVertex[] { grid[0][0], grid[2][3], grid[5][1] }) {
+            for (StreetVertex[] row : grid) {
+                for (StreetVertex to : row) {
+                    if (from == to) {
+                        continue;
+                    }
+                    RoutingRequest options = new RoutingRequest(TraverseMode.CAR);
+                    options.setRoutingContext(graph, from, to);
+                    GraphPath expected = new AStar().getShortestPathTree(options).getPath(to, false);
+
+                    options = new RoutingRequest(TraverseMode.CAR);
+                    options.setRoutingContext(graph, from, to);
+                    assertTrue(hierarchy.isValidFor(options));
+                    GraphPath path = hierarchy.getShortestPath(options);
+                    assertNotNull(path);
+                    assertNotNull(expected);
+                    assertEquals(expected.getWeight(), path.getWeight(), 1e-6);
+                    assertEquals(from, path.states.getFirst().getVertex());
+                    assertEquals(to, path.states.getLast().getVertex());
+                    nPaths++;
+                }
+            }
+        }
+        assertEquals(3 * (SIZE * SIZE - 1), nPaths);
+    }
+
+    @Test
+    public void testTurnRestrictionsRespected() {
+        // Going straight through the restricted turn would be shortest, so the path must go around it.
+        RoutingRequest options = new RoutingRequest(TraverseMode.CAR);
+        options.setRoutingContext(graph, grid[1][1], grid[2][2]);
+        GraphPath path = hierarchy.getShortestPath(options);
+        assertNotNull(path);
+        for (int i = 1; i < path.edges.size(); i++) {
+            assertFalse(path.edges.get(i - 1).getFromVertex() == grid[1][1]
+                    && path.edges.get(i - 1).getToVertex() == grid[2][1]
+                    && path.edges.get(i).getToVertex() == grid[2][2]);
+        }
+    }
+
+    @Test
+    public void testOnlyValidForMatchingRequests() {
+        RoutingRequest options = new RoutingRequest(TraverseMode.CAR);
+        options.setRoutingContext(graph, grid[0][0], grid[5][5]);
+        assertTrue(hierarchy.isValidFor(options));
+
+        options = new RoutingRequest(TraverseMode.CAR);
+        options.carSpeed = 20;
+        options.setRoutingContext(graph, grid[0][0], grid[5][5]);
+        assertFalse(hierarchy.isValidFor(options));
+
+        options = new RoutingRequest(TraverseMode.BICYCLE);
+        options.setRoutingContext(graph, grid[0][0], grid[5][5]);
+        assertFalse(hierarchy.isValidFor(options));
+
+        ContractionHierarchySet hierarchies = new ContractionHierarchySet();
+        hierarchies.add(hierarchy);
+        assertNull(hierarchies.getHierarchy(options));
+    }
+
+    @Test
+    public void testRemovedEdgesNotUsed() {
+        RoutingRequest options = new RoutingRequest(TraverseMode.CAR);
+        options.setRoutingContext(graph, grid[0][0], grid[5][5]);
+        GraphPath path = hierarchy.getShortestPath(options);
+        assertNotNull(path);
+
+        // Remove an edge on the path from the graph, as destructive splitting does after the hierarchy was built.
+        Edge removed = path.edges.get(path.edges.size() / 2);
+        graph.removeEdge(removed);
+
+        options = new RoutingRequest(TraverseMode.CAR);
+        options.setRoutingContext(graph, grid[0][0], grid[5][5]);
+        GraphPath newPath = hierarchy.getShortestPath(options);
+        if (newPath != null) {
+            assertFalse(newPath.edges.contains(removed));
+        }
+        // A search falling back on A* still finds a way around.
+        options = new RoutingRequest(TraverseMode.CAR);
+        options.setRoutingContext(graph, grid[0][0], grid[5][5]);
+        GraphPath expected = new AStar().getShortestPathTree(options).getPath(grid[5][5], false);
+        assertNotNull(expected);
+        assertFalse(expected.edges.contains(removed));
+    }
+
+    private void twoWayStreet(StreetVertex a, StreetVertex b, double length, float carSpeed) {
+        street(a, b, length, carSpeed, false);
+        street(b, a, length, carSpeed, true);
+    }
+
+    private StreetEdge street(StreetVertex a, StreetVertex b, double length, float carSpeed, boolean back) {
+        LineString geometry = GeometryUtils.getGeometryFactory().createLineString(
+                new Coordinate[] { a.getCoordinate(), b.getCoordinate() });
+        StreetEdge edge = new StreetEdge(a, b, geometry, a.getLabel() + "_" + b.getLabel(), length,
+                StreetTraversalPermission.ALL, back);
+        edge.setCarSpeed(carSpeed);
+        return edge;
+    }
+
+    /** Forbid driving from a to b and then on to c. */
+    private void disallowTurn(StreetVertex a, StreetVertex b, StreetVertex c) {
+        Edge from = null;
+        Edge to = null;
+        for (Edge e : a.getOutgoingStreetEdges()) {
+            if (e.getToVertex() == b) from = e;
+        }
+        for (Edge e : b.getOutgoingStreetEdges()) {
+            if (e.getToVertex() == c) to = e;
+        }
+        TurnRestriction restriction = new TurnRestriction(from, to, TurnRestrictionType.NO_TURN,
+                new TraverseModeSet(TraverseMode.CAR));
+        graph.addTurnRestriction(from, restriction);
+    }
+
+}
@@ -16,10 +16,17 @@ package org.opentripplanner.routing.edgetype;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertSame;
+import static org.mockito.Matchers.anyInt;
+import static org.mockito.Matchers.anyLong;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
 import static org.opentripplanner.util.TestUtils.AUGUST;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.TimeZone;
 
@@ -27,19 +34,28 @@ import com.google.common.collect.Iterables;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.onebusaway.gtfs.model.AgencyAndId;
+import org.onebusaway.gtfs.model.Route;
+import org.onebusaway.gtfs.model.Stop;
+import org.onebusaway.gtfs.model.StopTime;
 import org.onebusaway.gtfs.model.Trip;
 import org.onebusaway.gtfs.model.calendar.CalendarServiceData;
 import org.onebusaway.gtfs.model.calendar.ServiceDate;
 import org.opentripplanner.ConstantsForTests;
 import org.opentripplanner.gtfs.GtfsContext;
 import org.opentripplanner.gtfs.GtfsLibrary;
+import org.opentripplanner.model.StopPattern;
 import org.opentripplanner.routing.algorithm.AStar;
 import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.ServiceDay;
+import org.opentripplanner.routing.core.State;
+import org.opentripplanner.routing.core.TraverseMode;
 import org.opentripplanner.routing.edgetype.factory.GTFSPatternHopFactory;
 import org.opentripplanner.routing.graph.Graph;
+import org.opentripplanner.routing.graph.SimpleConcreteVertex;
 import org.opentripplanner.routing.graph.Vertex;
 import org.opentripplanner.routing.spt.GraphPath;
 import org.opentripplanner.routing.spt.ShortestPathTree;
+import org.opentripplanner.routing.trippattern.Deduplicator;
 import org.opentripplanner.routing.trippattern.TripTimes;
 import org.opentripplanner.routing.vertextype.TransitStopDepart;
 import org.opentripplanner.util.TestUtils;
@@ -59,6 +75,9 @@ public class TimetableTest {
     private static Timetable timetable;
     private static TimeZone timeZone = TimeZone.getTimeZone("America/New_York");
     private static ServiceDate serviceDate = new ServiceDate(2009, 8, 7);
+    /** A request and a service day on which all services run, starting at 0, to search timetables directly. */
+    private static RoutingRequest walkRequest;
+    private static ServiceDay allDay;
     
     @BeforeClass
     public static void setUp() throws Exception {
@@ -85,6 +104,14 @@ public class TimetableTest {
         
         pattern = patternIndex.get(new AgencyAndId("agency", "1.1"));
         timetable = pattern.scheduledTimetable;
+
+        walkRequest = new RoutingRequest(TraverseMode.WALK);
+        Graph emptyGraph = new Graph();
+        Vertex vertex = new SimpleConcreteVertex(emptyGraph, "", 0.0, 0.0);
+        walkRequest.setRoutingContext(emptyGraph, vertex, vertex);
+        allDay = mock(ServiceDay.class);
+        when(allDay.secondsSinceMidnight(anyLong())).thenAnswer(i -> ((Long) i.getArguments()[0]).intValue());
+        when(allDay.serviceRunning(anyInt())).thenReturn(true);
     }
 
     @Test
@@ -315,4 +342,165 @@ public class TimetableTest {
         updatedTripTimes = timetable.createUpdatedTripTimes(tripUpdate, timeZone, serviceDate); 
         assertNull(updatedTripTimes);
     }
+
+    /**
+     * The binary search over the trips sorted at each stop must find the same trips as a linear search, on a pattern
+     * whose trips are listed out of order, overtake one another, depart at the same time or are canceled.
+     */
+    @Test
+    public void testNextTripSorted() {
+        Timetable timetable = overtakingPattern().scheduledTimetable;
+        timetable.finish();
+        List<TripTimes> trips = timetable.tripTimes;
+        TripTimes slow = trips.get(0), early = trips.get(1), express = trips.get(2), tie = trips.get(3);
+
+        assertSame(early, nextTrip(timetable, 0, 0, true));
+        assertSame(slow, nextTrip(timetable, 0, 301, true));
+        // The canceled trip departing at 700 is skipped.
+        assertSame(express, nextTrip(timetable, 0, 601, true));
+        // The express and the tie depart at the same time, the first one in the timetable is chosen.
+        assertSame(express, nextTrip(timetable, 0, 900, true));
+        assertNull(nextTrip(timetable, 0, 901, true));
+        // The express overtakes the slow trip before the second stop.
+        assertSame(express, nextTrip(timetable, 1, 1000, true));
+        assertSame(tie, nextTrip(timetable, 1, 1201, true));
+        assertSame(slow, nextTrip(timetable, 1, 1301, true));
+
+        assertNull(nextTrip(timetable, 2, 1499, false));
+        // The early trip and the express arrive at the same time, the first one in the timetable is chosen.
+        assertSame(early, nextTrip(timetable, 2, 1500, false));
+        assertSame(tie, nextTrip(timetable, 2, 2399, false));
+        assertSame(slow, nextTrip(timetable, 2, 3000, false));
+        assertSame(express, nextTrip(timetable, 1, 1299, false));
+
+        assertSameAsLinearSearch(timetable);
+    }
+
+    /**
+     * Modifying a finished timetable must discard its sorted trips, which no longer match the trip times, until it is
+     * finished again.
+     */
+    @Test
+    public void testNextTripAfterRealtimeUpdates() {
+        TripPattern pattern = overtakingPattern();
+        Timetable timetable = new Timetable(pattern.scheduledTimetable, serviceDate);
+        timetable.finish();
+        List<TripTimes> trips = timetable.tripTimes;
+        TripTimes slow = trips.get(0), express = trips.get(2);
+
+        // The early trip is delayed until after the slow trip and the express.
+        TripTimes delayed = delay(trips.get(1), 1000);
+        timetable.setTripTimes(1, delayed);
+        assertSame(slow, nextTrip(timetable, 0, 0, true));
+        assertSame(express, nextTrip(timetable, 1, 1000, true));
+        assertSame(express, nextTrip(timetable, 2, 1600, false));
+        timetable.finish();
+        assertSame(slow, nextTrip(timetable, 0, 0, true));
+        assertSame(delayed, nextTrip(timetable, 2, 2500, false));
+        assertSameAsLinearSearch(timetable);
+
+        // An added trip departing before all the others.
+        TripTimes added = makeTripTimes(pattern, "added", 100, 200, 300);
+        timetable.addTripTimes(added);
+        assertSame(added, nextTrip(timetable, 0, 0, true));
+        assertSame(added, nextTrip(timetable, 2, 1000, false));
+        timetable.finish();
+        assertSame(added, nextTrip(timetable, 0, 0, true));
+        assertSame(added, nextTrip(timetable, 2, 1000, false));
+        assertSameAsLinearSearch(timetable);
+    }
+
+    /** A TimetableSnapshot must finish the timetables it has updated when it is committed. */
+    @Test
+    public void testNextTripAfterSnapshotCommit() {
+        TripPattern pattern = overtakingPattern();
+        pattern.scheduledTimetable.finish();
+        TripTimes early = pattern.scheduledTimetable.tripTimes.get(1);
+        TripTimes slow = pattern.scheduledTimetable.tripTimes.get(0);
+
+        TimetableSnapshot snapshot = new TimetableSnapshot();
+        TripTimes delayed = delay(early, 1000);
+        snapshot.update("agency", pattern, delayed, serviceDate);
+        Timetable updated = snapshot.resolve(pattern, serviceDate);
+        assertSame(slow, nextTrip(updated, 0, 0, true));
+        TimetableSnapshot committed = snapshot.commit();
+        assertSame(updated, committed.resolve(pattern, serviceDate));
+        assertSame(slow, nextTrip(updated, 0, 0, true));
+        assertSame(delayed, nextTrip(updated, 2, 2500, false));
+        assertSameAsLinearSearch(updated);
+        // The scheduled timetable is not affected by the update.
+        assertSame(early, nextTrip(pattern.scheduledTimetable, 0, 0, true));
+    }
+
+    /**
+     * @return a pattern on three stops with trips listed out of order. The express overtakes the slow trip before the
+     * second stop, the express and the tie depart the first stop at the same time, and one trip is canceled.
+     */
+    private static TripPattern overtakingPattern() {
+        Route route = new Route();
+        route.setId(new AgencyAndId("agency", "route"));
+        route.setType(3);
+        List<StopTime> stopTimes = new ArrayList<StopTime>();
+        for (int s = 0; s < 3; s++) {
+            Stop stop = new Stop();
+            stop.setId(new AgencyAndId("agency", "stop" + s));
+            StopTime stopTime = new StopTime();
+            stopTime.setStop(stop);
+            stopTimes.add(stopTime);
+        }
+        TripPattern pattern = new TripPattern(route, new StopPattern(stopTimes));
+        pattern.add(makeTripTimes(pattern, "slow", 600, 1500, 2400));
+        pattern.add(makeTripTimes(pattern, "early", 300, 900, 1500));
+        pattern.add(makeTripTimes(pattern, "express", 900, 1200, 1500));
+        pattern.add(makeTripTimes(pattern, "tie", 900, 1300, 2000));
+        TripTimes canceled = makeTripTimes(pattern, "canceled", 700, 1000, 1400);
+        canceled.cancel();
+        pattern.add(canceled);
+        return pattern;
+    }
+
+    /** @return the times of a trip on the given pattern, arriving and departing each stop at the given times. */
+    private static TripTimes makeTripTimes(TripPattern pattern, String tripId, int... times) {
+        Trip trip = new Trip();
+        trip.setId(new AgencyAndId("agency", tripId));
+        trip.setRoute(pattern.route);
+        List<StopTime> stopTimes = new ArrayList<StopTime>();
+        for (int s = 0; s < times.length; s++) {
+            StopTime stopTime = new StopTime();
+            stopTime.setStop(pattern.getStop(s));
+            stopTime.setStopSequence(s);
+            stopTime.setArrivalTime(times[s]);
+            stopTime.setDepartureTime(times[s]);
+            stopTimes.add(stopTime);
+        }
+        return new TripTimes(trip, stopTimes, new Deduplicator());
+    }
+
+    /** @return a copy of the given trip times delayed by the given number of seconds at every stop. */
+    private static TripTimes delay(TripTimes tripTimes, int delay) {
+        TripTimes delayed = new TripTimes(tripTimes);
+        for (int s = 0; s < delayed.getNumStops(); s++) {
+            delayed.updateArrivalDelay(s, delay);
+            delayed.updateDepartureDelay(s, delay);
+        }
+        return delayed;
+    }
+
+    /** Check that the sorted trips of the given timetable give the same results as a linear search at every stop. */
+    private static void assertSameAsLinearSearch(Timetable timetable) {
+        // The copy is not finished, so it has no sorted trips and always uses a linear search.
+        Timetable unsorted = new Timetable(timetable, serviceDate);
+        for (int s = 0; s < timetable.pattern.getStops().size(); s++) {
+            for (int time = 0; time <= 3600; time += 50) {
+                assertSame(nextTrip(unsorted, s, time, true), nextTrip(timetable, s, time, true));
+                assertSame(nextTrip(unsorted, s, time, false), nextTrip(timetable, s, time, false));
+            }
+        }
+    }
+
+    /** @return the trip that getNextTrip finds in the given timetable at the given stop and time. */
+    private static TripTimes nextTrip(Timetable timetable, int stopIndex, int time, boolean boarding) {
+        walkRequest.dateTime = time;
+        return timetable.getNextTrip(new State(walkRequest), allDay, stopIndex, boarding);
+    }
 }
@@ -13,13 +13,25 @@
 
 package org.opentripplanner.routing.graph;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.opentripplanner.util.ArrayUtils.contains;
 
+import java.io.File;
+
+import com.vividsolutions.jts.geom.LineString;
 import org.junit.Test;
+import org.opentripplanner.common.geometry.GeometryUtils;
 import org.opentripplanner.routing.alertpatch.AlertPatch;
+import org.opentripplanner.routing.edgetype.StreetEdge;
+import org.opentripplanner.routing.edgetype.StreetTraversalPermission;
+import org.opentripplanner.routing.impl.DefaultStreetVertexIndexFactory;
+import org.opentripplanner.routing.vertextype.IntersectionVertex;
+import org.opentripplanner.routing.vertextype.OsmVertex;
 
 public class GraphTest {
     @Test
@@ -124,4 +136,114 @@ public class GraphTest {
         assertFalse(contains (alertPatches[9], alertPatch2));
         assertFalse(contains (alertPatches[9], alertPatch3));
     }
+
+    @Test
+    public final void testCompactFormatRoundTrip() throws Exception {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -74.01, 40.01, "Main & 1st");
+        a.trafficLight = true;
+        OsmVertex b = new OsmVertex(graph, "b", -74.02, 40.02, 12345L);
+        Vertex c = new SimpleConcreteVertex(graph, "c", 40.03, -74.03);
+        LineString geometry = GeometryUtils.makeLineString(-74.01, 40.01, -74.015, 40.018, -74.02, 40.02);
+        StreetEdge ab = new StreetEdge(a, b, geometry, "Main Street", 1234.5,
+                StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE, false);
+        ab.wayId = 42;
+        ab.setCarSpeed(13.4f);
+        new StreetEdge(b, a, (LineString) geometry.reverse(), "Main Street", 1234.5,
+                StreetTraversalPermission.ALL, true);
+        // Falls back on Java serialization, and refers to a vertex written as a binary record.
+        new SimpleConcreteEdge(b, c);
+
+        File file = File.createTempFile("graph", ".obj");
+        try {
+            graph.save(file, GraphFormat.COMPACT);
+            Graph loaded = Graph.load(file, Graph.LoadLevel.FULL);
+            assertNotSame(graph, loaded);
+            assertEquals(3, loaded.countVertices());
+            assertEquals(3, loaded.countEdges());
+
+            IntersectionVertex a2 = (IntersectionVertex) loaded.getVertex("a");
+            OsmVertex b2 = (OsmVertex) loaded.getVertex("b");
+            assertTrue(a2.trafficLight);
+            assertEquals("Main & 1st", a2.getName());
+            assertEquals(12345L, b2.nodeId);
+            assertEquals(-74.02, b2.getX(), 0);
+
+            StreetEdge ab2 = (StreetEdge) a2.getOutgoing().iterator().next();
+            assertTrue(ab2.getToVertex() == b2);
+            assertEquals(ab.getId(), ab2.getId());
+            assertEquals("Main Street", ab2.getName());
+            assertEquals(1234.5, ab2.getDistance(), 0.001);
+            assertEquals(StreetTraversalPermission.PEDESTRIAN_AND_BICYCLE, ab2.getPermission());
+            assertEquals(42, ab2.wayId);
+            assertEquals(13.4f, ab2.getCarSpeed(), 0);
+            assertArrayEquals(ab.getGeometry().getCoordinates(), ab2.getGeometry().getCoordinates());
+            assertEquals(ab.getInAngle(), ab2.getInAngle());
+
+            // Equal names are written once, so the two street edges share one name after loading.
+            StreetEdge ba2 = null;
+            for (Edge e : b2.getOutgoing()) {
+                if (e instanceof StreetEdge) ba2 = (StreetEdge) e;
+            }
+            assertSame(ab2.getRawName(), ba2.getRawName());
+
+            Edge bc2 = null;
+            for (Edge e : b2.getOutgoing()) {
+                if (e instanceof SimpleConcreteEdge) bc2 = e;
+            }
+            assertTrue(bc2.getFromVertex() == b2);
+            assertEquals("c", bc2.getToVertex().getLabel());
+
+            // Compact files can also be loaded with an alternate class loader.
+            Graph loadedWithClassLoader = Graph.load(getClass().getClassLoader(), file, Graph.LoadLevel.FULL);
+            assertEquals(3, loadedWithClassLoader.countVertices());
+            assertEquals(3, loadedWithClassLoader.countEdges());
+        } finally {
+            file.delete();
+        }
+    }
+
+    @Test
+    public final void testMappedStreetData() throws Exception {
+        Graph graph = new Graph();
+        IntersectionVertex a = new IntersectionVertex(graph, "a", -74.01, 40.01);
+        IntersectionVertex b = new IntersectionVertex(graph, "b", -74.02, 40.02);
+        LineString geometry = GeometryUtils.makeLineString(-74.01, 40.01, -74.015, 40.018, -74.02, 40.02);
+        StreetEdge ab = new StreetEdge(a, b, geometry, "Main Street", 1234.5, StreetTraversalPermission.ALL, false);
+        StreetEdge ba = new StreetEdge(b, a, GeometryUtils.makeLineString(-74.02, 40.02, -74.01, 40.01),
+                "Main Street", 1234.5, StreetTraversalPermission.ALL, true);
+
+        File file = File.createTempFile("graph", ".obj");
+        try {
+            graph.save(file, GraphFormat.COMPACT);
+            Graph loaded = Graph.loadMapped(file, Graph.LoadLevel.FULL, new DefaultStreetVertexIndexFactory());
+            StreetEdge ab2 = (StreetEdge) loaded.getVertex("a").getOutgoing().iterator().next();
+            StreetEdge ba2 = (StreetEdge) loaded.getVertex("b").getOutgoing().iterator().next();
+
+            // Saving over the mapped file replaces it rather than truncating it, so the mapping stays readable.
+            new Graph().save(file, GraphFormat.COMPACT);
+            assertArrayEquals(ab.getGeometry().getCoordinates(), ab2.getGeometry().getCoordinates());
+            assertArrayEquals(ba.getGeometry().getCoordinates(), ba2.getGeometry().getCoordinates());
+
+            // An edge on the heap sharing geometry with a mapped edge must still be able to decode it.
+            StreetEdge shared = new StreetEdge((IntersectionVertex) loaded.getVertex("a"),
+                    (IntersectionVertex) loaded.getVertex("b"), geometry, "Main Street", 1234.5,
+                    StreetTraversalPermission.ALL, false);
+            shared.shareData(ab2);
+            assertArrayEquals(ab.getGeometry().getCoordinates(), shared.getGeometry().getCoordinates());
+
+            // Saving a graph whose street data is mapped must bring that data back onto the heap.
+            File copy = File.createTempFile("graph", ".obj");
+            try {
+                loaded.save(copy);
+                Graph reloaded = Graph.load(copy, Graph.LoadLevel.FULL);
+                StreetEdge ab3 = (StreetEdge) reloaded.getVertex("a").getOutgoing().iterator().next();
+                assertArrayEquals(ab.getGeometry().getCoordinates(), ab3.getGeometry().getCoordinates());
+            } finally {
+                copy.delete();
+            }
+        } finally {
+            file.delete();
+        }
+    }
 }
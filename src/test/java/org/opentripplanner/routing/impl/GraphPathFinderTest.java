@@ -0,0 +1,134 @@
+/* This program is free software: you can redistribute it and/or
+ modify it under the terms of the GNU Lesser General Public License
+ as published by the Free Software Foundation, either version 3 of
+ the License, or (at your option) any later version.
+
+ This program is distributed in the hope that it will be useful,
+ but WITHOUT ANY WARRANTY; without even the implied warranty of
+ MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ GNU General Public License for more details.
+
+ You should have received a copy of the GNU General Public License
+ along with this program.  If not, see <http://www.gnu.org/licenses/>. */
+
+package org.opentripplanner.routing.impl;
+
+import org.opentripplanner.GtfsTest;
+import org.opentripplanner.common.model.GenericLocation;
+import org.opentripplanner.routing.core.RoutingRequest;
+import org.opentripplanner.routing.core.TraverseMode;
+import org.opentripplanner.routing.core.TraverseModeSet;
+import org.opentripplanner.routing.spt.GraphPath;
+
+import java.util.Calendar;
+import java.util.GregorianCalendar;
+import java.util.List;
+import java.util.TimeZone;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RunnableFuture;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/** Test searching for several itineraries concurrently on the router's itinerary search executor. */
+public class GraphPathFinderTest extends GtfsTest {
+
+    @Override
+    public String getFeedName() {
+        return "gtfs/interlining";
+    }
+
+    /** The best itinerary found by concurrent searches should be the one the serial searches find first. */
+    public void testConcurrentSameAsSequential() {
+        List<GraphPath> sequential = new GraphPathFinder(router).getPaths(request());
+        assertFalse(sequential.isEmpty());
+
+        router.itinerarySearchExecutor = Executors.newFixedThreadPool(2);
+        try {
+            List<GraphPath> concurrent = new GraphPathFinder(router).getPaths(request());
+            assertFalse(concurrent.isEmpty());
+            assertTrue(concurrent.size() <= 3);
+            assertEquals(sequential.get(0).getTrips(), concurrent.get(0).getTrips());
+            assertEquals(sequential.get(0).getStartTime(), concurrent.get(0).getStartTime());
+            assertEquals(sequential.get(0).getEndTime(), concurrent.get(0).getEndTime());
+        } finally {
+            router.itinerarySearchExecutor.shutdown();
+        }
+    }
+
+    /** An exception thrown by a search on the executor should reach the caller rather than being dropped. */
+    public void testConcurrentSearchExceptionPropagates() {
+        router.itinerarySearchExecutor = new ThreadPoolExecutor(1, 1, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>()) {
+            @Override
+            protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+                return new FutureTask<>(() -> {
+                    throw new IllegalStateException("Search failed");
+                });
+            }
+        };
+        try {
+            new GraphPathFinder(router).getPaths(request());
+            fail("The exception from the concurrent search was not rethrown.");
+        } catch (IllegalStateException e) {
+            assertEquals("Search failed", e.getMessage());
+        } finally {
+            router.itinerarySearchExecutor.shutdown();
+        }
+    }
+
+    /**
+     * When a search fails, the caller destroys the temporary vertices of the request as soon as the exception reaches
+     * it, so the other searches must have stopped by then.
+     */
+    public void testConcurrentSearchesStoppedAfterFailure() {
+        AtomicInteger nSubmitted = new AtomicInteger();
+        AtomicBoolean running = new AtomicBoolean();
+        router.itinerarySearchExecutor = new ThreadPoolExecutor(2, 2, 0, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>()) {
+            @Override
+            protected <T> RunnableFuture<T> newTaskFor(Callable<T> callable) {
+                if (nSubmitted.incrementAndGet() == 1) {
+                    return new FutureTask<>(() -> {
+                        throw new IllegalStateException("Search failed");
+                    });
+                }
+                return new FutureTask<>(() -> {
+                    running.set(true);
+                    try {
+                        Thread.sleep(200);
+                        return callable.call();
+                    } finally {
+                        running.set(false);
+                    }
+                });
+            }
+        };
+        try {
+            new GraphPathFinder(router).getPaths(request());
+            fail("The exception from the concurrent search was not rethrown.");
+        } catch (IllegalStateException e) {
+            assertEquals("Search failed", e.getMessage());
+            assertFalse(running.get());
+        } finally {
+            router.itinerarySearchExecutor.shutdown();
+        }
+    }
+
+    private RoutingRequest request() {
+        Calendar calendar = new GregorianCalendar(2014, Calendar.JANUARY, 01, 00, 05, 00);
+        calendar.setTimeZone(TimeZone.getTimeZone("America/New_York"));
+        RoutingRequest request = new RoutingRequest();
+        request.dateTime = calendar.getTime().getTime() / 1000;
+        request.from = new GenericLocation(null, "FEED:stop0");
+        request.to = new GenericLocation(null, "FEED:stop3");
+        request.setModes(new TraverseModeSet(TraverseMode.WALK, TraverseMode.TRANSIT));
+        request.setNumItineraries(3);
+        request.setRoutingContext(graph);
+        return request;
+    }
+}